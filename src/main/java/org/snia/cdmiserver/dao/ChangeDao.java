@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *  
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer.
+ *  
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ *  
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor 
+ * the names of its contributors may be used to endorse or promote products 
+ * derived from this software without specific prior written permission.
+ *  
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE 
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF 
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao;
+
+import java.util.List;
+
+import org.snia.cdmiserver.model.Change;
+
+/**
+ * <p>
+ * DAO for following the changes made to CDMI <em>Container</em> and <em>DataObject</em>
+ * instances, in the order they were made.
+ * </p>
+ */
+public interface ChangeDao {
+
+    /**
+     * <p>
+     * Return an identifier of this feed that changes whenever its sequence numbers start over,
+     * e.g. after a restart, so that clients know to rescan instead of asking for later changes.
+     * </p>
+     */
+    public String getFeedID();
+
+    /**
+     * <p>
+     * Return the sequence number the next change will be given.
+     * </p>
+     */
+    public long getSequence();
+
+    /**
+     * <p>
+     * Add the changes from sequence number <code>since</code> on to <code>changes</code>, at
+     * most <code>limit</code> of them, waiting up to <code>timeout</code> milliseconds for the
+     * first one if there is none yet. Changes that are no longer kept are skipped, so the first
+     * change added may be later than <code>since</code>.
+     * </p>
+     *
+     * @param since
+     *            Sequence number of the first change wanted
+     * @param limit
+     *            Maximum number of changes to add
+     * @param timeout
+     *            Milliseconds to wait for a change
+     * @param changes
+     *            List receiving the changes
+     *
+     * @return the sequence number to ask for next
+     */
+    public long findChanges(long since, int limit, long timeout, List<Change> changes);
+}
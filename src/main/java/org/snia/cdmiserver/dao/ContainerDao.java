@@ -61,15 +61,25 @@ public interface ContainerDao {
      * Delete the container at the specified path.
      * </p>
      * 
+     * <p>
+     * Large containers may be deleted in the background, in which case {@link #findByPath(String)}
+     * reports the progress of the deletion until it completes.
+     * </p>
+     * 
      * @param path
      *            Path to the requested {@link Container}
      * 
+     * @return <code>true</code> if the container has been deleted, or <code>false</code> if it is
+     *         being deleted in the background
+     * 
      * @exception NotFoundException
      *                if the specified path does not identify a valid resource
      * @exception IllegalArgumentException
      *                if the specified path identifies a data object instead of a container
+     * @exception ConflictException
+     *                if the container is already being deleted
      */
-    public void deleteByPath(String path);
+    public boolean deleteByPath(String path);
 
     /**
      * <p>
@@ -82,6 +92,17 @@ public interface ContainerDao {
      */
     public Container findByObjectId(String objectId);
 
+    /**
+     * <p>
+     * Find and return the path of the container or data object with the specified object id, if
+     * any; otherwise, return <code>null</code>.
+     * </p>
+     * 
+     * @param objectId
+     *            Object ID of the requested container or data object
+     */
+    public String findPathByObjectId(String objectId);
+
     /**
      * <p>
      * Find and return a {@link Container} by path, if any; otherwise, return <code>null</code>.
@@ -97,6 +118,26 @@ public interface ContainerDao {
      */
     public Container findByPath(String path);
 
+    /**
+     * <p>
+     * Find and return a {@link Container} by path, listing only the children from position
+     * <code>firstChild</code> to position <code>lastChild</code> (inclusive).
+     * </p>
+     * 
+     * @param path
+     *            Path to the requested {@link Container}
+     * @param firstChild
+     *            Position of the first child to list
+     * @param lastChild
+     *            Position of the last child to list; may be past the last child
+     * 
+     * @exception NotFoundException
+     *                if the specified path does not identify a valid resource
+     * @exception IllegalArgumentException
+     *                if the specified path identifies a data object instead of a container
+     */
+    public Container findByPath(String path, long firstChild, long lastChild);
+
     //
     public boolean isContainer(String path);
     //
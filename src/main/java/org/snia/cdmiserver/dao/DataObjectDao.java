@@ -30,6 +30,10 @@
  */
 package org.snia.cdmiserver.dao;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.SeekableByteChannel;
+
 import org.snia.cdmiserver.model.DataObject;
 
 /**
@@ -54,10 +58,90 @@ public interface DataObjectDao {
      */
     public DataObject createByPath(String path, DataObject dObj) throws Exception;
 
-    public DataObject createNonCDMIByPath(String path, String contentType, DataObject dObj) throws Exception;
+    /**
+     * <p>
+     * Create a data object at the specified path from a non-CDMI request body. The value is
+     * streamed from <code>value</code> rather than taken from <code>dObj</code>, so that it never
+     * needs to be held in memory.
+     * </p>
+     * 
+     * @param path
+     *            Path to the new {@link DataObject}
+     * @param contentType
+     *            Declared media type of the value
+     * @param dObj
+     *            Fields of the new {@link DataObject}
+     * @param value
+     *            Stream supplying the value
+     * 
+     * @exception ConflictException
+     *                if a container or data object at the specified path already exists
+     */
+    public DataObject createNonCDMIByPath(String path, String contentType, DataObject dObj,
+            InputStream value) throws Exception;
 
     public DataObject createById(String objectId, DataObject dObj);
 
+    /**
+     * <p>
+     * Update the data object at the specified path from a CDMI request. A value in
+     * <code>dObj</code> replaces the whole value, a mimetype replaces the mimetype and any user
+     * metadata replaces the existing user metadata.
+     * </p>
+     * 
+     * @param path
+     *            Path to the existing {@link DataObject}
+     * @param dObj
+     *            Fields to update
+     * 
+     * @exception NotFoundException
+     *                if the specified path does not identify an existing data object
+     */
+    public DataObject updateByPath(String path, DataObject dObj) throws Exception;
+
+    /**
+     * <p>
+     * Replace the value of the data object at the specified path from a non-CDMI request body,
+     * streaming it from <code>value</code>.
+     * </p>
+     * 
+     * @param path
+     *            Path to the existing {@link DataObject}
+     * @param contentType
+     *            Declared media type of the value, or <code>null</code> to keep the current one
+     * @param value
+     *            Stream supplying the new value
+     * 
+     * @exception NotFoundException
+     *                if the specified path does not identify an existing data object
+     */
+    public DataObject updateNonCDMIByPath(String path, String contentType, InputStream value)
+            throws Exception;
+
+    /**
+     * <p>
+     * Overwrite <code>length</code> bytes of the value of the data object at the specified path,
+     * starting at <code>offset</code>, leaving the rest of the value untouched. The value is
+     * extended if the range ends beyond its current size.
+     * </p>
+     * 
+     * @param path
+     *            Path to the existing {@link DataObject}
+     * @param offset
+     *            Offset of the first byte to write
+     * @param length
+     *            Number of bytes to write
+     * @param value
+     *            Stream supplying the new bytes
+     * 
+     * @exception NotFoundException
+     *                if the specified path does not identify an existing data object
+     * @exception BadRequestException
+     *                if <code>value</code> supplies fewer than <code>length</code> bytes
+     */
+    public DataObject updateValueRangeByPath(String path, long offset, long length,
+            InputStream value) throws Exception;
+
     /**
      * <p>
      * Delete the data object at the specified path.
@@ -94,4 +178,41 @@ public interface DataObjectDao {
      */
     public DataObject findByPath(String path);
 
+    /**
+     * <p>
+     * Find and return a {@link DataObject} by path, if any; otherwise, return <code>null</code>.
+     * Only the persisted fields and metadata are loaded; the value is left unset so that it can
+     * be read separately with {@link #openValueByPath(String)}.
+     * </p>
+     * 
+     * @param path
+     *            Path to the requested {@link DataObject}
+     */
+    public DataObject findMetadataByPath(String path);
+
+    /**
+     * <p>
+     * Return <code>true</code> if there is a data object at <code>path</code>. Unlike the find
+     * methods, this is not recorded as an access to the data object.
+     * </p>
+     * 
+     * @param path
+     *            Path to a container or data object
+     */
+    public boolean isDataObject(String path);
+
+    /**
+     * <p>
+     * Open the value of the data object at the specified path for reading, without loading it
+     * into memory. The caller is responsible for closing the returned channel.
+     * </p>
+     * 
+     * @param path
+     *            Path to the requested {@link DataObject}
+     * 
+     * @exception ConflictException
+     *                if the value of the data object does not exist
+     */
+    public SeekableByteChannel openValueByPath(String path) throws IOException;
+
 }
@@ -30,15 +30,86 @@
  */
 package org.snia.cdmiserver.dao;
 
+import org.snia.cdmiserver.exception.ConflictException;
+import org.snia.cdmiserver.exception.NotFoundException;
 import org.snia.cdmiserver.model.Queue;
 
 /**
  * <p>
- * DAO for manipulating CDMI <em>Container</em> instances.
+ * DAO for manipulating CDMI <em>Queue</em> instances.
  * </p>
  */
 public interface QueueDao {
 
+    /**
+     * <p>
+     * Return <code>true</code> if there is a queue at <code>path</code>.
+     * </p>
+     *
+     * @param path
+     *            Path to a container, data object or queue
+     */
+    public boolean isQueue(String path);
+
+    /**
+     * <p>
+     * Create a queue at <code>path</code> with the metadata of <code>queue</code>, then enqueue
+     * its values, if any.
+     * </p>
+     *
+     * @param path
+     *            Path to the new queue
+     * @param queue
+     *            Fields of the new queue
+     * @exception ConflictException
+     *                if something already exists at <code>path</code>
+     */
+    public Queue createByPath(String path, Queue queue);
+
+    /**
+     * <p>
+     * Merge the metadata of <code>queue</code> into the queue at <code>path</code> and enqueue
+     * its values, if any.
+     * </p>
+     *
+     * @param path
+     *            Path to the existing queue
+     * @param queue
+     *            Metadata and values to add
+     * @exception NotFoundException
+     *                if there is no queue at <code>path</code>
+     */
+    public Queue updateByPath(String path, Queue queue);
+
+    /**
+     * <p>
+     * Find and return the queue at <code>path</code> with up to <code>count</code> of its oldest
+     * values, if any; otherwise, return <code>null</code>.
+     * </p>
+     *
+     * @param path
+     *            Path to the requested queue
+     * @param count
+     *            Number of values to return
+     */
+    public Queue findByPath(String path, int count);
+
+    /**
+     * <p>
+     * Find and return the queue at <code>path</code> with those of its values whose sequence
+     * numbers are from <code>first</code> to <code>last</code>, if any; otherwise, return
+     * <code>null</code>.
+     * </p>
+     *
+     * @param path
+     *            Path to the requested queue
+     * @param first
+     *            Sequence number of the first value to return
+     * @param last
+     *            Sequence number of the last value to return
+     */
+    public Queue findByPath(String path, long first, long last);
+
     /**
      * <p>
      * Find and return a {@link Queue} by object id, if any; otherwise, return <code>null</code>.
@@ -46,4 +117,31 @@ public interface QueueDao {
      */
     public Queue findByObjectId(String objectId);
 
+    /**
+     * <p>
+     * Acknowledge up to <code>count</code> of the oldest values of the queue at
+     * <code>path</code>, removing them, and return how many were removed.
+     * </p>
+     *
+     * @param path
+     *            Path to the existing queue
+     * @param count
+     *            Number of values to remove
+     * @exception NotFoundException
+     *                if there is no queue at <code>path</code>
+     */
+    public long deleteValuesByPath(String path, long count);
+
+    /**
+     * <p>
+     * Delete the queue at <code>path</code> with all of its values.
+     * </p>
+     *
+     * @param path
+     *            Path to the existing queue
+     * @exception NotFoundException
+     *                if there is no queue at <code>path</code>
+     */
+    public void deleteByPath(String path);
+
 }
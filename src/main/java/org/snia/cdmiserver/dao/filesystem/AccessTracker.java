@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Accumulates the accesses to data objects in memory and hands them to a writer in batches, so
+ * that reading a data object never waits for its <code>cdmi_atime</code> and
+ * <code>cdmi_acount</code> to be written. The accesses to one data object between two batches
+ * are coalesced into its last access time and their number.
+ * </p>
+ *
+ * <p>
+ * Batches are written in the background every {@link #setFlushInterval(long)} milliseconds, or
+ * sooner once {@link #setMaxPending(int)} data objects have pending accesses. The pending
+ * accesses are written when the tracker is closed, so that they survive a clean shutdown.
+ * </p>
+ *
+ * <p>
+ * The writer writes the accesses to a data object under {@link #lockFor(String)}. Whoever deletes
+ * a data object does so under the same lock, after {@link #forget(String)}, so that a batch
+ * written concurrently cannot recreate its metadata. The accesses below a container are dropped
+ * or moved with it once the batch being written is complete.
+ * </p>
+ */
+public class AccessTracker implements AccessTrackerMBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AccessTracker.class);
+
+    private final Map<String, Access> pending = new ConcurrentHashMap<String, Access>();
+
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+
+    private final Object startLock = new Object();
+    private final Object[] locks = new Object[64];
+    private volatile ScheduledExecutorService flusher = null;
+    private volatile boolean closed = false;
+
+    {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    // -------------------------------------------------------------- Properties
+    private long flushInterval = 5000;
+
+    /**
+     * <p>
+     * Set the number of milliseconds between two batches. Default value is 5000.
+     * </p>
+     *
+     * @param flushInterval
+     *            The new flush interval
+     */
+    public void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    private int maxPending = 100000;
+
+    /**
+     * <p>
+     * Set the number of data objects with pending accesses from which a batch is written without
+     * waiting for the flush interval. Default value is 100000.
+     * </p>
+     *
+     * @param maxPending
+     *            The new number of data objects
+     */
+    public void setMaxPending(int maxPending) {
+        this.maxPending = maxPending;
+    }
+
+    private Consumer<Map<String, Access>> writer = null;
+
+    /**
+     * <p>
+     * Set the writer of batches, which receives the coalesced accesses keyed by the path of the
+     * data objects.
+     * </p>
+     *
+     * @param writer
+     *            The new writer
+     */
+    public void setWriter(Consumer<Map<String, Access>> writer) {
+        this.writer = writer;
+    }
+
+    // ---------------------------------------------------------- Public Methods
+
+    /**
+     * <p>
+     * Record an access to the data object at <code>path</code>.
+     * </p>
+     *
+     * @param path
+     *            Path of the data object
+     */
+    public void accessed(String path) {
+        pending.merge(path, new Access(System.currentTimeMillis(), 1), Access::plus);
+        recorded.increment();
+        ScheduledExecutorService executor = flusher != null ? flusher : start();
+        if (executor != null && pending.size() >= maxPending
+            && flushRequested.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::flush);
+            } catch (RejectedExecutionException ex) {
+                // closing, which writes the pending accesses
+                flushRequested.set(false);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Return the lock under which the accesses to the data object at <code>path</code> are
+     * written, and under which the data object is deleted.
+     * </p>
+     *
+     * @param path
+     *            Path of the data object
+     */
+    public Object lockFor(String path) {
+        return locks[(path.hashCode() & 0x7fffffff) % locks.length];
+    }
+
+    /**
+     * <p>
+     * Drop the pending accesses to the data object at <code>path</code>, which is being deleted.
+     * </p>
+     *
+     * @param path
+     *            Path of the data object
+     */
+    public void forget(String path) {
+        pending.remove(path);
+    }
+
+    /**
+     * <p>
+     * Drop the pending accesses to the data objects below the container at <code>path</code>,
+     * which is being deleted, once the batch being written, if any, is complete.
+     * </p>
+     *
+     * @param path
+     *            Path of the container
+     */
+    public synchronized void forgetTree(String path) {
+        pending.keySet().removeIf(key -> key.startsWith(prefix(path)));
+    }
+
+    /**
+     * <p>
+     * Move the pending accesses to the data objects below the container at <code>source</code>
+     * to the same paths below <code>target</code>, where the container has been moved, once the
+     * batch being written, if any, is complete.
+     * </p>
+     *
+     * @param source
+     *            Former path of the container
+     * @param target
+     *            New path of the container
+     */
+    public synchronized void moveTree(String source, String target) {
+        String prefix = prefix(source);
+        for (String path : pending.keySet()) {
+            if (path.startsWith(prefix)) {
+                Access access = pending.remove(path);
+                if (access != null) {
+                    pending.merge(prefix(target) + path.substring(prefix.length()), access,
+                            Access::plus);
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Return the number of accesses to the data object at <code>path</code> that have not been
+     * written yet.
+     * </p>
+     */
+    public long getPendingCount(String path) {
+        Access access = pending.get(path);
+        return access == null ? 0 : access.getCount();
+    }
+
+    /**
+     * <p>
+     * Hand every pending access to the writer.
+     * </p>
+     */
+    @Override
+    public synchronized void flush() {
+        flushRequested.set(false);
+        if (pending.isEmpty() || writer == null) {
+            return;
+        }
+        Map<String, Access> batch = new HashMap<String, Access>();
+        for (String path : pending.keySet()) {
+            Access access = pending.remove(path);
+            if (access != null) {
+                batch.put(path, access);
+            }
+        }
+        try {
+            writer.accept(batch);
+        } catch (RuntimeException ex) {
+            LOG.warn("Cannot write accesses: {}", ex.toString());
+        }
+        written.add(batch.size());
+        batches.increment();
+        LOG.debug("Wrote accesses to {} data objects", batch.size());
+    }
+
+    /**
+     * <p>
+     * Stop writing batches in the background and write the pending accesses.
+     * </p>
+     */
+    public void close() {
+        ScheduledExecutorService executor;
+        synchronized (startLock) {
+            closed = true;
+            executor = flusher;
+            flusher = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    @Override
+    public long getRecordedAccesses() {
+        return recorded.sum();
+    }
+
+    @Override
+    public long getWrittenObjects() {
+        return written.sum();
+    }
+
+    @Override
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    @Override
+    public int getPending() {
+        return pending.size();
+    }
+
+    // --------------------------------------------------------- Private Methods
+
+    private static String prefix(String containerPath) {
+        return containerPath.endsWith("/") ? containerPath : containerPath + "/";
+    }
+
+    /**
+     * <p>
+     * Start writing batches in the background, returning <code>null</code> once closed.
+     * </p>
+     */
+    private ScheduledExecutorService start() {
+        synchronized (startLock) {
+            if (flusher == null && !closed) {
+                ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+                        runnable -> {
+                            Thread thread = new Thread(runnable, "access-tracker-flusher");
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+                executor.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval,
+                        TimeUnit.MILLISECONDS);
+                flusher = executor;
+            }
+            return flusher;
+        }
+    }
+
+    /**
+     * <p>
+     * The coalesced accesses to one data object: the time of the last one and their number.
+     * </p>
+     */
+    public static final class Access {
+        private final long time;
+        private final long count;
+
+        Access(long time, long count) {
+            this.time = time;
+            this.count = count;
+        }
+
+        /**
+         * <p>
+         * Return the time of the last access, in milliseconds since the epoch.
+         * </p>
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * <p>
+         * Return the number of accesses.
+         * </p>
+         */
+        public long getCount() {
+            return count;
+        }
+
+        private static Access plus(Access a, Access b) {
+            return new Access(Math.max(a.time, b.time), a.count + b.count);
+        }
+    }
+}
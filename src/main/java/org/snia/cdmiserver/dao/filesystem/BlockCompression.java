@@ -0,0 +1,408 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <p>
+ * Format of values compressed in independent blocks, so that any byte range can be read by
+ * decompressing only the blocks covering it. A compressed value file is laid out as:
+ * </p>
+ *
+ * <pre>
+ * int magic, int block size
+ * block*                  each block deflated, or stored as is if it does not shrink
+ * long offset*            start of each block, with the top bit set for stored blocks
+ * long size, long index offset, int block count, int magic
+ * </pre>
+ *
+ * <p>
+ * Values are compressed while they are received, with a buffer of one block. If the first
+ * blocks of a value do not shrink, the rest of the value is stored without trying.
+ * </p>
+ */
+public final class BlockCompression {
+
+    /**
+     * Name of the compression, kept as the <code>cdmi_compression</code> metadata item of the
+     * data objects whose values are compressed.
+     */
+    public static final String DEFLATE = "deflate";
+
+    private static final int MAGIC = 0x43445a31; // "CDZ1"
+    private static final int HEADER_SIZE = 8;
+    private static final int FOOTER_SIZE = 24;
+    private static final long STORED = 1L << 63;
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final int PROBE_BLOCKS = 4;
+
+    private static final Set<String> COMPRESSED_TYPES = new HashSet<String>(Arrays.asList(
+            "application/zip", "application/gzip", "application/x-gzip", "application/x-bzip2",
+            "application/x-xz", "application/x-7z-compressed", "application/x-rar-compressed",
+            "application/vnd.rar", "application/zstd", "application/x-compress",
+            "application/java-archive", "application/epub+zip", "application/pdf",
+            "application/vnd.openxmlformats-officedocument.wordprocessingml.document",
+            "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet",
+            "application/vnd.openxmlformats-officedocument.presentationml.presentation",
+            "font/woff", "font/woff2"));
+
+    private BlockCompression() {
+    }
+
+    /**
+     * <p>
+     * Return <code>true</code> if values of the MIME type <code>mimeType</code> are already
+     * compressed, so that compressing them again would only cost time.
+     * </p>
+     */
+    public static boolean isCompressedType(String mimeType) {
+        if (mimeType == null) {
+            return false;
+        }
+        int parameters = mimeType.indexOf(';');
+        String type = (parameters < 0 ? mimeType : mimeType.substring(0, parameters))
+                .trim().toLowerCase(Locale.ROOT);
+        if (type.startsWith("image/")) {
+            return !type.equals("image/svg+xml") && !type.equals("image/bmp")
+                   && !type.equals("image/tiff");
+        }
+        if (type.startsWith("video/")) {
+            return true;
+        }
+        if (type.startsWith("audio/")) {
+            return !type.equals("audio/wav") && !type.equals("audio/x-wav");
+        }
+        return COMPRESSED_TYPES.contains(type);
+    }
+
+    /**
+     * <p>
+     * Compress <code>value</code> into the empty file <code>out</code>.
+     * </p>
+     *
+     * @param value
+     *            Stream supplying the value
+     * @param out
+     *            File receiving the compressed value
+     * @param level
+     *            Deflate level, from 1 (fastest) to 9 (smallest)
+     *
+     * @return the size of the value
+     */
+    public static long write(InputStream value, FileChannel out, int level) throws IOException {
+        byte[] block = new byte[BLOCK_SIZE];
+        byte[] deflated = new byte[BLOCK_SIZE];
+        long[] offsets = new long[16];
+        Deflater deflater = new Deflater(level, true);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(BLOCK_SIZE).flip();
+            long position = writeFully(out, header, 0);
+            long size = 0;
+            int blocks = 0;
+            boolean compressing = true;
+            int shrunk = 0;
+            int length;
+            while ((length = readBlock(value, block)) > 0) {
+                size += length;
+                int compressed = compressing ? deflate(deflater, block, length, deflated) : -1;
+                if (compressed >= 0) {
+                    shrunk++;
+                }
+                if (blocks + 1 == PROBE_BLOCKS && shrunk == 0) {
+                    // none of the first blocks shrank, so the value is already compressed
+                    compressing = false;
+                }
+                if (blocks == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, blocks * 2);
+                }
+                if (compressed >= 0) {
+                    offsets[blocks++] = position;
+                    position = writeFully(out, ByteBuffer.wrap(deflated, 0, compressed), position);
+                } else {
+                    offsets[blocks++] = position | STORED;
+                    position = writeFully(out, ByteBuffer.wrap(block, 0, length), position);
+                }
+                if (length < BLOCK_SIZE) {
+                    break;
+                }
+            }
+            ByteBuffer index = ByteBuffer.allocate(blocks * 8 + FOOTER_SIZE);
+            for (int i = 0; i < blocks; i++) {
+                index.putLong(offsets[i]);
+            }
+            index.putLong(size).putLong(position).putInt(blocks).putInt(MAGIC).flip();
+            writeFully(out, index, position);
+            return size;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * <p>
+     * Open a compressed value file for reading its decompressed value.
+     * </p>
+     *
+     * @param file
+     *            File written by {@link #write(InputStream, FileChannel, int)}
+     *
+     * @exception IOException
+     *                if the file is not a compressed value
+     */
+    public static SeekableByteChannel open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new CompressedChannel(channel);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    // --------------------------------------------------------- Private Methods
+
+    /**
+     * <p>
+     * Deflate a block, returning the compressed length or -1 if it does not shrink.
+     * </p>
+     */
+    private static int deflate(Deflater deflater, byte[] block, int length, byte[] deflated) {
+        deflater.reset();
+        deflater.setInput(block, 0, length);
+        deflater.finish();
+        int compressed = 0;
+        while (!deflater.finished() && compressed < length) {
+            compressed += deflater.deflate(deflated, compressed, length - compressed);
+        }
+        return deflater.finished() && compressed < length ? compressed : -1;
+    }
+
+    private static int readBlock(InputStream value, byte[] block) throws IOException {
+        int length = 0;
+        int read;
+        while (length < block.length && (read = value.read(block, length,
+                block.length - length)) >= 0) {
+            length += read;
+        }
+        return length;
+    }
+
+    private static long writeFully(FileChannel out, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            position += out.write(buffer, position);
+        }
+        return position;
+    }
+
+    /**
+     * <p>
+     * Read-only channel over the decompressed value of a compressed value file, keeping the last
+     * decompressed block.
+     * </p>
+     */
+    private static final class CompressedChannel implements SeekableByteChannel {
+        private final FileChannel file;
+        private final int blockSize;
+        private final long size;
+        private final long end;
+        private final long[] offsets;
+        private final Inflater inflater = new Inflater(true);
+        private final byte[] block;
+        private byte[] input = new byte[0];
+        private int current = -1;
+        private int currentLength;
+        private long position = 0;
+        private boolean open = true;
+
+        CompressedChannel(FileChannel file) throws IOException {
+            this.file = file;
+            long length = file.size();
+            if (length < HEADER_SIZE + FOOTER_SIZE) {
+                throw new IOException("Not a compressed value");
+            }
+            ByteBuffer header = read(0, HEADER_SIZE);
+            ByteBuffer footer = read(length - FOOTER_SIZE, FOOTER_SIZE);
+            size = footer.getLong();
+            end = footer.getLong();
+            int blocks = footer.getInt();
+            if (header.getInt() != MAGIC || footer.getInt() != MAGIC || blocks < 0
+                || end + blocks * 8L + FOOTER_SIZE != length) {
+                throw new IOException("Not a compressed value");
+            }
+            blockSize = header.getInt();
+            ByteBuffer index = read(end, blocks * 8);
+            offsets = new long[blocks];
+            for (int i = 0; i < blocks; i++) {
+                offsets[i] = index.getLong();
+            }
+            block = new byte[blockSize];
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            if (position >= size) {
+                return -1;
+            }
+            int total = 0;
+            while (dst.hasRemaining() && position < size) {
+                int number = (int) (position / blockSize);
+                load(number);
+                int offset = (int) (position - (long) number * blockSize);
+                int count = Math.min(dst.remaining(), currentLength - offset);
+                dst.put(block, offset, count);
+                position += count;
+                total += count;
+            }
+            return total;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long position() {
+            return position;
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) {
+            if (newPosition < 0) {
+                throw new IllegalArgumentException("Negative position " + newPosition);
+            }
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long newSize) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (open) {
+                open = false;
+                inflater.end();
+                file.close();
+            }
+        }
+
+        /**
+         * <p>
+         * Decompress block <code>number</code> unless it is the current block.
+         * </p>
+         */
+        private void load(int number) throws IOException {
+            if (number == current) {
+                return;
+            }
+            long start = offsets[number] & ~STORED;
+            long stop = number + 1 < offsets.length ? offsets[number + 1] & ~STORED : end;
+            int expected = (int) Math.min(blockSize, size - (long) number * blockSize);
+            ByteBuffer stored = read(start, (int) (stop - start));
+            current = -1;
+            if ((offsets[number] & STORED) != 0) {
+                stored.get(block, 0, expected);
+            } else {
+                int length = stored.remaining();
+                if (input.length < length + 1) {
+                    input = new byte[length + 1];
+                }
+                stored.get(input, 0, length);
+                // raw inflation needs a dummy byte after the input
+                input[length] = 0;
+                inflater.reset();
+                inflater.setInput(input, 0, length + 1);
+                try {
+                    int inflated = 0;
+                    while (inflated < expected && !inflater.finished()) {
+                        int count = inflater.inflate(block, inflated, expected - inflated);
+                        if (count == 0 && inflater.needsInput()) {
+                            break;
+                        }
+                        inflated += count;
+                    }
+                    if (inflated != expected) {
+                        throw new IOException("Truncated block " + number);
+                    }
+                } catch (DataFormatException ex) {
+                    throw new IOException("Corrupt block " + number, ex);
+                }
+            }
+            current = number;
+            currentLength = expected;
+        }
+
+        private ByteBuffer read(long start, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (file.read(buffer, start + buffer.position()) < 0) {
+                    throw new IOException("Not a compressed value");
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+}
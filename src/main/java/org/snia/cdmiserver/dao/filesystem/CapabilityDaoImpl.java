@@ -46,6 +46,16 @@ public class CapabilityDaoImpl implements CapabilityDao {
 
     private static final Logger LOG = LoggerFactory.getLogger(CapabilityDaoImpl.class);
 
+    /**
+     * URI of the capabilities of containers storing values as they are.
+     */
+    public static final String DEFAULT_CONTAINER = "/cdmi_capabilities/container/default";
+
+    /**
+     * URI of the capabilities of containers compressing the values of their data objects.
+     */
+    public static final String COMPRESSED_CONTAINER = "/cdmi_capabilities/container/compressed";
+
     // -------------------------------------------------------------- Properties
     /**
      * <p>
@@ -55,7 +65,9 @@ public class CapabilityDaoImpl implements CapabilityDao {
     private final String ROOTobjectID = ObjectID.getObjectID(8);
     private final String CONTAINERobjectID = ObjectID.getObjectID(8);
     private final String DEFAULTobjectID = ObjectID.getObjectID(8);
+    private final String COMPRESSEDobjectID = ObjectID.getObjectID(8);
     private final String OBJECTobjectID = ObjectID.getObjectID(8);
+    private final String QUEUEobjectID = ObjectID.getObjectID(8);
 
 
     // ---------------------------------------------------- ContainerDao Methods
@@ -78,7 +90,9 @@ public class CapabilityDaoImpl implements CapabilityDao {
             capability.getMetadata().put("cdmi_modify_metadata", "true");
             capability.getMetadata().put("cdmi_create_dataobject", "true");
             capability.getMetadata().put("cdmi_create_container", "true");
+            capability.getMetadata().put("cdmi_create_queue", "true");
             capability.getChildren().add("default");
+            capability.getChildren().add("compressed");
             capability.setObjectID(CONTAINERobjectID);
             capability.setObjectType("application/cdmi-capability");
             capability.setParentURI("cdmi_capabilities/");
@@ -92,11 +106,41 @@ public class CapabilityDaoImpl implements CapabilityDao {
             capability.getMetadata().put("cdmi_create_dataobject", "true");
             capability.getMetadata().put("cdmi_post_dataobject", "true");
             capability.getMetadata().put("cdmi_create_container", "true");
+            capability.getMetadata().put("cdmi_create_queue", "true");
             capability.setObjectID(DEFAULTobjectID);
             capability.setObjectType("application/cdmi-capability");
             capability.setParentURI("cdmi_capabilities/container");
             capability.setParentID(CONTAINERobjectID);
             break;
+        case "container/compressed/":
+            LOG.trace("Compressed Container Capabilities");
+            // Data objects created in the container have their values compressed
+            capability.getMetadata().put("cdmi_list_children", "true");
+            capability.getMetadata().put("cdmi_read_metadata", "true");
+            capability.getMetadata().put("cdmi_modify_metadata", "true");
+            capability.getMetadata().put("cdmi_create_dataobject", "true");
+            capability.getMetadata().put("cdmi_post_dataobject", "true");
+            capability.getMetadata().put("cdmi_create_container", "true");
+            capability.getMetadata().put("cdmi_create_queue", "true");
+            capability.getMetadata().put("compression", BlockCompression.DEFLATE);
+            capability.setObjectID(COMPRESSEDobjectID);
+            capability.setObjectType("application/cdmi-capability");
+            capability.setParentURI("cdmi_capabilities/container");
+            capability.setParentID(CONTAINERobjectID);
+            break;
+        case "queue/":
+            // Queue Capabilities
+            LOG.trace("Queue Capabilities");
+            capability.getMetadata().put("cdmi_read_value", "true");
+            capability.getMetadata().put("cdmi_read_metadata", "true");
+            capability.getMetadata().put("cdmi_modify_metadata", "true");
+            capability.getMetadata().put("cdmi_modify_value", "true");
+            capability.getMetadata().put("cdmi_delete_queue", "true");
+            capability.setObjectID(QUEUEobjectID);
+            capability.setObjectType("application/cdmi-capability");
+            capability.setParentURI("cdmi_capabilities/");
+            capability.setParentID(ROOTobjectID);
+            break;
         case "dataobject/":
             // Data Object Capabilities
             LOG.trace("Data Object Capabilities");
@@ -119,6 +163,7 @@ public class CapabilityDaoImpl implements CapabilityDao {
             capability.getMetadata().put("cdmi_metadata_maxsize", "4096");
             capability.getChildren().add("container");
             capability.getChildren().add("dataobject");
+            capability.getChildren().add("queue");
             capability.setObjectID(ROOTobjectID);
             capability.setObjectType("application/cdmi-capability");
             capability.setParentURI("/");
@@ -127,4 +172,25 @@ public class CapabilityDaoImpl implements CapabilityDao {
         }
         return (capability);
     }
+
+    /**
+     * <p>
+     * Return <code>true</code> if <code>capabilitiesURI</code> names capabilities that a
+     * container can be given.
+     * </p>
+     */
+    public static boolean isContainerCapabilities(String capabilitiesURI) {
+        return DEFAULT_CONTAINER.equals(capabilitiesURI)
+               || COMPRESSED_CONTAINER.equals(capabilitiesURI);
+    }
+
+    /**
+     * <p>
+     * Return <code>true</code> if containers with the capabilities <code>capabilitiesURI</code>
+     * compress the values of their data objects.
+     * </p>
+     */
+    public static boolean isCompressing(String capabilitiesURI) {
+        return COMPRESSED_CONTAINER.equals(capabilitiesURI);
+    }
 }
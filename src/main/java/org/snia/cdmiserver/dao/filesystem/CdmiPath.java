@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+import java.io.File;
+import java.nio.file.Path;
+
+/**
+ * <p>
+ * A container or data object path parsed once and resolved against the base directory and the
+ * {@link StorageLayout}: its normalized form, parent, leaf name, directory or value file and "."
+ * metadata file.
+ * </p>
+ *
+ * <p>
+ * The normalized form has no leading, trailing or repeated slashes, and is empty for the root
+ * container. Instances are immutable and shared through the {@link PathResolver} cache.
+ * </p>
+ */
+public final class CdmiPath {
+
+    private final String path;
+    private final String parent;
+    private final String name;
+    private final File parentDirectory;
+    private final File file;
+    private final File metadataFile;
+    private Path nioPath;
+
+    CdmiPath(String path, String parent, String name, File parentDirectory, File file,
+            File metadataFile) {
+        this.path = path;
+        this.parent = parent;
+        this.name = name;
+        this.parentDirectory = parentDirectory;
+        this.file = file;
+        this.metadataFile = metadataFile;
+    }
+
+    // ---------------------------------------------------------- Public Methods
+
+    /**
+     * <p>
+     * Return the normalized path, empty for the root container.
+     * </p>
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * <p>
+     * Return the normalized path of the parent container, empty for top level objects and
+     * <code>null</code> for the root container.
+     * </p>
+     */
+    public String getParent() {
+        return parent;
+    }
+
+    /**
+     * <p>
+     * Return the leaf name, empty for the root container.
+     * </p>
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * <p>
+     * Return the URI of the parent container as reported in <code>parentURI</code>, "/" for top
+     * level objects and the root container.
+     * </p>
+     */
+    public String getParentURI() {
+        return parent == null || parent.isEmpty() ? "/" : "/" + parent + "/";
+    }
+
+    /**
+     * <p>
+     * Return <code>true</code> if this is the path of the root container.
+     * </p>
+     */
+    public boolean isRoot() {
+        return parent == null;
+    }
+
+    /**
+     * <p>
+     * Return the directory of the parent container, <code>null</code> for the root container.
+     * </p>
+     */
+    public File getParentDirectory() {
+        return parentDirectory;
+    }
+
+    /**
+     * <p>
+     * Return the directory of a container or the value file of a data object.
+     * </p>
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * <p>
+     * Return the "." file next to {@link #getFile()}, the location of the metadata of the object.
+     * </p>
+     */
+    public File getMetadataFile() {
+        return metadataFile;
+    }
+
+    /**
+     * <p>
+     * Return {@link #getFile()} as a {@link Path}.
+     * </p>
+     */
+    public Path toPath() {
+        // racy but idempotent
+        Path result = nioPath;
+        if (result == null) {
+            result = file.toPath();
+            nioPath = result;
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CdmiPath)) {
+            return false;
+        }
+        CdmiPath other = (CdmiPath) o;
+        return path.equals(other.path) && file.equals(other.file);
+    }
+
+    @Override
+    public int hashCode() {
+        return path.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "/" + path;
+    }
+}
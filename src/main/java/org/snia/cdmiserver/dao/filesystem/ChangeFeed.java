@@ -0,0 +1,413 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snia.cdmiserver.dao.ChangeDao;
+import org.snia.cdmiserver.model.Change;
+
+/**
+ * <p>
+ * In-process feed of the changes made through the container and data object DAOs, for indexers
+ * and replicators that would otherwise rescan the base directory.
+ * </p>
+ *
+ * <p>
+ * Changes are kept in a bounded ring. Publishing claims the next sequence number from a counter
+ * and compares and sets the change into its slot, without locks and without waking anyone unless
+ * the feed's thread is idle; a publisher held up for a whole lap never overwrites a newer change.
+ * That one thread delivers the changes in order to the {@link ChangeListener}s and wakes
+ * the long polls of {@link #findChanges(long, int, long, List)}, which read the ring directly.
+ * Readers that fall a lap behind skip to the oldest change still kept.
+ * </p>
+ *
+ * <p>
+ * Sequence numbers start at 0 and are not persisted; {@link #getFeedID()} tells a restarted feed
+ * apart.
+ * </p>
+ */
+public class ChangeFeed implements ChangeDao, ChangeFeedMBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChangeFeed.class);
+
+    public static final int DEFAULT_CAPACITY = 65536;
+
+    // the feed's thread checks for changes this often even if no publisher wakes it
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    // long polls are woken at least this often while the listeners are busy
+    private static final int WAKE_INTERVAL = 1024;
+
+    private final String feedID = UUID.randomUUID().toString();
+
+    // the next sequence number to claim
+    private final AtomicLong next = new AtomicLong();
+
+    private AtomicReferenceArray<Change> ring = new AtomicReferenceArray<Change>(DEFAULT_CAPACITY);
+    private int mask = DEFAULT_CAPACITY - 1;
+
+    private volatile ChangeListener[] listeners = new ChangeListener[0];
+
+    // the feed's thread while it is parked waiting for a change, otherwise null
+    private final AtomicReference<Thread> parked = new AtomicReference<Thread>();
+
+    private final Object startLock = new Object();
+    private Thread dispatcher = null;
+    private volatile boolean closed = false;
+
+    private final Object pollLock = new Object();
+    private volatile int pollers = 0;
+
+    private volatile long delivered = 0;
+    private volatile long missed = 0;
+
+    // -------------------------------------------------------------- Properties
+
+    /**
+     * <p>
+     * Set the number of changes kept, rounded up to a power of two. Default value is
+     * {@value #DEFAULT_CAPACITY}. This must be set before the first change is published.
+     * </p>
+     *
+     * @param capacity
+     *            The new capacity
+     */
+    public void setCapacity(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        ring = new AtomicReferenceArray<Change>(size);
+        mask = size - 1;
+    }
+
+    /**
+     * <p>
+     * Set the listeners every change is delivered to, replacing any added before.
+     * </p>
+     *
+     * @param listeners
+     *            The new listeners
+     */
+    public void setListeners(List<ChangeListener> listeners) {
+        synchronized (startLock) {
+            this.listeners = listeners.toArray(new ChangeListener[listeners.size()]);
+        }
+        if (!listeners.isEmpty()) {
+            start();
+        }
+    }
+
+    // ---------------------------------------------------------- Public Methods
+
+    /**
+     * <p>
+     * Add a listener, which is delivered the changes published from now on.
+     * </p>
+     */
+    public void addListener(ChangeListener listener) {
+        synchronized (startLock) {
+            ChangeListener[] added = Arrays.copyOf(listeners, listeners.length + 1);
+            added[listeners.length] = listener;
+            listeners = added;
+        }
+        start();
+    }
+
+    /**
+     * <p>
+     * Remove a listener. It may still be delivered the change being delivered now.
+     * </p>
+     */
+    public void removeListener(ChangeListener listener) {
+        synchronized (startLock) {
+            List<ChangeListener> remaining =
+                    new ArrayList<ChangeListener>(Arrays.asList(listeners));
+            remaining.remove(listener);
+            listeners = remaining.toArray(new ChangeListener[remaining.size()]);
+        }
+    }
+
+    /**
+     * <p>
+     * Record a change to a container or data object. This never blocks.
+     * </p>
+     *
+     * @param operation
+     *            What was done
+     * @param objectType
+     *            Content type of the object, e.g. <code>application/cdmi-container</code>
+     * @param objectID
+     *            Object ID of the object, if known
+     * @param path
+     *            Path of the object, relative or absolute
+     * @param source
+     *            Path the object was moved from, or <code>null</code>
+     */
+    public void publish(Change.Operation operation, String objectType, String objectID,
+            String path, String source) {
+        long sequence = next.getAndIncrement();
+        Change change = new Change(sequence, operation, objectType, objectID, path, source,
+                System.currentTimeMillis());
+        AtomicReferenceArray<Change> slots = ring;
+        int slot = (int) sequence & mask;
+        Change current = slots.get(slot);
+        while ((current == null || current.getSequence() < sequence)
+               && !slots.compareAndSet(slot, current, change)) {
+            current = slots.get(slot);
+        }
+        if (parked.get() != null) {
+            Thread thread = parked.getAndSet(null);
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    @Override
+    public String getFeedID() {
+        return feedID;
+    }
+
+    @Override
+    public long getSequence() {
+        return next.get();
+    }
+
+    @Override
+    public long findChanges(long since, int limit, long timeout, List<Change> changes) {
+        int found = changes.size();
+        long cursor = collect(since, limit, changes);
+        if (changes.size() > found || timeout <= 0 || limit <= 0) {
+            return cursor;
+        }
+        start();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        synchronized (pollLock) {
+            pollers++;
+            try {
+                while (true) {
+                    // the feed's thread only wakes us after it has seen a new change, so one
+                    // published before we started waiting is found here
+                    cursor = collect(cursor, limit, changes);
+                    long remaining = deadline - System.nanoTime();
+                    if (changes.size() > found || remaining <= 0 || closed) {
+                        return cursor;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(pollLock, remaining);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return cursor;
+            } finally {
+                pollers--;
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Stop delivering changes to the listeners and end the long polls.
+     * </p>
+     */
+    public void close() {
+        Thread thread;
+        synchronized (startLock) {
+            closed = true;
+            thread = dispatcher;
+            dispatcher = null;
+        }
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(TimeUnit.MINUTES.toMillis(1));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (pollLock) {
+            pollLock.notifyAll();
+        }
+    }
+
+    @Override
+    public int getCapacity() {
+        return ring.length();
+    }
+
+    @Override
+    public long getOldestSequence() {
+        return Math.max(0, next.get() - ring.length());
+    }
+
+    @Override
+    public long getDeliveredSequence() {
+        return delivered;
+    }
+
+    @Override
+    public long getMissedChanges() {
+        return missed;
+    }
+
+    // --------------------------------------------------------- Private Methods
+
+    /**
+     * <p>
+     * Add the changes from <code>since</code> on that have been published without a gap to
+     * <code>changes</code>, returning the sequence number to continue from.
+     * </p>
+     */
+    private long collect(long since, int limit, List<Change> changes) {
+        AtomicReferenceArray<Change> slots = ring;
+        long claimed = next.get();
+        long oldest = Math.max(0, claimed - slots.length());
+        // a sequence number from the future comes from another feed, so start again
+        long cursor = since < oldest || since > claimed ? oldest : since;
+        int count = 0;
+        while (count < limit && cursor < claimed) {
+            Change change = slots.get((int) cursor & mask);
+            if (change != null && change.getSequence() == cursor) {
+                changes.add(change);
+                count++;
+                cursor++;
+            } else if (change != null && change.getSequence() > cursor) {
+                // overwritten while we were reading
+                cursor = Math.max(cursor + 1, next.get() - slots.length());
+            } else {
+                // claimed but not yet published
+                break;
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * <p>
+     * Start the feed's thread, unless it is running or the feed is closed.
+     * </p>
+     */
+    private void start() {
+        synchronized (startLock) {
+            if (dispatcher == null && !closed) {
+                Thread thread = new Thread(this::dispatch, "change-feed");
+                thread.setDaemon(true);
+                dispatcher = thread;
+                thread.start();
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Deliver the changes to the listeners in order and wake the long polls, parking while
+     * there is nothing to deliver.
+     * </p>
+     */
+    private void dispatch() {
+        AtomicReferenceArray<Change> slots = ring;
+        long cursor = Math.max(0, next.get() - slots.length());
+        int unannounced = 0;
+        while (!closed) {
+            Change change = slots.get((int) cursor & mask);
+            if (change != null && change.getSequence() == cursor) {
+                deliver(change);
+                delivered = ++cursor;
+                if (++unannounced >= WAKE_INTERVAL) {
+                    wakePollers();
+                    unannounced = 0;
+                }
+                continue;
+            }
+            if (change != null && change.getSequence() > cursor) {
+                long skipped = Math.max(cursor + 1, next.get() - slots.length());
+                missed(cursor, skipped - 1);
+                delivered = cursor = skipped;
+                continue;
+            }
+            if (unannounced > 0) {
+                wakePollers();
+                unannounced = 0;
+            }
+            // publishers unpark us once we are parked, so check again before waiting
+            parked.set(Thread.currentThread());
+            change = slots.get((int) cursor & mask);
+            if (change == null || change.getSequence() < cursor) {
+                LockSupport.parkNanos(this, IDLE_NANOS);
+            }
+            parked.set(null);
+        }
+    }
+
+    private void deliver(Change change) {
+        for (ChangeListener listener : listeners) {
+            try {
+                listener.changed(change);
+            } catch (RuntimeException ex) {
+                LOG.warn("Change listener {} failed on {}: {}", listener, change, ex.toString());
+            }
+        }
+    }
+
+    private void missed(long first, long last) {
+        missed += last - first + 1;
+        LOG.warn("Change listeners missed changes {} to {}", first, last);
+        for (ChangeListener listener : listeners) {
+            try {
+                listener.missed(first, last);
+            } catch (RuntimeException ex) {
+                LOG.warn("Change listener {} failed: {}", listener, ex.toString());
+            }
+        }
+    }
+
+    private void wakePollers() {
+        if (pollers > 0) {
+            synchronized (pollLock) {
+                pollLock.notifyAll();
+            }
+        }
+    }
+}
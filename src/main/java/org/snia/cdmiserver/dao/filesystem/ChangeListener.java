@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+import org.snia.cdmiserver.model.Change;
+
+/**
+ * <p>
+ * A subscriber to the {@link ChangeFeed}, e.g. an indexer or a replicator.
+ * </p>
+ *
+ * <p>
+ * Listeners are called one change at a time, in sequence order, on the thread of the feed and
+ * never on the thread that made the change. A listener that falls a whole ring behind misses the
+ * changes that were overwritten, and is told so.
+ * </p>
+ */
+public interface ChangeListener {
+
+    /**
+     * <p>
+     * Handle a change. This should return quickly, handing slow work to another thread, since
+     * every other listener waits for it.
+     * </p>
+     */
+    public void changed(Change change);
+
+    /**
+     * <p>
+     * Handle the loss of the changes from sequence number <code>first</code> to
+     * <code>last</code>, which were overwritten before they could be delivered. A listener that
+     * needs every change should rescan the tree. The default does nothing.
+     * </p>
+     */
+    public default void missed(long first, long last) {
+    }
+}
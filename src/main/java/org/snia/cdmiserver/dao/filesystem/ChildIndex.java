@@ -0,0 +1,490 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Persistent, sorted index of the children of each container, so that one page of a large
+ * container can be listed without scanning its directory.
+ * </p>
+ *
+ * <p>
+ * Each container directory holds two hidden files. The snapshot is the sorted list of child
+ * names (containers with a trailing "/") preceded by a table of their offsets, so that any
+ * child can be read by position and any name found by binary search. The journal records the
+ * children added and removed since the snapshot was written; it is merged with the snapshot
+ * when read and folded into a new snapshot once it grows past {@link #setJournalLimit(int)}.
+ * </p>
+ *
+ * <p>
+ * A snapshot is built from the directory the first time a container is listed, so deleting the
+ * index files of a container makes it rescan its directory.
+ * </p>
+ */
+public class ChildIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChildIndex.class);
+
+    static final String SNAPSHOT_FILE_NAME = ".cdmi_children.idx";
+    static final String JOURNAL_FILE_NAME = ".cdmi_children.log";
+    private static final String SNAPSHOT_TEMP_FILE_NAME = ".cdmi_children.tmp";
+
+    private static final int MAGIC = 0x43444d43;
+    private static final int HEADER_SIZE = 8;
+    private static final byte ADDED = '+';
+    private static final byte REMOVED = '-';
+
+    // Changes to the index of the same container are serialized on one of these
+    private final Object[] locks = new Object[64];
+
+    {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    // -------------------------------------------------------------- Properties
+    private int journalLimit = 64 * 1024;
+
+    /**
+     * <p>
+     * Set the size in bytes above which the journal of a container is folded into a new
+     * snapshot. Default value is 64 KiB.
+     * </p>
+     *
+     * @param journalLimit
+     *            The new journal limit
+     */
+    public void setJournalLimit(int journalLimit) {
+        this.journalLimit = journalLimit;
+    }
+
+    private StorageLayout layout = new FlatLayout();
+
+    /**
+     * <p>
+     * Set the layout of the tree on disk. Default value is a {@link FlatLayout}.
+     * </p>
+     *
+     * @param layout
+     *            The new layout
+     */
+    public void setLayout(StorageLayout layout) {
+        this.layout = layout;
+    }
+
+    // ---------------------------------------------------------- Public Methods
+
+    /**
+     * <p>
+     * Record that <code>child</code> has been created in the container at
+     * <code>directory</code>.
+     * </p>
+     *
+     * @param directory
+     *            Directory of the container
+     * @param child
+     *            Name of the new child, with a trailing "/" for a container
+     */
+    public void add(File directory, String child) {
+        record(directory, ADDED, child);
+    }
+
+    /**
+     * <p>
+     * Record that <code>child</code> has been removed from the container at
+     * <code>directory</code>.
+     * </p>
+     *
+     * @param directory
+     *            Directory of the container
+     * @param child
+     *            Name of the removed child, with a trailing "/" for a container
+     */
+    public void remove(File directory, String child) {
+        record(directory, REMOVED, child);
+    }
+
+    /**
+     * <p>
+     * Add the children of the container at <code>directory</code> from position
+     * <code>first</code> to position <code>last</code> (inclusive, in name order) to
+     * <code>children</code>.
+     * </p>
+     *
+     * @param directory
+     *            Directory of the container
+     * @param first
+     *            Position of the first child to list
+     * @param last
+     *            Position of the last child to list; may be past the last child
+     * @param children
+     *            List receiving the names of the children
+     *
+     * @return the total number of children of the container
+     */
+    public long list(File directory, long first, long last, List<String> children) {
+        synchronized (lockFor(directory)) {
+            try {
+                File snapshotFile = new File(directory, SNAPSHOT_FILE_NAME);
+                File journalFile = new File(directory, JOURNAL_FILE_NAME);
+                if (!snapshotFile.exists()) {
+                    writeSnapshot(directory, scan(directory));
+                } else if (journalFile.length() > journalLimit) {
+                    compact(directory);
+                }
+                return list(new Snapshot(snapshotFile), readJournal(journalFile), first, last,
+                        children);
+            } catch (IOException ex) {
+                LOG.error("Exception while reading children: ", ex);
+                throw new IllegalArgumentException("Cannot list children of "
+                                                   + directory
+                                                   + " error : "
+                                                   + ex);
+            }
+        }
+    }
+
+    // --------------------------------------------------------- Private Methods
+
+    /**
+     * <p>
+     * Append a change to the journal of a container, folding the journal into a new snapshot if
+     * it has grown too large. Nothing is recorded for containers that have never been listed, as
+     * their snapshot will be built from the directory.
+     * </p>
+     */
+    private void record(File directory, byte change, String child) {
+        synchronized (lockFor(directory)) {
+            if (!new File(directory, SNAPSHOT_FILE_NAME).exists()) {
+                return;
+            }
+            byte[] name = child.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer buffer = ByteBuffer.allocate(5 + name.length);
+            buffer.put(change).putInt(name.length).put(name).flip();
+            Path journal = new File(directory, JOURNAL_FILE_NAME).toPath();
+            try {
+                try (FileChannel out = FileChannel.open(journal, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                }
+                if (Files.size(journal) > journalLimit) {
+                    compact(directory);
+                }
+            } catch (IOException ex) {
+                LOG.error("Exception while writing children: ", ex);
+                throw new IllegalArgumentException("Cannot record child "
+                                                   + child
+                                                   + " of "
+                                                   + directory
+                                                   + " error : "
+                                                   + ex);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Return the sorted names of the children found in the container directory.
+     * </p>
+     */
+    private List<String> scan(File directory) {
+        List<String> names = new ArrayList<String>();
+        File[] files = layout.children(directory);
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                names.add(file.isDirectory() && !QueueLog.isQueue(file) ? name + "/" : name);
+            }
+        }
+        Collections.sort(names);
+        LOG.debug("Indexed {} children of {}", names.size(), directory);
+        return names;
+    }
+
+    /**
+     * <p>
+     * Fold the journal of a container into a new snapshot.
+     * </p>
+     */
+    private void compact(File directory) throws IOException {
+        Snapshot snapshot = new Snapshot(new File(directory, SNAPSHOT_FILE_NAME));
+        Map<String, Boolean> changes = readJournal(new File(directory, JOURNAL_FILE_NAME));
+        List<String> names = new ArrayList<String>();
+        list(snapshot, changes, 0, Long.MAX_VALUE, names);
+        writeSnapshot(directory, names);
+        LOG.debug("Compacted {} changes to the children of {}", changes.size(), directory);
+    }
+
+    /**
+     * <p>
+     * Replace the snapshot of a container with <code>names</code>, which must be sorted, and
+     * empty its journal.
+     * </p>
+     */
+    private void writeSnapshot(File directory, List<String> names) throws IOException {
+        Path temp = new File(directory, SNAPSHOT_TEMP_FILE_NAME).toPath();
+        byte[][] encoded = new byte[names.size()][];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = names.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        try (OutputStream file = Files.newOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(MAGIC);
+            out.writeInt(encoded.length);
+            long offset = 0;
+            out.writeLong(offset);
+            for (byte[] name : encoded) {
+                offset += name.length;
+                out.writeLong(offset);
+            }
+            for (byte[] name : encoded) {
+                out.write(name);
+            }
+        }
+        Files.move(temp, new File(directory, SNAPSHOT_FILE_NAME).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(new File(directory, JOURNAL_FILE_NAME).toPath());
+    }
+
+    /**
+     * <p>
+     * Return the changes recorded in a journal, in name order, mapping each name to
+     * <code>true</code> if it was last added and <code>false</code> if it was last removed.
+     * </p>
+     */
+    private Map<String, Boolean> readJournal(File journalFile) throws IOException {
+        Map<String, Boolean> changes = new TreeMap<String, Boolean>();
+        if (!journalFile.exists()) {
+            return changes;
+        }
+        ByteBuffer journal = ByteBuffer.wrap(Files.readAllBytes(journalFile.toPath()));
+        while (journal.remaining() >= 5) {
+            byte change = journal.get();
+            int length = journal.getInt();
+            if (length < 0 || length > journal.remaining()) {
+                break; // torn write at the end of the journal
+            }
+            byte[] name = new byte[length];
+            journal.get(name);
+            changes.put(new String(name, StandardCharsets.UTF_8), change == ADDED);
+        }
+        return changes;
+    }
+
+    /**
+     * <p>
+     * List positions <code>first</code> to <code>last</code> of the children given by a
+     * snapshot and the changes made since, and return the total number of children.
+     * </p>
+     */
+    private long list(Snapshot snapshot, Map<String, Boolean> changes, long first, long last,
+            List<String> children) {
+        // split the changes into names missing from the snapshot and positions to skip in it
+        List<String> added = new ArrayList<String>();
+        int[] removed = new int[changes.size()];
+        int removedCount = 0;
+        for (Map.Entry<String, Boolean> change : changes.entrySet()) {
+            int position = snapshot.find(change.getKey());
+            if (change.getValue() && position < 0) {
+                added.add(change.getKey());
+            } else if (!change.getValue() && position >= 0) {
+                removed[removedCount++] = position;
+            }
+        }
+        removed = Arrays.copyOf(removed, removedCount);
+        Arrays.sort(removed);
+        long total = snapshot.count - removed.length + added.size();
+        if (first >= total || last < first) {
+            return total;
+        }
+
+        // find the last snapshot position preceded by no more than "first" children
+        int low = 0;
+        int high = snapshot.count;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (childrenBefore(snapshot, middle, removed, added) <= first) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        int position = low;
+        int next = position == 0 ? 0 : addedBefore(snapshot, position, added);
+        long skip = first - (position == 0 ? 0 : childrenBefore(snapshot, position, removed,
+                added));
+        int removedIndex = removedBefore(removed, position);
+
+        // merge the snapshot with the added names from there on
+        long wanted = Math.min(last, total - 1) - first + 1;
+        while (wanted > 0) {
+            while (removedIndex < removed.length && removed[removedIndex] < position) {
+                removedIndex++;
+            }
+            if (position < snapshot.count
+                && removedIndex < removed.length
+                && removed[removedIndex] == position) {
+                position++;
+                continue;
+            }
+            String child;
+            if (position < snapshot.count
+                && (next >= added.size() || snapshot.name(position).compareTo(added.get(next)) < 0)) {
+                child = snapshot.name(position++);
+            } else {
+                child = added.get(next++);
+            }
+            if (skip > 0) {
+                skip--;
+            } else {
+                children.add(child);
+                wanted--;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * <p>
+     * Return the number of children that sort before the child at snapshot
+     * <code>position</code>.
+     * </p>
+     */
+    private long childrenBefore(Snapshot snapshot, int position, int[] removed,
+            List<String> added) {
+        return position - removedBefore(removed, position) + addedBefore(snapshot, position,
+                added);
+    }
+
+    private int removedBefore(int[] removed, int position) {
+        int index = Arrays.binarySearch(removed, position);
+        return index < 0 ? -index - 1 : index;
+    }
+
+    private int addedBefore(Snapshot snapshot, int position, List<String> added) {
+        if (added.isEmpty()) {
+            return 0;
+        }
+        if (position >= snapshot.count) {
+            return added.size();
+        }
+        int index = Collections.binarySearch(added, snapshot.name(position));
+        return index < 0 ? -index - 1 : index;
+    }
+
+    /**
+     * <p>
+     * Return the lock serializing access to the index of the container at the specified
+     * directory.
+     * </p>
+     */
+    private Object lockFor(File directory) {
+        return locks[(directory.getAbsolutePath().hashCode() & 0x7fffffff) % locks.length];
+    }
+
+    /**
+     * <p>
+     * Memory mapped view of a snapshot file.
+     * </p>
+     */
+    private static final class Snapshot {
+        final MappedByteBuffer buffer;
+        final int count;
+        final int names;
+
+        Snapshot(File file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            if (buffer.capacity() < HEADER_SIZE + 8 || buffer.getInt(0) != MAGIC) {
+                throw new IOException("Invalid child index " + file);
+            }
+            count = buffer.getInt(4);
+            names = HEADER_SIZE + (count + 1) * 8;
+        }
+
+        String name(int position) {
+            int start = (int) buffer.getLong(HEADER_SIZE + position * 8);
+            int end = (int) buffer.getLong(HEADER_SIZE + (position + 1) * 8);
+            byte[] bytes = new byte[end - start];
+            ByteBuffer view = buffer.duplicate();
+            view.position(names + start);
+            view.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Return the position of <code>name</code>, or -1 if it is not in the snapshot.
+         */
+        int find(String name) {
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int order = name(middle).compareTo(name);
+                if (order < 0) {
+                    low = middle + 1;
+                } else if (order > 0) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -1;
+        }
+    }
+}
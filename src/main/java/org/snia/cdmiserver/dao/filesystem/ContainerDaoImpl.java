@@ -30,20 +30,28 @@
  */
 package org.snia.cdmiserver.dao.filesystem;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileWriter;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 import org.snia.cdmiserver.dao.ContainerDao;
 import org.snia.cdmiserver.exception.BadRequestException;
+import org.snia.cdmiserver.exception.ConflictException;
 import org.snia.cdmiserver.exception.NotFoundException;
+import org.snia.cdmiserver.model.Change;
 import org.snia.cdmiserver.model.Container;
+import org.snia.cdmiserver.model.DataObject;
+import org.snia.cdmiserver.model.Queue;
+import org.snia.cdmiserver.util.BinaryJson;
+import org.snia.cdmiserver.util.MediaTypes;
 import org.snia.cdmiserver.util.ObjectID;
+import org.snia.cdmiserver.util.Timestamps;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -89,6 +97,200 @@ public class ContainerDaoImpl implements ContainerDao {
         this.recreate = recreate;
     }
 
+    private ObjectIdIndex objectIdIndex = null;
+
+    /**
+     * <p>
+     * Set the index used to find containers and data objects by object ID. Without one, lookups
+     * by object ID are not supported.
+     * </p>
+     *
+     * @param objectIdIndex
+     *            The new object ID index
+     */
+    public void setObjectIdIndex(ObjectIdIndex objectIdIndex) {
+        this.objectIdIndex = objectIdIndex;
+    }
+
+    private MetadataIndex metadataIndex = null;
+
+    /**
+     * <p>
+     * Set the index of user metadata kept up to date with every metadata write. Without one,
+     * containers cannot be found by metadata.
+     * </p>
+     *
+     * @param metadataIndex
+     *            The new metadata index
+     */
+    public void setMetadataIndex(MetadataIndex metadataIndex) {
+        this.metadataIndex = metadataIndex;
+    }
+
+    private ChangeFeed changeFeed = null;
+
+    /**
+     * <p>
+     * Set the feed every create, update, move and delete is published to. Without one, changes
+     * are not published.
+     * </p>
+     *
+     * @param changeFeed
+     *            The new change feed
+     */
+    public void setChangeFeed(ChangeFeed changeFeed) {
+        this.changeFeed = changeFeed;
+    }
+
+    private MetadataCache metadataCache = null;
+
+    /**
+     * <p>
+     * Set the cache of parsed metadata files. Without one, every read parses the container fields
+     * file.
+     * </p>
+     *
+     * @param metadataCache
+     *            The new metadata cache
+     */
+    public void setMetadataCache(MetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
+    private AccessTracker accessTracker = null;
+
+    /**
+     * <p>
+     * Set the tracker of the accesses to data objects written in the background by the data
+     * object DAO. Without one, deletes and moves assume that no accesses are written.
+     * </p>
+     *
+     * @param accessTracker
+     *            The new access tracker
+     */
+    public void setAccessTracker(AccessTracker accessTracker) {
+        this.accessTracker = accessTracker;
+    }
+
+    private ChildIndex childIndex = null;
+
+    /**
+     * <p>
+     * Set the sorted index of container children. Without one, containers are listed by scanning their
+     * directory.
+     * </p>
+     *
+     * @param childIndex
+     *            The new child index
+     */
+    public void setChildIndex(ChildIndex childIndex) {
+        this.childIndex = childIndex;
+    }
+
+    private TreeOperations treeOperations = null;
+
+    /**
+     * <p>
+     * Set the runner of operations on whole container trees. Without one, container trees are
+     * copied and deleted one file at a time on the calling thread.
+     * </p>
+     *
+     * @param treeOperations
+     *            The new tree operations runner
+     */
+    public void setTreeOperations(TreeOperations treeOperations) {
+        this.treeOperations = treeOperations;
+    }
+
+    private DurableWriter durableWriter = null;
+
+    /**
+     * <p>
+     * Set the writer that makes container fields files survive a crash. Without one, files are
+     * written without being forced to disk.
+     * </p>
+     *
+     * @param durableWriter
+     *            The new durable writer
+     */
+    public void setDurableWriter(DurableWriter durableWriter) {
+        this.durableWriter = durableWriter;
+    }
+
+    private StorageLayout layout = new FlatLayout();
+
+    /**
+     * <p>
+     * Set the layout of the tree on disk. Default value is a {@link FlatLayout}.
+     * </p>
+     *
+     * @param layout
+     *            The new layout
+     */
+    public void setLayout(StorageLayout layout) {
+        this.layout = layout;
+    }
+
+    private MetadataStore metadataStore = null;
+
+    /**
+     * <p>
+     * Set the store of container and data object fields. Without one, fields are kept in "."
+     * files next to the directories and values.
+     * </p>
+     *
+     * @param metadataStore
+     *            The new metadata store
+     */
+    public void setMetadataStore(MetadataStore metadataStore) {
+        this.metadataStore = metadataStore;
+    }
+
+    private ContentStore contentStore = null;
+
+    /**
+     * <p>
+     * Set the store that keeps one copy of identical values. Copied values are then linked
+     * rather than copied, and values no longer used are released from the store.
+     * </p>
+     *
+     * @param contentStore
+     *            The new content store
+     */
+    public void setContentStore(ContentStore contentStore) {
+        this.contentStore = contentStore;
+    }
+
+    private PathResolver pathResolver = null;
+
+    /**
+     * <p>
+     * Set the resolver of container paths, shared with the data object DAO so that a request
+     * resolves its path once. Without one, paths are resolved by a resolver of this DAO.
+     * </p>
+     *
+     * @param pathResolver
+     *            The new path resolver
+     */
+    public void setPathResolver(PathResolver pathResolver) {
+        this.pathResolver = pathResolver;
+    }
+
+    private boolean binaryMetadata = true;
+
+    /**
+     * <p>
+     * Set whether persisted fields are written in the compact {@link BinaryJson} encoding rather
+     * than as JSON text. Fields are read in either encoding. Defaults to <code>true</code>.
+     * </p>
+     *
+     * @param binaryMetadata
+     *            <code>true</code> to write binary fields
+     */
+    public void setBinaryMetadata(boolean binaryMetadata) {
+        this.binaryMetadata = binaryMetadata;
+    }
+
     //
     // ContainerDao Methods invoked from PathResource
     //
@@ -100,25 +302,47 @@ public class ContainerDaoImpl implements ContainerDao {
         // passed Container in PathResource.putContainer()
         //
 
-        File directory = absoluteFile(path);
+        CdmiPath cdmiPath = resolve(path);
+
+        File directory = cdmiPath.getFile();
 
         File containerFieldsFile = getContainerFieldsFile(path);
 
+        if (treeOperations != null
+            && treeOperations.getProgress(directory) != null
+            && treeOperations.getProgress(directory).isRunning()) {
+            throw new ConflictException("Container '" + path + "' is being processed");
+        }
+
+        if (containerRequest.getCopy() != null) {
+            return copyContainer(path, directory, containerFieldsFile, containerRequest);
+        }
+
         if (containerRequest.getMove() == null) { // This is a normal Create or Update
 
             //
             // Setup ISO-8601 Date
             //
-            Date now = new Date();
-            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+            String now = Timestamps.now();
 
             //
             // Underlying Directory existence determines whether this is a Create or
             // Update.
             //
 
-            if (!directory.exists()) { // Creating Container
+            boolean creating = !directory.exists();
 
+            if (containerRequest.getCapabilitiesURI() != null
+                && !CapabilityDaoImpl.isContainerCapabilities(
+                        containerRequest.getCapabilitiesURI())) {
+                throw new BadRequestException("Unknown container capabilities '"
+                                              + containerRequest.getCapabilitiesURI()
+                                              + "'");
+            }
+
+            if (creating) { // Creating Container
+
+                layout.prepare(directory);
                 if (!directory.mkdir()) {
                     throw new IllegalArgumentException("Cannot create container '" + path + "'");
                 }
@@ -127,10 +351,12 @@ public class ContainerDaoImpl implements ContainerDao {
                 containerRequest.setObjectID(objectID);
 
                 //
-                // TODO: Use Parent capabiltiesURI if not specified in create body
+                // Use Parent capabilitiesURI if not specified in create body
                 //
 
-                containerRequest.setCapabilitiesURI("/cdmi_capabilities/container/default");
+                if (containerRequest.getCapabilitiesURI() == null) {
+                    containerRequest.setCapabilitiesURI(inheritedCapabilities(directory));
+                }
 
                 //
                 // TODO: Use Parent Domain if not specified in create body
@@ -148,7 +374,7 @@ public class ContainerDaoImpl implements ContainerDao {
                     // runtime.exec(exported);
                 }
 
-                containerRequest.getMetadata().put("cdmi_ctime", sdf.format(now));
+                containerRequest.getMetadata().put("cdmi_ctime", now);
                 containerRequest.getMetadata().put("cdmi_mtime", "never");
                 containerRequest.getMetadata().put("cdmi_atime", "never");
                 containerRequest.getMetadata().put("cdmi_acount", "0");
@@ -162,6 +388,9 @@ public class ContainerDaoImpl implements ContainerDao {
                 Container currentContainer = getPersistedContainerFields(containerFieldsFile);
 
                 containerRequest.setObjectID(currentContainer.getObjectID());
+                if (containerRequest.getCapabilitiesURI() == null) {
+                    containerRequest.setCapabilitiesURI(currentContainer.getCapabilitiesURI());
+                }
 
                 //
                 // TODO: Need to handle update of Domain
@@ -181,25 +410,23 @@ public class ContainerDaoImpl implements ContainerDao {
                 containerRequest.getMetadata().put(
                         "cdmi_atime",
                         currentContainer.getMetadata().get("cdmi_atime"));
-                containerRequest.getMetadata().put("cdmi_mtime", sdf.format(now));
+                containerRequest.getMetadata().put("cdmi_mtime", now);
             }
 
             //
             // Write created or updated persisted fields out to the "." file
             //
 
-            try {
-                FileWriter fstream = new FileWriter(containerFieldsFile.getAbsolutePath());
-                try (BufferedWriter out = new BufferedWriter(fstream)) {
-                    out.write(containerRequest.toJson(true)); // Save it
-                }
-            } catch (Exception ex) {
-                LOG.error("Exception while writing", ex);
-                throw new IllegalArgumentException("Cannot write container fields file @"
-                                                   + path
-                                                   + " error : "
-                                                   + ex);
+            writeContainerFields(containerFieldsFile, containerRequest, path);
+
+            if (creating && objectIdIndex != null) {
+                objectIdIndex.put(containerRequest.getObjectID(), path);
             }
+            if (creating && childIndex != null) {
+                childIndex.add(layout.container(directory), directory.getName() + "/");
+            }
+            changed(creating ? Change.Operation.CREATE : Change.Operation.UPDATE, true,
+                    containerRequest.getObjectID(), path, null);
 
             //
             // Transient fields
@@ -210,7 +437,7 @@ public class ContainerDaoImpl implements ContainerDao {
             // Complete response with fields dynamically generated from directory info.
             //
 
-            return completeContainer(containerRequest, directory, path);
+            return completeContainer(containerRequest, cdmiPath, 0, Long.MAX_VALUE);
 
         } else { // Moving a Container
 
@@ -239,6 +466,7 @@ public class ContainerDaoImpl implements ContainerDao {
             // Move Container directory
             //
 
+            layout.prepare(directory);
             sourceContainerFile.renameTo(directory);
 
             //
@@ -247,7 +475,26 @@ public class ContainerDaoImpl implements ContainerDao {
 
             File sourceContainerFieldsFile = getContainerFieldsFile(containerRequest.getMove());
 
-            sourceContainerFieldsFile.renameTo(containerFieldsFile);
+            try {
+                metadataStore().move(sourceContainerFieldsFile, containerFieldsFile);
+            } catch (IOException ex) {
+                LOG.error("Exception while moving", ex);
+                throw new IllegalArgumentException("Cannot move container fields file @"
+                                                   + path
+                                                   + " error : "
+                                                   + ex);
+            }
+
+            invalidate(sourceContainerFieldsFile);
+            invalidate(containerFieldsFile);
+            if (metadataCache != null) {
+                metadataCache.invalidateTree(sourceContainerFile);
+            }
+            if (childIndex != null) {
+                childIndex.remove(layout.container(sourceContainerFile),
+                        sourceContainerFile.getName() + "/");
+                childIndex.add(layout.container(directory), directory.getName() + "/");
+            }
 
             //
             // Get the containers field's to return in response
@@ -279,20 +526,28 @@ public class ContainerDaoImpl implements ContainerDao {
                 // Write created or updated persisted fields out to the "." file
                 //
 
-                try {
-                    FileWriter fstream = new FileWriter(containerFieldsFile.getAbsolutePath());
-                    try (BufferedWriter out = new BufferedWriter(fstream)) {
-                        out.write(containerRequest.toJson(true)); // Save it
-                    }
-                } catch (Exception ex) {
-                    LOG.error("Exception while writing", ex);
-                    throw new IllegalArgumentException("Cannot write container fields file @"
-                                                       + path
-                                                       + " error : "
-                                                       + ex);
-                }
+                writeContainerFields(containerFieldsFile, movedContainer, path);
+            }
+
+            sync(sourceContainerFile.getParentFile());
+            sync(directory.getParentFile());
 
+            //
+            // Record the new paths of the container and everything in it
+            //
+
+            if (objectIdIndex != null) {
+                objectIdIndex.put(movedContainer.getObjectID(), path);
+                objectIdIndex.putTree(directory, path);
             }
+            if (metadataIndex != null) {
+                metadataIndex.moveTree(containerRequest.getMove(), path);
+            }
+            if (accessTracker != null) {
+                accessTracker.moveTree(containerRequest.getMove(), path);
+            }
+            changed(Change.Operation.MOVE, true, movedContainer.getObjectID(), path,
+                    containerRequest.getMove());
 
             //
             // Transient fields
@@ -304,9 +559,382 @@ public class ContainerDaoImpl implements ContainerDao {
             // Complete response with fields dynamically generated from directory info.
             //
 
-            return completeContainer(movedContainer, directory, path);
+            return completeContainer(movedContainer, cdmiPath, 0, Long.MAX_VALUE);
+        }
+
+    }
+
+    /**
+     * <p>
+     * Create the container at <code>path</code> as a copy of the one named by the request's
+     * <code>copy</code> field. Everything in the copy gets a new object ID; the request's
+     * metadata, if any, replaces the user metadata of the copied container.
+     * </p>
+     */
+    private Container copyContainer(String path, File directory, File containerFieldsFile,
+            Container containerRequest) {
+
+        if (directory.exists()) {
+            throw new IllegalArgumentException("Cannot copy container '"
+                                               + containerRequest.getCopy()
+                                               + "' to '"
+                                               + path
+                                               + "'; Destination already exists");
+        }
+
+        File sourceDirectory = absoluteFile(containerRequest.getCopy());
+
+        if (!sourceDirectory.exists()) {
+            throw new NotFoundException("Path '"
+                                        + sourceDirectory.getAbsolutePath()
+                                        + "' does not identify an existing container");
+        }
+        if (!sourceDirectory.isDirectory() || QueueLog.isQueue(sourceDirectory)) {
+            throw new IllegalArgumentException("Path '"
+                                               + sourceDirectory.getAbsolutePath()
+                                               + "' does not identify a container");
+        }
+        Path sourcePath = sourceDirectory.toPath().toAbsolutePath().normalize();
+        if (directory.toPath().toAbsolutePath().normalize().startsWith(sourcePath)) {
+            throw new BadRequestException("Cannot copy container '"
+                                          + containerRequest.getCopy()
+                                          + "' into itself");
+        }
+
+        //
+        // Create the new container with the source's fields and a new identity
+        //
+
+        layout.prepare(directory);
+        if (!directory.mkdir()) {
+            throw new IllegalArgumentException("Cannot create container '" + path + "'");
+        }
+
+        Container copiedContainer =
+                getPersistedContainerFields(layout.metadataFile(sourceDirectory));
+
+        if (!containerRequest.getMetadata().isEmpty()) {
+            copiedContainer.setMetaData(containerRequest.getMetadata());
+        }
+        copiedContainer.setObjectID(ObjectID.getObjectID(9));
+        resetTimes(copiedContainer.getMetadata());
+        writeContainerFields(containerFieldsFile, copiedContainer, path);
+
+        if (objectIdIndex != null) {
+            objectIdIndex.put(copiedContainer.getObjectID(), path);
+        }
+        if (childIndex != null) {
+            childIndex.add(layout.container(directory), directory.getName() + "/");
         }
+        changed(Change.Operation.CREATE, true, copiedContainer.getObjectID(), path, null);
 
+        //
+        // Copy everything in it, in the background for large trees
+        //
+
+        if (treeOperations == null) {
+            recursivelyCopy(sourceDirectory, directory);
+            copiedContainer.setCompletionStatus("Complete");
+        } else if (treeOperations.copy(sourceDirectory, directory, this::copyFields, () -> { })) {
+            copiedContainer.setCompletionStatus("Complete");
+        } else {
+            TreeOperations.Progress progress = treeOperations.getProgress(directory);
+            copiedContainer.setCompletionStatus(TreeOperations.PROCESSING);
+            copiedContainer.setPercentComplete(progress == null ? 0 : progress.getPercentComplete());
+            return completeContainer(copiedContainer, resolve(path), 0, -1);
+        }
+
+        return completeContainer(copiedContainer, resolve(path), 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * <p>
+     * Write the metadata file of a copied container, data object or queue, giving it a new
+     * object ID and recording it in the object ID index. The values of a queue are copied here
+     * too, since its directory is not walked like that of a container.
+     * </p>
+     *
+     * @param source
+     *            Directory of the source container or queue, or value file of the source data
+     *            object
+     * @param target
+     *            The copied directory or value file
+     */
+    private void copyFields(File source, File target) {
+        File sourceFieldsFile = layout.metadataFile(source);
+        File targetFieldsFile = layout.metadataFile(target);
+        String path = relativePath(target);
+        boolean queue = QueueLog.isQueue(source);
+        if (queue) {
+            try {
+                QueueLog.copy(source, target, durableWriter);
+            } catch (IOException ex) {
+                LOG.error("Exception while writing", ex);
+                throw new IllegalArgumentException("Cannot write Queue @"
+                                                   + path
+                                                   + " error : "
+                                                   + ex);
+            }
+        }
+        if (!metadataStore().exists(sourceFieldsFile)) {
+            // not created through CDMI, so there is nothing to copy
+            return;
+        }
+        String objectID;
+        if (queue) {
+            objectID = copyQueueFields(sourceFieldsFile, targetFieldsFile, path);
+        } else if (source.isDirectory()) {
+            Container fields = readPersistedContainerFields(sourceFieldsFile);
+            objectID = ObjectID.getObjectID(9);
+            fields.setObjectID(objectID);
+            resetTimes(fields.getMetadata());
+            writeContainerFields(targetFieldsFile, fields, path);
+        } else {
+            try {
+                DataObject fields = new DataObject();
+                fields.fromJson(metadataStore().read(sourceFieldsFile), true);
+                objectID = ObjectID.getObjectID(8);
+                fields.setObjectID(objectID);
+                fields.setMetadata("cdmi_ctime", now());
+                fields.setMetadata("cdmi_atime", "never");
+                fields.setMetadata("cdmi_acount", "0");
+                fields.setMetadata("fileName", target.getAbsolutePath());
+                fields.setMetadata("metadataFileName", targetFieldsFile.getAbsolutePath());
+                if (durableWriter != null) {
+                    durableWriter.force(target.toPath());
+                }
+                metadataStore().write(targetFieldsFile, binaryMetadata
+                        ? BinaryJson.toBinary(fields::writeMetadataJson)
+                        : fields.metadataToJson().getBytes(StandardCharsets.UTF_8));
+                if (metadataIndex != null) {
+                    metadataIndex.put(objectID, path, fields.getMetadata(), false);
+                }
+            } catch (Exception ex) {
+                LOG.error("Exception while writing", ex);
+                throw new IllegalArgumentException("Cannot write Object @"
+                                                   + path
+                                                   + " error : "
+                                                   + ex);
+            }
+        }
+        if (objectIdIndex != null) {
+            objectIdIndex.put(objectID, path);
+        }
+        changed(Change.Operation.CREATE, source.isDirectory() && !queue, objectID, path, null);
+    }
+
+    /**
+     * <p>
+     * Write the metadata file of a copied queue and return its new object ID.
+     * </p>
+     */
+    private String copyQueueFields(File sourceFieldsFile, File targetFieldsFile, String path) {
+        try {
+            Queue fields = new Queue();
+            fields.fromJson(metadataStore().read(sourceFieldsFile), true);
+            String objectID = ObjectID.getObjectID(10);
+            fields.setObjectID(objectID);
+            fields.setMetadata("cdmi_ctime", now());
+            byte[] binary = BinaryJson.toBinary(fields::writeMetadataJson);
+            metadataStore().write(targetFieldsFile,
+                    binaryMetadata ? binary : BinaryJson.toJson(binary));
+            if (metadataIndex != null) {
+                metadataIndex.put(objectID, path, fields.getMetadata(), false);
+            }
+            return objectID;
+        } catch (Exception ex) {
+            LOG.error("Exception while writing", ex);
+            throw new IllegalArgumentException("Cannot write Queue @"
+                                               + path
+                                               + " error : "
+                                               + ex);
+        }
+    }
+
+    /**
+     * <p>
+     * Copy the content of <code>source</code> into <code>target</code> on the calling thread.
+     * </p>
+     */
+    private void recursivelyCopy(File source, File target) {
+        for (File file : layout.children(source)) {
+            File copy = layout.child(target, file.getName());
+            layout.prepare(copy);
+            if (file.isDirectory()) {
+                copy.mkdir();
+                copyFields(file, copy);
+                if (!QueueLog.isQueue(file)) {
+                    recursivelyCopy(file, copy);
+                }
+            } else {
+                if (contentStore != null) {
+                    contentStore.copy(file, copy);
+                } else {
+                    TreeOperations.copyFile(file, copy);
+                }
+                copyFields(file, copy);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Set the system times of a newly copied container.
+     * </p>
+     */
+    private static void resetTimes(Map<String, String> metadata) {
+        metadata.put("cdmi_ctime", now());
+        metadata.put("cdmi_mtime", "never");
+        metadata.put("cdmi_atime", "never");
+        metadata.put("cdmi_acount", "0");
+        metadata.put("cdmi_mcount", "0");
+    }
+
+    private static String now() {
+        return Timestamps.now();
+    }
+
+    /**
+     * <p>
+     * Write the persisted fields of a container to the metadata store, which also makes a newly
+     * created container directory durable.
+     * </p>
+     */
+    private void writeContainerFields(File containerFieldsFile, Container container, String path) {
+        try {
+            metadataStore().write(containerFieldsFile, binaryMetadata
+                    ? BinaryJson.toBinary(g -> container.writeJson(g, true))
+                    : container.toJson(true).getBytes(StandardCharsets.UTF_8));
+            invalidate(containerFieldsFile);
+            if (metadataIndex != null) {
+                metadataIndex.put(container.getObjectID(), path, container.getMetadata(),
+                        true);
+            }
+        } catch (Exception ex) {
+            LOG.error("Exception while writing", ex);
+            throw new IllegalArgumentException("Cannot write container fields file @"
+                                               + path
+                                               + " error : "
+                                               + ex);
+        }
+    }
+
+    /**
+     * <p>
+     * Publish a change to the change feed, if we have one.
+     * </p>
+     */
+    private void changed(Change.Operation operation, boolean isContainer, String objectID,
+            String path, String source) {
+        if (changeFeed != null) {
+            changeFeed.publish(operation, isContainer ? MediaTypes.CONTAINER
+                    : MediaTypes.DATA_OBJECT, objectID, path, source);
+        }
+    }
+
+    /**
+     * <p>
+     * Return the injected metadata store, or one keeping "." files if none was injected.
+     * </p>
+     */
+    private MetadataStore metadataStore() {
+        if (metadataStore == null) {
+            SidecarMetadataStore sidecars = new SidecarMetadataStore();
+            sidecars.setLayout(layout);
+            sidecars.setDurableWriter(durableWriter);
+            metadataStore = sidecars;
+        }
+        return metadataStore;
+    }
+
+    /**
+     * <p>
+     * Read the object ID from the persisted fields of a container or data object, or return
+     * <code>null</code> if there is none.
+     * </p>
+     */
+    private String readObjectId(File fieldsFile) {
+        try {
+            return ObjectIdIndex.readObjectId(metadataStore().read(fieldsFile));
+        } catch (IOException ex) {
+            LOG.warn("Cannot read object ID from {}: {}", fieldsFile, ex.toString());
+            return null;
+        }
+    }
+
+    /**
+     * <p>
+     * Return the capabilities of the parent of a new container, which it gets unless its
+     * creation request names others.
+     * </p>
+     */
+    private String inheritedCapabilities(File directory) {
+        File parent = layout.container(directory);
+        if (parent == null || parent.getAbsoluteFile().equals(baseDirectory().getAbsoluteFile())) {
+            return CapabilityDaoImpl.DEFAULT_CONTAINER;
+        }
+        File parentFieldsFile = layout.metadataFile(parent);
+        if (!metadataStore().exists(parentFieldsFile)) {
+            return CapabilityDaoImpl.DEFAULT_CONTAINER;
+        }
+        String capabilitiesURI = getPersistedContainerFields(parentFieldsFile).getCapabilitiesURI();
+        return CapabilityDaoImpl.isContainerCapabilities(capabilitiesURI)
+                ? capabilitiesURI : CapabilityDaoImpl.DEFAULT_CONTAINER;
+    }
+
+    /**
+     * <p>
+     * Read the content address of a data object from its fields file, if it has one.
+     * </p>
+     */
+    private String readHash(File fieldsFile) {
+        try {
+            byte[] bytes = metadataStore().read(fieldsFile);
+            if (bytes == null) {
+                return null;
+            }
+            DataObject fields = new DataObject();
+            fields.fromJson(bytes, true);
+            return ContentStore.address(fields.getMetadata());
+        } catch (Exception ex) {
+            LOG.warn("Cannot read content address from {}: {}", fieldsFile, ex.toString());
+            return null;
+        }
+    }
+
+    /**
+     * <p>
+     * Make the entries of <code>directory</code> durable if we have a durable writer.
+     * </p>
+     */
+    private void sync(File directory) {
+        if (durableWriter != null) {
+            try {
+                durableWriter.sync(directory.toPath());
+            } catch (IOException ex) {
+                LOG.error("Exception while syncing", ex);
+                throw new IllegalArgumentException("Cannot sync directory @"
+                                                   + directory
+                                                   + " error : "
+                                                   + ex);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Return the path of the container or data object at <code>file</code>, which is below our
+     * base directory.
+     * </p>
+     */
+    private String relativePath(File file) {
+        File base = baseDirectory().getAbsoluteFile();
+        StringBuilder path = new StringBuilder();
+        for (File f = file.getAbsoluteFile(); f != null && !base.equals(f);
+                f = layout.container(f)) {
+            path.insert(0, path.length() == 0 ? f.getName() : f.getName() + "/");
+        }
+        return path.toString();
     }
 
     //
@@ -316,30 +944,150 @@ public class ContainerDaoImpl implements ContainerDao {
     // PathResource.
     //
     @Override
-    public void deleteByPath(String path) {
+    public boolean deleteByPath(String path) {
         File directoryOrFile = absoluteFile(path);
 
+        if (!directoryOrFile.isDirectory()) {
+            if (accessTracker == null) {
+                deleteDataObject(path, directoryOrFile);
+            } else {
+                // a batch of accesses written meanwhile would recreate the metadata
+                synchronized (accessTracker.lockFor(path)) {
+                    accessTracker.forget(path);
+                    deleteDataObject(path, directoryOrFile);
+                }
+            }
+            return true;
+        }
+
+        if (accessTracker != null) {
+            accessTracker.forgetTree(path);
+        }
+        if (treeOperations != null) {
+            // large trees are deleted in the background, reporting progress to findByPath()
+            return treeOperations.delete(directoryOrFile, this::forget,
+                    () -> deleted(path, directoryOrFile, true));
+        }
+
+        //
+        // Forget the object IDs and metadata of everything being deleted
         //
 
-        if (directoryOrFile.isDirectory()) {
-            recursivelyDelete(directoryOrFile);
-        } else {
-            directoryOrFile.delete();
+        if (objectIdIndex != null) {
+            objectIdIndex.removeTree(directoryOrFile);
+        }
+        if (metadataIndex != null) {
+            metadataIndex.removeTree(directoryOrFile);
+        }
+        recursivelyDelete(directoryOrFile);
+        deleted(path, directoryOrFile, true);
+        return true;
+    }
+
+    /**
+     * <p>
+     * Delete the data object whose value file is <code>file</code>, with its metadata.
+     * </p>
+     */
+    private void deleteDataObject(String path, File file) {
+        String hash = contentStore == null ? null : readHash(layout.metadataFile(file));
+        String objectId = forget(file);
+        file.delete();
+        deleted(path, file, false);
+        changed(Change.Operation.DELETE, false, objectId, path, null);
+        if (hash != null) {
+            contentStore.release(hash);
+        }
+    }
+
+    /**
+     * <p>
+     * Forget the object ID and metadata of a container or data object that is about to be deleted.
+     * </p>
+     *
+     * @param directoryOrFile
+     *            Directory of the container or value file of the data object
+     *
+     * @return the object ID, or <code>null</code> if it was not needed or is unknown
+     */
+    private String forget(File directoryOrFile) {
+        if (objectIdIndex == null && metadataIndex == null && changeFeed == null) {
+            return null;
+        }
+        String objectId = readObjectId(layout.metadataFile(directoryOrFile));
+        if (objectIdIndex != null) {
+            objectIdIndex.remove(objectId);
+        }
+        if (metadataIndex != null) {
+            metadataIndex.remove(objectId);
+        }
+        return objectId;
+    }
+
+    /**
+     * <p>
+     * Finish the deletion of a container or data object once its directory or value file is gone.
+     * </p>
+     */
+    private void deleted(String path, File directoryOrFile, boolean isDirectory) {
+        String objectId = null;
+        if (isDirectory) {
+            objectId = forget(directoryOrFile);
+            if (metadataCache != null) {
+                metadataCache.invalidateTree(directoryOrFile);
+            }
+            if (contentStore != null) {
+                // the values of the tree are released in one pass over the store
+                contentStore.collectLater();
+            }
         }
 
         //
         // remove the "." file that contains the Container or Object's JSON-encoded
         // metadata
         //
-        getContainerFieldsFile(path).delete();
+        File containerFieldsFile = getContainerFieldsFile(path);
+        try {
+            metadataStore().delete(containerFieldsFile);
+        } catch (IOException ex) {
+            LOG.warn("Cannot delete fields of {}: {}", path, ex.toString());
+        }
+        invalidate(containerFieldsFile);
+
+        if (childIndex != null) {
+            childIndex.remove(layout.container(directoryOrFile),
+                    isDirectory ? directoryOrFile.getName() + "/" : directoryOrFile.getName());
+        }
+        if (isDirectory) {
+            changed(Change.Operation.DELETE, true, objectId, path, null);
+        }
     }
 
-    //
-    // Not Implemented
-    //
     @Override
     public Container findByObjectId(String objectId) {
-        throw new UnsupportedOperationException("ContainerDaoImpl.findByObjectId()");
+        String path = findPathByObjectId(objectId);
+        if (path == null || !isContainer(path)) {
+            return null;
+        }
+        return findByPath(path);
+    }
+
+    @Override
+    public String findPathByObjectId(String objectId) {
+        if (objectIdIndex == null) {
+            throw new UnsupportedOperationException("ContainerDaoImpl.findPathByObjectId()");
+        }
+        String path = objectIdIndex.get(objectId);
+        if (path == null) {
+            return null;
+        }
+        if (path.isEmpty() || !objectId.equals(readObjectId(getContainerFieldsFile(path)))) {
+            // the index is stale, e.g. after a crash or a change made outside the server
+            LOG.debug("Dropping stale object ID {} for {}", objectId, path);
+            objectIdIndex.remove(objectId);
+            return null;
+        }
+        return path;
     }
 
     //
@@ -347,10 +1095,19 @@ public class ContainerDaoImpl implements ContainerDao {
     //
     @Override
     public Container findByPath(String path) {
+        return findByPath(path, 0, Long.MAX_VALUE);
+    }
 
-        LOG.trace("In ContainerDAO.findByPath : {}", path);
+    @Override
+    public Container findByPath(String path, long firstChild, long lastChild) {
+
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("In ContainerDAO.findByPath : {} children {}-{}", path, firstChild,
+                      lastChild);
+        }
 
-        File directory = absoluteFile(path);
+        CdmiPath cdmiPath = resolve(path);
+        File directory = cdmiPath.getFile();
 
         if (!directory.exists()) {
             throw new NotFoundException("Path '"
@@ -370,7 +1127,7 @@ public class ContainerDaoImpl implements ContainerDao {
             //
             // Read the persisted container fields from the "." file
             //
-            requestedContainer = getPersistedContainerFields(getContainerFieldsFile(path));
+            requestedContainer = getPersistedContainerFields(cdmiPath.getMetadataFile());
 
         } else {
 
@@ -379,11 +1136,22 @@ public class ContainerDaoImpl implements ContainerDao {
             // Dynamically generate the default values
             //
 
-            requestedContainer.setCapabilitiesURI("/cdmi_capabilities/container/default");
+            requestedContainer.setCapabilitiesURI(CapabilityDaoImpl.DEFAULT_CONTAINER);
             requestedContainer.setDomainURI("/cdmi_domains/default_domain");
         }
 
-        return completeContainer(requestedContainer, directory, path);
+        TreeOperations.Progress progress =
+                treeOperations == null ? null : treeOperations.getProgress(directory);
+        if (progress != null) {
+            //
+            // The tree is changing underneath us; report progress instead of children
+            //
+            requestedContainer.setCompletionStatus(progress.getStatus());
+            requestedContainer.setPercentComplete(progress.getPercentComplete());
+            return completeContainer(requestedContainer, cdmiPath, 0, -1);
+        }
+
+        return completeContainer(requestedContainer, cdmiPath, firstChild, lastChild);
     }
 
     //
@@ -399,64 +1167,52 @@ public class ContainerDaoImpl implements ContainerDao {
      */
     private File getContainerFieldsFile(String path) {
         // path should be /<parent container name>/<container name>
-        String[] tokens = path.split("[/]+");
-        if (tokens.length < 1) {
+        CdmiPath cdmiPath = resolve(path);
+        if (cdmiPath.isRoot() && !path.isEmpty()) {
             throw new BadRequestException("No object name in path <" + path + ">");
         }
-        String containerName = tokens[tokens.length - 1];
-        String containerFieldsFileName = "." + containerName;
-        // piece together parent container name
-        // FIXME : This is the kludge way !
-        String parentContainerName = "";
-        for (int i = 0; i <= tokens.length - 2; i++) {
-            parentContainerName += tokens[i] + "/";
-        }
-        LOG.trace("Path = {}", path);
-        LOG.trace("Parent Container Name = {} Container Name == {}",
-                           parentContainerName, containerName);
-
+        return cdmiPath.getMetadataFile();
+    }
 
-        File baseDirectory1, parentContainerDirectory, containerFieldsFile;
-        try {
-            LOG.trace("baseDirectory = {}", baseDirectoryName);
-            baseDirectory1 = new File(baseDirectoryName + "/");
-            LOG.trace("Base Directory Absolute Path = {}", baseDirectory1.getAbsolutePath());
-            parentContainerDirectory = new File(baseDirectory1, parentContainerName);
-            //
-            LOG.trace("Parent Container Absolute Path = {}",
-                               parentContainerDirectory.getAbsolutePath());
-            //
-            containerFieldsFile = new File(parentContainerDirectory, containerFieldsFileName);
-            LOG.trace("Container Metadata File Path = {}",
-                               containerFieldsFile.getAbsolutePath());
-        } catch (Exception ex) {
-            LOG.error("Exception while building File objects: ", ex);
-            throw new IllegalArgumentException("Cannot build Object @" + path + " error : " + ex);
+    /**
+     * <p>
+     * Return a {@link Container} instance for the container fields, from the metadata cache if
+     * possible.
+     * </p>
+     *
+     * @param containerFieldsFile
+     *            File object for the container fields file.
+     */
+    private Container getPersistedContainerFields(File containerFieldsFile) {
+        if (metadataCache == null) {
+            return readPersistedContainerFields(containerFieldsFile);
         }
-        return containerFieldsFile;
+        return new Container(metadataCache.get(containerFieldsFile,
+                metadataStore().stamp(containerFieldsFile), Container.class,
+                this::readPersistedContainerFields));
     }
 
     /**
      * <p>
-     * Return a {@link Container} instance for the container fields.
+     * Read a {@link Container} instance from the container fields file.
      * </p>
      *
      * @param containerFieldsFile
      *            File object for the container fields file.
      */
-    private Container getPersistedContainerFields(File containerFieldsFile) {
+    private Container readPersistedContainerFields(File containerFieldsFile) {
         Container containerFields = new Container();
         try {
-            try (FileInputStream in = new FileInputStream(containerFieldsFile.getAbsolutePath())) {
-                int inpSize = in.available();
-                LOG.trace("Container fields file size: {}", inpSize);
-
-                byte[] inBytes = new byte[inpSize];
-                in.read(inBytes);
+            byte[] inBytes = metadataStore().read(containerFieldsFile);
+            if (inBytes == null) {
+                throw new FileNotFoundException(containerFieldsFile.getAbsolutePath());
+            }
+            LOG.trace("Container fields file size: {}", inBytes.length);
 
-                containerFields.fromJson(inBytes, true);
-                String mds = new String(inBytes);
-                LOG.trace("Container fields read were: {}", mds);
+            containerFields.fromJson(inBytes, true);
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("Container fields read were: {}",
+                          new String(BinaryJson.toJson(inBytes), StandardCharsets.UTF_8));
             }
         } catch (Exception ex) {
             LOG.error("Exception while reading: ", ex);
@@ -475,11 +1231,27 @@ public class ContainerDaoImpl implements ContainerDao {
      *            Path of the requested file or directory.
      */
     public File absoluteFile(String path) {
-        if (path == null) {
-            return baseDirectory();
-        } else {
-            return new File(baseDirectory(), path);
+        return resolve(path).getFile();
+    }
+
+    /**
+     * <p>
+     * Return the resolved form of the specified path, the root container if it is
+     * <code>null</code>.
+     * </p>
+     *
+     * @param path
+     *            Path of the requested container or data object.
+     */
+    private CdmiPath resolve(String path) {
+        File base = baseDirectory();
+        if (pathResolver == null) {
+            PathResolver resolver = new PathResolver();
+            resolver.setBaseDirectoryName(base.getPath());
+            resolver.setLayout(layout);
+            pathResolver = resolver;
         }
+        return pathResolver.resolve(path);
     }
 
     private File baseDirectory = null;
@@ -515,46 +1287,37 @@ public class ContainerDaoImpl implements ContainerDao {
      *
      * @param container
      *            The requested container with persisted fields
-     * @param directory
-     *            Directory of the requested container
-     * @param path
-     *            Path of the requested container
+     * @param cdmiPath
+     *            Resolved path of the requested container
+     * @param firstChild
+     *            Position of the first child to list
+     * @param lastChild
+     *            Position of the last child to list
      *
      * @exception NotFoundException
      *                if the specified path does not identify a valid resource
      * @exception IllegalArgumentException
      *                if the specified path identifies a data object instead of a container
      */
-    private Container completeContainer(Container container, File directory, String path) {
-        LOG.trace("In ContainerDaoImpl.Container, path is: {}", path);
-
-        LOG.trace("In ContainerDaoImpl.Container, absolute path is: {}",
-                           directory.getAbsolutePath());
+    private Container completeContainer(Container container, CdmiPath cdmiPath, long firstChild,
+            long lastChild) {
+        LOG.trace("In ContainerDaoImpl.Container, path is: {}", cdmiPath);
 
+        File directory = cdmiPath.getFile();
 
         container.setObjectType("application/cdmi-container");
 
-
-
         //
         // Derive ParentURI
         //
 
-        String parentURI = "/";
+        String parentURI = cdmiPath.getParentURI();
+        LOG.trace("In ContainerDaoImpl.Container, ParentURI = {}", parentURI);
 
-        if (path != null) {
-            String[] tokens = path.split("[/]+");
-            String containerName = tokens[tokens.length - 1];
-            // FIXME : This is the kludge way !
-            for (int i = 0; i <= tokens.length - 2; i++) {
-                parentURI += tokens[i] + "/";
-            }
-            LOG.trace("In ContainerDaoImpl.Container, ParentURI = {}"
-                               + " Container Name = {}", parentURI, containerName);
-            // Check for illegal top level container names
-            if (parentURI.matches("/") && containerName.startsWith("cdmi")) {
-                throw new BadRequestException("Root container names must not start with cdmi");
-            }
+        // Check for illegal top level container names
+        if (!cdmiPath.isRoot() && cdmiPath.getParent().isEmpty()
+            && cdmiPath.getName().startsWith("cdmi")) {
+            throw new BadRequestException("Root container names must not start with cdmi");
         }
 
         container.setParentURI(parentURI);
@@ -566,27 +1329,48 @@ public class ContainerDaoImpl implements ContainerDao {
 
         List<String> children = container.getChildren();
 
-        for (File file : directory.listFiles()) {
-            String name = file.getName();
-            if (file.isDirectory()) {
-                children.add(name + "/");
-            } else {
-                if (!file.getName().startsWith(".")) {
+        if (lastChild < firstChild) {
+            // no children requested
+        } else if (childIndex != null) {
+            childIndex.list(directory, firstChild, lastChild, children);
+        } else {
+            for (File file : layout.children(directory)) {
+                String name = file.getName();
+                if (file.isDirectory() && !QueueLog.isQueue(file)) {
+                    children.add(name + "/");
+                } else {
                     children.add(name);
                 }
             }
+            Collections.sort(children);
+            int from = (int) Math.min(firstChild, children.size());
+            int to = (int) Math.min(lastChild, children.size() - 1) + 1;
+            List<String> page = new ArrayList<String>(children.subList(from, Math.max(from, to)));
+            children.clear();
+            children.addAll(page);
         }
 
         if (children.size() > 0) {
             // has children - set the range
-            int lastindex = children.size() - 1;
-            String childrange = "0-" + lastindex;
+            long lastindex = firstChild + children.size() - 1;
+            String childrange = firstChild + "-" + lastindex;
             container.setChildrenrange(childrange);
         }
 
         return container;
     }
 
+    /**
+     * <p>
+     * Drop the cached contents of a container fields file that has been written or removed.
+     * </p>
+     */
+    private void invalidate(File containerFieldsFile) {
+        if (metadataCache != null) {
+            metadataCache.invalidate(containerFieldsFile);
+        }
+    }
+
     /**
      * <p>
      * Delete the specified directory, after first recursively deleting any contents within it.
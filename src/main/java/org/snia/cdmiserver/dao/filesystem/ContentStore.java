@@ -0,0 +1,524 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Content-addressed store that keeps one physical copy of every distinct value. Values are hashed
+ * with SHA-256 while they are received, and the first value with a digest is hard linked into
+ * <code>.cdmi_cas/</code> below the base directory under that digest. A later value with the
+ * same digest is not kept: the value file of its data object becomes another hard link to the
+ * stored copy. Copies of data objects are hard links as well, so identical uploads and copies
+ * only cost metadata writes.
+ * </p>
+ *
+ * <p>
+ * The value files of data objects stay where they are, so values are read as before. The number
+ * of links of a stored copy, kept by the filesystem, is its reference count: it drops as value
+ * files are replaced or deleted, and a copy linked only from the store is removed by
+ * {@link #release(String)} or by a later {@link #collect()}. Linking a digest and removing it are
+ * serialized per digest, so concurrent uploads and deletes of the same value are safe. A value
+ * file with more than one link is shared and must be replaced by a private copy with
+ * {@link #unshare(Path)} before it is changed in place. The caller holds
+ * {@link #fileLockFor(Path)} from then until the change is done, and {@link #copy(File, File)}
+ * takes the same lock, so that no copy links to the value file in between.
+ * </p>
+ *
+ * <p>
+ * The base directory must be on a filesystem supporting hard links and the "unix" file attribute
+ * view.
+ * </p>
+ */
+public class ContentStore implements ContentStoreMBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContentStore.class);
+
+    private static final String STORE_DIRECTORY = ".cdmi_cas";
+    private static final String LINK_SUFFIX = ".lnk";
+    private static final String TEMP_PREFIX = ".cdmi_unshare_";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    // Stored values are linked and removed under one of these, chosen by digest
+    private final Object[] locks = new Object[64];
+    // Value files are copied and changed in place under one of these, chosen by path
+    private final Object[] fileLocks = new Object[64];
+
+    {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+            fileLocks[i] = new Object();
+        }
+    }
+
+    private final AtomicBoolean collectionPending = new AtomicBoolean();
+
+    private final LongAdder storedValues = new LongAdder();
+    private final LongAdder deduplicatedValues = new LongAdder();
+    private final LongAdder deduplicatedBytes = new LongAdder();
+    private final LongAdder linkedCopies = new LongAdder();
+    private final LongAdder removedValues = new LongAdder();
+
+    private ExecutorService collector = null;
+
+    // -------------------------------------------------------------- Properties
+    private String baseDirectoryName = null;
+
+    /**
+     * <p>
+     * Set the base directory below which the stored values are kept.
+     * </p>
+     *
+     * @param baseDirectoryName
+     *            The new base directory
+     */
+    public void setBaseDirectoryName(String baseDirectoryName) {
+        this.baseDirectoryName = baseDirectoryName;
+    }
+
+    private DurableWriter durableWriter = null;
+
+    /**
+     * <p>
+     * Set the writer that makes stored values survive a crash. Without one, links are created
+     * without being forced to disk.
+     * </p>
+     *
+     * @param durableWriter
+     *            The new durable writer
+     */
+    public void setDurableWriter(DurableWriter durableWriter) {
+        this.durableWriter = durableWriter;
+    }
+
+    // ---------------------------------------------------------- Public Methods
+
+    /**
+     * <p>
+     * Return a new digest computing the content address of a value.
+     * </p>
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+
+    /**
+     * <p>
+     * Return the content address of a value as upper case hexadecimal, the encoding of the
+     * <code>cdmi_hash</code> metadata item.
+     * </p>
+     *
+     * @param digest
+     *            Digest that has been fed the whole value
+     */
+    public static String toHex(MessageDigest digest) {
+        byte[] bytes = digest.digest();
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * <p>
+     * Return the address in the store of the value of a data object, or <code>null</code> if it
+     * has no <code>cdmi_hash</code>. The address is the digest of the value, unless the value
+     * file holds the value compressed as named by <code>cdmi_compression</code>.
+     * </p>
+     *
+     * @param metadata
+     *            Metadata of the data object
+     */
+    public static String address(Map<String, String> metadata) {
+        String hash = metadata.get("cdmi_hash");
+        String compression = metadata.get("cdmi_compression");
+        if (hash == null || compression == null) {
+            return hash;
+        }
+        MessageDigest digest = newDigest();
+        digest.update((hash + "/" + compression).getBytes(StandardCharsets.US_ASCII));
+        return toHex(digest);
+    }
+
+    /**
+     * <p>
+     * Atomically replace <code>target</code> with the fully written file <code>temp</code>,
+     * which must be in the same directory and whose content has the digest <code>hash</code>. If
+     * a value with that digest is already stored, <code>target</code> becomes a link to it and
+     * <code>temp</code> is left for the caller to delete; otherwise <code>temp</code> is stored
+     * and renamed to <code>target</code>.
+     * </p>
+     *
+     * @param temp
+     *            The new value
+     * @param hash
+     *            Address of the new value, as returned by {@link #address(Map)}
+     * @param target
+     *            Value file to replace
+     */
+    public void commit(Path temp, String hash, Path target) throws IOException {
+        Path stored = storedValue(hash);
+        Path link = temp.resolveSibling(temp.getFileName() + LINK_SUFFIX);
+        boolean deduplicated;
+        synchronized (lockFor(hash)) {
+            deduplicated = Files.exists(stored);
+            if (deduplicated) {
+                // the new link keeps the stored value from being collected
+                Files.createLink(link, stored);
+            } else {
+                Files.createDirectories(stored.getParent());
+                if (durableWriter != null) {
+                    durableWriter.force(temp);
+                }
+                Files.createLink(stored, temp);
+            }
+        }
+        if (deduplicated) {
+            try {
+                move(link, target);
+            } finally {
+                Files.deleteIfExists(link);
+            }
+            deduplicatedValues.increment();
+            deduplicatedBytes.add(Files.size(target));
+            LOG.trace("Linked {} to stored value {}", target, hash);
+        } else {
+            if (durableWriter != null) {
+                durableWriter.sync(stored.getParent());
+            }
+            move(temp, target);
+            storedValues.increment();
+            LOG.trace("Stored value {} of {}", hash, target);
+        }
+    }
+
+    /**
+     * <p>
+     * Remove the stored value with the address <code>hash</code> if no value file links to it
+     * any more. Called after a value file with that address has been replaced or deleted.
+     * </p>
+     *
+     * @param hash
+     *            Address of the value that was dropped
+     */
+    public void release(String hash) {
+        if (hash == null || !isHash(hash)) {
+            return;
+        }
+        remove(storedValue(hash));
+    }
+
+    /**
+     * <p>
+     * Copy the value file <code>source</code> to the new file <code>target</code> by linking it,
+     * falling back to copying the bytes if it cannot be linked.
+     * </p>
+     *
+     * @exception UncheckedIOException
+     *                if the file cannot be copied
+     */
+    public void copy(File source, File target) {
+        synchronized (fileLockFor(source.toPath())) {
+            try {
+                Files.createLink(target.toPath(), source.toPath());
+                linkedCopies.increment();
+            } catch (FileAlreadyExistsException ex) {
+                throw new UncheckedIOException("Cannot copy " + source + " to " + target, ex);
+            } catch (IOException | UnsupportedOperationException ex) {
+                LOG.debug("Cannot link {} to {}, copying: {}", target, source, ex.toString());
+                TreeOperations.copyFile(source, target);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Return the lock held while the value file <code>file</code> is copied, and which callers
+     * hold from {@link #unshare(Path)} until they have changed the file in place.
+     * </p>
+     *
+     * @param file
+     *            Value file of a data object
+     */
+    public Object fileLockFor(Path file) {
+        int hash = file.toAbsolutePath().normalize().hashCode();
+        return fileLocks[(hash & 0x7fffffff) % fileLocks.length];
+    }
+
+    /**
+     * <p>
+     * Replace <code>file</code> by a private copy of its content if it shares it with other
+     * value files or with the store, so that it can be changed in place. The caller holds
+     * {@link #fileLockFor(Path)} until the change is done.
+     * </p>
+     *
+     * @param file
+     *            Value file about to be changed
+     *
+     * @return <code>true</code> if the file was shared
+     */
+    public boolean unshare(Path file) throws IOException {
+        if (linkCount(file) < 2) {
+            return false;
+        }
+        Path temp = DurableWriter.createTempFile(file.getParent(), TEMP_PREFIX, TEMP_SUFFIX);
+        try {
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                long size = in.size();
+                long position = 0;
+                while (position < size) {
+                    position += in.transferTo(position, size - position, out);
+                }
+            }
+            move(temp, file);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return true;
+    }
+
+    /**
+     * <p>
+     * Remove every stored value that no value file links to any more, such as the values of
+     * deleted containers or values left behind by a crash.
+     * </p>
+     *
+     * @return the number of stored values removed
+     */
+    @Override
+    public int collect() {
+        collectionPending.set(false);
+        File[] buckets = new File(baseDirectoryName, STORE_DIRECTORY).listFiles(File::isDirectory);
+        if (buckets == null) {
+            return 0;
+        }
+        int removed = 0;
+        for (File bucket : buckets) {
+            try (DirectoryStream<Path> values = Files.newDirectoryStream(bucket.toPath())) {
+                for (Path value : values) {
+                    if (isHash(value.getFileName().toString()) && remove(value)) {
+                        removed++;
+                    }
+                }
+            } catch (IOException ex) {
+                LOG.warn("Cannot collect stored values in {}: {}", bucket, ex.toString());
+            }
+        }
+        LOG.debug("Removed {} unreferenced stored values", removed);
+        return removed;
+    }
+
+    /**
+     * <p>
+     * Run {@link #collect()} in the background, unless a collection is already waiting to run.
+     * Called after a container with any number of values has been deleted.
+     * </p>
+     */
+    public synchronized void collectLater() {
+        if (!collectionPending.compareAndSet(false, true)) {
+            return;
+        }
+        if (collector == null) {
+            collector = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "content-store-collector");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        collector.execute(this::collect);
+    }
+
+    /**
+     * <p>
+     * Stop the background collection, letting a running one finish.
+     * </p>
+     */
+    public synchronized void shutdown() {
+        if (collector != null) {
+            collector.shutdown();
+            try {
+                collector.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            collector = null;
+        }
+    }
+
+    /**
+     * <p>
+     * Return the number of distinct values stored.
+     * </p>
+     */
+    @Override
+    public long getStoredValues() {
+        return storedValues.sum();
+    }
+
+    /**
+     * <p>
+     * Return the number of values that were linked to an identical stored value instead of
+     * being stored.
+     * </p>
+     */
+    @Override
+    public long getDeduplicatedValues() {
+        return deduplicatedValues.sum();
+    }
+
+    /**
+     * <p>
+     * Return the number of bytes not stored because the values were already stored.
+     * </p>
+     */
+    @Override
+    public long getDeduplicatedBytes() {
+        return deduplicatedBytes.sum();
+    }
+
+    /**
+     * <p>
+     * Return the number of value files copied by linking them.
+     * </p>
+     */
+    @Override
+    public long getLinkedCopies() {
+        return linkedCopies.sum();
+    }
+
+    /**
+     * <p>
+     * Return the number of stored values removed because nothing linked to them any more.
+     * </p>
+     */
+    @Override
+    public long getRemovedValues() {
+        return removedValues.sum();
+    }
+
+    // --------------------------------------------------------- Private Methods
+
+    /**
+     * <p>
+     * Remove a stored value if it is only linked from the store.
+     * </p>
+     */
+    private boolean remove(Path stored) {
+        synchronized (lockFor(stored.getFileName().toString())) {
+            try {
+                if (linkCount(stored) > 1) {
+                    return false;
+                }
+                Files.delete(stored);
+            } catch (NoSuchFileException ex) {
+                return false;
+            } catch (IOException ex) {
+                LOG.warn("Cannot remove stored value {}: {}", stored, ex.toString());
+                return false;
+            }
+        }
+        removedValues.increment();
+        LOG.trace("Removed stored value {}", stored);
+        return true;
+    }
+
+    private void move(Path source, Path target) throws IOException {
+        if (durableWriter != null) {
+            // the rename is synced with that of the metadata file written next
+            durableWriter.commit(source, target);
+        } else {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private Path storedValue(String hash) {
+        return new File(baseDirectoryName, STORE_DIRECTORY).toPath()
+                .resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private Object lockFor(String hash) {
+        return locks[(hash.hashCode() & 0x7fffffff) % locks.length];
+    }
+
+    private static int linkCount(Path file) throws IOException {
+        return (Integer) Files.getAttribute(file, "unix:nlink");
+    }
+
+    /**
+     * <p>
+     * Return <code>true</code> if <code>name</code> is a digest, so that metadata supplied by
+     * clients can never address files outside the store.
+     * </p>
+     */
+    private static boolean isHash(String name) {
+        if (name.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'A' || c > 'F')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+/**
+ * <p>
+ * Management interface of {@link ContentStore}, exposing how much it saves over JMX.
+ * </p>
+ */
+public interface ContentStoreMBean {
+
+    /**
+     * <p>
+     * Return the number of distinct values stored.
+     * </p>
+     */
+    public long getStoredValues();
+
+    /**
+     * <p>
+     * Return the number of values linked to an identical stored value instead of being stored.
+     * </p>
+     */
+    public long getDeduplicatedValues();
+
+    /**
+     * <p>
+     * Return the number of bytes not stored because the values were already stored.
+     * </p>
+     */
+    public long getDeduplicatedBytes();
+
+    /**
+     * <p>
+     * Return the number of value files copied by linking them.
+     * </p>
+     */
+    public long getLinkedCopies();
+
+    /**
+     * <p>
+     * Return the number of stored values removed because nothing linked to them any more.
+     * </p>
+     */
+    public long getRemovedValues();
+
+    /**
+     * <p>
+     * Remove every stored value that no value file links to any more, returning their number.
+     * </p>
+     */
+    public int collect();
+}
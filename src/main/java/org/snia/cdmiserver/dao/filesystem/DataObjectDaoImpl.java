@@ -30,19 +30,41 @@
  */
 package org.snia.cdmiserver.dao.filesystem;
 
-import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileWriter;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
 
 import org.snia.cdmiserver.dao.ContainerDao;
 import org.snia.cdmiserver.dao.DataObjectDao;
 import org.snia.cdmiserver.exception.BadRequestException;
 import org.snia.cdmiserver.exception.ConflictException;
+import org.snia.cdmiserver.exception.NotFoundException;
+import org.snia.cdmiserver.model.Change;
+import org.snia.cdmiserver.model.Container;
 import org.snia.cdmiserver.model.DataObject;
+import org.snia.cdmiserver.util.BinaryJson;
+import org.snia.cdmiserver.util.MediaTypes;
 import org.snia.cdmiserver.util.ObjectID;
+import org.snia.cdmiserver.util.Timestamps;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -55,79 +77,234 @@ public class DataObjectDaoImpl implements DataObjectDao {
 
     private static final Logger LOG = LoggerFactory.getLogger(ContainerDaoImpl.class);
 
+    // Uploads are staged in hidden files next to their final location
+    private static final String TEMP_PREFIX = ".cdmi_upload_";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final long TRANSFER_SIZE = 1024 * 1024;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final int COMPRESSION_LEVEL = 6;
+
+    // Updates to the same data object are serialized on one of these
+    private final Object[] locks = new Object[64];
+    // Values are replaced together with their metadata under one of these, which readers take
+    // without waiting for the access times written in the background
+    private final Object[] valueLocks = new Object[64];
+
+    {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+            valueLocks[i] = new Object();
+        }
+    }
+
     // -------------------------------------------------------------- Properties
     private String baseDirectoryName = null;
+    private File baseDirectory = null;
 
     //
 
     public void setBaseDirectoryName(String baseDirectoryName) {
         this.baseDirectoryName = baseDirectoryName;
+        this.baseDirectory = baseDirectoryName == null ? null : new File(baseDirectoryName);
         LOG.trace("******* Base Directory = {}", baseDirectoryName);
     }
 
+    private ObjectIdIndex objectIdIndex = null;
+
     /**
      * <p>
-     * Injected {@link ContainerDao} instance.
+     * Set the index used to find data objects by object ID. Without one, lookups by object ID are
+     * not supported.
      * </p>
+     *
+     * @param objectIdIndex
+     *            The new object ID index
      */
+    public void setObjectIdIndex(ObjectIdIndex objectIdIndex) {
+        this.objectIdIndex = objectIdIndex;
+    }
 
-    // ---------------------------------------------------- ContainerDao Methods
-    // utility function
-    // given a path, find out metadata file name and container directory
-    String getmetadataFileName(String path) {
-        // Make sure we have a file name for the object
-        // check for file name
-        // path should be <container name>/<file name>
-        // Split path into path and filename
-        String[] tokens = path.split("/");
-        if (tokens.length < 1) {
-            throw new BadRequestException("No object name in path <" + path + ">");
-        }
-        String fileName = tokens[tokens.length - 1];
-        return "." + fileName;
+    private MetadataIndex metadataIndex = null;
+
+    /**
+     * <p>
+     * Set the index of user metadata kept up to date with every metadata write. Without one,
+     * data objects cannot be found by metadata.
+     * </p>
+     *
+     * @param metadataIndex
+     *            The new metadata index
+     */
+    public void setMetadataIndex(MetadataIndex metadataIndex) {
+        this.metadataIndex = metadataIndex;
     }
 
-    //
-    String getcontainerName(String path) {
-        // Make sure we have a file name for the object
-        // check for file name
-        // path should be <container name>/<file name>
-        // Split path into path and filename
-        String[] tokens = path.split("/");
-        if (tokens.length < 1) {
-            throw new BadRequestException("No object name in path <" + path + ">");
-        }
-        String fileName = tokens[tokens.length - 1];
-        String containerName = "";
-        for (int i = 0; i <= tokens.length - 2; i++) {
-            containerName += tokens[i] + "/";
-        }
-        return containerName;
+    private ChangeFeed changeFeed = null;
+
+    /**
+     * <p>
+     * Set the feed every create and update is published to. Without one, changes are not
+     * published.
+     * </p>
+     *
+     * @param changeFeed
+     *            The new change feed
+     */
+    public void setChangeFeed(ChangeFeed changeFeed) {
+        this.changeFeed = changeFeed;
+    }
+
+    private MetadataCache metadataCache = null;
+
+    /**
+     * <p>
+     * Set the cache of parsed metadata files. Without one, every read parses the metadata file.
+     * </p>
+     *
+     * @param metadataCache
+     *            The new metadata cache
+     */
+    public void setMetadataCache(MetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
+    private ChildIndex childIndex = null;
+
+    /**
+     * <p>
+     * Set the sorted index of container children. Without one, containers are listed by scanning their
+     * directory.
+     * </p>
+     *
+     * @param childIndex
+     *            The new child index
+     */
+    public void setChildIndex(ChildIndex childIndex) {
+        this.childIndex = childIndex;
+    }
+
+    private DurableWriter durableWriter = null;
+
+    /**
+     * <p>
+     * Set the writer that makes values and metadata files survive a crash. Without one, files are
+     * written without being forced to disk.
+     * </p>
+     *
+     * @param durableWriter
+     *            The new durable writer
+     */
+    public void setDurableWriter(DurableWriter durableWriter) {
+        this.durableWriter = durableWriter;
+    }
+
+    private StorageLayout layout = new FlatLayout();
+
+    /**
+     * <p>
+     * Set the layout of the tree on disk. Default value is a {@link FlatLayout}.
+     * </p>
+     *
+     * @param layout
+     *            The new layout
+     */
+    public void setLayout(StorageLayout layout) {
+        this.layout = layout;
+    }
+
+    private MetadataStore metadataStore = null;
+
+    /**
+     * <p>
+     * Set the store of data object metadata. Without one, metadata is kept in "." files next to
+     * the values.
+     * </p>
+     *
+     * @param metadataStore
+     *            The new metadata store
+     */
+    public void setMetadataStore(MetadataStore metadataStore) {
+        this.metadataStore = metadataStore;
+    }
+
+    private ContentStore contentStore = null;
+
+    /**
+     * <p>
+     * Set the store that keeps one copy of identical values. Without one, every value file holds
+     * its own copy.
+     * </p>
+     *
+     * @param contentStore
+     *            The new content store
+     */
+    public void setContentStore(ContentStore contentStore) {
+        this.contentStore = contentStore;
+    }
+
+    private AccessTracker accessTracker = null;
+
+    /**
+     * <p>
+     * Set the tracker through which reads update <code>cdmi_atime</code> and
+     * <code>cdmi_acount</code> in the background. Without one, the access time is only reported
+     * on the data object returned and accesses are not counted.
+     * </p>
+     *
+     * @param accessTracker
+     *            The new access tracker
+     */
+    public void setAccessTracker(AccessTracker accessTracker) {
+        this.accessTracker = accessTracker;
+        accessTracker.setWriter(this::writeAccesses);
     }
 
+    private PathResolver pathResolver = null;
+
+    /**
+     * <p>
+     * Set the resolver of data object paths, shared with the container DAO so that a request
+     * resolves its path once. Without one, paths are resolved by a resolver of this DAO.
+     * </p>
+     *
+     * @param pathResolver
+     *            The new path resolver
+     */
+    public void setPathResolver(PathResolver pathResolver) {
+        this.pathResolver = pathResolver;
+    }
+
+    private boolean binaryMetadata = true;
+
+    /**
+     * <p>
+     * Set whether persisted fields are written in the compact {@link BinaryJson} encoding rather
+     * than as JSON text. Fields are read in either encoding. Defaults to <code>true</code>.
+     * </p>
+     *
+     * @param binaryMetadata
+     *            <code>true</code> to write binary fields
+     */
+    public void setBinaryMetadata(boolean binaryMetadata) {
+        this.binaryMetadata = binaryMetadata;
+    }
+
+    /**
+     * <p>
+     * Injected {@link ContainerDao} instance.
+     * </p>
+     */
+
+    // ---------------------------------------------------- ContainerDao Methods
     @Override
     public DataObject createByPath(String path, DataObject dObj) throws Exception {
-        //
-        String metadataFileName = getmetadataFileName(path);
-        String containerName = getcontainerName(path);
-        //
-        File objFile, baseDirectory, containerDirectory, metadataFile;
-        try {
-            LOG.trace("baseDirectory = {}", baseDirectoryName);
-            baseDirectory = new File(baseDirectoryName + "/");
-            LOG.trace("Base Directory Absolute Path = {}", baseDirectory.getAbsolutePath());
-            containerDirectory = new File(baseDirectory, containerName);
-            // File directory = absoluteFile(path);
+        CdmiPath cdmiPath = resolveObject(path);
+        File containerDirectory = cdmiPath.getParentDirectory();
+        File objFile = cdmiPath.getFile();
+        File metadataFile = cdmiPath.getMetadataFile();
+        if (LOG.isTraceEnabled()) {
             LOG.trace("Container Absolute Path = {}", containerDirectory.getAbsolutePath());
-            //
-            metadataFile = new File(containerDirectory, metadataFileName);
-            LOG.trace("Metadada File Path = {}", metadataFile.getAbsolutePath());
-            objFile = new File(baseDirectory, path);
-            // File directory = absoluteFile(path);
             LOG.trace("Object Absolute Path = {}", objFile.getAbsolutePath());
-        } catch (Exception ex) {
-            LOG.error("Exception while writing: ", ex);
-            throw new IllegalArgumentException("Cannot write Object @" + path + " error : " + ex);
         }
         // check for container
         if (!containerDirectory.exists()) {
@@ -149,14 +326,12 @@ public class DataObjectDaoImpl implements DataObjectDao {
             // dObj.setObjectURI(directory.getAbsolutePath()+"/"+objectID);
             dObj.setCapabilitiesURI("/cdmi_capabilities/dataobject");
             // Add metadata
-            String val = "" + dObj.getValue();
-            dObj.setMetadata("cdmi_size", val.length() + "");
+            byte[] value = dObj.getValue() == null ? new byte[0] : dObj.getValue();
+            dObj.setMetadata("cdmi_size", value.length + "");
             // ISO-8601 Date
-            Date now = new Date();
-            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
-            dObj.setMetadata("cdmi_ctime", sdf.format(now));
+            dObj.setMetadata("cdmi_ctime", Timestamps.now());
             dObj.setMetadata("cdmi_atime", "never");
-            // dObj.setMetadata("cdmi_acount", "0");
+            dObj.setMetadata("cdmi_acount", "0");
             // dObj.setMetadata("cdmi_mcount", "0");
             // Create file
             dObj.setMetadata("fileName", objFile.getAbsolutePath());
@@ -168,44 +343,42 @@ public class DataObjectDaoImpl implements DataObjectDao {
             }
             dObj.setMetadata("mimetype", mimeType);
             //
-            try (BufferedWriter out = new BufferedWriter(new FileWriter(objFile.getAbsolutePath()))) {
-                out.write(dObj.getValue()); // Save Only the value
-            }
+            layout.prepare(objFile);
+            writeValue(objFile, new ByteArrayInputStream(value), dObj); // Save Only the value
             // write metadata file
-            LOG.trace("metadataFile : {}", metadataFileName);
+            LOG.trace("metadataFile : {}", metadataFile);
 
-            try (BufferedWriter out = new BufferedWriter(new FileWriter(metadataFile.getAbsolutePath()))) {
-                out.write(dObj.metadataToJson()); // Save it
-            }
+            writeMetadata(path, metadataFile, dObj); // Save it
         } catch (Exception ex) {
             LOG.error("Exception while writing: ", ex);
             throw new IllegalArgumentException("Cannot write Object @" + path + " error : " + ex);
         }
+        if (objectIdIndex != null) {
+            objectIdIndex.put(dObj.getObjectID(), path);
+        }
+        if (childIndex != null) {
+            childIndex.add(containerDirectory, objFile.getName());
+        }
+        if (changeFeed != null) {
+            changeFeed.publish(Change.Operation.CREATE, MediaTypes.DATA_OBJECT, dObj.getObjectID(),
+                    path, null);
+        }
         return dObj;
     }
 
 
     @Override
-    public DataObject createNonCDMIByPath(String path, String contentType, DataObject dObj) throws Exception {
-        //
-        String metadataFileName = getmetadataFileName(path);
-        String containerName = getcontainerName(path);
-        //
-        File objFile, baseDirectory, containerDirectory, metadataFile;
-        try {
-            LOG.trace("createNonCDMIByPath baseDirectory = {}", baseDirectoryName);
-            baseDirectory = new File(baseDirectoryName + "/");
-            LOG.trace("createNonCDMIByPath Base Directory Absolute Path = {}", baseDirectory.getAbsolutePath());
-            containerDirectory = new File(baseDirectory, containerName);
-            LOG.trace("createNonCDMIByPath Container Absolute Path = {}", containerDirectory.getAbsolutePath());
-            //
-            metadataFile = new File(containerDirectory, metadataFileName);
-            LOG.trace("createNonCDMIByPath Metadada File Path = {}", metadataFile.getAbsolutePath());
-            objFile = new File(baseDirectory, path);
-            LOG.trace("createNonCDMIByPath Object Absolute Path = {}", objFile.getAbsolutePath());
-        } catch (Exception ex) {
-            LOG.error("Exception while writing: ", ex);
-            throw new IllegalArgumentException("Cannot write Object @" + path + " error : " + ex);
+    public DataObject createNonCDMIByPath(String path, String contentType, DataObject dObj,
+            InputStream value) throws Exception {
+        CdmiPath cdmiPath = resolveObject(path);
+        File containerDirectory = cdmiPath.getParentDirectory();
+        File objFile = cdmiPath.getFile();
+        File metadataFile = cdmiPath.getMetadataFile();
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("createNonCDMIByPath Container Absolute Path = {}",
+                      containerDirectory.getAbsolutePath());
+            LOG.trace("createNonCDMIByPath Object Absolute Path = {}",
+                      objFile.getAbsolutePath());
         }
         // check for container
         if (!containerDirectory.exists()) {
@@ -224,40 +397,40 @@ public class DataObjectDaoImpl implements DataObjectDao {
                 dObj.setObjectID(objectID);
             }
             dObj.setCapabilitiesURI("/cdmi_capabilities/dataobject");
-            // Add metadata
-            String val = "" + dObj.getValue();
-            dObj.setMetadata("cdmi_size", val.length() + "");
+            if (contentType == null) {
+                contentType = "text/plain";
+            }
+            dObj.setMimetype(contentType);
+            // Stream the value into place
+            layout.prepare(objFile);
+            writeValue(objFile, value, dObj);
             // ISO-8601 Date
-            Date now = new Date();
-            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
-            dObj.setMetadata("cdmi_ctime", sdf.format(now));
+            dObj.setMetadata("cdmi_ctime", Timestamps.now());
             dObj.setMetadata("cdmi_atime", "never");
+            dObj.setMetadata("cdmi_acount", "0");
             // Create file
             dObj.setMetadata("fileName", objFile.getAbsolutePath());
             dObj.setMetadata("metadataFileName", metadataFile.getAbsolutePath());
-
-            dObj.setMimetype(contentType);
             LOG.trace("createNonCDMIByPath Content Type : {}", contentType);
 
             dObj.setMetadata("mimetype", contentType);
-            //
-            FileWriter fstream = new FileWriter(objFile.getAbsolutePath());
-            BufferedWriter out = new BufferedWriter(fstream);
-            out.write(dObj.getValue()); // Save Only the value
-            // Close the output stream
-            out.close();
             // write metadata file
-            LOG.trace("metadataFile : {}", metadataFileName);
-            fstream = new FileWriter(metadataFile.getAbsolutePath());
-            out = new BufferedWriter(fstream);
-            out.write(dObj.metadataToJson()); // Save it
-            // Close the output stream
-            out.close();
-            //
+            LOG.trace("metadataFile : {}", metadataFile);
+            writeMetadata(path, metadataFile, dObj); // Save it
         } catch (Exception ex) {
             LOG.error("Exception while writing: ", ex);
             throw new IllegalArgumentException("Cannot write Object @" + path + " error : " + ex);
         }
+        if (objectIdIndex != null) {
+            objectIdIndex.put(dObj.getObjectID(), path);
+        }
+        if (childIndex != null) {
+            childIndex.add(containerDirectory, objFile.getName());
+        }
+        if (changeFeed != null) {
+            changeFeed.publish(Change.Operation.CREATE, MediaTypes.DATA_OBJECT, dObj.getObjectID(),
+                    path, null);
+        }
         return dObj;
     }
 
@@ -276,75 +449,748 @@ public class DataObjectDaoImpl implements DataObjectDao {
     @Override
     public DataObject findByPath(String path) {
         LOG.trace("In findByPath : {}", path);
-        //
-        String metadataFileName = getmetadataFileName(path);
-        String containerName = getcontainerName(path);
+        CdmiPath cdmiPath = resolve(path);
+        DataObject dObj = findMetadata(path, cdmiPath);
+        if (dObj == null) {
+            return null;
+        }
+        return accessed(path, withValue(path, cdmiPath, dObj));
+    }
+
+    @Override
+    public DataObject findMetadataByPath(String path) {
+        LOG.trace("In findMetadataByPath : {}", path);
+        DataObject dObj = findMetadata(path, resolve(path));
+        return dObj == null ? null : accessed(path, dObj);
+    }
+
+    @Override
+    public boolean isDataObject(String path) {
+        return metadataStore().exists(resolve(path).getMetadataFile());
+    }
+
+    @Override
+    public SeekableByteChannel openValueByPath(String path) throws IOException {
+        return openValue(path, resolve(path));
+    }
+
+    /**
+     * <p>
+     * Read the metadata of the data object at <code>path</code> without recording an access.
+     * </p>
+     */
+    private DataObject findMetadata(String path, CdmiPath cdmiPath) {
+        File objFile = cdmiPath.getFile();
+        File metadataFile = cdmiPath.getMetadataFile();
         //
         // Check for metadata file
-        File objFile, metadataFile, baseDirectory;
-        try {
-            LOG.trace("baseDirectory = {}", baseDirectoryName);
-            baseDirectory = new File(baseDirectoryName + "/" + containerName);
-            metadataFile = new File(baseDirectory, metadataFileName);
-            LOG.trace("Metadata Absolute Path = {}", metadataFile.getAbsolutePath());
-        } catch (Exception ex) {
-            LOG.error("Exception in findByPath : ", ex);
-            throw new IllegalArgumentException("Cannot get Object @" + path + " error : " + ex);
-        }
-        if (!metadataFile.exists()) {
+        if (!metadataStore().exists(metadataFile)) {
             return null;
         }
         // Check for object file
-        try {
-            LOG.trace("baseDirectory = {}", baseDirectoryName);
-            baseDirectory = new File(baseDirectoryName + "/");
-            objFile = new File(baseDirectory, path);
-            LOG.trace("Object Absolute Path = {}", objFile.getAbsolutePath());
-        } catch (Exception ex) {
-            LOG.error("Exception in findByPath : ", ex);
-            throw new IllegalArgumentException("Cannot get Object @" + path + " error : " + ex);
-        }
         if (!objFile.exists()) {
             throw new ConflictException("Object File <"
                                         + objFile.getAbsolutePath()
                                         + "> doesn't exist");
         }
         //
-        // Both Files are there. So open, read, create object and send out
+        // Both Files are there. So open, read and create object
         //
-        DataObject dObj = new DataObject();
-        try {
-            // Read metadata
-            try (FileInputStream in = new FileInputStream(metadataFile.getAbsolutePath())) {
-                int inpSize = in.available();
-                byte[] inBytes = new byte[inpSize];
-                in.read(inBytes);
-                dObj.fromJson(inBytes, true);
-                // Close the output stream
-            }
+        return readMetadata(path, metadataFile);
+    }
+
+    /**
+     * <p>
+     * Record a read of the data object at <code>path</code> and set its access time and count.
+     * </p>
+     */
+    private DataObject accessed(String path, DataObject dObj) {
+        dObj.setMetadata("cdmi_atime", Timestamps.now());
+        if (accessTracker != null) {
+            // the access is written later, together with the other accesses until then
+            accessTracker.accessed(path);
+            dObj.setMetadata("cdmi_acount", String.valueOf(parseCount(
+                    dObj.getMetadata().get("cdmi_acount")) + accessTracker.getPendingCount(path)));
+        }
+        return dObj;
+    }
+
+    private DataObject withValue(String path, CdmiPath cdmiPath, DataObject dObj) {
+        try (SeekableByteChannel channel = openValue(path, cdmiPath)) {
             // Read object from file
-            try (FileInputStream in = new FileInputStream(objFile.getAbsolutePath())) {
-                int inpSize = in.available();
-                byte[] inBytes = new byte[inpSize];
-                in.read(inBytes);
-                dObj.setValue(new String(inBytes));
-            }
+            dObj.setValue(readValue(channel));
         } catch (Exception ex) {
             LOG.error("Exception while reading: ", ex);
             throw new IllegalArgumentException("Cannot read Object @" + path + " error : " + ex);
         }
-
-        // change access time
-        Date now = new Date();
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
-        dObj.setMetadata("cdmi_atime", sdf.format(now));
-        // need to increment acount dObj.setMetadata("cdmi_acount", "0");
         return dObj;
     }
 
+    /**
+     * <p>
+     * Open the value of the data object at <code>path</code>, inflating it if it is compressed.
+     * </p>
+     */
+    private SeekableByteChannel openValue(String path, CdmiPath cdmiPath) throws IOException {
+        File objFile = cdmiPath.getFile();
+        File metadataFile = cdmiPath.getMetadataFile();
+        // values are replaced together with their metadata under the lock
+        synchronized (valueLockFor(path)) {
+            if (!objFile.exists()) {
+                throw new ConflictException("Object File <"
+                                            + objFile.getAbsolutePath()
+                                            + "> doesn't exist");
+            }
+            if (metadataStore().exists(metadataFile) && cachedMetadata(path, metadataFile)
+                    .getMetadata().containsKey("cdmi_compression")) {
+                return BlockCompression.open(cdmiPath.toPath());
+            }
+            return FileChannel.open(cdmiPath.toPath(), StandardOpenOption.READ);
+        }
+    }
+
+    @Override
+    public DataObject updateByPath(String path, DataObject dObj) throws Exception {
+        LOG.trace("In updateByPath : {}", path);
+        CdmiPath cdmiPath = resolve(path);
+        File metadataFile = cdmiPath.getMetadataFile();
+        File objFile = getExistingObjectFile(path, cdmiPath);
+        String mimeType = dObj.getMimetype() != null
+                ? dObj.getMimetype() : readMetadata(path, metadataFile).getMimetype();
+        try (Upload upload = dObj.getValue() == null ? null : upload(objFile,
+                new ByteArrayInputStream(dObj.getValue()), compresses(objFile, mimeType))) {
+            synchronized (lockFor(path)) {
+                DataObject current = readMetadata(path, metadataFile);
+                String previousAddress = ContentStore.address(current.getMetadata());
+                if (upload != null) {
+                    current.setValuetransferencoding(dObj.getValuetransferencoding());
+                }
+                if (dObj.getMimetype() != null) {
+                    current.setMimetype(dObj.getMimetype());
+                    current.setMetadata("mimetype", dObj.getMimetype());
+                }
+                if (!dObj.getMetadata().isEmpty()) {
+                    // user metadata in the request replaces the existing user metadata
+                    current.getMetadata().keySet().removeIf(key -> !isSystemMetadata(key));
+                    for (Map.Entry<String, String> entry : dObj.getMetadata().entrySet()) {
+                        if (!isSystemMetadata(entry.getKey())) {
+                            current.setMetadata(entry.getKey(), entry.getValue());
+                        }
+                    }
+                }
+                synchronized (valueLockFor(path)) {
+                    if (upload != null) {
+                        commit(upload, objFile, current);
+                    }
+                    modified(path, metadataFile, current);
+                }
+                released(previousAddress, current);
+                return current;
+            }
+        } catch (IOException ex) {
+            LOG.error("Exception while writing: ", ex);
+            throw new IllegalArgumentException("Cannot write Object @" + path + " error : " + ex);
+        }
+    }
+
+    @Override
+    public DataObject updateNonCDMIByPath(String path, String contentType, InputStream value)
+            throws Exception {
+        LOG.trace("In updateNonCDMIByPath : {}", path);
+        CdmiPath cdmiPath = resolve(path);
+        File metadataFile = cdmiPath.getMetadataFile();
+        File objFile = getExistingObjectFile(path, cdmiPath);
+        String mimeType = contentType != null
+                ? contentType : readMetadata(path, metadataFile).getMimetype();
+        try (Upload upload = upload(objFile, value, compresses(objFile, mimeType))) {
+            synchronized (lockFor(path)) {
+                DataObject current = readMetadata(path, metadataFile);
+                String previousAddress = ContentStore.address(current.getMetadata());
+                if (contentType != null) {
+                    current.setMimetype(contentType);
+                    current.setMetadata("mimetype", contentType);
+                }
+                synchronized (valueLockFor(path)) {
+                    commit(upload, objFile, current);
+                    modified(path, metadataFile, current);
+                }
+                released(previousAddress, current);
+                return current;
+            }
+        } catch (IOException ex) {
+            LOG.error("Exception while writing: ", ex);
+            throw new IllegalArgumentException("Cannot write Object @" + path + " error : " + ex);
+        }
+    }
+
+    @Override
+    public DataObject updateValueRangeByPath(String path, long offset, long length,
+            InputStream value) throws Exception {
+        LOG.trace("In updateValueRangeByPath : {} @ {}+{}", path, offset, length);
+        CdmiPath cdmiPath = resolve(path);
+        File metadataFile = cdmiPath.getMetadataFile();
+        File objFile = getExistingObjectFile(path, cdmiPath);
+        synchronized (lockFor(path)) {
+            DataObject current = readMetadata(path, metadataFile);
+            String previousAddress = ContentStore.address(current.getMetadata());
+            if (current.getMetadata().containsKey("cdmi_compression")) {
+                // compressed blocks cannot change in place, so the whole value is rewritten
+                try (InputStream patched = new PatchedValue(
+                        BlockCompression.open(objFile.toPath()), offset, length, value);
+                     Upload upload = upload(objFile, patched,
+                             compresses(objFile, current.getMimetype()))) {
+                    synchronized (valueLockFor(path)) {
+                        commit(upload, objFile, current);
+                        modified(path, metadataFile, current);
+                    }
+                } catch (IOException ex) {
+                    LOG.error("Exception while writing: ", ex);
+                    throw new IllegalArgumentException("Cannot write Object @"
+                                                       + path
+                                                       + " error : "
+                                                       + ex);
+                }
+                released(previousAddress, current);
+                return current;
+            }
+            // the value changes in place, so it no longer has a content address
+            current.getMetadata().remove("cdmi_hash");
+            long size;
+            try {
+                if (contentStore == null) {
+                    size = writeRange(objFile, offset, length, value);
+                } else {
+                    // no copy may link to the value file between unsharing and writing it
+                    synchronized (contentStore.fileLockFor(objFile.toPath())) {
+                        contentStore.unshare(objFile.toPath());
+                        size = writeRange(objFile, offset, length, value);
+                    }
+                }
+            } catch (IOException ex) {
+                LOG.error("Exception while writing: ", ex);
+                throw new IllegalArgumentException("Cannot write Object @" + path + " error : " + ex);
+            }
+            current.setMetadata("cdmi_size", size + "");
+            modified(path, metadataFile, current);
+            released(previousAddress, current);
+            return current;
+        }
+    }
+
     @Override
     public DataObject findByObjectId(String objectId) {
-        throw new UnsupportedOperationException("DataObjectDaoImpl.findByObjectId()");
+        if (objectIdIndex == null) {
+            throw new UnsupportedOperationException("DataObjectDaoImpl.findByObjectId()");
+        }
+        String path = objectIdIndex.get(objectId);
+        if (path == null || resolve(path).getFile().isDirectory()) {
+            return null;
+        }
+        CdmiPath cdmiPath = resolve(path);
+        DataObject dObj = findMetadata(path, cdmiPath);
+        if (dObj == null || !objectId.equals(dObj.getObjectID())) {
+            // a stale index entry is not a read of whatever is at the path now
+            return null;
+        }
+        return accessed(path, withValue(path, cdmiPath, dObj));
     }
     // --------------------------------------------------------- Private Methods
+
+    /**
+     * <p>
+     * Stream <code>value</code> into a temporary file next to <code>objFile</code> and atomically
+     * rename it to <code>objFile</code> once the whole value has been received, so that only a
+     * fixed size buffer is needed whatever the size of the value.
+     * </p>
+     *
+     * @param objFile
+     *            Final location of the value
+     * @param value
+     *            Stream supplying the value
+     * @param dObj
+     *            Data object whose value is written, whose mime type is set
+     */
+    private void writeValue(File objFile, InputStream value, DataObject dObj)
+            throws IOException {
+        try (Upload upload = upload(objFile, value, compresses(objFile, dObj.getMimetype()))) {
+            commit(upload, objFile, dObj);
+        }
+    }
+
+    /**
+     * <p>
+     * Stream <code>value</code> into a temporary file next to <code>objFile</code>, compressing
+     * it if asked to. With a {@link ContentStore}, the value is hashed as it is received.
+     * </p>
+     */
+    private Upload upload(File objFile, InputStream value, boolean compress)
+            throws IOException {
+        Upload upload = new Upload(DurableWriter.createTempFile(objFile.getParentFile().toPath(),
+                TEMP_PREFIX, TEMP_SUFFIX));
+        try {
+            MessageDigest digest = contentStore == null ? null : ContentStore.newDigest();
+            InputStream in = digest == null ? value : new DigestInputStream(value, digest);
+            try (FileChannel out = FileChannel.open(upload.temp, StandardOpenOption.WRITE)) {
+                if (compress) {
+                    upload.size = BlockCompression.write(in, out, COMPRESSION_LEVEL);
+                    upload.stored = out.size();
+                } else {
+                    try (ReadableByteChannel channel = Channels.newChannel(in)) {
+                        long count;
+                        while ((count = out.transferFrom(channel, upload.size,
+                                TRANSFER_SIZE)) > 0) {
+                            upload.size += count;
+                        }
+                    }
+                }
+            }
+            upload.compressed = compress;
+            upload.hash = digest == null ? null : ContentStore.toHex(digest);
+            return upload;
+        } catch (IOException | RuntimeException ex) {
+            upload.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * <p>
+     * Atomically replace <code>objFile</code> with an uploaded value and set the system
+     * metadata describing the value in <code>dObj</code>: <code>cdmi_size</code>, the
+     * <code>cdmi_hash</code> set with a {@link ContentStore}, and <code>cdmi_compression</code>
+     * with <code>cdmi_compression_ratio</code> for compressed values.
+     * </p>
+     */
+    private void commit(Upload upload, File objFile, DataObject dObj) throws IOException {
+        Map<String, String> metadata = dObj.getMetadata();
+        metadata.put("cdmi_size", upload.size + "");
+        if (upload.compressed) {
+            metadata.put("cdmi_compression", BlockCompression.DEFLATE);
+            metadata.put("cdmi_compression_ratio", String.format(Locale.ROOT, "%.2f",
+                    upload.size / (double) Math.max(1, upload.stored)));
+        } else {
+            metadata.remove("cdmi_compression");
+            metadata.remove("cdmi_compression_ratio");
+        }
+        if (upload.hash != null) {
+            metadata.put("cdmi_hash", upload.hash);
+            contentStore.commit(upload.temp, ContentStore.address(metadata), objFile.toPath());
+        } else {
+            metadata.remove("cdmi_hash");
+            if (durableWriter != null) {
+                // the rename is synced with that of the metadata file written next
+                durableWriter.commit(upload.temp, objFile.toPath());
+            } else {
+                Files.move(upload.temp, objFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        LOG.trace("Wrote {} bytes to {}", upload.size, objFile);
+    }
+
+    /**
+     * <p>
+     * Write <code>length</code> bytes of <code>value</code> into <code>objFile</code> at
+     * <code>offset</code>, extending it if needed, and return its new size.
+     * </p>
+     */
+    private long writeRange(File objFile, long offset, long length, InputStream value)
+            throws IOException {
+        try (FileChannel out = FileChannel.open(objFile.toPath(), StandardOpenOption.WRITE)) {
+            // write only the changed extent
+            ByteBuffer buffer = ByteBuffer.allocate(
+                    (int) Math.max(1, Math.min(length, WRITE_BUFFER_SIZE)));
+            long written = 0;
+            while (written < length) {
+                buffer.clear();
+                if (length - written < buffer.capacity()) {
+                    buffer.limit((int) (length - written));
+                }
+                int read = value.read(buffer.array(), 0, buffer.limit());
+                if (read < 0) {
+                    break;
+                }
+                buffer.limit(read);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer, offset + written + buffer.position());
+                }
+                written += read;
+            }
+            if (written < length) {
+                throw new BadRequestException("Value range of " + length
+                                              + " bytes ended after " + written + " bytes");
+            }
+            if (durableWriter != null) {
+                out.force(false);
+            }
+            return out.size();
+        }
+    }
+
+    /**
+     * <p>
+     * Return <code>true</code> if a value of the MIME type <code>mimeType</code> written to
+     * <code>objFile</code> is compressed: its container has compressing capabilities and the
+     * type is not compressed already.
+     * </p>
+     */
+    private boolean compresses(File objFile, String mimeType) {
+        File directory = layout.container(objFile);
+        if (BlockCompression.isCompressedType(mimeType) || directory == null
+            || directory.getAbsoluteFile().equals(baseDirectory.getAbsoluteFile())) {
+            return false;
+        }
+        File fieldsFile = layout.metadataFile(directory);
+        Object stamp = metadataStore().stamp(fieldsFile);
+        if (stamp == null) {
+            return false;
+        }
+        Function<File, Container> reader = file -> {
+            Container fields = new Container();
+            try {
+                fields.fromJson(metadataStore().read(file), true);
+            } catch (Exception ex) {
+                LOG.warn("Cannot read container fields from {}: {}", file, ex.toString());
+            }
+            return fields;
+        };
+        Container fields = metadataCache == null
+                ? reader.apply(fieldsFile)
+                : metadataCache.get(fieldsFile, stamp, Container.class, reader);
+        return CapabilityDaoImpl.isCompressing(fields.getCapabilitiesURI());
+    }
+
+    /**
+     * <p>
+     * Read the whole value from a channel opened by {@link #openValueByPath(String)}.
+     * </p>
+     */
+    private static byte[] readValue(SeekableByteChannel channel) throws IOException {
+        if (channel.size() > Integer.MAX_VALUE) {
+            throw new IOException("Value of " + channel.size() + " bytes is too large");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            // keep reading
+        }
+        return buffer.array();
+    }
+
+    /**
+     * <p>
+     * Return the injected metadata store, or one keeping "." files if none was injected.
+     * </p>
+     */
+    private MetadataStore metadataStore() {
+        if (metadataStore == null) {
+            SidecarMetadataStore sidecars = new SidecarMetadataStore();
+            sidecars.setLayout(layout);
+            sidecars.setDurableWriter(durableWriter);
+            metadataStore = sidecars;
+        }
+        return metadataStore;
+    }
+
+    /**
+     * <p>
+     * Return the value file of an existing data object, checking that both the value and its
+     * metadata are present.
+     * </p>
+     *
+     * @exception NotFoundException
+     *                if the data object does not exist
+     */
+    private File getExistingObjectFile(String path, CdmiPath cdmiPath) {
+        File objFile = cdmiPath.getFile();
+        if (!metadataStore().exists(cdmiPath.getMetadataFile()) || !objFile.exists()) {
+            throw new NotFoundException("Object <" + path + "> doesn't exist");
+        }
+        return objFile;
+    }
+
+    /**
+     * <p>
+     * Return a copy of the persisted fields of a data object, from the metadata cache if
+     * possible.
+     * </p>
+     */
+    private DataObject readMetadata(String path, File metadataFile) {
+        if (metadataCache == null) {
+            return parseMetadata(path, metadataFile);
+        }
+        return new DataObject(cachedMetadata(path, metadataFile));
+    }
+
+    /**
+     * <p>
+     * Return the persisted fields of a data object, which may be shared with the metadata cache
+     * and must not be changed.
+     * </p>
+     */
+    private DataObject cachedMetadata(String path, File metadataFile) {
+        if (metadataCache == null) {
+            return parseMetadata(path, metadataFile);
+        }
+        return metadataCache.get(metadataFile, metadataStore().stamp(metadataFile),
+                DataObject.class, file -> parseMetadata(path, file));
+    }
+
+    /**
+     * <p>
+     * Read the persisted fields of a data object from the metadata store.
+     * </p>
+     */
+    private DataObject parseMetadata(String path, File metadataFile) {
+        DataObject dObj = new DataObject();
+        try {
+            byte[] inBytes = metadataStore().read(metadataFile);
+            if (inBytes == null) {
+                throw new FileNotFoundException(metadataFile.getAbsolutePath());
+            }
+            dObj.fromJson(inBytes, true);
+        } catch (Exception ex) {
+            LOG.error("Exception while reading: ", ex);
+            throw new IllegalArgumentException("Cannot read Object @" + path + " error : " + ex);
+        }
+        return dObj;
+    }
+
+    /**
+     * <p>
+     * Stamp the modification time of an updated data object and write its metadata file.
+     * </p>
+     */
+    private void modified(String path, File metadataFile, DataObject dObj) {
+        dObj.setMetadata("cdmi_mtime", Timestamps.now());
+        try {
+            writeMetadata(path, metadataFile, dObj);
+        } catch (Exception ex) {
+            LOG.error("Exception while writing: ", ex);
+            throw new IllegalArgumentException("Cannot write Object @" + path + " error : " + ex);
+        }
+        if (changeFeed != null) {
+            changeFeed.publish(Change.Operation.UPDATE, MediaTypes.DATA_OBJECT, dObj.getObjectID(),
+                    path, null);
+        }
+    }
+
+    /**
+     * <p>
+     * Write a batch of coalesced accesses to the metadata of the data objects that still exist,
+     * without changing their modification time.
+     * </p>
+     */
+    private void writeAccesses(Map<String, AccessTracker.Access> accesses) {
+        for (Map.Entry<String, AccessTracker.Access> entry : accesses.entrySet()) {
+            String path = entry.getKey();
+            AccessTracker.Access access = entry.getValue();
+            try {
+                File metadataFile = resolve(path).getMetadataFile();
+                // deletes hold the first lock, updates the second
+                synchronized (accessTracker.lockFor(path)) {
+                    synchronized (lockFor(path)) {
+                        if (!metadataStore().exists(metadataFile)) {
+                            continue;
+                        }
+                        DataObject current = readMetadata(path, metadataFile);
+                        current.setMetadata("cdmi_atime", Timestamps.format(access.getTime()));
+                        current.setMetadata("cdmi_acount", (parseCount(current.getMetadata()
+                                .get("cdmi_acount")) + access.getCount()) + "");
+                        writeMetadata(path, metadataFile, current);
+                    }
+                }
+            } catch (Exception ex) {
+                LOG.warn("Cannot write accesses to {}: {}", path, ex.toString());
+            }
+        }
+    }
+
+    private static long parseCount(String count) {
+        try {
+            return count == null ? 0 : Long.parseLong(count);
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * <p>
+     * Release the stored value a data object had before its value was replaced.
+     * </p>
+     */
+    private void released(String previousHash, DataObject dObj) {
+        if (contentStore != null && previousHash != null
+            && !previousHash.equals(dObj.getMetadata().get("cdmi_hash"))) {
+            contentStore.release(previousHash);
+        }
+    }
+
+    /**
+     * <p>
+     * Write the persisted fields of a data object to the metadata store, in the binary encoding
+     * or as UTF-8 JSON.
+     * </p>
+     */
+    private void writeMetadata(String path, File metadataFile, DataObject dObj)
+            throws Exception {
+        metadataStore().write(metadataFile, binaryMetadata
+                ? BinaryJson.toBinary(dObj::writeMetadataJson)
+                : dObj.metadataToJson().getBytes(StandardCharsets.UTF_8));
+        if (metadataCache != null) {
+            metadataCache.invalidate(metadataFile);
+        }
+        if (metadataIndex != null) {
+            metadataIndex.put(dObj.getObjectID(), path, dObj.getMetadata(), false);
+        }
+    }
+
+    /**
+     * <p>
+     * Return <code>true</code> if the metadata item is maintained by the server rather than
+     * supplied by the client.
+     * </p>
+     */
+    static boolean isSystemMetadata(String key) {
+        return key.startsWith("cdmi_")
+               || "mimetype".equals(key)
+               || "fileName".equals(key)
+               || "metadataFileName".equals(key);
+    }
+
+    /**
+     * <p>
+     * Return the lock serializing updates to the data object at the specified path.
+     * </p>
+     */
+    private Object lockFor(String path) {
+        return locks[(path.hashCode() & 0x7fffffff) % locks.length];
+    }
+
+    /**
+     * <p>
+     * Return the lock held while the value of the data object at the specified path is replaced.
+     * </p>
+     */
+    private Object valueLockFor(String path) {
+        return valueLocks[(path.hashCode() & 0x7fffffff) % valueLocks.length];
+    }
+
+    /**
+     * <p>
+     * Return the resolved form of the path of a data object or container.
+     * </p>
+     *
+     * @param path
+     *            Path of the requested data object.
+     */
+    private CdmiPath resolve(String path) {
+        if (pathResolver == null) {
+            PathResolver resolver = new PathResolver();
+            resolver.setBaseDirectoryName(baseDirectoryName);
+            resolver.setLayout(layout);
+            pathResolver = resolver;
+        }
+        return pathResolver.resolve(path);
+    }
+
+    /**
+     * <p>
+     * Return the resolved form of the path of a data object, which must name one.
+     * </p>
+     *
+     * @exception BadRequestException
+     *                if the path has no object name
+     */
+    private CdmiPath resolveObject(String path) {
+        CdmiPath cdmiPath = resolve(path);
+        if (cdmiPath.isRoot()) {
+            throw new BadRequestException("No object name in path <" + path + ">");
+        }
+        return cdmiPath;
+    }
+
+    /**
+     * <p>
+     * A value received into a temporary file, which is deleted on closing unless it has been
+     * committed.
+     * </p>
+     */
+    private static final class Upload implements Closeable {
+        private final Path temp;
+        private long size = 0;
+        private long stored = 0;
+        private boolean compressed = false;
+        private String hash = null;
+
+        Upload(Path temp) {
+            this.temp = temp;
+        }
+
+        @Override
+        public void close() throws IOException {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * <p>
+     * Stream of a value with the bytes of a range replaced, extending the value with zeros up
+     * to the range if it starts after the end of the value.
+     * </p>
+     */
+    private static final class PatchedValue extends InputStream {
+        private final SeekableByteChannel value;
+        private final long offset;
+        private final long end;
+        private final long size;
+        private final InputStream range;
+        private long position = 0;
+
+        PatchedValue(SeekableByteChannel value, long offset, long length, InputStream range)
+                throws IOException {
+            this.value = value;
+            this.offset = offset;
+            this.end = offset + length;
+            this.size = Math.max(value.size(), end);
+            this.range = range;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= size) {
+                return -1;
+            }
+            int count;
+            if (position >= offset && position < end) {
+                count = range.read(b, off, (int) Math.min(len, end - position));
+                if (count < 0) {
+                    throw new BadRequestException("Value range of " + (end - offset)
+                                                  + " bytes ended after " + (position - offset)
+                                                  + " bytes");
+                }
+            } else {
+                long limit = position < offset ? offset : size;
+                count = (int) Math.min(len, limit - position);
+                if (position >= value.size()) {
+                    Arrays.fill(b, off, off + count, (byte) 0);
+                } else {
+                    count = (int) Math.min(count, value.size() - position);
+                    value.position(position);
+                    count = value.read(ByteBuffer.wrap(b, off, count));
+                }
+            }
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            value.close();
+        }
+    }
 }
@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Writes files so that they survive a crash: content goes to a hidden temporary file that is
+ * forced to disk and then atomically renamed over the target, so a file is always either its
+ * old or its new version.
+ * </p>
+ *
+ * <p>
+ * A rename is only durable once the directory holding it has been forced as well. Directory
+ * syncs are group committed: a caller waits for a sync that started after its rename, and one
+ * sync covers every rename made in that directory while the previous sync was running, so
+ * concurrent requests share the cost. Callers write all the files of an operation that live in
+ * one directory and then call {@link #sync(Path)} once.
+ * </p>
+ */
+public class DurableWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DurableWriter.class);
+
+    private static final String TEMP_PREFIX = ".cdmi_write_";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Map<Path, DirectorySync> directories = new ConcurrentHashMap<Path, DirectorySync>();
+
+    private final LongAdder syncRequests = new LongAdder();
+    private final LongAdder syncs = new LongAdder();
+
+    // ---------------------------------------------------------- Public Methods
+
+    /**
+     * <p>
+     * Replace the content of <code>target</code> with <code>bytes</code>. The new content is on
+     * disk when this returns, but the rename only once the parent directory has been synced.
+     * </p>
+     *
+     * @param target
+     *            File to write
+     * @param bytes
+     *            The new content
+     */
+    public void write(Path target, byte[] bytes) throws IOException {
+        Path temp = createTempFile(target.getParent(), TEMP_PREFIX, TEMP_SUFFIX);
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                out.force(false);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * <p>
+     * Create a new, empty file with a unique name in <code>directory</code>. Unlike
+     * {@link Files#createTempFile(Path, String, String)}, the file gets the default permissions,
+     * which the file it is renamed to keeps.
+     * </p>
+     *
+     * @param directory
+     *            Directory of the file
+     * @param prefix
+     *            Start of the name, which hides it from listings when it starts with a dot
+     * @param suffix
+     *            End of the name
+     */
+    public static Path createTempFile(Path directory, String prefix, String suffix)
+            throws IOException {
+        while (true) {
+            String name = prefix + Long.toUnsignedString(ThreadLocalRandom.current().nextLong())
+                          + suffix;
+            try {
+                return Files.createFile(directory.resolve(name));
+            } catch (FileAlreadyExistsException ex) {
+                // try another name
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Force the fully written file <code>temp</code> to disk and atomically rename it to
+     * <code>target</code>, which must be in the same directory. If that fails, <code>temp</code>
+     * is deleted.
+     * </p>
+     *
+     * @param temp
+     *            The new content
+     * @param target
+     *            File to replace
+     */
+    public void commit(Path temp, Path target) throws IOException {
+        try {
+            force(temp);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * <p>
+     * Force the content of <code>file</code>, changed in place, to disk.
+     * </p>
+     *
+     * @param file
+     *            File to force
+     */
+    public void force(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * <p>
+     * Wait until the entries of <code>directory</code>, as they were when this method was called,
+     * are on disk.
+     * </p>
+     *
+     * @param directory
+     *            Directory holding files created, renamed or deleted by the caller
+     */
+    public void sync(Path directory) throws IOException {
+        syncRequests.increment();
+        Path key = directory.toAbsolutePath().normalize();
+        DirectorySync sync = directories.computeIfAbsent(key, DirectorySync::new);
+        sync.await();
+        if (sync.isIdle()) {
+            // anyone still holding it syncs on their own, which is safe, just not shared
+            directories.remove(key, sync);
+        }
+    }
+
+    /**
+     * <p>
+     * Return the number of directory syncs requested.
+     * </p>
+     */
+    public long getSyncRequests() {
+        return syncRequests.sum();
+    }
+
+    /**
+     * <p>
+     * Return the number of directory syncs performed, which is lower than
+     * {@link #getSyncRequests()} when syncs are shared.
+     * </p>
+     */
+    public long getSyncs() {
+        return syncs.sum();
+    }
+
+    // --------------------------------------------------------- Private Methods
+
+    /**
+     * <p>
+     * Group commit state of one directory: tickets are handed out to callers, and the caller that
+     * finds no sync running syncs on behalf of every ticket issued so far.
+     * </p>
+     */
+    private final class DirectorySync {
+        private final Path directory;
+        private long issued = 0;
+        private long synced = 0;
+        private boolean syncing = false;
+
+        DirectorySync(Path directory) {
+            this.directory = directory;
+        }
+
+        void await() throws IOException {
+            long ticket;
+            synchronized (this) {
+                ticket = ++issued;
+            }
+            while (true) {
+                long covered;
+                synchronized (this) {
+                    while (syncing && synced < ticket) {
+                        try {
+                            wait();
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException("Interrupted syncing " + directory);
+                        }
+                    }
+                    if (synced >= ticket) {
+                        return;
+                    }
+                    syncing = true;
+                    covered = issued;
+                }
+                try {
+                    forceDirectory(directory);
+                    synchronized (this) {
+                        synced = covered;
+                    }
+                } finally {
+                    synchronized (this) {
+                        syncing = false;
+                        notifyAll();
+                    }
+                }
+            }
+        }
+
+        synchronized boolean isIdle() {
+            return !syncing && synced == issued;
+        }
+    }
+
+    private void forceDirectory(Path directory) throws IOException {
+        syncs.increment();
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException ex) {
+            // some platforms cannot open directories; renames are as durable as they get there
+            LOG.debug("Cannot open {} to sync it: {}", directory, ex.toString());
+            return;
+        }
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * A {@link StorageLayout} that spreads the children of a container over fan-out directories
+ * named after a hash of the child name, e.g. <code>TestContainer/3f/a0/TestObject.txt</code>
+ * with two levels. Each level has 256 directories, so with the default two levels a container
+ * with ten million children has about 150 entries per directory, keeping creates and lookups
+ * fast on filesystems that slow down with large directories.
+ * </p>
+ *
+ * <p>
+ * The directory of a container holds nothing but fan-out directories and hidden files. Fan-out
+ * directories are created on demand and left in place when they become empty.
+ * </p>
+ */
+public class HashedLayout implements StorageLayout {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // -------------------------------------------------------------- Properties
+    private int levels = 2;
+
+    /**
+     * <p>
+     * Set the number of fan-out directory levels, from 1 to 4. Default value is 2. Changing it
+     * for an existing tree requires migrating the tree with {@link LayoutMigration}.
+     * </p>
+     *
+     * @param levels
+     *            The new number of levels
+     */
+    public void setLevels(int levels) {
+        if (levels < 1 || levels > 4) {
+            throw new IllegalArgumentException("Invalid fan-out levels : " + levels);
+        }
+        this.levels = levels;
+    }
+
+    // ---------------------------------------------------------- Public Methods
+
+    @Override
+    public File child(File directory, String name) {
+        int hash = hash(name);
+        File bucket = directory;
+        for (int level = 0; level < levels; level++) {
+            int b = (hash >>> (24 - 8 * level)) & 0xff;
+            bucket = new File(bucket, new String(new char[] { HEX[b >>> 4], HEX[b & 0xf] }));
+        }
+        return new File(bucket, name);
+    }
+
+    @Override
+    public File container(File file) {
+        File directory = file.getParentFile();
+        for (int level = 0; level < levels && directory != null; level++) {
+            directory = directory.getParentFile();
+        }
+        return directory;
+    }
+
+    @Override
+    public File[] children(File directory) {
+        if (!directory.isDirectory()) {
+            return null;
+        }
+        List<File> children = new ArrayList<File>();
+        collect(directory, levels, children);
+        return children.toArray(new File[children.size()]);
+    }
+
+    @Override
+    public void prepare(File file) {
+        File bucket = file.getParentFile();
+        if (!bucket.isDirectory() && container(file).isDirectory()) {
+            bucket.mkdirs();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "hashed:" + levels;
+    }
+
+    // --------------------------------------------------------- Private Methods
+
+    private static void collect(File directory, int levels, List<File> children) {
+        File[] files = directory.listFiles(file -> !file.getName().startsWith("."));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (levels == 0) {
+                children.add(file);
+            } else if (file.isDirectory()) {
+                collect(file, levels - 1, children);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Return a well mixed hash of <code>name</code>. {@link String#hashCode()} is specified by
+     * the language, so the placement of existing children never changes.
+     * </p>
+     */
+    private static int hash(String name) {
+        int h = name.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
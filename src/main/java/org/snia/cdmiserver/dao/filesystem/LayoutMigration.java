@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Moves an existing tree from one {@link StorageLayout} to another, e.g. from the flat layout to
+ * a hashed one, by renaming every container directory, value file and metadata file into its
+ * place in the new layout. The CDMI paths, object IDs and child indexes are unchanged.
+ * </p>
+ *
+ * <p>
+ * The children of each container are first moved aside into a hidden staging directory, so that
+ * a child never collides with a directory of either layout, and then into their new places. A
+ * hidden marker records each container that is done, so an interrupted migration is completed by
+ * running it again with the same arguments; the markers are removed at the end.
+ * </p>
+ *
+ * <p>
+ * The server must be stopped while a tree is migrated. Run this class with the base directory,
+ * the current layout and the new layout as arguments, then configure the new layout.
+ * </p>
+ */
+public class LayoutMigration {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LayoutMigration.class);
+
+    static final String STAGING_DIRECTORY_NAME = ".cdmi_migrating";
+    static final String STAGED_DIRECTORY_NAME = ".cdmi_migrated";
+    static final String MARKER_FILE_NAME = ".cdmi_layout";
+
+    private final StorageLayout from;
+    private final StorageLayout to;
+
+    /**
+     * <p>
+     * Create a migration between two layouts.
+     * </p>
+     *
+     * @param from
+     *            The layout of the existing tree
+     * @param to
+     *            The new layout
+     */
+    public LayoutMigration(StorageLayout from, StorageLayout to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    // ---------------------------------------------------------- Public Methods
+
+    /**
+     * <p>
+     * Migrate the tree below <code>directory</code>.
+     * </p>
+     *
+     * @param directory
+     *            Directory of the root container of the tree
+     *
+     * @return the number of containers and data objects in the tree
+     *
+     * @exception UncheckedIOException
+     *                if a file cannot be moved
+     */
+    public long migrate(File directory) {
+        long count = migrateTree(directory);
+        clearMarkers(directory);
+        return count;
+    }
+
+    /**
+     * <p>
+     * Migrate the tree below a base directory.
+     * </p>
+     *
+     * @param args
+     *            The base directory, the current layout and the new layout, each layout being
+     *            "flat", "hashed" or "hashed:&lt;levels&gt;"
+     */
+    public static void main(String[] args) {
+        if (args.length != 3) {
+            System.err.println("Usage: java " + LayoutMigration.class.getName()
+                               + " <base directory> <from layout> <to layout>");
+            System.exit(1);
+        }
+        StorageLayout from = StorageLayout.forName(args[1]);
+        StorageLayout to = StorageLayout.forName(args[2]);
+        long start = System.currentTimeMillis();
+        long count = new LayoutMigration(from, to).migrate(new File(args[0]));
+        System.out.println("Migrated " + count + " containers and data objects from " + from
+                           + " to " + to + " in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    // --------------------------------------------------------- Private Methods
+
+    private long migrateTree(File directory) {
+        if (!isMigrated(directory)) {
+            migrateChildren(directory);
+        }
+        File[] children = to.children(directory);
+        if (children == null) {
+            return 0;
+        }
+        long count = children.length;
+        for (File child : children) {
+            if (child.isDirectory()) {
+                count += migrateTree(child);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * <p>
+     * Move the children of the container at <code>directory</code> to their places in the new
+     * layout, resuming an interrupted migration of that container if there is one.
+     * </p>
+     */
+    private void migrateChildren(File directory) {
+        File staging = new File(directory, STAGING_DIRECTORY_NAME);
+        File staged = new File(directory, STAGED_DIRECTORY_NAME);
+        try {
+            if (!staged.exists()) {
+                // the children not staged yet are still where the old layout put them
+                Files.createDirectories(staging.toPath());
+                List<File> layoutDirectories = new ArrayList<File>();
+                for (File child : from.children(directory)) {
+                    for (File parent = child.getParentFile(); !parent.equals(directory);
+                            parent = parent.getParentFile()) {
+                        layoutDirectories.add(parent);
+                    }
+                    move(from.metadataFile(child), new File(staging, "." + child.getName()));
+                    move(child, new File(staging, child.getName()));
+                }
+                // deepest first, leaving any directory that still holds something
+                layoutDirectories.sort((a, b) -> b.getPath().length() - a.getPath().length());
+                for (File layoutDirectory : layoutDirectories) {
+                    layoutDirectory.delete();
+                }
+                move(staging, staged);
+            }
+            File[] children = staged.listFiles(file -> !file.getName().startsWith("."));
+            for (File child : children) {
+                File target = to.child(directory, child.getName());
+                to.prepare(target);
+                move(new File(staged, "." + child.getName()), to.metadataFile(target));
+                move(child, target);
+            }
+            Files.delete(staged.toPath());
+            Files.write(new File(directory, MARKER_FILE_NAME).toPath(),
+                    to.toString().getBytes(StandardCharsets.UTF_8));
+            LOG.debug("Migrated {} children of {}", children.length, directory);
+        } catch (IOException ex) {
+            LOG.error("Exception while migrating: ", ex);
+            throw new UncheckedIOException("Cannot migrate " + directory, ex);
+        }
+    }
+
+    private boolean isMigrated(File directory) {
+        File marker = new File(directory, MARKER_FILE_NAME);
+        try {
+            return marker.exists() && Arrays.equals(Files.readAllBytes(marker.toPath()),
+                    to.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    private void clearMarkers(File directory) {
+        new File(directory, MARKER_FILE_NAME).delete();
+        File[] children = to.children(directory);
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    clearMarkers(child);
+                }
+            }
+        }
+    }
+
+    private static void move(File source, File target) throws IOException {
+        if (source.exists()) {
+            Files.move(source.toPath(), target.toPath());
+        }
+    }
+}
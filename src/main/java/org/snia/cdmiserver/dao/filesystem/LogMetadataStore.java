@@ -0,0 +1,663 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * {@link MetadataStore} that keeps the fields of all children of a container in one append-only
+ * log in the directory of the container, instead of one "." file per child. This halves the
+ * number of inodes used by data objects, turns every update into a sequential append and lets
+ * the fields of a whole container be read with one sequential read.
+ * </p>
+ *
+ * <p>
+ * Each record of the log replaces or removes the fields of one child and is protected by a
+ * checksum; a torn record at the end of the log, left by a crash, is cut off when the log is
+ * loaded. The offsets of the current record of every child are kept in memory for a bounded
+ * number of recently used containers. Once less than half of a log is current, it is compacted
+ * in the background by copying the current records to a new log that replaces the old one.
+ * </p>
+ *
+ * <p>
+ * With a {@link DurableWriter} every change is forced to disk before it returns; the forces of
+ * concurrent changes to the same log are group committed.
+ * </p>
+ */
+public class LogMetadataStore implements MetadataStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LogMetadataStore.class);
+
+    static final String LOG_FILE_NAME = ".cdmi_metadata.log";
+    private static final String COMPACTION_FILE_NAME = ".cdmi_metadata.tmp";
+
+    // record: length and CRC32 of the body; body: operation, name length, name, fields
+    private static final int HEADER_SIZE = 8;
+    private static final int BODY_PREFIX_SIZE = 3;
+    private static final byte PUT = '+';
+    private static final byte REMOVE = '-';
+
+    // offset and size of a record are packed into one long
+    private static final int SIZE_BITS = 24;
+    private static final int MAX_RECORD_SIZE = (1 << SIZE_BITS) - 1;
+
+    private static final AtomicLong generations = new AtomicLong();
+
+    private final OpenLogs logs = new OpenLogs();
+
+    private ExecutorService compactor = null;
+
+    // -------------------------------------------------------------- Properties
+    private StorageLayout layout = new FlatLayout();
+
+    /**
+     * <p>
+     * Set the layout of the tree on disk. Default value is a {@link FlatLayout}.
+     * </p>
+     *
+     * @param layout
+     *            The new layout
+     */
+    public void setLayout(StorageLayout layout) {
+        this.layout = layout;
+    }
+
+    private DurableWriter durableWriter = null;
+
+    /**
+     * <p>
+     * Set the writer used to force logs to disk. Without one, changes are appended without
+     * being forced.
+     * </p>
+     *
+     * @param durableWriter
+     *            The new durable writer
+     */
+    public void setDurableWriter(DurableWriter durableWriter) {
+        this.durableWriter = durableWriter;
+    }
+
+    /**
+     * <p>
+     * Set the number of containers whose logs are kept open and indexed in memory. Default value
+     * is 1000.
+     * </p>
+     *
+     * @param maxOpenLogs
+     *            The new maximum number of open logs
+     */
+    public void setMaxOpenLogs(int maxOpenLogs) {
+        synchronized (logs) {
+            logs.maxSize = maxOpenLogs;
+        }
+    }
+
+    private long compactionThreshold = 1024 * 1024;
+
+    /**
+     * <p>
+     * Set the size in bytes below which a log is never compacted. Default value is 1 MiB.
+     * </p>
+     *
+     * @param compactionThreshold
+     *            The new threshold
+     */
+    public void setCompactionThreshold(long compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    // ------------------------------------------------------ MetadataStore Methods
+
+    @Override
+    public byte[] read(File metadataFile) throws IOException {
+        File file = objectFile(metadataFile);
+        return withLog(layout.container(file), log -> log.read(file.getName()));
+    }
+
+    @Override
+    public boolean exists(File metadataFile) {
+        return stamp(metadataFile) != null;
+    }
+
+    @Override
+    public Object stamp(File metadataFile) {
+        File file = objectFile(metadataFile);
+        try {
+            return withLog(layout.container(file), log -> log.stamp(file.getName()));
+        } catch (IOException ex) {
+            LOG.warn("Cannot read metadata log of {}: {}", file, ex.toString());
+            return null;
+        }
+    }
+
+    @Override
+    public void write(File metadataFile, byte[] fields) throws IOException {
+        File file = objectFile(metadataFile);
+        boolean[] newEntry = new boolean[1];
+        boolean[] newLog = new boolean[1];
+        Log log = withLog(layout.container(file), l -> {
+            newEntry[0] = l.stamp(file.getName()) == null;
+            newLog[0] = l.channel == null;
+            l.append(PUT, file.getName(), fields);
+            return l;
+        });
+        if (durableWriter != null) {
+            durableWriter.sync(log.path);
+            if (newEntry[0]) {
+                durableWriter.sync(metadataFile.getParentFile().toPath());
+            }
+            if (newLog[0] && !metadataFile.getParentFile().equals(log.directory)) {
+                durableWriter.sync(log.directory.toPath());
+            }
+        }
+    }
+
+    @Override
+    public void delete(File metadataFile) throws IOException {
+        File file = objectFile(metadataFile);
+        evict(file);
+        Log log = withLog(layout.container(file), l -> {
+            if (l.stamp(file.getName()) == null) {
+                return null;
+            }
+            l.append(REMOVE, file.getName(), null);
+            return l;
+        });
+        if (log != null && durableWriter != null) {
+            durableWriter.sync(log.path);
+        }
+    }
+
+    @Override
+    public void move(File source, File target) throws IOException {
+        // the logs of the container and its descendants were renamed along with the directory
+        evict(objectFile(source));
+        byte[] fields = read(source);
+        if (fields != null) {
+            write(target, fields);
+            delete(source);
+        }
+    }
+
+    @Override
+    public Map<String, byte[]> readAll(File directory) throws IOException {
+        return withLog(directory, log -> log.readAll());
+    }
+
+    // ---------------------------------------------------------- Public Methods
+
+    /**
+     * <p>
+     * Stop compacting and close every open log.
+     * </p>
+     */
+    public void close() {
+        synchronized (this) {
+            if (compactor != null) {
+                compactor.shutdown();
+                try {
+                    compactor.awaitTermination(1, TimeUnit.MINUTES);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                compactor = null;
+            }
+        }
+        synchronized (logs) {
+            for (Log log : logs.values()) {
+                log.close();
+            }
+            logs.clear();
+        }
+    }
+
+    /**
+     * <p>
+     * Move the "." files of every container below a base directory into metadata logs, so that
+     * a tree written with {@link SidecarMetadataStore} can be served with this store. Run while
+     * the server is stopped.
+     * </p>
+     *
+     * @param args
+     *            The base directory and, optionally, the name of its layout
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: java " + LogMetadataStore.class.getName()
+                               + " <base directory> [flat|hashed[:<levels>]]");
+            System.exit(1);
+        }
+        LogMetadataStore store = new LogMetadataStore();
+        if (args.length > 1) {
+            store.setLayout(StorageLayout.forName(args[1]));
+        }
+        long converted = store.convert(new File(args[0]));
+        store.close();
+        System.out.println("Moved " + converted + " metadata files into logs");
+    }
+
+    // --------------------------------------------------------- Private Methods
+
+    private long convert(File directory) throws IOException {
+        long converted = 0;
+        File[] children = layout.children(directory);
+        if (children == null) {
+            return converted;
+        }
+        for (File child : children) {
+            File metadataFile = layout.metadataFile(child);
+            if (metadataFile.exists()) {
+                write(metadataFile, Files.readAllBytes(metadataFile.toPath()));
+                Files.delete(metadataFile.toPath());
+                converted++;
+            }
+            if (child.isDirectory()) {
+                converted += convert(child);
+            }
+        }
+        return converted;
+    }
+
+    private static File objectFile(File metadataFile) {
+        return new File(metadataFile.getParentFile(), metadataFile.getName().substring(1));
+    }
+
+    private interface LogFunction<T> {
+        T apply(Log log) throws IOException;
+    }
+
+    /**
+     * <p>
+     * Apply <code>function</code> to the log of <code>directory</code> while holding its lock,
+     * retrying if the log is evicted in between.
+     * </p>
+     */
+    private <T> T withLog(File directory, LogFunction<T> function) throws IOException {
+        while (true) {
+            Log log = log(directory);
+            synchronized (log) {
+                if (!log.closed) {
+                    return function.apply(log);
+                }
+            }
+        }
+    }
+
+    private Log log(File directory) throws IOException {
+        synchronized (logs) {
+            Log log = logs.get(directory);
+            if (log != null) {
+                return log;
+            }
+        }
+        // load outside the lock; nobody appends to a log that is not in the map
+        Log loaded = new Log(directory);
+        synchronized (logs) {
+            Log log = logs.get(directory);
+            if (log != null) {
+                loaded.close();
+                return log;
+            }
+            logs.put(directory, loaded);
+            return loaded;
+        }
+    }
+
+    /**
+     * <p>
+     * Close the logs of <code>directory</code> and everything below it, which has been renamed
+     * or deleted.
+     * </p>
+     */
+    private void evict(File directory) {
+        String prefix = directory.getPath() + File.separator;
+        synchronized (logs) {
+            Iterator<Map.Entry<File, Log>> entries = logs.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<File, Log> entry = entries.next();
+                File key = entry.getKey();
+                if (key.equals(directory) || key.getPath().startsWith(prefix)) {
+                    entry.getValue().close();
+                    entries.remove();
+                }
+            }
+        }
+    }
+
+    private synchronized void scheduleCompaction(Log log) {
+        if (compactor == null) {
+            compactor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "metadata-log-compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        compactor.execute(() -> {
+            try {
+                if (log.compact() && durableWriter != null) {
+                    durableWriter.sync(log.directory.toPath());
+                }
+            } catch (IOException ex) {
+                LOG.warn("Cannot compact {}: {}", log.path, ex.toString());
+            }
+        });
+    }
+
+    private static long pack(long offset, int size) {
+        return offset << SIZE_BITS | size;
+    }
+
+    private static long offset(long entry) {
+        return entry >>> SIZE_BITS;
+    }
+
+    private static int size(long entry) {
+        return (int) (entry & MAX_RECORD_SIZE);
+    }
+
+    /**
+     * <p>
+     * The open logs in least recently used order, closing the eldest once there are more than
+     * <code>maxSize</code>. Guarded by its own lock.
+     * </p>
+     */
+    private static final class OpenLogs extends LinkedHashMap<File, Log> {
+        private static final long serialVersionUID = 1L;
+
+        private int maxSize = 1000;
+
+        OpenLogs() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, Log> eldest) {
+            if (size() > maxSize) {
+                eldest.getValue().close();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private interface RecordVisitor {
+        void visit(byte operation, String name, byte[] body, long offset, int size);
+    }
+
+    /**
+     * <p>
+     * The log of one container. All methods must be called while holding its lock.
+     * </p>
+     */
+    private final class Log {
+        private final File directory;
+        private final Path path;
+        private FileChannel channel = null;
+        private Map<String, Long> index = new HashMap<String, Long>();
+        private long size = 0;
+        private long live = 0;
+        private long generation = generations.incrementAndGet();
+        private boolean closed = false;
+        private boolean compacting = false;
+
+        Log(File directory) throws IOException {
+            this.directory = directory;
+            this.path = new File(directory, LOG_FILE_NAME).toPath();
+            try {
+                channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (NoSuchFileException ex) {
+                return;
+            }
+            long valid = scan((operation, name, body, offset, recordSize) ->
+                    apply(operation, name, offset, recordSize));
+            long length = channel.size();
+            if (valid < length) {
+                LOG.warn("Truncating torn record at {} of {} bytes in {}", valid, length, path);
+                channel.truncate(valid);
+            }
+            size = valid;
+        }
+
+        byte[] read(String name) throws IOException {
+            Long entry = index.get(name);
+            if (entry == null) {
+                return null;
+            }
+            ByteBuffer record = ByteBuffer.allocate(size(entry));
+            while (record.hasRemaining()) {
+                if (channel.read(record, offset(entry) + record.position()) < 0) {
+                    throw new IOException("Unexpected end of " + path);
+                }
+            }
+            int nameLength = record.getShort(HEADER_SIZE + 1) & 0xffff;
+            return Arrays.copyOfRange(record.array(),
+                    HEADER_SIZE + BODY_PREFIX_SIZE + nameLength, record.capacity());
+        }
+
+        Object stamp(String name) {
+            Long entry = index.get(name);
+            return entry == null ? null : Arrays.asList(generation, entry);
+        }
+
+        Map<String, byte[]> readAll() throws IOException {
+            Map<String, byte[]> fields = new HashMap<String, byte[]>();
+            if (channel != null && !index.isEmpty()) {
+                scan((operation, name, body, offset, recordSize) -> {
+                    Long entry = index.get(name);
+                    if (entry != null && entry == pack(offset, recordSize)) {
+                        fields.put(name, Arrays.copyOfRange(body,
+                                BODY_PREFIX_SIZE + nameLength(body), body.length));
+                    }
+                });
+            }
+            return fields;
+        }
+
+        void append(byte operation, String name, byte[] fields) throws IOException {
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            int length = BODY_PREFIX_SIZE + nameBytes.length + (fields == null ? 0 : fields.length);
+            if (HEADER_SIZE + length > MAX_RECORD_SIZE) {
+                throw new IllegalArgumentException("Metadata of " + name + " is too large");
+            }
+            ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length);
+            record.position(HEADER_SIZE);
+            record.put(operation).putShort((short) nameBytes.length).put(nameBytes);
+            if (fields != null) {
+                record.put(fields);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), HEADER_SIZE, length);
+            record.putInt(0, length).putInt(4, (int) crc.getValue());
+            record.rewind();
+
+            if (channel == null) {
+                channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE);
+            }
+            long offset = size;
+            try {
+                while (record.hasRemaining()) {
+                    channel.write(record, offset + record.position());
+                }
+            } catch (IOException ex) {
+                channel.truncate(offset);
+                throw ex;
+            }
+            size += record.capacity();
+            apply(operation, name, offset, record.capacity());
+
+            if (!compacting && size >= compactionThreshold && live * 2 < size) {
+                compacting = true;
+                scheduleCompaction(this);
+            }
+        }
+
+        /**
+         * <p>
+         * Copy the current records to a new log that replaces this one. Returns
+         * <code>true</code> if the log was replaced.
+         * </p>
+         */
+        synchronized boolean compact() throws IOException {
+            compacting = false;
+            if (closed || channel == null) {
+                return false;
+            }
+            List<Map.Entry<String, Long>> entries =
+                    new ArrayList<Map.Entry<String, Long>>(index.entrySet());
+            entries.sort(Map.Entry.comparingByValue());
+            Map<String, Long> compacted = new HashMap<String, Long>();
+            Path temp = path.resolveSibling(COMPACTION_FILE_NAME);
+            long position = 0;
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (Map.Entry<String, Long> entry : entries) {
+                    long offset = offset(entry.getValue());
+                    int recordSize = size(entry.getValue());
+                    long copied = 0;
+                    while (copied < recordSize) {
+                        copied += channel.transferTo(offset + copied, recordSize - copied, out);
+                    }
+                    compacted.put(entry.getKey(), pack(position, recordSize));
+                    position += recordSize;
+                }
+                out.force(false);
+            }
+            channel.close();
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            LOG.debug("Compacted {} from {} to {} bytes", path, size, position);
+            index = compacted;
+            size = position;
+            live = position;
+            generation = generations.incrementAndGet();
+            return true;
+        }
+
+        synchronized void close() {
+            closed = true;
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    LOG.warn("Cannot close {}: {}", path, ex.toString());
+                }
+                channel = null;
+            }
+        }
+
+        private void apply(byte operation, String name, long offset, int recordSize) {
+            Long previous = operation == PUT
+                    ? index.put(name, pack(offset, recordSize))
+                    : index.remove(name);
+            if (previous != null) {
+                live -= size(previous);
+            }
+            if (operation == PUT) {
+                live += recordSize;
+            }
+        }
+
+        /**
+         * <p>
+         * Read the log sequentially, passing every intact record to <code>visitor</code>, and
+         * return the offset of the first byte that is not part of an intact record.
+         * </p>
+         */
+        private long scan(RecordVisitor visitor) throws IOException {
+            long length = channel.size();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(channel.position(0)), 64 * 1024));
+            CRC32 crc = new CRC32();
+            long offset = 0;
+            while (offset + HEADER_SIZE <= length) {
+                int bodyLength = in.readInt();
+                int checksum = in.readInt();
+                if (bodyLength < BODY_PREFIX_SIZE
+                    || bodyLength > MAX_RECORD_SIZE - HEADER_SIZE
+                    || offset + HEADER_SIZE + bodyLength > length) {
+                    break;
+                }
+                byte[] body = new byte[bodyLength];
+                in.readFully(body);
+                crc.reset();
+                crc.update(body);
+                int nameLength = nameLength(body);
+                if ((int) crc.getValue() != checksum
+                    || (body[0] != PUT && body[0] != REMOVE)
+                    || BODY_PREFIX_SIZE + nameLength > bodyLength) {
+                    break;
+                }
+                String name =
+                        new String(body, BODY_PREFIX_SIZE, nameLength, StandardCharsets.UTF_8);
+                int recordSize = HEADER_SIZE + bodyLength;
+                visitor.visit(body[0], name, body, offset, recordSize);
+                offset += recordSize;
+            }
+            return offset;
+        }
+    }
+
+    private static int nameLength(byte[] body) {
+        return (body[1] & 0xff) << 8 | body[2] & 0xff;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Bounded cache of the parsed fields of containers and data objects, so that repeated reads of
+ * the same object neither read nor parse its fields again.
+ * </p>
+ *
+ * <p>
+ * Entries are keyed by the absolute path of the "." metadata file. The DAOs invalidate entries
+ * whenever they change the fields, and every hit is checked against the stamp of the fields in
+ * the {@link MetadataStore}, such as the modification time and size of a "." file, so that
+ * changes made outside the server are noticed too. When the cache is full the oldest entries are
+ * evicted first.
+ * </p>
+ *
+ * <p>
+ * Cached values are shared between threads and must not be modified; callers copy them before
+ * making changes.
+ * </p>
+ */
+public class MetadataCache implements MetadataCacheMBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MetadataCache.class);
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final Queue<Entry> insertionOrder = new ConcurrentLinkedQueue<Entry>();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // -------------------------------------------------------------- Properties
+    private int maxEntries = 10000;
+
+    /**
+     * <p>
+     * Set the maximum number of cached entries. Default value is 10000.
+     * </p>
+     *
+     * @param maxEntries
+     *            The new maximum number of entries
+     */
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    // ---------------------------------------------------------- Public Methods
+
+    /**
+     * <p>
+     * Return the parsed fields of <code>metadataFile</code>, using <code>loader</code> to read
+     * and parse them unless an up to date entry is cached.
+     * </p>
+     *
+     * @param metadataFile
+     *            The "." file of the object
+     * @param stamp
+     *            The current stamp of the fields, see {@link MetadataStore#stamp(File)}
+     * @param type
+     *            Type of the parsed contents
+     * @param loader
+     *            Reads and parses the fields
+     */
+    public <T> T get(File metadataFile, Object stamp, Class<T> type, Function<File, T> loader) {
+        String key = metadataFile.getAbsolutePath();
+        if (stamp == null) {
+            // missing or unreadable; let the loader report it
+            entries.remove(key);
+            misses.increment();
+            return loader.apply(metadataFile);
+        }
+        Entry entry = entries.get(key);
+        if (entry != null && type.isInstance(entry.fields) && entry.stamp.equals(stamp)) {
+            hits.increment();
+            return type.cast(entry.fields);
+        }
+        misses.increment();
+        T fields = loader.apply(metadataFile);
+        // the stamp was taken before the fields were read, so a concurrent change makes this
+        // entry stale
+        Entry loaded = new Entry(key, fields, stamp);
+        entries.put(key, loaded);
+        insertionOrder.add(loaded);
+        queued.incrementAndGet();
+        evict();
+        return fields;
+    }
+
+    /**
+     * <p>
+     * Drop the entry of a metadata file that has been changed or deleted.
+     * </p>
+     *
+     * @param metadataFile
+     *            The "." file holding the persisted fields
+     */
+    public void invalidate(File metadataFile) {
+        entries.remove(metadataFile.getAbsolutePath());
+    }
+
+    /**
+     * <p>
+     * Drop the entries of every metadata file below <code>directory</code>, which has been moved
+     * or deleted.
+     * </p>
+     *
+     * @param directory
+     *            Directory of a container
+     */
+    public void invalidateTree(File directory) {
+        String prefix = directory.getAbsolutePath() + File.separator;
+        entries.keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public int getSize() {
+        return entries.size();
+    }
+
+    @Override
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    @Override
+    public void clear() {
+        entries.clear();
+        insertionOrder.clear();
+        queued.set(0);
+    }
+
+    // --------------------------------------------------------- Private Methods
+
+    /**
+     * <p>
+     * Evict the oldest entries until the cache is within its bound. Entries that were replaced
+     * or invalidated still count until they reach the head of the queue.
+     * </p>
+     */
+    private void evict() {
+        while (queued.get() > maxEntries) {
+            Entry oldest = insertionOrder.poll();
+            if (oldest == null) {
+                break;
+            }
+            queued.decrementAndGet();
+            // the entry may already have been replaced or invalidated
+            if (entries.remove(oldest.key, oldest)) {
+                evictions.increment();
+                LOG.trace("Evicted {}", oldest.key);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Cached contents of one metadata file and the attributes of the file they were read from.
+     * </p>
+     */
+    private static final class Entry {
+        final String key;
+        final Object fields;
+        final Object stamp;
+
+        Entry(String key, Object fields, Object stamp) {
+            this.key = key;
+            this.fields = fields;
+            this.stamp = stamp;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+/**
+ * <p>
+ * Management interface of {@link MetadataCache}, exposing its effectiveness over JMX.
+ * </p>
+ */
+public interface MetadataCacheMBean {
+
+    /**
+     * <p>
+     * Return the number of lookups answered from the cache.
+     * </p>
+     */
+    public long getHits();
+
+    /**
+     * <p>
+     * Return the number of lookups that had to read a metadata file.
+     * </p>
+     */
+    public long getMisses();
+
+    /**
+     * <p>
+     * Return the number of entries dropped to keep the cache within its bound.
+     * </p>
+     */
+    public long getEvictions();
+
+    /**
+     * <p>
+     * Return the number of cached entries.
+     * </p>
+     */
+    public int getSize();
+
+    /**
+     * <p>
+     * Return the maximum number of cached entries.
+     * </p>
+     */
+    public int getMaxEntries();
+
+    /**
+     * <p>
+     * Drop every cached entry.
+     * </p>
+     */
+    public void clear();
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.snia.cdmiserver.util.BinaryJson;
+
+/**
+ * <p>
+ * Rewrites the persisted fields of every container and data object below a base directory as
+ * {@link BinaryJson} or as JSON text. The server reads either encoding, so a tree never has to be
+ * converted, but converting it up front saves the space and parsing time of JSON fields that are
+ * seldom rewritten, or turns the fields back into text for inspection or for an older server.
+ * </p>
+ *
+ * <p>
+ * The server must be stopped while a tree is converted. Run this class with the base directory,
+ * the target encoding and, optionally, the layout and the metadata store of the tree.
+ * </p>
+ */
+public class MetadataConversion {
+
+    private final MetadataStore store;
+    private final StorageLayout layout;
+    private final boolean binary;
+
+    /**
+     * <p>
+     * Create a conversion of the fields kept in <code>store</code>.
+     * </p>
+     *
+     * @param store
+     *            The metadata store of the tree
+     * @param layout
+     *            The layout of the tree
+     * @param binary
+     *            <code>true</code> to write binary fields, <code>false</code> for JSON text
+     */
+    public MetadataConversion(MetadataStore store, StorageLayout layout, boolean binary) {
+        this.store = store;
+        this.layout = layout;
+        this.binary = binary;
+    }
+
+    // ---------------------------------------------------------- Public Methods
+
+    /**
+     * <p>
+     * Convert the fields of the tree below <code>directory</code>.
+     * </p>
+     *
+     * @param directory
+     *            Directory of the root container of the tree
+     *
+     * @return the number of fields that were rewritten
+     */
+    public long convert(File directory) throws IOException {
+        long converted = 0;
+        File[] children = layout.children(directory);
+        if (children == null) {
+            return converted;
+        }
+        for (File child : children) {
+            File metadataFile = layout.metadataFile(child);
+            byte[] fields = store.read(metadataFile);
+            if (fields != null) {
+                byte[] encoded = binary ? BinaryJson.toBinary(fields) : BinaryJson.toJson(fields);
+                if (!Arrays.equals(encoded, fields)) {
+                    store.write(metadataFile, encoded);
+                    converted++;
+                }
+            }
+            if (child.isDirectory()) {
+                converted += convert(child);
+            }
+        }
+        return converted;
+    }
+
+    /**
+     * <p>
+     * Convert the fields of the tree below a base directory.
+     * </p>
+     *
+     * @param args
+     *            The base directory, "binary" or "json", optionally the layout ("flat",
+     *            "hashed" or "hashed:&lt;levels&gt;") and optionally the metadata store
+     *            ("sidecar" or "log")
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 4
+            || !("binary".equals(args[1]) || "json".equals(args[1]))) {
+            System.err.println("Usage: java " + MetadataConversion.class.getName()
+                               + " <base directory> binary|json [flat|hashed[:<levels>]]"
+                               + " [sidecar|log]");
+            System.exit(1);
+        }
+        StorageLayout layout = args.length > 2 ? StorageLayout.forName(args[2]) : new FlatLayout();
+        String storeName = args.length > 3 ? args[3] : "sidecar";
+        MetadataStore store;
+        if ("log".equals(storeName)) {
+            LogMetadataStore logs = new LogMetadataStore();
+            logs.setLayout(layout);
+            store = logs;
+        } else if ("sidecar".equals(storeName)) {
+            SidecarMetadataStore sidecars = new SidecarMetadataStore();
+            sidecars.setLayout(layout);
+            store = sidecars;
+        } else {
+            throw new IllegalArgumentException("Invalid metadata store : " + storeName);
+        }
+        long start = System.currentTimeMillis();
+        long converted = new MetadataConversion(store, layout, "binary".equals(args[1]))
+                .convert(new File(args[0]));
+        if (store instanceof LogMetadataStore) {
+            ((LogMetadataStore) store).close();
+        }
+        System.out.println("Converted " + converted + " metadata files to " + args[1] + " in "
+                           + (System.currentTimeMillis() - start) + " ms");
+    }
+}
@@ -0,0 +1,908 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snia.cdmiserver.dao.QueryDao;
+import org.snia.cdmiserver.model.MetadataQuery;
+import org.snia.cdmiserver.model.MetadataQuery.Condition;
+import org.snia.cdmiserver.util.BinaryJson;
+
+/**
+ * <p>
+ * Inverted index of the user metadata of containers and data objects, answering a
+ * {@link MetadataQuery} without reading the metadata of every object in the tree.
+ * </p>
+ *
+ * <p>
+ * For every metadata item name the index keeps the values in a sorted map to the sorted paths
+ * of the objects holding them, so that equality, prefix and string range conditions are one
+ * lookup or one sub-map, and a second sorted map of the values that are numbers for numeric
+ * ranges. A query merges the postings of its most selective condition in path order, skipping
+ * straight to the paths within its scope, checks the remaining conditions against the metadata
+ * of each candidate and stops as soon as it has found its limit of matches. Moving a container
+ * rewrites the paths of everything below it with {@link #moveTree(String, String)}.
+ * </p>
+ *
+ * <p>
+ * The index is held in memory. It is built from the metadata on disk on first use and saved to
+ * a hidden file in the base directory on {@link #close()}; the file is deleted again when it is
+ * loaded, so after a crash the index is rebuilt rather than trusted.
+ * </p>
+ */
+public class MetadataIndex implements QueryDao {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MetadataIndex.class);
+
+    static final String SNAPSHOT_FILE_NAME = ".cdmi_metadata.idx";
+    static final String SNAPSHOT_TEMP_FILE_NAME = ".cdmi_metadata.tmp";
+
+    private static final int MAGIC = 0x43444d51;
+    private static final int VERSION = 2;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // object ID to its path and user metadata, null until loaded
+    private Map<String, Entry> entries;
+
+    // the same entries by path
+    private final NavigableMap<String, Entry> byPath = new TreeMap<String, Entry>();
+
+    // metadata item name to the postings of its values
+    private final Map<String, Postings> postings = new HashMap<String, Postings>();
+
+    // -------------------------------------------------------------- Properties
+    private String baseDirectoryName = null;
+
+    /**
+     * <p>
+     * Set the base directory name of the tree being indexed.
+     * </p>
+     *
+     * @param baseDirectoryName
+     *            The new base directory name
+     */
+    public void setBaseDirectoryName(String baseDirectoryName) {
+        this.baseDirectoryName = baseDirectoryName;
+    }
+
+    private StorageLayout layout = new FlatLayout();
+
+    /**
+     * <p>
+     * Set the layout of the tree on disk. Default value is a {@link FlatLayout}.
+     * </p>
+     *
+     * @param layout
+     *            The new layout
+     */
+    public void setLayout(StorageLayout layout) {
+        this.layout = layout;
+    }
+
+    private MetadataStore metadataStore = null;
+
+    /**
+     * <p>
+     * Set the store the metadata are read from. Without one, they are read from "." files.
+     * </p>
+     *
+     * @param metadataStore
+     *            The new metadata store
+     */
+    public void setMetadataStore(MetadataStore metadataStore) {
+        this.metadataStore = metadataStore;
+    }
+
+    // ---------------------------------------------------------- Public Methods
+
+    @Override
+    public List<String> findByMetadata(String path, MetadataQuery query) {
+        List<Condition> conditions = query.getConditions();
+        String scope = normalize(path);
+        List<String> matches = new ArrayList<String>();
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            // the candidates come in path order, so the first matches are the ones to return
+            Iterator<String> candidates = inScope(plan(conditions), scope);
+            while (matches.size() < query.getLimit() && candidates.hasNext()) {
+                Entry entry = byPath.get(candidates.next());
+                if (entry.matches(conditions)) {
+                    matches.add(entry.uri());
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        LOG.debug("{} matches of {} in /{}", matches.size(), conditions, scope);
+        return matches;
+    }
+
+    /**
+     * <p>
+     * Record the user metadata of a container or data object, replacing what was recorded
+     * before. Items maintained by the server are not indexed.
+     * </p>
+     *
+     * @param objectId
+     *            Object ID of the container or data object
+     * @param path
+     *            Its path
+     * @param metadata
+     *            All of its metadata
+     * @param container
+     *            <code>true</code> for a container
+     */
+    public void put(String objectId, String path, Map<String, String> metadata,
+            boolean container) {
+        if (objectId == null) {
+            return;
+        }
+        Map<String, String> user = userMetadata(metadata);
+        ensureLoaded();
+        lock.writeLock().lock();
+        try {
+            putEntry(objectId, normalize(path), user, container);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * <p>
+     * Record that the container at <code>source</code> and everything below it have moved to
+     * <code>target</code>.
+     * </p>
+     *
+     * @param source
+     *            Former path of the container
+     * @param target
+     *            New path of the container
+     */
+    public void moveTree(String source, String target) {
+        String from = normalize(source);
+        String to = normalize(target);
+        if (from.isEmpty() || from.equals(to)) {
+            return;
+        }
+        ensureLoaded();
+        lock.writeLock().lock();
+        try {
+            List<Entry> moved = new ArrayList<Entry>(below(byPath, from).values());
+            Entry self = byPath.get(from);
+            if (self != null) {
+                moved.add(self);
+            }
+            for (Entry entry : moved) {
+                putEntry(entry.objectId, to + entry.path.substring(from.length()),
+                        entry.metadata, entry.container);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * <p>
+     * Remove <code>objectId</code> from the index, if present.
+     * </p>
+     *
+     * @param objectId
+     *            Object ID of a deleted container or data object
+     */
+    public void remove(String objectId) {
+        if (objectId == null) {
+            return;
+        }
+        ensureLoaded();
+        lock.writeLock().lock();
+        try {
+            removeEntry(objectId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * <p>
+     * Remove every container and data object below <code>directory</code> from the index. Used
+     * before a container is deleted.
+     * </p>
+     *
+     * @param directory
+     *            Directory of the container
+     */
+    public void removeTree(File directory) {
+        File[] files = layout.children(directory);
+        if (files == null) {
+            return;
+        }
+        Map<String, byte[]> fields;
+        try {
+            fields = metadataStore().readAll(directory);
+        } catch (IOException ex) {
+            LOG.warn("Cannot read metadata below {}: {}", directory, ex.toString());
+            return;
+        }
+        for (File file : files) {
+            remove(ObjectIdIndex.readObjectId(fields.get(file.getName())));
+            if (file.isDirectory()) {
+                removeTree(file);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Discard the index and regenerate it from the metadata below the base directory.
+     * </p>
+     */
+    public void rebuild() {
+        lock.writeLock().lock();
+        try {
+            entries = null;
+            byPath.clear();
+            postings.clear();
+            Files.deleteIfExists(new File(baseDirectoryName, SNAPSHOT_FILE_NAME).toPath());
+            create(new File(baseDirectoryName));
+        } catch (IOException ex) {
+            LOG.error("Exception while rebuilding metadata index: ", ex);
+            throw new IllegalArgumentException("Cannot rebuild metadata index error : " + ex);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * <p>
+     * Save the index to disk and release it. The index is reloaded on next use.
+     * </p>
+     */
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if (entries != null) {
+                writeSnapshot(new File(baseDirectoryName));
+            }
+        } catch (IOException ex) {
+            LOG.error("Exception while saving metadata index: ", ex);
+        } finally {
+            entries = null;
+            byPath.clear();
+            postings.clear();
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * <p>
+     * Return the number of containers and data objects with user metadata in the index.
+     * </p>
+     */
+    public long size() {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // --------------------------------------------------------- Private Methods
+
+    /**
+     * <p>
+     * Return the injected metadata store, or one reading "." files if none was injected.
+     * </p>
+     */
+    private MetadataStore metadataStore() {
+        if (metadataStore == null) {
+            SidecarMetadataStore sidecars = new SidecarMetadataStore();
+            sidecars.setLayout(layout);
+            metadataStore = sidecars;
+        }
+        return metadataStore;
+    }
+
+    /**
+     * <p>
+     * Load the index on first use, from the saved file if there is a valid one and otherwise
+     * from the metadata on disk.
+     * </p>
+     */
+    private void ensureLoaded() {
+        lock.readLock().lock();
+        try {
+            if (entries != null) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            if (entries == null) {
+                File baseDirectory = new File(baseDirectoryName);
+                File snapshotFile = new File(baseDirectory, SNAPSHOT_FILE_NAME);
+                if (!snapshotFile.exists() || !load(snapshotFile)) {
+                    LOG.info("Rebuilding metadata index in {}", baseDirectory);
+                    create(baseDirectory);
+                }
+                // from now on the saved file is stale until the next close()
+                Files.deleteIfExists(snapshotFile.toPath());
+            }
+        } catch (IOException ex) {
+            LOG.error("Exception while loading metadata index: ", ex);
+            throw new IllegalArgumentException("Cannot load metadata index error : " + ex);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * <p>
+     * Fill the index from the metadata on disk. The caller holds the write lock.
+     * </p>
+     */
+    private void create(File baseDirectory) throws IOException {
+        entries = new HashMap<String, Entry>();
+        byPath.clear();
+        postings.clear();
+        indexTree(baseDirectory, "");
+        LOG.info("Indexed the metadata of {} objects in {}", entries.size(), baseDirectory);
+    }
+
+    /**
+     * <p>
+     * Fill the index from a saved file, returning <code>false</code> if it is not a valid one.
+     * The caller holds the write lock.
+     * </p>
+     */
+    private boolean load(File snapshotFile) throws IOException {
+        entries = new HashMap<String, Entry>();
+        byPath.clear();
+        postings.clear();
+        try (InputStream file = Files.newInputStream(snapshotFile.toPath());
+             DataInputStream in = new DataInputStream(new BufferedInputStream(file))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return false;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String objectId = readString(in);
+                String path = readString(in);
+                boolean container = in.readBoolean();
+                int items = in.readInt();
+                Map<String, String> metadata = new HashMap<String, String>(items * 2);
+                for (int j = 0; j < items; j++) {
+                    metadata.put(readString(in), readString(in));
+                }
+                putEntry(objectId, path, metadata, container);
+            }
+        } catch (IOException ex) {
+            LOG.warn("Cannot load metadata index {}: {}", snapshotFile, ex.toString());
+            return false;
+        }
+        LOG.info("Loaded the metadata of {} objects from {}", entries.size(), snapshotFile);
+        return true;
+    }
+
+    /**
+     * <p>
+     * Save the index to the base directory. The caller holds the write lock.
+     * </p>
+     */
+    private void writeSnapshot(File baseDirectory) throws IOException {
+        Path temp = new File(baseDirectory, SNAPSHOT_TEMP_FILE_NAME).toPath();
+        try (OutputStream file = Files.newOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Entry entry : entries.values()) {
+                writeString(out, entry.objectId);
+                writeString(out, entry.path);
+                out.writeBoolean(entry.container);
+                Map<String, String> metadata = entry.metadata;
+                out.writeInt(metadata.size());
+                for (Map.Entry<String, String> item : metadata.entrySet()) {
+                    writeString(out, item.getKey());
+                    writeString(out, item.getValue());
+                }
+            }
+        }
+        Files.move(temp, new File(baseDirectory, SNAPSHOT_FILE_NAME).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * <p>
+     * Index the metadata of every container and data object below <code>directory</code>, the
+     * container at <code>path</code>. The caller holds the write lock.
+     * </p>
+     */
+    private void indexTree(File directory, String path) throws IOException {
+        File[] files = layout.children(directory);
+        if (files == null) {
+            return;
+        }
+        Map<String, byte[]> fields = metadataStore().readAll(directory);
+        for (File file : files) {
+            String name = file.getName();
+            String childPath = path.isEmpty() ? name : path + "/" + name;
+            byte[] encoded = fields.get(name);
+            if (encoded != null) {
+                index(encoded, childPath, file.isDirectory() && !QueueLog.isQueue(file));
+            }
+            if (file.isDirectory()) {
+                indexTree(file, childPath);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Index the object ID and user metadata found in the persisted fields of a container or
+     * data object. The caller holds the write lock.
+     * </p>
+     */
+    private void index(byte[] fields, String path, boolean container) {
+        String objectId = null;
+        Map<String, String> metadata = new HashMap<String, String>();
+        try (JsonParser jp = BinaryJson.createParser(fields)) {
+            if (jp.nextToken() != JsonToken.START_OBJECT) {
+                return;
+            }
+            while (jp.nextToken() == JsonToken.FIELD_NAME) {
+                String key = jp.getCurrentName();
+                JsonToken token = jp.nextToken();
+                if ("objectID".equals(key) && token == JsonToken.VALUE_STRING) {
+                    objectId = jp.getText();
+                } else if ("metadata".equals(key) && token == JsonToken.START_OBJECT) {
+                    while (jp.nextToken() == JsonToken.FIELD_NAME) {
+                        String name = jp.getCurrentName();
+                        if (jp.nextToken() == JsonToken.VALUE_STRING) {
+                            metadata.put(name, jp.getText());
+                        } else {
+                            jp.skipChildren();
+                        }
+                    }
+                } else {
+                    jp.skipChildren();
+                }
+            }
+        } catch (IOException ex) {
+            LOG.warn("Cannot read metadata: {}", ex.toString());
+            return;
+        }
+        if (objectId != null) {
+            putEntry(objectId, path, userMetadata(metadata), container);
+        }
+    }
+
+    /**
+     * <p>
+     * Replace the entry of <code>objectId</code>, and that of any other object recorded at
+     * <code>path</code>. Objects without user metadata are left out, since no query can match
+     * them. The caller holds the write lock.
+     * </p>
+     */
+    private void putEntry(String objectId, String path, Map<String, String> metadata,
+            boolean container) {
+        Entry previous = entries.get(objectId);
+        if (previous != null) {
+            if (previous.container == container && previous.path.equals(path)
+                && previous.metadata.equals(metadata)) {
+                return;
+            }
+            removeEntry(objectId);
+        }
+        Entry replaced = byPath.get(path);
+        if (replaced != null) {
+            removeEntry(replaced.objectId);
+        }
+        if (metadata.isEmpty()) {
+            return;
+        }
+        Entry entry = new Entry(objectId, path, metadata, container);
+        entries.put(objectId, entry);
+        byPath.put(path, entry);
+        for (Map.Entry<String, String> item : metadata.entrySet()) {
+            Postings values = postings.get(item.getKey());
+            if (values == null) {
+                values = new Postings();
+                postings.put(item.getKey(), values);
+            }
+            values.add(item.getValue(), path);
+        }
+    }
+
+    /**
+     * <p>
+     * Remove the entry of <code>objectId</code>, if any. The caller holds the write lock.
+     * </p>
+     */
+    private void removeEntry(String objectId) {
+        Entry entry = entries.remove(objectId);
+        if (entry == null) {
+            return;
+        }
+        byPath.remove(entry.path);
+        for (Map.Entry<String, String> item : entry.metadata.entrySet()) {
+            Postings values = postings.get(item.getKey());
+            if (values != null && values.remove(item.getValue(), entry.path)) {
+                postings.remove(item.getKey());
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Return the posting sets of the condition with the fewest candidates. The path of every
+     * object matching all of <code>conditions</code> is in one of them. The caller holds the
+     * read lock.
+     * </p>
+     */
+    private Collection<NavigableSet<String>> plan(List<Condition> conditions) {
+        Collection<NavigableSet<String>> best = Collections.emptyList();
+        long bestCount = Long.MAX_VALUE;
+        for (Condition condition : conditions) {
+            Collection<NavigableSet<String>> candidates = candidates(condition);
+            long count = 0;
+            for (Set<String> paths : candidates) {
+                count += paths.size();
+            }
+            if (count < bestCount) {
+                best = candidates;
+                bestCount = count;
+                if (count == 0) {
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * <p>
+     * Return the posting sets of the values satisfying <code>condition</code>. The caller holds
+     * the read lock.
+     * </p>
+     */
+    private Collection<NavigableSet<String>> candidates(Condition condition) {
+        Postings values = postings.get(condition.getKey());
+        if (values == null) {
+            return Collections.emptyList();
+        }
+        String value = condition.getValue();
+        switch (condition.getOperator()) {
+        case EQUALS:
+            NavigableSet<String> paths = values.strings.get(value);
+            return paths == null ? Collections.<NavigableSet<String>> emptyList()
+                    : Collections.singletonList(paths);
+        case STARTS:
+            List<NavigableSet<String>> prefixed = new ArrayList<NavigableSet<String>>();
+            for (Map.Entry<String, NavigableSet<String>> posting
+                    : values.strings.tailMap(value, true).entrySet()) {
+                if (!posting.getKey().startsWith(value)) {
+                    break;
+                }
+                prefixed.add(posting.getValue());
+            }
+            return prefixed;
+        default:
+            BigDecimal number = condition.getNumber();
+            return number != null
+                    ? range(values.numbers, number, condition.getOperator()).values()
+                    : range(values.strings, value, condition.getOperator()).values();
+        }
+    }
+
+    /**
+     * <p>
+     * Return the part of <code>map</code> satisfying a range condition on <code>bound</code>.
+     * </p>
+     */
+    private static <K> NavigableMap<K, NavigableSet<String>> range(
+            NavigableMap<K, NavigableSet<String>> map, K bound, Condition.Operator operator) {
+        switch (operator) {
+        case LESS:
+            return map.headMap(bound, false);
+        case LESS_OR_EQUAL:
+            return map.headMap(bound, true);
+        case GREATER:
+            return map.tailMap(bound, false);
+        default:
+            return map.tailMap(bound, true);
+        }
+    }
+
+    /**
+     * <p>
+     * Return the items of <code>metadata</code> supplied by clients.
+     * </p>
+     */
+    private static Map<String, String> userMetadata(Map<String, String> metadata) {
+        Map<String, String> user = new HashMap<String, String>();
+        if (metadata != null) {
+            for (Map.Entry<String, String> item : metadata.entrySet()) {
+                if (item.getValue() != null && !DataObjectDaoImpl.isSystemMetadata(item.getKey())) {
+                    user.put(item.getKey(), item.getValue());
+                }
+            }
+        }
+        return user;
+    }
+
+    /**
+     * <p>
+     * Return the paths of <code>postings</code> that are <code>scope</code> or below it, in
+     * order.
+     * </p>
+     */
+    private static Iterator<String> inScope(Collection<NavigableSet<String>> postings,
+            String scope) {
+        List<Iterator<String>> sources = new ArrayList<Iterator<String>>();
+        for (NavigableSet<String> paths : postings) {
+            if (scope.isEmpty()) {
+                sources.add(paths.iterator());
+                continue;
+            }
+            if (paths.contains(scope)) {
+                sources.add(Collections.singleton(scope).iterator());
+            }
+            sources.add(below(paths, scope).iterator());
+        }
+        return sources.size() == 1 ? sources.get(0) : new Merge(sources);
+    }
+
+    /**
+     * <p>
+     * Return the paths of <code>paths</code> strictly below <code>path</code>, which sort
+     * between <code>path + "/"</code> and <code>path + "0"</code>.
+     * </p>
+     */
+    private static NavigableSet<String> below(NavigableSet<String> paths, String path) {
+        return paths.subSet(path + "/", true, path + "0", false);
+    }
+
+    private static <V> NavigableMap<String, V> below(NavigableMap<String, V> paths, String path) {
+        return paths.subMap(path + "/", true, path + "0", false);
+    }
+
+    /**
+     * <p>
+     * Strip leading and trailing slashes so that every path is compared the same way.
+     * </p>
+     */
+    private static String normalize(String path) {
+        if (path == null) {
+            return "";
+        }
+        int start = 0;
+        int end = path.length();
+        while (start < end && path.charAt(start) == '/') {
+            start++;
+        }
+        while (end > start && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        return path.substring(start, end);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > 1 << 24) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * <p>
+     * The path and user metadata of one container or data object.
+     * </p>
+     */
+    private static class Entry {
+        final String objectId;
+        final String path;
+        final Map<String, String> metadata;
+        final boolean container;
+
+        Entry(String objectId, String path, Map<String, String> metadata, boolean container) {
+            this.objectId = objectId;
+            this.path = path;
+            this.metadata = metadata;
+            this.container = container;
+        }
+
+        String uri() {
+            if (path.isEmpty()) {
+                return "/";
+            }
+            return container ? "/" + path + "/" : "/" + path;
+        }
+
+        boolean matches(List<Condition> conditions) {
+            for (Condition condition : conditions) {
+                if (!condition.matches(metadata.get(condition.getKey()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * <p>
+     * The paths of the objects holding each value of one metadata item, by value and, for
+     * values that are numbers, by number.
+     * </p>
+     */
+    private static class Postings {
+        final TreeMap<String, NavigableSet<String>> strings =
+                new TreeMap<String, NavigableSet<String>>();
+        final TreeMap<BigDecimal, NavigableSet<String>> numbers =
+                new TreeMap<BigDecimal, NavigableSet<String>>();
+
+        void add(String value, String path) {
+            add(strings, value, path);
+            BigDecimal number = Condition.toNumber(value);
+            if (number != null) {
+                add(numbers, number, path);
+            }
+        }
+
+        /**
+         * <p>
+         * Remove a posting, returning <code>true</code> if none are left.
+         * </p>
+         */
+        boolean remove(String value, String path) {
+            remove(strings, value, path);
+            BigDecimal number = Condition.toNumber(value);
+            if (number != null) {
+                remove(numbers, number, path);
+            }
+            return strings.isEmpty();
+        }
+
+        private static <K> void add(Map<K, NavigableSet<String>> map, K key, String path) {
+            NavigableSet<String> paths = map.get(key);
+            if (paths == null) {
+                paths = new TreeSet<String>();
+                map.put(key, paths);
+            }
+            paths.add(path);
+        }
+
+        private static <K> void remove(Map<K, NavigableSet<String>> map, K key, String path) {
+            Set<String> paths = map.get(key);
+            if (paths != null && paths.remove(path) && paths.isEmpty()) {
+                map.remove(key);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Merges sorted iterators of paths into one sorted iterator.
+     * </p>
+     */
+    private static class Merge implements Iterator<String> {
+        private final PriorityQueue<Source> sources = new PriorityQueue<Source>();
+
+        Merge(List<Iterator<String>> iterators) {
+            for (Iterator<String> iterator : iterators) {
+                if (iterator.hasNext()) {
+                    sources.add(new Source(iterator));
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !sources.isEmpty();
+        }
+
+        @Override
+        public String next() {
+            Source source = sources.poll();
+            if (source == null) {
+                throw new NoSuchElementException();
+            }
+            String next = source.head;
+            if (source.iterator.hasNext()) {
+                source.head = source.iterator.next();
+                sources.add(source);
+            }
+            return next;
+        }
+
+        private static class Source implements Comparable<Source> {
+            final Iterator<String> iterator;
+            String head;
+
+            Source(Iterator<String> iterator) {
+                this.iterator = iterator;
+                this.head = iterator.next();
+            }
+
+            @Override
+            public int compareTo(Source other) {
+                return head.compareTo(other.head);
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * <p>
+ * Persists the encoded fields of containers and data objects, either JSON text or
+ * {@link org.snia.cdmiserver.util.BinaryJson}. The fields of an object are addressed by its "."
+ * metadata file as returned by {@link StorageLayout#metadataFile(File)}; whether that file
+ * really exists is up to the store.
+ * </p>
+ */
+public interface MetadataStore {
+
+    /**
+     * <p>
+     * Return the fields stored for <code>metadataFile</code>, or <code>null</code> if there are
+     * none.
+     * </p>
+     *
+     * @param metadataFile
+     *            The "." file of a container or data object
+     */
+    byte[] read(File metadataFile) throws IOException;
+
+    /**
+     * <p>
+     * Return <code>true</code> if fields are stored for <code>metadataFile</code>.
+     * </p>
+     *
+     * @param metadataFile
+     *            The "." file of a container or data object
+     */
+    boolean exists(File metadataFile);
+
+    /**
+     * <p>
+     * Return an object that is equal to the one returned by a previous call if and only if the
+     * fields of <code>metadataFile</code> have not changed in between, or <code>null</code> if
+     * there are no fields. Used to validate cached copies of the fields.
+     * </p>
+     *
+     * @param metadataFile
+     *            The "." file of a container or data object
+     */
+    Object stamp(File metadataFile);
+
+    /**
+     * <p>
+     * Replace the fields stored for <code>metadataFile</code>. Stores that force changes to disk
+     * also force the directory holding <code>metadataFile</code> when the object is new, so that
+     * a newly created directory or value file survives a crash along with its fields.
+     * </p>
+     *
+     * @param metadataFile
+     *            The "." file of a container or data object
+     * @param fields
+     *            The encoded fields
+     */
+    void write(File metadataFile, byte[] fields) throws IOException;
+
+    /**
+     * <p>
+     * Remove the fields stored for <code>metadataFile</code>, if any.
+     * </p>
+     *
+     * @param metadataFile
+     *            The "." file of a container or data object that has been deleted
+     */
+    void delete(File metadataFile) throws IOException;
+
+    /**
+     * <p>
+     * Move the fields of a container whose directory has just been renamed.
+     * </p>
+     *
+     * @param source
+     *            The "." file of the container before the rename
+     * @param target
+     *            The "." file of the container after the rename
+     */
+    void move(File source, File target) throws IOException;
+
+    /**
+     * <p>
+     * Return the fields of every child of the container at <code>directory</code> that has
+     * some, keyed by child name.
+     * </p>
+     *
+     * @param directory
+     *            Directory of a container
+     */
+    Map<String, byte[]> readAll(File directory) throws IOException;
+}
@@ -0,0 +1,790 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snia.cdmiserver.util.BinaryJson;
+
+/**
+ * <p>
+ * Persistent index from object ID to path, so that containers and data objects can be found by
+ * object ID without searching the tree.
+ * </p>
+ *
+ * <p>
+ * The index is kept in two hidden files in the base directory. The slot file is a memory mapped
+ * open addressing hash table; each slot holds the hash of an object ID and the offset of its
+ * entry in the entry file. The entry file is append only and holds each object ID with its path.
+ * A lookup is one probe sequence in mapped memory plus one positional read of the entry file.
+ * Moves append new entries and leave the old ones behind; {@link #rebuild()} reclaims them.
+ * </p>
+ *
+ * <p>
+ * The index can always be regenerated from the metadata on disk. It is rebuilt automatically
+ * when missing, and can be rebuilt offline by running this class with the base directory and,
+ * unless they are the defaults, the layout of the tree and "log" if its metadata is kept by a
+ * {@link LogMetadataStore} as arguments.
+ * </p>
+ */
+public class ObjectIdIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ObjectIdIndex.class);
+
+    static final String SLOT_FILE_NAME = ".cdmi_objectid.idx";
+    static final String ENTRY_FILE_NAME = ".cdmi_objectid.dat";
+
+    private static final int MAGIC = 0x43444d49;
+    private static final int VERSION = 1;
+
+    // Header: magic, version, capacity, used slots, live entries
+    private static final int HEADER_SIZE = 64;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int USED_OFFSET = 16;
+    private static final int LIVE_OFFSET = 24;
+
+    // Slot: hash of the object ID, offset of its entry
+    private static final int SLOT_SIZE = 16;
+    private static final long EMPTY = 0;
+    private static final long REMOVED = -1;
+
+    // Slots are mapped in segments of at most 1 GiB
+    private static final int SEGMENT_SHIFT = 26;
+    private static final long MIN_CAPACITY = 1 << 16;
+    private static final double LOAD_FACTOR = 0.75;
+
+    private static final int ENTRY_HEADER_SIZE = 8;
+    private static final int ENTRY_READ_SIZE = 256;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private FileChannel slotChannel;
+    private FileChannel entryChannel;
+    private MappedByteBuffer header;
+    private MappedByteBuffer[] segments;
+    private long capacity;
+    private long segmentMask;
+    private long used;
+    private long live;
+
+    // -------------------------------------------------------------- Properties
+    private String baseDirectoryName = null;
+
+    /**
+     * <p>
+     * Set the base directory name of the tree being indexed.
+     * </p>
+     *
+     * @param baseDirectoryName
+     *            The new base directory name
+     */
+    public void setBaseDirectoryName(String baseDirectoryName) {
+        this.baseDirectoryName = baseDirectoryName;
+    }
+
+    private StorageLayout layout = new FlatLayout();
+
+    /**
+     * <p>
+     * Set the layout of the tree on disk. Default value is a {@link FlatLayout}.
+     * </p>
+     *
+     * @param layout
+     *            The new layout
+     */
+    public void setLayout(StorageLayout layout) {
+        this.layout = layout;
+    }
+
+    private MetadataStore metadataStore = null;
+
+    /**
+     * <p>
+     * Set the store the object IDs are read from. Without one, they are read from "." files.
+     * </p>
+     *
+     * @param metadataStore
+     *            The new metadata store
+     */
+    public void setMetadataStore(MetadataStore metadataStore) {
+        this.metadataStore = metadataStore;
+    }
+
+    // ---------------------------------------------------------- Public Methods
+
+    /**
+     * <p>
+     * Return the path last recorded for <code>objectId</code>, or <code>null</code> if the object
+     * ID is not in the index.
+     * </p>
+     *
+     * @param objectId
+     *            Object ID to look up
+     */
+    public String get(String objectId) {
+        ensureOpen();
+        lock.readLock().lock();
+        try {
+            long slot = find(objectId, hash(objectId));
+            if (slot < 0) {
+                return null;
+            }
+            String[] entry = readEntry(offsetAt(slot));
+            return entry == null ? null : entry[1];
+        } catch (IOException ex) {
+            LOG.error("Exception while reading object ID index: ", ex);
+            throw new IllegalArgumentException("Cannot read object ID index error : " + ex);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * <p>
+     * Record <code>path</code> as the location of <code>objectId</code>, replacing any previous
+     * location.
+     * </p>
+     *
+     * @param objectId
+     *            Object ID of the container or data object
+     * @param path
+     *            Path of the container or data object relative to the base directory
+     */
+    public void put(String objectId, String path) {
+        if (objectId == null) {
+            return;
+        }
+        ensureOpen();
+        lock.writeLock().lock();
+        try {
+            putEntry(objectId, normalize(path));
+        } catch (IOException ex) {
+            LOG.error("Exception while writing object ID index: ", ex);
+            throw new IllegalArgumentException("Cannot write object ID index error : " + ex);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * <p>
+     * Remove <code>objectId</code> from the index, if present.
+     * </p>
+     *
+     * @param objectId
+     *            Object ID of a deleted container or data object
+     */
+    public void remove(String objectId) {
+        if (objectId == null) {
+            return;
+        }
+        ensureOpen();
+        lock.writeLock().lock();
+        try {
+            long slot = find(objectId, hash(objectId));
+            if (slot >= 0) {
+                setSlot(slot, hashAt(slot), REMOVED);
+                live--;
+                writeCounts();
+            }
+        } catch (IOException ex) {
+            LOG.error("Exception while writing object ID index: ", ex);
+            throw new IllegalArgumentException("Cannot write object ID index error : " + ex);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * <p>
+     * Record the paths of every container and data object below <code>directory</code>, which
+     * is found at <code>path</code>. Used after a container has been moved.
+     * </p>
+     *
+     * @param directory
+     *            Directory of the container
+     * @param path
+     *            Path of the container relative to the base directory
+     */
+    public void putTree(File directory, String path) {
+        ensureOpen();
+        lock.writeLock().lock();
+        try {
+            indexTree(directory, normalize(path));
+        } catch (IOException ex) {
+            LOG.error("Exception while writing object ID index: ", ex);
+            throw new IllegalArgumentException("Cannot write object ID index error : " + ex);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * <p>
+     * Remove every container and data object below <code>directory</code> from the index. Used
+     * before a container is deleted.
+     * </p>
+     *
+     * @param directory
+     *            Directory of the container
+     */
+    public void removeTree(File directory) {
+        File[] files = layout.children(directory);
+        if (files == null) {
+            return;
+        }
+        Map<String, byte[]> fields;
+        try {
+            fields = metadataStore().readAll(directory);
+        } catch (IOException ex) {
+            LOG.warn("Cannot read object IDs below {}: {}", directory, ex.toString());
+            return;
+        }
+        for (File file : files) {
+            remove(readObjectId(fields.get(file.getName())));
+            if (file.isDirectory()) {
+                removeTree(file);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Discard the index and regenerate it from the metadata files below the base directory.
+     * </p>
+     */
+    public void rebuild() {
+        lock.writeLock().lock();
+        try {
+            close();
+            File baseDirectory = new File(baseDirectoryName);
+            Files.deleteIfExists(new File(baseDirectory, SLOT_FILE_NAME).toPath());
+            Files.deleteIfExists(new File(baseDirectory, ENTRY_FILE_NAME).toPath());
+            create(baseDirectory);
+        } catch (IOException ex) {
+            LOG.error("Exception while rebuilding object ID index: ", ex);
+            throw new IllegalArgumentException("Cannot rebuild object ID index error : " + ex);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * <p>
+     * Flush the index to disk and release its files. The index is reopened on next use.
+     * </p>
+     */
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if (slotChannel != null) {
+                if (segments != null) {
+                    header.force();
+                    for (MappedByteBuffer segment : segments) {
+                        segment.force();
+                    }
+                }
+                slotChannel.close();
+                entryChannel.force(false);
+                entryChannel.close();
+            }
+        } catch (IOException ex) {
+            LOG.error("Exception while closing object ID index: ", ex);
+        } finally {
+            slotChannel = null;
+            entryChannel = null;
+            header = null;
+            segments = null;
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * <p>
+     * Return the number of object IDs in the index.
+     * </p>
+     */
+    public long size() {
+        ensureOpen();
+        lock.readLock().lock();
+        try {
+            return live;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * <p>
+     * Read the object ID recorded in the persisted fields of a container or data object, or
+     * return <code>null</code> if there is none.
+     * </p>
+     *
+     * @param fields
+     *            The fields as JSON text or {@link BinaryJson}, or <code>null</code>
+     */
+    public static String readObjectId(byte[] fields) {
+        if (fields == null) {
+            return null;
+        }
+        try (JsonParser jp = BinaryJson.createParser(fields)) {
+            if (jp.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            JsonToken tolkein;
+            while ((tolkein = jp.nextToken()) == JsonToken.FIELD_NAME) {
+                String key = jp.getCurrentName();
+                tolkein = jp.nextToken();
+                if ("objectID".equals(key) && tolkein == JsonToken.VALUE_STRING) {
+                    return jp.getText();
+                }
+                jp.skipChildren();
+            }
+        } catch (IOException ex) {
+            LOG.warn("Cannot read object ID: {}", ex.toString());
+        }
+        return null;
+    }
+
+    /**
+     * <p>
+     * Rebuild the index of the tree at the base directory given as the first argument.
+     * </p>
+     */
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 3) {
+            System.err.println("Usage: java " + ObjectIdIndex.class.getName()
+                               + " <base directory> [flat|hashed[:<levels>]] [sidecar|log]");
+            System.exit(1);
+        }
+        ObjectIdIndex index = new ObjectIdIndex();
+        index.setBaseDirectoryName(args[0]);
+        if (args.length > 1) {
+            index.setLayout(StorageLayout.forName(args[1]));
+        }
+        if (args.length > 2 && "log".equals(args[2])) {
+            LogMetadataStore store = new LogMetadataStore();
+            store.setLayout(StorageLayout.forName(args[1]));
+            index.setMetadataStore(store);
+        }
+        long start = System.currentTimeMillis();
+        index.rebuild();
+        System.out.println("Indexed " + index.size() + " object IDs in "
+                           + (System.currentTimeMillis() - start) + " ms");
+        index.close();
+    }
+
+    // --------------------------------------------------------- Private Methods
+
+    /**
+     * <p>
+     * Return the injected metadata store, or one reading "." files if none was injected.
+     * </p>
+     */
+    private MetadataStore metadataStore() {
+        if (metadataStore == null) {
+            SidecarMetadataStore sidecars = new SidecarMetadataStore();
+            sidecars.setLayout(layout);
+            metadataStore = sidecars;
+        }
+        return metadataStore;
+    }
+
+    /**
+     * <p>
+     * Open the index files on first use, rebuilding the index if they are missing or unreadable.
+     * </p>
+     */
+    private void ensureOpen() {
+        lock.readLock().lock();
+        try {
+            if (slotChannel != null) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            if (slotChannel == null) {
+                File baseDirectory = new File(baseDirectoryName);
+                File slotFile = new File(baseDirectory, SLOT_FILE_NAME);
+                File entryFile = new File(baseDirectory, ENTRY_FILE_NAME);
+                if (!slotFile.exists() || !entryFile.exists() || !open(slotFile, entryFile)) {
+                    LOG.info("Rebuilding object ID index in {}", baseDirectory);
+                    Files.deleteIfExists(slotFile.toPath());
+                    Files.deleteIfExists(entryFile.toPath());
+                    create(baseDirectory);
+                }
+            }
+        } catch (IOException ex) {
+            LOG.error("Exception while opening object ID index: ", ex);
+            throw new IllegalArgumentException("Cannot open object ID index error : " + ex);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * <p>
+     * Open existing index files, returning <code>false</code> if they are not a valid index.
+     * </p>
+     */
+    private boolean open(File slotFile, File entryFile) throws IOException {
+        slotChannel = FileChannel.open(slotFile.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        entryChannel = FileChannel.open(entryFile.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (slotChannel.size() < HEADER_SIZE) {
+            close();
+            return false;
+        }
+        header = slotChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        long slots = header.getLong(CAPACITY_OFFSET);
+        if (header.getInt(0) != MAGIC
+            || header.getInt(4) != VERSION
+            || Long.bitCount(slots) != 1
+            || slotChannel.size() < HEADER_SIZE + slots * SLOT_SIZE) {
+            close();
+            return false;
+        }
+        mapSlots(slots);
+        used = header.getLong(USED_OFFSET);
+        live = header.getLong(LIVE_OFFSET);
+        return true;
+    }
+
+    /**
+     * <p>
+     * Create empty index files and fill them from the metadata files on disk.
+     * </p>
+     */
+    private void create(File baseDirectory) throws IOException {
+        slotChannel = FileChannel.open(new File(baseDirectory, SLOT_FILE_NAME).toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+        entryChannel = FileChannel.open(new File(baseDirectory, ENTRY_FILE_NAME).toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+        header = slotChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+        header.putLong(CAPACITY_OFFSET, MIN_CAPACITY);
+        mapSlots(MIN_CAPACITY);
+        used = 0;
+        live = 0;
+        writeCounts();
+        indexTree(baseDirectory, null);
+        LOG.info("Indexed {} object IDs in {}", live, baseDirectory);
+    }
+
+    /**
+     * <p>
+     * Map <code>slots</code> slots of the slot file.
+     * </p>
+     */
+    private void mapSlots(long slots) throws IOException {
+        long segmentSlots = Math.min(slots, 1L << SEGMENT_SHIFT);
+        MappedByteBuffer[] mapped = new MappedByteBuffer[(int) (slots / segmentSlots)];
+        for (int i = 0; i < mapped.length; i++) {
+            mapped[i] = slotChannel.map(FileChannel.MapMode.READ_WRITE,
+                    HEADER_SIZE + i * segmentSlots * SLOT_SIZE, segmentSlots * SLOT_SIZE);
+        }
+        segments = mapped;
+        capacity = slots;
+        segmentMask = segmentSlots - 1;
+    }
+
+    /**
+     * <p>
+     * Add an entry for each container and data object below <code>directory</code>.
+     * </p>
+     */
+    private void indexTree(File directory, String path) throws IOException {
+        File[] files = layout.children(directory);
+        if (files == null) {
+            return;
+        }
+        Map<String, byte[]> fields = metadataStore().readAll(directory);
+        for (File file : files) {
+            String name = file.getName();
+            String childPath = path == null ? name : path + "/" + name;
+            String objectId = readObjectId(fields.get(name));
+            if (objectId != null) {
+                putEntry(objectId, childPath);
+            }
+            if (file.isDirectory()) {
+                indexTree(file, childPath);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Append an entry and point the slot of <code>objectId</code> at it. The caller holds the
+     * write lock.
+     * </p>
+     */
+    private void putEntry(String objectId, String path) throws IOException {
+        long hash = hash(objectId);
+        long offset = appendEntry(objectId, path);
+        long slot = find(objectId, hash);
+        if (slot >= 0) {
+            setSlot(slot, hash, offset);
+            return;
+        }
+        if (used + 1 > capacity * LOAD_FACTOR) {
+            resize();
+        }
+        slot = hash & (capacity - 1);
+        while (hashAt(slot) != EMPTY && offsetAt(slot) != REMOVED) {
+            slot = (slot + 1) & (capacity - 1);
+        }
+        if (hashAt(slot) == EMPTY) {
+            used++;
+        }
+        setSlot(slot, hash, offset);
+        live++;
+        writeCounts();
+    }
+
+    /**
+     * <p>
+     * Return the slot holding <code>objectId</code>, or -1 if it is not in the index.
+     * </p>
+     */
+    private long find(String objectId, long hash) throws IOException {
+        long mask = capacity - 1;
+        for (long slot = hash & mask;; slot = (slot + 1) & mask) {
+            long slotHash = hashAt(slot);
+            if (slotHash == EMPTY) {
+                return -1;
+            }
+            if (slotHash == hash) {
+                long offset = offsetAt(slot);
+                if (offset != REMOVED) {
+                    String[] entry = readEntry(offset);
+                    if (entry != null && entry[0].equals(objectId)) {
+                        return slot;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Move the slots to a new slot file sized for the live entries. Removed slots are dropped and
+     * the entries themselves are not touched.
+     * </p>
+     */
+    private void resize() throws IOException {
+        long slots = capacity;
+        while (live + 1 > slots * LOAD_FACTOR / 2) {
+            slots <<= 1;
+        }
+        Path slotPath = new File(baseDirectoryName, SLOT_FILE_NAME).toPath();
+        Path newSlotPath = new File(baseDirectoryName, SLOT_FILE_NAME + ".new").toPath();
+        Files.deleteIfExists(newSlotPath);
+        FileChannel oldChannel = slotChannel;
+        MappedByteBuffer[] oldSegments = segments;
+        long oldCapacity = capacity;
+        long oldMask = segmentMask;
+
+        slotChannel = FileChannel.open(newSlotPath, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+        header = slotChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+        header.putLong(CAPACITY_OFFSET, slots);
+        mapSlots(slots);
+        for (long oldSlot = 0; oldSlot < oldCapacity; oldSlot++) {
+            MappedByteBuffer oldSegment = oldSegments[(int) (oldSlot >>> SEGMENT_SHIFT)];
+            int position = (int) (oldSlot & oldMask) * SLOT_SIZE;
+            long hash = oldSegment.getLong(position);
+            long offset = oldSegment.getLong(position + 8);
+            if (hash != EMPTY && offset != REMOVED) {
+                long slot = hash & (slots - 1);
+                while (hashAt(slot) != EMPTY) {
+                    slot = (slot + 1) & (slots - 1);
+                }
+                setSlot(slot, hash, offset);
+            }
+        }
+        used = live;
+        writeCounts();
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+        header.force();
+        oldChannel.close();
+        Files.move(newSlotPath, slotPath, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        LOG.debug("Resized object ID index from {} to {} slots", oldCapacity, slots);
+    }
+
+    /**
+     * <p>
+     * Append an entry to the entry file and return its offset.
+     * </p>
+     */
+    private long appendEntry(String objectId, String path) throws IOException {
+        byte[] id = objectId.getBytes(StandardCharsets.UTF_8);
+        byte[] location = path.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(ENTRY_HEADER_SIZE + id.length + location.length);
+        buffer.putInt(id.length).putInt(location.length).put(id).put(location).flip();
+        long offset = entryChannel.size();
+        while (buffer.hasRemaining()) {
+            entryChannel.write(buffer, offset + buffer.position());
+        }
+        return offset;
+    }
+
+    /**
+     * <p>
+     * Read the object ID and path of the entry at <code>offset</code>, or return
+     * <code>null</code> if the entry is incomplete.
+     * </p>
+     */
+    private String[] readEntry(long offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(ENTRY_READ_SIZE);
+        readFully(buffer, offset);
+        if (buffer.remaining() < ENTRY_HEADER_SIZE) {
+            return null;
+        }
+        int idLength = buffer.getInt();
+        int pathLength = buffer.getInt();
+        if (idLength < 0 || pathLength < 0) {
+            return null;
+        }
+        if (buffer.remaining() < idLength + pathLength) {
+            buffer = ByteBuffer.allocate(idLength + pathLength);
+            readFully(buffer, offset + ENTRY_HEADER_SIZE);
+            if (buffer.remaining() < idLength + pathLength) {
+                return null;
+            }
+        }
+        byte[] id = new byte[idLength];
+        byte[] location = new byte[pathLength];
+        buffer.get(id).get(location);
+        return new String[] {
+            new String(id, StandardCharsets.UTF_8), new String(location, StandardCharsets.UTF_8)
+        };
+    }
+
+    /**
+     * <p>
+     * Fill <code>buffer</code> from the entry file starting at <code>offset</code>, stopping
+     * early at end of file, and flip it for reading.
+     * </p>
+     */
+    private void readFully(ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (entryChannel.read(buffer, offset + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+    }
+
+    private long hashAt(long slot) {
+        return segments[(int) (slot >>> SEGMENT_SHIFT)].getLong((int) (slot & segmentMask)
+                                                                * SLOT_SIZE);
+    }
+
+    private long offsetAt(long slot) {
+        return segments[(int) (slot >>> SEGMENT_SHIFT)].getLong((int) (slot & segmentMask)
+                                                                * SLOT_SIZE + 8);
+    }
+
+    private void setSlot(long slot, long hash, long offset) {
+        MappedByteBuffer segment = segments[(int) (slot >>> SEGMENT_SHIFT)];
+        int position = (int) (slot & segmentMask) * SLOT_SIZE;
+        segment.putLong(position + 8, offset);
+        segment.putLong(position, hash);
+    }
+
+    private void writeCounts() {
+        header.putLong(USED_OFFSET, used);
+        header.putLong(LIVE_OFFSET, live);
+    }
+
+    /**
+     * <p>
+     * Return a 64 bit hash of <code>objectId</code> that is never {@link #EMPTY}.
+     * </p>
+     */
+    private static long hash(String objectId) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < objectId.length(); i++) {
+            h ^= objectId.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h == EMPTY ? 1 : h;
+    }
+
+    /**
+     * <p>
+     * Strip leading and trailing slashes so that every path is recorded the same way.
+     * </p>
+     */
+    private static String normalize(String path) {
+        if (path == null) {
+            return "";
+        }
+        int start = 0;
+        int end = path.length();
+        while (start < end && path.charAt(start) == '/') {
+            start++;
+        }
+        while (end > start && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        return path.substring(start, end);
+    }
+}
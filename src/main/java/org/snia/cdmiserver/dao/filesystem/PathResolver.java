@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * Parses container and data object paths into {@link CdmiPath} instances, keeping the recently
+ * resolved ones in a bounded cache.
+ * </p>
+ *
+ * <p>
+ * A request resolves its path in the container DAO and then again in the data object DAO; both
+ * share this resolver and so the same instance. Cached paths depend only on the path, the base
+ * directory and the layout, and never become stale. When the cache is full the oldest entries
+ * are evicted first.
+ * </p>
+ */
+public class PathResolver implements PathResolverMBean {
+
+    private final Map<String, CdmiPath> entries = new ConcurrentHashMap<String, CdmiPath>();
+    private final Queue<String> insertionOrder = new ConcurrentLinkedQueue<String>();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private volatile CdmiPath root;
+
+    // -------------------------------------------------------------- Properties
+    private File baseDirectory;
+
+    /**
+     * <p>
+     * Set the directory of the root container.
+     * </p>
+     *
+     * @param baseDirectoryName
+     *            The new base directory name
+     */
+    public void setBaseDirectoryName(String baseDirectoryName) {
+        this.baseDirectory = new File(baseDirectoryName);
+        clear();
+    }
+
+    private StorageLayout layout = new FlatLayout();
+
+    /**
+     * <p>
+     * Set the layout of the container directories. Default is a {@link FlatLayout}.
+     * </p>
+     *
+     * @param layout
+     *            The new storage layout
+     */
+    public void setLayout(StorageLayout layout) {
+        this.layout = layout;
+        clear();
+    }
+
+    private int maxEntries = 10000;
+
+    /**
+     * <p>
+     * Set the maximum number of cached paths. Default value is 10000.
+     * </p>
+     *
+     * @param maxEntries
+     *            The new maximum number of entries
+     */
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    // ---------------------------------------------------------- Public Methods
+
+    /**
+     * <p>
+     * Return the resolved form of <code>path</code>, the root container if it is
+     * <code>null</code> or has no names.
+     * </p>
+     *
+     * @param path
+     *            Path of a container or data object, relative to the root container
+     */
+    public CdmiPath resolve(String path) {
+        if (path == null) {
+            return root();
+        }
+        CdmiPath cached = entries.get(path);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        CdmiPath resolved = parse(path);
+        CdmiPath raced = entries.putIfAbsent(path, resolved);
+        if (raced != null) {
+            return raced;
+        }
+        insertionOrder.add(path);
+        queued.incrementAndGet();
+        evict();
+        return resolved;
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public int getSize() {
+        return entries.size();
+    }
+
+    @Override
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    @Override
+    public void clear() {
+        entries.clear();
+        insertionOrder.clear();
+        queued.set(0);
+        root = null;
+    }
+
+    // --------------------------------------------------------- Private Methods
+
+    /**
+     * <p>
+     * Return the resolved root container.
+     * </p>
+     */
+    private CdmiPath root() {
+        CdmiPath result = root;
+        if (result == null) {
+            result = new CdmiPath("", null, "", null, baseDirectory,
+                    layout.metadataFile(baseDirectory));
+            root = result;
+        }
+        return result;
+    }
+
+    /**
+     * <p>
+     * Parse <code>path</code>, dropping empty names, and resolve it name by name so that the
+     * directory of its parent is resolved on the way.
+     * </p>
+     */
+    private CdmiPath parse(String path) {
+        StringBuilder normalized = new StringBuilder(path.length());
+        File directory = baseDirectory;
+        File file = baseDirectory;
+        int parentEnd = -1;
+        String name = "";
+        int start = 0;
+        while (start < path.length()) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            if (end > start) {
+                if (normalized.length() > 0) {
+                    parentEnd = normalized.length();
+                    normalized.append('/');
+                }
+                name = path.substring(start, end);
+                normalized.append(name);
+                directory = file;
+                file = layout.child(directory, name);
+            }
+            start = end + 1;
+        }
+        if (normalized.length() == 0) {
+            return root();
+        }
+        String parent = parentEnd < 0 ? "" : normalized.substring(0, parentEnd);
+        return new CdmiPath(normalized.toString(), parent, name, directory, file,
+                layout.metadataFile(file));
+    }
+
+    /**
+     * <p>
+     * Evict the oldest entries until the cache is within its bound.
+     * </p>
+     */
+    private void evict() {
+        while (queued.get() > maxEntries) {
+            String oldest = insertionOrder.poll();
+            if (oldest == null) {
+                break;
+            }
+            queued.decrementAndGet();
+            entries.remove(oldest);
+        }
+    }
+}
@@ -0,0 +1,544 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snia.cdmiserver.dao.QueueDao;
+import org.snia.cdmiserver.exception.BadRequestException;
+import org.snia.cdmiserver.exception.ConflictException;
+import org.snia.cdmiserver.exception.NotFoundException;
+import org.snia.cdmiserver.model.Queue;
+import org.snia.cdmiserver.util.BinaryJson;
+import org.snia.cdmiserver.util.ObjectID;
+import org.snia.cdmiserver.util.Timestamps;
+
+/**
+ * <p>
+ * Concrete implementation of {@link QueueDao} using the local filesystem as the backing store.
+ * </p>
+ *
+ * <p>
+ * A queue is a directory in the tree, so that it is listed, moved and deleted along with the
+ * container holding it. Its persisted fields are kept by the {@link MetadataStore} like those
+ * of a container, and its values by a {@link QueueLog} in hidden files inside the directory.
+ * Logs stay open and mapped once used, keyed by the file of their state so that a queue whose
+ * container has been moved is still served by the same log.
+ * </p>
+ */
+public class QueueDaoImpl implements QueueDao {
+
+    private static final Logger LOG = LoggerFactory.getLogger(QueueDaoImpl.class);
+
+    public static final String QUEUE_CAPABILITIES = "/cdmi_capabilities/queue";
+
+    private final Map<Object, QueueLog> logs = new ConcurrentHashMap<Object, QueueLog>();
+
+    // -------------------------------------------------------------- Properties
+    private String baseDirectoryName = null;
+
+    /**
+     * <p>
+     * Set the base directory name of the tree holding the queues.
+     * </p>
+     *
+     * @param baseDirectoryName
+     *            The new base directory name
+     */
+    public void setBaseDirectoryName(String baseDirectoryName) {
+        this.baseDirectoryName = baseDirectoryName;
+    }
+
+    private StorageLayout layout = new FlatLayout();
+
+    /**
+     * <p>
+     * Set the layout of the tree on disk. Default value is a {@link FlatLayout}.
+     * </p>
+     *
+     * @param layout
+     *            The new layout
+     */
+    public void setLayout(StorageLayout layout) {
+        this.layout = layout;
+    }
+
+    private MetadataStore metadataStore = null;
+
+    /**
+     * <p>
+     * Set the store of queue fields. Without one, they are kept in "." files next to the queue
+     * directories.
+     * </p>
+     *
+     * @param metadataStore
+     *            The new metadata store
+     */
+    public void setMetadataStore(MetadataStore metadataStore) {
+        this.metadataStore = metadataStore;
+    }
+
+    private ObjectIdIndex objectIdIndex = null;
+
+    /**
+     * <p>
+     * Set the index used to find queues by object ID. Without one, lookups by object ID are not
+     * supported.
+     * </p>
+     *
+     * @param objectIdIndex
+     *            The new object ID index
+     */
+    public void setObjectIdIndex(ObjectIdIndex objectIdIndex) {
+        this.objectIdIndex = objectIdIndex;
+    }
+
+    private ChildIndex childIndex = null;
+
+    /**
+     * <p>
+     * Set the sorted index of container children, which is told about queues created and
+     * deleted.
+     * </p>
+     *
+     * @param childIndex
+     *            The new child index
+     */
+    public void setChildIndex(ChildIndex childIndex) {
+        this.childIndex = childIndex;
+    }
+
+    private MetadataIndex metadataIndex = null;
+
+    /**
+     * <p>
+     * Set the index of user metadata kept up to date with the metadata of queues. Without one,
+     * queues cannot be found by metadata.
+     * </p>
+     *
+     * @param metadataIndex
+     *            The new metadata index
+     */
+    public void setMetadataIndex(MetadataIndex metadataIndex) {
+        this.metadataIndex = metadataIndex;
+    }
+
+    private PathResolver pathResolver = null;
+
+    /**
+     * <p>
+     * Set the resolver of paths shared with the other DAOs. Without one, paths are resolved by a
+     * resolver of this DAO.
+     * </p>
+     *
+     * @param pathResolver
+     *            The new path resolver
+     */
+    public void setPathResolver(PathResolver pathResolver) {
+        this.pathResolver = pathResolver;
+    }
+
+    private DurableWriter durableWriter = null;
+
+    /**
+     * <p>
+     * Set the writer that forces enqueued values and acknowledgements to disk before they are
+     * confirmed. Without one, they survive a crash of the server but not of the system.
+     * </p>
+     *
+     * @param durableWriter
+     *            The new durable writer
+     */
+    public void setDurableWriter(DurableWriter durableWriter) {
+        this.durableWriter = durableWriter;
+    }
+
+    private boolean binaryMetadata = true;
+
+    /**
+     * <p>
+     * Set whether persisted fields are written in the compact {@link BinaryJson} encoding rather
+     * than as JSON text. Defaults to <code>true</code>.
+     * </p>
+     *
+     * @param binaryMetadata
+     *            <code>true</code> to write binary fields
+     */
+    public void setBinaryMetadata(boolean binaryMetadata) {
+        this.binaryMetadata = binaryMetadata;
+    }
+
+    private long segmentSize = 64L << 20;
+
+    /**
+     * <p>
+     * Set the size in bytes of the segment files holding the values of a queue. Larger values
+     * get a segment of their own. Default value is 64 MiB.
+     * </p>
+     *
+     * @param segmentSize
+     *            The new segment size
+     */
+    public void setSegmentSize(long segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    // ------------------------------------------------------- QueueDao Methods
+
+    @Override
+    public boolean isQueue(String path) {
+        CdmiPath cdmiPath = resolve(path);
+        return !cdmiPath.isRoot() && QueueLog.isQueue(cdmiPath.getFile());
+    }
+
+    @Override
+    public Queue createByPath(String path, Queue queue) {
+        CdmiPath cdmiPath = resolve(path);
+        if (cdmiPath.isRoot()) {
+            throw new BadRequestException("No queue name in path <" + path + ">");
+        }
+        File containerDirectory = cdmiPath.getParentDirectory();
+        File directory = cdmiPath.getFile();
+        if (!containerDirectory.isDirectory()) {
+            throw new ConflictException("Container <"
+                                        + containerDirectory.getAbsolutePath()
+                                        + "> doesn't exist");
+        }
+        if (directory.exists()) {
+            throw new ConflictException("Object <" + directory.getAbsolutePath() + "> exists");
+        }
+        Queue fields = new Queue();
+        fields.getMetadata().putAll(queue.getMetadata());
+        fields.setObjectID(ObjectID.getObjectID(10));
+        fields.setCapabilitiesURI(QUEUE_CAPABILITIES);
+        fields.setMetadata("cdmi_ctime", Timestamps.now());
+        QueueLog log;
+        try {
+            layout.prepare(directory);
+            if (!directory.mkdir()) {
+                throw new IOException("Cannot create directory " + directory);
+            }
+            log = QueueLog.create(directory, segmentSize, durableWriter);
+            logs.put(keyOf(directory), log);
+            writeFields(path, cdmiPath.getMetadataFile(), fields);
+        } catch (IOException ex) {
+            LOG.error("Exception while writing: ", ex);
+            throw new IllegalArgumentException("Cannot write Queue @" + path + " error : " + ex);
+        }
+        if (objectIdIndex != null) {
+            objectIdIndex.put(fields.getObjectID(), path);
+        }
+        if (childIndex != null) {
+            childIndex.add(containerDirectory, directory.getName());
+        }
+        enqueue(path, log, queue);
+        return describe(cdmiPath, fields, log);
+    }
+
+    @Override
+    public Queue updateByPath(String path, Queue queue) {
+        CdmiPath cdmiPath = resolve(path);
+        QueueLog log = openLog(cdmiPath);
+        if (log == null) {
+            throw new NotFoundException("Path '" + path + "' does not identify a queue");
+        }
+        Queue fields = readFields(cdmiPath);
+        if (!queue.getMetadata().isEmpty()) {
+            fields.getMetadata().putAll(queue.getMetadata());
+            fields.setMetadata("cdmi_mtime", Timestamps.now());
+            try {
+                writeFields(path, cdmiPath.getMetadataFile(), fields);
+            } catch (IOException ex) {
+                LOG.error("Exception while writing: ", ex);
+                throw new IllegalArgumentException("Cannot write Queue @" + path
+                                                   + " error : " + ex);
+            }
+        }
+        enqueue(path, log, queue);
+        return describe(cdmiPath, fields, log);
+    }
+
+    @Override
+    public Queue findByPath(String path, int count) {
+        CdmiPath cdmiPath = resolve(path);
+        QueueLog log = openLog(cdmiPath);
+        if (log == null) {
+            return null;
+        }
+        Queue queue = describe(cdmiPath, readFields(cdmiPath), log);
+        for (QueueLog.Record record : log.peek(count)) {
+            queue.addValue(record.getValue(), record.getMimetype());
+        }
+        return queue;
+    }
+
+    @Override
+    public Queue findByPath(String path, long first, long last) {
+        CdmiPath cdmiPath = resolve(path);
+        QueueLog log = openLog(cdmiPath);
+        if (log == null) {
+            return null;
+        }
+        Queue queue = describe(cdmiPath, readFields(cdmiPath), log);
+        for (QueueLog.Record record : log.read(first, last)) {
+            queue.addValue(record.getValue(), record.getMimetype());
+        }
+        return queue;
+    }
+
+    @Override
+    public Queue findByObjectId(String objectId) {
+        if (objectIdIndex == null) {
+            throw new UnsupportedOperationException("QueueDaoImpl.findByObjectId()");
+        }
+        String path = objectIdIndex.get(objectId);
+        return path == null ? null : findByPath(path, 0);
+    }
+
+    @Override
+    public long deleteValuesByPath(String path, long count) {
+        QueueLog log = openLog(resolve(path));
+        if (log == null) {
+            throw new NotFoundException("Path '" + path + "' does not identify a queue");
+        }
+        try {
+            return log.acknowledge(count);
+        } catch (IOException ex) {
+            LOG.error("Exception while writing: ", ex);
+            throw new IllegalArgumentException("Cannot write Queue @" + path + " error : " + ex);
+        }
+    }
+
+    @Override
+    public void deleteByPath(String path) {
+        CdmiPath cdmiPath = resolve(path);
+        File directory = cdmiPath.getFile();
+        QueueLog log = openLog(cdmiPath);
+        if (log == null) {
+            throw new NotFoundException("Path '" + path + "' does not identify a queue");
+        }
+        String objectId = readFields(cdmiPath).getObjectID();
+        if (objectIdIndex != null) {
+            objectIdIndex.remove(objectId);
+        }
+        if (metadataIndex != null) {
+            metadataIndex.remove(objectId);
+        }
+        try {
+            logs.remove(keyOf(directory));
+            log.delete();
+            metadataStore().delete(cdmiPath.getMetadataFile());
+            // anything else left in the directory was not written by the queue
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    Files.deleteIfExists(file.toPath());
+                }
+            }
+            Files.deleteIfExists(directory.toPath());
+        } catch (IOException ex) {
+            LOG.error("Exception while deleting: ", ex);
+            throw new IllegalArgumentException("Cannot delete Queue @" + path
+                                               + " error : " + ex);
+        }
+        if (childIndex != null) {
+            childIndex.remove(cdmiPath.getParentDirectory(), directory.getName());
+        }
+    }
+
+    /**
+     * <p>
+     * Flush and release every open queue. Queues are reopened on next use.
+     * </p>
+     */
+    public void close() {
+        for (QueueLog log : logs.values()) {
+            log.close();
+        }
+        logs.clear();
+    }
+
+    // --------------------------------------------------------- Private Methods
+
+    /**
+     * <p>
+     * Return the open log of the queue at <code>cdmiPath</code>, opening it if need be, or
+     * <code>null</code> if there is no queue there.
+     * </p>
+     */
+    private QueueLog openLog(CdmiPath cdmiPath) {
+        if (cdmiPath.isRoot()) {
+            return null;
+        }
+        File directory = cdmiPath.getFile();
+        try {
+            Object key;
+            try {
+                key = keyOf(directory);
+            } catch (NoSuchFileException ex) {
+                return null;
+            }
+            QueueLog log = logs.get(key);
+            if (log == null) {
+                synchronized (logs) {
+                    log = logs.get(key);
+                    if (log == null) {
+                        log = QueueLog.open(directory, segmentSize, durableWriter);
+                        logs.put(key, log);
+                    }
+                }
+            }
+            if (!directory.equals(log.getDirectory())) {
+                log.setDirectory(directory);
+            }
+            return log;
+        } catch (IOException ex) {
+            LOG.error("Exception while opening queue: ", ex);
+            throw new IllegalArgumentException("Cannot open Queue @" + cdmiPath.getPath()
+                                               + " error : " + ex);
+        }
+    }
+
+    /**
+     * <p>
+     * Return the key of the open log of the queue in <code>directory</code>: the file key of
+     * its state file, which stays the same when the queue is moved, where the filesystem has
+     * one. An open log keeps that file mapped, so the key cannot be reused by another queue.
+     * </p>
+     */
+    private static Object keyOf(File directory) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(
+                new File(directory, QueueLog.STATE_FILE_NAME).toPath(),
+                BasicFileAttributes.class);
+        Object key = attributes.fileKey();
+        return key != null ? key : directory.getAbsolutePath();
+    }
+
+    /**
+     * <p>
+     * Append the values of <code>queue</code>, if any, to <code>log</code>.
+     * </p>
+     */
+    private void enqueue(String path, QueueLog log, Queue queue) {
+        List<byte[]> values = queue.getValue();
+        if (values.isEmpty()) {
+            return;
+        }
+        List<String> mimetypes = new ArrayList<String>(values.size());
+        for (int i = 0; i < values.size(); i++) {
+            mimetypes.add(queue.getMimetype(i));
+        }
+        try {
+            log.append(values, mimetypes);
+        } catch (IOException ex) {
+            LOG.error("Exception while writing: ", ex);
+            throw new IllegalArgumentException("Cannot write Queue @" + path + " error : " + ex);
+        }
+    }
+
+    /**
+     * <p>
+     * Return the representation of a queue, without values.
+     * </p>
+     */
+    private static Queue describe(CdmiPath cdmiPath, Queue fields, QueueLog log) {
+        Queue queue = new Queue();
+        queue.setObjectType(Queue.OBJECT_TYPE);
+        queue.setObjectID(fields.getObjectID());
+        queue.setCapabilitiesURI(fields.getCapabilitiesURI());
+        queue.setParentURI(cdmiPath.getParentURI());
+        queue.setCompletionStatus("Complete");
+        queue.getMetadata().putAll(fields.getMetadata());
+        long head = log.getHead();
+        long tail = log.getTail();
+        queue.setQueueValues(tail > head ? head + "-" + (tail - 1) : "");
+        return queue;
+    }
+
+    private Queue readFields(CdmiPath cdmiPath) {
+        Queue fields = new Queue();
+        try {
+            byte[] bytes = metadataStore().read(cdmiPath.getMetadataFile());
+            if (bytes != null) {
+                fields.fromJson(bytes, true);
+            }
+        } catch (IOException ex) {
+            LOG.error("Exception while reading: ", ex);
+            throw new IllegalArgumentException("Cannot read Queue @" + cdmiPath.getPath()
+                                               + " error : " + ex);
+        }
+        return fields;
+    }
+
+    private void writeFields(String path, File metadataFile, Queue fields)
+            throws IOException {
+        byte[] binary = BinaryJson.toBinary(fields::writeMetadataJson);
+        metadataStore().write(metadataFile, binaryMetadata ? binary : BinaryJson.toJson(binary));
+        if (metadataIndex != null) {
+            metadataIndex.put(fields.getObjectID(), path, fields.getMetadata(), false);
+        }
+    }
+
+    /**
+     * <p>
+     * Return the injected metadata store, or one keeping "." files if none was injected.
+     * </p>
+     */
+    private MetadataStore metadataStore() {
+        if (metadataStore == null) {
+            SidecarMetadataStore sidecars = new SidecarMetadataStore();
+            sidecars.setLayout(layout);
+            sidecars.setDurableWriter(durableWriter);
+            metadataStore = sidecars;
+        }
+        return metadataStore;
+    }
+
+    private CdmiPath resolve(String path) {
+        if (pathResolver == null) {
+            PathResolver resolver = new PathResolver();
+            resolver.setBaseDirectoryName(baseDirectoryName);
+            resolver.setLayout(layout);
+            pathResolver = resolver;
+        }
+        return pathResolver.resolve(path);
+    }
+}
@@ -0,0 +1,622 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * The values of a CDMI queue, kept in append-only segment files in the directory of the queue.
+ * </p>
+ *
+ * <p>
+ * Each value gets the next sequence number when it is enqueued. Segments are memory mapped
+ * files of a fixed size named after the sequence number of their first value; a value is one
+ * record holding its length, its mimetype, a CRC32 and its bytes, appended to the last segment
+ * or to a new one when that is full. The hidden state file, also mapped, records the sequence
+ * number of the oldest value not yet acknowledged; acknowledging values moves it forward and
+ * deletes the segments holding only acknowledged values. No file is created per value.
+ * </p>
+ *
+ * <p>
+ * Everything written to the mapped files survives a crash of the server. With a
+ * {@link DurableWriter} they are also forced to disk before an enqueue or an acknowledgement
+ * returns, which makes them survive a crash of the system. On opening, the last segment is
+ * scanned up to the first record that is incomplete or fails its CRC, which is discarded.
+ * </p>
+ */
+public class QueueLog implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(QueueLog.class);
+
+    static final String STATE_FILE_NAME = ".cdmi_queue";
+    static final String SEGMENT_PREFIX = ".cdmi_queue.";
+
+    private static final int MAGIC = 0x43444d51;
+    private static final int VERSION = 1;
+
+    // State: magic, version, sequence number of the oldest unacknowledged value
+    private static final int STATE_SIZE = 16;
+    private static final int HEAD_OFFSET = 8;
+
+    // Record: value length + 1 (0 ends the segment), mimetype length, CRC32 of both
+    private static final int RECORD_HEADER_SIZE = 10;
+
+    private File directory;
+    private final long segmentSize;
+    private final DurableWriter durableWriter;
+    private final MappedByteBuffer state;
+    private final TreeMap<Long, Segment> segments = new TreeMap<Long, Segment>();
+    private final CRC32 crc = new CRC32();
+    private long head;
+    private long tail;
+
+    private QueueLog(File directory, long segmentSize, DurableWriter durableWriter,
+            MappedByteBuffer state) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.durableWriter = durableWriter;
+        this.state = state;
+    }
+
+    // ---------------------------------------------------------- Public Methods
+
+    /**
+     * <p>
+     * Return <code>true</code> if <code>directory</code> holds a queue rather than a container.
+     * </p>
+     */
+    public static boolean isQueue(File directory) {
+        return new File(directory, STATE_FILE_NAME).isFile();
+    }
+
+    /**
+     * <p>
+     * Create an empty queue in <code>directory</code>, which must exist.
+     * </p>
+     *
+     * @param directory
+     *            Directory of the queue
+     * @param segmentSize
+     *            Size of the segment files in bytes
+     * @param durableWriter
+     *            Writer forcing changes to disk, or <code>null</code>
+     */
+    public static QueueLog create(File directory, long segmentSize, DurableWriter durableWriter)
+            throws IOException {
+        File stateFile = new File(directory, STATE_FILE_NAME);
+        MappedByteBuffer state;
+        try (FileChannel channel = FileChannel.open(stateFile.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+            state = channel.map(FileChannel.MapMode.READ_WRITE, 0, STATE_SIZE);
+        }
+        state.putInt(0, MAGIC);
+        state.putInt(4, VERSION);
+        state.putLong(HEAD_OFFSET, 0);
+        if (durableWriter != null) {
+            state.force();
+            durableWriter.sync(directory.toPath());
+        }
+        return new QueueLog(directory, segmentSize, durableWriter, state);
+    }
+
+    /**
+     * <p>
+     * Open the existing queue in <code>directory</code>.
+     * </p>
+     *
+     * @param directory
+     *            Directory of the queue
+     * @param segmentSize
+     *            Size of new segment files in bytes
+     * @param durableWriter
+     *            Writer forcing changes to disk, or <code>null</code>
+     */
+    public static QueueLog open(File directory, long segmentSize, DurableWriter durableWriter)
+            throws IOException {
+        File stateFile = new File(directory, STATE_FILE_NAME);
+        MappedByteBuffer state;
+        try (FileChannel channel = FileChannel.open(stateFile.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            if (channel.size() < STATE_SIZE) {
+                throw new IOException("Invalid queue state " + stateFile);
+            }
+            state = channel.map(FileChannel.MapMode.READ_WRITE, 0, STATE_SIZE);
+        }
+        if (state.getInt(0) != MAGIC || state.getInt(4) != VERSION) {
+            throw new IOException("Invalid queue state " + stateFile);
+        }
+        QueueLog log = new QueueLog(directory, segmentSize, durableWriter, state);
+        log.recover();
+        return log;
+    }
+
+    /**
+     * <p>
+     * Copy the queue in <code>source</code> into the existing, empty directory
+     * <code>target</code>. The segments are copied before the state, so that the copy never
+     * holds a value acknowledged before its state was copied; a record torn by an enqueue
+     * running meanwhile is discarded when the copy is opened.
+     * </p>
+     *
+     * @param source
+     *            Directory of the queue
+     * @param target
+     *            Directory of the copy
+     * @param durableWriter
+     *            Writer forcing the copy to disk, or <code>null</code>
+     */
+    public static void copy(File source, File target, DurableWriter durableWriter)
+            throws IOException {
+        String[] names = source.list();
+        if (names == null) {
+            throw new IOException("Cannot list queue " + source);
+        }
+        for (String name : names) {
+            if (!name.startsWith(SEGMENT_PREFIX)) {
+                continue;
+            }
+            try {
+                copyFile(new File(source, name), new File(target, name), durableWriter);
+            } catch (NoSuchFileException ex) {
+                // acknowledged and deleted meanwhile, which the copied state records
+            }
+        }
+        copyFile(new File(source, STATE_FILE_NAME), new File(target, STATE_FILE_NAME),
+                durableWriter);
+        if (durableWriter != null) {
+            durableWriter.sync(target.toPath());
+        }
+    }
+
+    /**
+     * <p>
+     * Return the sequence number of the oldest value that has not been acknowledged.
+     * </p>
+     */
+    public synchronized long getHead() {
+        return head;
+    }
+
+    /**
+     * <p>
+     * Return the sequence number the next value enqueued will get.
+     * </p>
+     */
+    public synchronized long getTail() {
+        return tail;
+    }
+
+    /**
+     * <p>
+     * Return the number of values that have not been acknowledged.
+     * </p>
+     */
+    public synchronized long size() {
+        return tail - head;
+    }
+
+    /**
+     * <p>
+     * Append values to the queue and return the sequence number of the first.
+     * </p>
+     *
+     * @param values
+     *            The values to enqueue
+     * @param mimetypes
+     *            The mimetype of each value
+     */
+    public synchronized long append(List<byte[]> values, List<String> mimetypes)
+            throws IOException {
+        long first = tail;
+        Segment segment = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        Segment written = null;
+        for (int i = 0; i < values.size(); i++) {
+            byte[] value = values.get(i);
+            byte[] mimetype = mimetypes.get(i).getBytes(StandardCharsets.UTF_8);
+            if (mimetype.length > Short.MAX_VALUE) {
+                throw new IOException("Mimetype too long");
+            }
+            int length = RECORD_HEADER_SIZE + mimetype.length + value.length;
+            if (segment == null || segment.remaining() < length) {
+                if (written != null) {
+                    force(written);
+                }
+                segment = createSegment(tail, Math.max(segmentSize, length + 4L));
+                written = null;
+            }
+            crc.reset();
+            crc.update(mimetype);
+            crc.update(value);
+            segment.append(value, mimetype, (int) crc.getValue());
+            written = segment;
+            tail++;
+        }
+        if (written != null) {
+            force(written);
+        }
+        return first;
+    }
+
+    /**
+     * <p>
+     * Return the values with sequence numbers from <code>first</code> to <code>last</code> that
+     * have not been acknowledged, oldest first.
+     * </p>
+     *
+     * @param first
+     *            Sequence number of the first value
+     * @param last
+     *            Sequence number of the last value
+     */
+    public synchronized List<Record> read(long first, long last) {
+        first = Math.max(first, head);
+        last = Math.min(last, tail - 1);
+        List<Record> records = new ArrayList<Record>();
+        if (first > last) {
+            return records;
+        }
+        Map.Entry<Long, Segment> entry = segments.floorEntry(first);
+        while (entry != null && first <= last) {
+            Segment segment = entry.getValue();
+            for (long sequence = first; sequence <= last && sequence < segment.end(); sequence++) {
+                records.add(segment.read(sequence));
+            }
+            first = segment.end();
+            entry = segments.higherEntry(entry.getKey());
+        }
+        return records;
+    }
+
+    /**
+     * <p>
+     * Return up to <code>count</code> of the oldest values that have not been acknowledged.
+     * </p>
+     *
+     * @param count
+     *            Number of values to return
+     */
+    public synchronized List<Record> peek(long count) {
+        return read(head, head + count - 1);
+    }
+
+    /**
+     * <p>
+     * Acknowledge up to <code>count</code> of the oldest values, which are then removed from
+     * the queue, and return how many were acknowledged.
+     * </p>
+     *
+     * @param count
+     *            Number of values to acknowledge
+     */
+    public synchronized long acknowledge(long count) throws IOException {
+        long acknowledged = Math.max(0, Math.min(count, tail - head));
+        if (acknowledged == 0) {
+            return 0;
+        }
+        head += acknowledged;
+        state.putLong(HEAD_OFFSET, head);
+        if (durableWriter != null) {
+            state.force();
+        }
+        // drop the segments holding only acknowledged values, keeping the one appended to
+        Segment last = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        Iterator<Segment> iterator = segments.values().iterator();
+        while (iterator.hasNext()) {
+            Segment segment = iterator.next();
+            if (segment.end() > head || segment == last) {
+                break;
+            }
+            iterator.remove();
+            Files.deleteIfExists(segment.file.toPath());
+        }
+        return acknowledged;
+    }
+
+    /**
+     * <p>
+     * Delete the files of the queue. The log must not be used afterwards.
+     * </p>
+     */
+    public synchronized void delete() throws IOException {
+        for (Segment segment : segments.values()) {
+            Files.deleteIfExists(segment.file.toPath());
+        }
+        segments.clear();
+        Files.deleteIfExists(new File(directory, STATE_FILE_NAME).toPath());
+    }
+
+    /**
+     * <p>
+     * Return the directory of the queue.
+     * </p>
+     */
+    public synchronized File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * <p>
+     * Follow the queue to <code>directory</code> after it, or a container holding it, has been
+     * moved.
+     * </p>
+     */
+    public synchronized void setDirectory(File directory) {
+        this.directory = directory;
+        for (Segment segment : segments.values()) {
+            segment.file = segmentFile(segment.first);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!segments.isEmpty()) {
+            segments.lastEntry().getValue().buffer.force();
+        }
+        state.force();
+    }
+
+    // --------------------------------------------------------- Private Methods
+
+    /**
+     * <p>
+     * Map the segments of the queue and find the end of the last one.
+     * </p>
+     */
+    private void recover() throws IOException {
+        String[] names = directory.list();
+        List<Long> firsts = new ArrayList<Long>();
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith(SEGMENT_PREFIX)) {
+                    try {
+                        firsts.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length())));
+                    } catch (NumberFormatException ex) {
+                        LOG.warn("Ignoring {} in queue {}", name, directory);
+                    }
+                }
+            }
+        }
+        head = state.getLong(HEAD_OFFSET);
+        tail = head;
+        Collections.sort(firsts);
+        for (long first : firsts) {
+            File file = segmentFile(first);
+            Segment segment;
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                segment = new Segment(file, first,
+                        channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+            }
+            segment.scan(crc);
+            if (segment.end() <= head) {
+                // acknowledged before a crash or a restart could delete it
+                Files.deleteIfExists(file.toPath());
+                continue;
+            }
+            if (!segments.isEmpty() && first != tail) {
+                LOG.warn("Queue {} lost values {} to {}", directory, tail, first - 1);
+            }
+            segments.put(first, segment);
+            tail = segment.end();
+        }
+        if (tail < head) {
+            LOG.warn("Queue {} lost values {} to {}", directory, tail, head - 1);
+            tail = head;
+        }
+        if (!segments.isEmpty()) {
+            head = Math.max(head, segments.firstKey());
+        }
+        LOG.debug("Opened queue {} holding values {} to {}", directory, head, tail - 1);
+    }
+
+    /**
+     * <p>
+     * Create and map a new segment whose first value has sequence number <code>first</code>.
+     * </p>
+     */
+    private Segment createSegment(long first, long size) throws IOException {
+        File file = segmentFile(first);
+        Segment segment;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            segment = new Segment(file, first, channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    size));
+        }
+        if (durableWriter != null) {
+            durableWriter.sync(directory.toPath());
+        }
+        segments.put(first, segment);
+        return segment;
+    }
+
+    private void force(Segment segment) {
+        if (durableWriter != null) {
+            segment.buffer.force();
+        }
+    }
+
+    private static void copyFile(File source, File target, DurableWriter durableWriter)
+            throws IOException {
+        Files.copy(source.toPath(), target.toPath());
+        if (durableWriter != null) {
+            durableWriter.force(target.toPath());
+        }
+    }
+
+    private File segmentFile(long first) {
+        return new File(directory, String.format("%s%020d", SEGMENT_PREFIX, first));
+    }
+
+    /**
+     * <p>
+     * A value read from the queue.
+     * </p>
+     */
+    public static final class Record {
+        private final long sequence;
+        private final String mimetype;
+        private final byte[] value;
+
+        Record(long sequence, String mimetype, byte[] value) {
+            this.sequence = sequence;
+            this.mimetype = mimetype;
+            this.value = value;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public String getMimetype() {
+            return mimetype;
+        }
+
+        public byte[] getValue() {
+            return value;
+        }
+    }
+
+    /**
+     * <p>
+     * One mapped segment file with the offsets of its records.
+     * </p>
+     */
+    private static final class Segment {
+        File file;
+        final long first;
+        final MappedByteBuffer buffer;
+        int[] offsets = new int[64];
+        int count;
+        int position;
+
+        Segment(File file, long first, MappedByteBuffer buffer) {
+            this.file = file;
+            this.first = first;
+            this.buffer = buffer;
+        }
+
+        long end() {
+            return first + count;
+        }
+
+        long remaining() {
+            // a zero length must always fit after the last record
+            return buffer.capacity() - position - 4L;
+        }
+
+        void append(byte[] value, byte[] mimetype, int crc) {
+            buffer.putInt(position + 6, crc);
+            buffer.putShort(position + 4, (short) mimetype.length);
+            int offset = position + RECORD_HEADER_SIZE;
+            buffer.position(offset);
+            buffer.put(mimetype);
+            buffer.put(value);
+            // the length goes last, so that a record is only seen once complete
+            buffer.putInt(position, value.length + 1);
+            addOffset(position);
+            position = offset + mimetype.length + value.length;
+        }
+
+        Record read(long sequence) {
+            int offset = offsets[(int) (sequence - first)];
+            int length = buffer.getInt(offset) - 1;
+            int mimetypeLength = buffer.getShort(offset + 4);
+            byte[] mimetype = new byte[mimetypeLength];
+            byte[] value = new byte[length];
+            ByteBuffer view = buffer.duplicate();
+            view.position(offset + RECORD_HEADER_SIZE);
+            view.get(mimetype);
+            view.get(value);
+            return new Record(sequence, new String(mimetype, StandardCharsets.UTF_8), value);
+        }
+
+        /**
+         * <p>
+         * Find the records of a segment read from disk, stopping at the first one that is
+         * incomplete or damaged and clearing whatever follows it.
+         * </p>
+         */
+        void scan(CRC32 crc) {
+            ByteBuffer view = buffer.duplicate();
+            int limit = buffer.capacity();
+            while (position + RECORD_HEADER_SIZE <= limit) {
+                int length = buffer.getInt(position) - 1;
+                int mimetypeLength = buffer.getShort(position + 4);
+                long end = (long) position + RECORD_HEADER_SIZE + mimetypeLength + length;
+                if (length < 0 || mimetypeLength < 0 || end > limit) {
+                    break;
+                }
+                byte[] record = new byte[mimetypeLength + length];
+                view.position(position + RECORD_HEADER_SIZE);
+                view.get(record);
+                crc.reset();
+                crc.update(record);
+                if ((int) crc.getValue() != buffer.getInt(position + 6)) {
+                    break;
+                }
+                addOffset(position);
+                position = (int) end;
+            }
+            // a torn record must not be mistaken for a later one
+            for (int i = position; i < limit && i < position + RECORD_HEADER_SIZE; i++) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+
+        private void addOffset(int offset) {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = offset;
+        }
+    }
+}
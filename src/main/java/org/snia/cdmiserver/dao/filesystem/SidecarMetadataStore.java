@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * The original {@link MetadataStore}: the fields of each container and data object are kept in
+ * its own "." file, next to its directory or value file.
+ * </p>
+ */
+public class SidecarMetadataStore implements MetadataStore {
+
+    // -------------------------------------------------------------- Properties
+    private StorageLayout layout = new FlatLayout();
+
+    /**
+     * <p>
+     * Set the layout of the tree on disk. Default value is a {@link FlatLayout}.
+     * </p>
+     *
+     * @param layout
+     *            The new layout
+     */
+    public void setLayout(StorageLayout layout) {
+        this.layout = layout;
+    }
+
+    private DurableWriter durableWriter = null;
+
+    /**
+     * <p>
+     * Set the writer that makes metadata files survive a crash. Without one, files are written
+     * without being forced to disk.
+     * </p>
+     *
+     * @param durableWriter
+     *            The new durable writer
+     */
+    public void setDurableWriter(DurableWriter durableWriter) {
+        this.durableWriter = durableWriter;
+    }
+
+    // ------------------------------------------------------ MetadataStore Methods
+
+    @Override
+    public byte[] read(File metadataFile) throws IOException {
+        try {
+            return Files.readAllBytes(metadataFile.toPath());
+        } catch (NoSuchFileException ex) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean exists(File metadataFile) {
+        return metadataFile.exists();
+    }
+
+    @Override
+    public Object stamp(File metadataFile) {
+        try {
+            BasicFileAttributes attributes =
+                    Files.readAttributes(metadataFile.toPath(), BasicFileAttributes.class);
+            return Arrays.asList(attributes.lastModifiedTime(), attributes.size());
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    @Override
+    public void write(File metadataFile, byte[] fields) throws IOException {
+        if (durableWriter == null) {
+            Files.write(metadataFile.toPath(), fields);
+        } else {
+            durableWriter.write(metadataFile.toPath(), fields);
+            durableWriter.sync(metadataFile.getParentFile().toPath());
+        }
+    }
+
+    @Override
+    public void delete(File metadataFile) throws IOException {
+        Files.deleteIfExists(metadataFile.toPath());
+    }
+
+    @Override
+    public void move(File source, File target) throws IOException {
+        if (source.exists()) {
+            Files.move(source.toPath(), target.toPath());
+        }
+    }
+
+    @Override
+    public Map<String, byte[]> readAll(File directory) throws IOException {
+        Map<String, byte[]> fields = new HashMap<String, byte[]>();
+        File[] children = layout.children(directory);
+        if (children != null) {
+            for (File child : children) {
+                byte[] bytes = read(layout.metadataFile(child));
+                if (bytes != null) {
+                    fields.put(child.getName(), bytes);
+                }
+            }
+        }
+        return fields;
+    }
+}
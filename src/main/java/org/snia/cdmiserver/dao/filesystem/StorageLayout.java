@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+import java.io.File;
+
+/**
+ * <p>
+ * Decides where the containers and data objects of a CDMI path live on disk. Whatever the
+ * layout, a container is a directory, a data object is a value file and the metadata of either
+ * is a "." file next to it; what changes is how children are placed below the directory of
+ * their container.
+ * </p>
+ */
+public interface StorageLayout {
+
+    /**
+     * <p>
+     * Return the directory or value file of the child <code>name</code> of the container at
+     * <code>directory</code>. The file may not exist.
+     * </p>
+     *
+     * @param directory
+     *            Directory of the container
+     * @param name
+     *            Name of the child, without trailing slash
+     */
+    File child(File directory, String name);
+
+    /**
+     * <p>
+     * Return the directory of the container holding the container or data object at
+     * <code>file</code>.
+     * </p>
+     *
+     * @param file
+     *            Directory or value file of a container or data object
+     */
+    File container(File file);
+
+    /**
+     * <p>
+     * Return the directories and value files of the children of the container at
+     * <code>directory</code>, in no particular order and without any hidden file, or
+     * <code>null</code> if <code>directory</code> cannot be listed.
+     * </p>
+     *
+     * @param directory
+     *            Directory of the container
+     */
+    File[] children(File directory);
+
+    /**
+     * <p>
+     * Create the directories the layout puts between the container and <code>file</code>, a
+     * child returned by {@link #child(File, String)} that is about to be created. Nothing is
+     * created if the container itself does not exist.
+     * </p>
+     *
+     * @param file
+     *            Directory or value file about to be created
+     */
+    void prepare(File file);
+
+    /**
+     * <p>
+     * Return the directory or value file at <code>path</code>, relative to
+     * <code>baseDirectory</code>.
+     * </p>
+     *
+     * @param baseDirectory
+     *            Directory of the root container
+     * @param path
+     *            Path of the container or data object, or <code>null</code> for the root
+     *            container
+     */
+    default File resolve(File baseDirectory, String path) {
+        File file = baseDirectory;
+        if (path != null) {
+            int start = 0;
+            while (start < path.length()) {
+                int end = path.indexOf('/', start);
+                if (end < 0) {
+                    end = path.length();
+                }
+                if (end > start) {
+                    file = child(file, path.substring(start, end));
+                }
+                start = end + 1;
+            }
+        }
+        return file;
+    }
+
+    /**
+     * <p>
+     * Return the metadata file of the container or data object at <code>file</code>.
+     * </p>
+     *
+     * @param file
+     *            Directory or value file of a container or data object
+     */
+    default File metadataFile(File file) {
+        return new File(file.getParentFile(), "." + file.getName());
+    }
+
+    /**
+     * <p>
+     * Return the layout named <code>name</code>, as printed by its <code>toString()</code>:
+     * "flat", "hashed" or "hashed:&lt;levels&gt;".
+     * </p>
+     *
+     * @exception IllegalArgumentException
+     *                if <code>name</code> is not a layout name
+     */
+    static StorageLayout forName(String name) {
+        if ("flat".equals(name)) {
+            return new FlatLayout();
+        }
+        if ("hashed".equals(name)) {
+            return new HashedLayout();
+        }
+        if (name.startsWith("hashed:")) {
+            HashedLayout layout = new HashedLayout();
+            try {
+                layout.setLevels(Integer.parseInt(name.substring("hashed:".length())));
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Invalid layout : " + name);
+            }
+            return layout;
+        }
+        throw new IllegalArgumentException("Invalid layout : " + name);
+    }
+}
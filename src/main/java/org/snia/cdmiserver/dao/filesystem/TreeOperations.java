@@ -0,0 +1,547 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.snia.cdmiserver.exception.ConflictException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Runs operations on whole container trees on a fork/join pool, keeping track of their progress
+ * so that the container can report <code>completionStatus</code> and
+ * <code>percentComplete</code> while they run.
+ * </p>
+ *
+ * <p>
+ * Small trees are processed before returning. Trees with at least
+ * {@link #setAsyncThreshold(int)} entries are processed in the background: the tree is first
+ * counted and then processed in parallel, with progress measured against the count.
+ * </p>
+ */
+public class TreeOperations {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TreeOperations.class);
+
+    public static final String PROCESSING = "Processing";
+    public static final String COMPLETE = "Complete";
+
+    private final Map<String, Progress> operations = new ConcurrentHashMap<String, Progress>();
+
+    private ForkJoinPool pool = null;
+
+    // -------------------------------------------------------------- Properties
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * <p>
+     * Set the number of threads working on tree operations. Defaults to the number of
+     * processors.
+     * </p>
+     *
+     * @param parallelism
+     *            The new parallelism
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    private int asyncThreshold = 1000;
+
+    /**
+     * <p>
+     * Set the number of entries from which a tree is processed in the background. Default value
+     * is 1000.
+     * </p>
+     *
+     * @param asyncThreshold
+     *            The new threshold
+     */
+    public void setAsyncThreshold(int asyncThreshold) {
+        this.asyncThreshold = asyncThreshold;
+    }
+
+    private StorageLayout layout = new FlatLayout();
+
+    /**
+     * <p>
+     * Set the layout of the trees on disk. Default value is a {@link FlatLayout}.
+     * </p>
+     *
+     * @param layout
+     *            The new layout
+     */
+    public void setLayout(StorageLayout layout) {
+        this.layout = layout;
+    }
+
+    private ContentStore contentStore = null;
+
+    /**
+     * <p>
+     * Set the content store through which value files are copied by linking them. Without one,
+     * the bytes of every value are copied.
+     * </p>
+     *
+     * @param contentStore
+     *            The new content store
+     */
+    public void setContentStore(ContentStore contentStore) {
+        this.contentStore = contentStore;
+    }
+
+    // ---------------------------------------------------------- Public Methods
+
+    /**
+     * <p>
+     * Return the progress of the operation running on the container at <code>directory</code>,
+     * or of the last one if it failed; otherwise return <code>null</code>.
+     * </p>
+     *
+     * @param directory
+     *            Directory of the container
+     */
+    public Progress getProgress(File directory) {
+        return operations.get(directory.getAbsolutePath());
+    }
+
+    /**
+     * <p>
+     * Delete the tree at <code>directory</code>, including the directory itself.
+     * </p>
+     *
+     * @param directory
+     *            Directory of the container to delete
+     * @param beforeDelete
+     *            Called with each container or data object (but not the hidden files) below
+     *            <code>directory</code> just before it is deleted
+     * @param afterDelete
+     *            Called once the whole tree has been deleted
+     *
+     * @return <code>true</code> if the tree has been deleted, or <code>false</code> if it is
+     *         being deleted in the background
+     *
+     * @exception ConflictException
+     *                if another operation is running on the container
+     */
+    public boolean delete(File directory, Consumer<File> beforeDelete, Runnable afterDelete) {
+        return run(directory, directory, "delete", progress -> new DeleteTask(layout, directory,
+                progress, beforeDelete), afterDelete);
+    }
+
+    /**
+     * <p>
+     * Copy the content of the tree at <code>source</code> into the existing directory
+     * <code>target</code>, skipping the hidden files. Progress is reported on
+     * <code>target</code>.
+     * </p>
+     *
+     * @param source
+     *            Directory of the container to copy
+     * @param target
+     *            Directory of the new container
+     * @param afterCopy
+     *            Called with each container, data object or queue below <code>source</code>
+     *            and its copy, once the copied directory has been created or the value copied;
+     *            the values of a queue are left to it
+     * @param afterwards
+     *            Called once the whole tree has been copied
+     *
+     * @return <code>true</code> if the tree has been copied, or <code>false</code> if it is
+     *         being copied in the background
+     *
+     * @exception ConflictException
+     *                if another operation is running on <code>target</code>
+     */
+    public boolean copy(File source, File target, BiConsumer<File, File> afterCopy,
+            Runnable afterwards) {
+        BiConsumer<File, File> copyFile =
+                contentStore == null ? TreeOperations::copyFile : contentStore::copy;
+        return run(target, source, "copy", progress -> new CopyTask(layout, source, target,
+                progress, copyFile, afterCopy), afterwards);
+    }
+
+    /**
+     * <p>
+     * Copy the content of the file <code>source</code> to the new file <code>target</code>,
+     * leaving the transfer to the operating system where it can.
+     * </p>
+     *
+     * @exception UncheckedIOException
+     *                if the file cannot be copied
+     */
+    public static void copyFile(File source, File target) {
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE_NEW)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot copy " + source + " to " + target, ex);
+        }
+    }
+
+    /**
+     * <p>
+     * Stop the worker threads, letting running operations finish.
+     * </p>
+     */
+    public synchronized void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            pool = null;
+        }
+    }
+
+    // --------------------------------------------------------- Private Methods
+
+    /**
+     * <p>
+     * Run the task built by <code>factory</code> over the tree at <code>tree</code>, before
+     * returning if the tree is small and in the background otherwise. Progress is reported on
+     * the container at <code>directory</code>.
+     * </p>
+     *
+     * @return <code>true</code> if the task has completed
+     */
+    private boolean run(File directory, File tree, String name, TaskFactory factory,
+            Runnable afterwards) {
+        String key = directory.getAbsolutePath();
+        Progress progress = new Progress();
+        Progress previous = operations.put(key, progress);
+        if (previous != null && previous.isRunning()) {
+            operations.put(key, previous);
+            throw new ConflictException("Container <" + directory + "> is busy");
+        }
+        if (countUpTo(layout, tree, asyncThreshold) < asyncThreshold) {
+            try {
+                pool().invoke(factory.create(progress));
+                afterwards.run();
+                operations.remove(key, progress);
+                return true;
+            } catch (RuntimeException ex) {
+                progress.failed(ex);
+                throw ex;
+            }
+        }
+        LOG.info("Starting background {} of {}", name, directory);
+        pool().execute(ForkJoinTask.adapt(() -> {
+            try {
+                progress.setTotal(new CountTask(layout, tree).invoke());
+                factory.create(progress).invoke();
+                afterwards.run();
+                operations.remove(key, progress);
+                LOG.info("Completed background {} of {}", name, directory);
+            } catch (RuntimeException ex) {
+                LOG.error("Background " + name + " of " + directory + " failed", ex);
+                progress.failed(ex);
+            }
+        }));
+        return false;
+    }
+
+    private synchronized ForkJoinPool pool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        return pool;
+    }
+
+    /**
+     * <p>
+     * Count the containers and data objects below <code>directory</code>, giving up once
+     * <code>limit</code> have been seen.
+     * </p>
+     */
+    private static long countUpTo(StorageLayout layout, File directory, long limit) {
+        File[] files = layout.children(directory);
+        if (files == null) {
+            return 0;
+        }
+        long count = files.length;
+        for (int i = 0; i < files.length && count < limit; i++) {
+            if (files[i].isDirectory()) {
+                count += countUpTo(layout, files[i], limit - count);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * <p>
+     * Builds the task that carries out an operation, reporting to its progress.
+     * </p>
+     */
+    private interface TaskFactory {
+        ForkJoinTask<?> create(Progress progress);
+    }
+
+    /**
+     * <p>
+     * Progress of an operation on a container tree.
+     * </p>
+     */
+    public static final class Progress {
+        private final AtomicLong done = new AtomicLong();
+        private volatile long total = -1;
+        private volatile String status = PROCESSING;
+
+        /**
+         * <p>
+         * Return the CDMI <code>completionStatus</code>: "Processing" while running, or an error
+         * description if the operation failed.
+         * </p>
+         */
+        public String getStatus() {
+            return status;
+        }
+
+        /**
+         * <p>
+         * Return <code>true</code> until the operation has failed or finished.
+         * </p>
+         */
+        public boolean isRunning() {
+            return PROCESSING.equals(status);
+        }
+
+        /**
+         * <p>
+         * Return the CDMI <code>percentComplete</code>, which stays below 100 until the operation
+         * has finished.
+         * </p>
+         */
+        public int getPercentComplete() {
+            long count = total;
+            if (count <= 0) {
+                return 0;
+            }
+            return (int) Math.min(99, done.get() * 100 / count);
+        }
+
+        void setTotal(long total) {
+            this.total = total;
+        }
+
+        void processed(long entries) {
+            done.addAndGet(entries);
+        }
+
+        void failed(Exception ex) {
+            status = "Error: " + ex.getMessage();
+        }
+    }
+
+    /**
+     * <p>
+     * Counts the containers and data objects of a tree in parallel.
+     * </p>
+     */
+    private static final class CountTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+        private final StorageLayout layout;
+        private final File directory;
+
+        CountTask(StorageLayout layout, File directory) {
+            this.layout = layout;
+            this.directory = directory;
+        }
+
+        @Override
+        protected Long compute() {
+            File[] files = layout.children(directory);
+            if (files == null) {
+                return 0L;
+            }
+            List<CountTask> subtasks = new ArrayList<CountTask>();
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    subtasks.add(new CountTask(layout, file));
+                }
+            }
+            invokeAll(subtasks);
+            long count = files.length;
+            for (CountTask subtask : subtasks) {
+                count += subtask.join();
+            }
+            return count;
+        }
+    }
+
+    /**
+     * <p>
+     * Deletes a tree, working on subdirectories in parallel.
+     * </p>
+     */
+    private static final class DeleteTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final StorageLayout layout;
+        private final File directory;
+        private final Progress progress;
+        private final Consumer<File> beforeDelete;
+
+        DeleteTask(StorageLayout layout, File directory, Progress progress,
+                Consumer<File> beforeDelete) {
+            this.layout = layout;
+            this.directory = directory;
+            this.progress = progress;
+            this.beforeDelete = beforeDelete;
+        }
+
+        @Override
+        protected void compute() {
+            File[] files = layout.children(directory);
+            if (files != null) {
+                // before anything goes, as the hidden files include the metadata files
+                for (File file : files) {
+                    beforeDelete.accept(file);
+                }
+                List<DeleteTask> subtasks = new ArrayList<DeleteTask>();
+                for (File file : files) {
+                    if (file.isDirectory()) {
+                        subtasks.add(new DeleteTask(layout, file, progress, beforeDelete));
+                    } else {
+                        delete(file);
+                    }
+                }
+                progress.processed(files.length - subtasks.size());
+                invokeAll(subtasks);
+                progress.processed(subtasks.size());
+            }
+            // what is left are metadata files, index files and the directories of the layout
+            deleteAll(directory);
+        }
+
+        private static void deleteAll(File directory) {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (file.isDirectory()) {
+                        deleteAll(file);
+                    } else {
+                        delete(file);
+                    }
+                }
+            }
+            delete(directory);
+        }
+
+        private static void delete(File file) {
+            try {
+                Files.deleteIfExists(file.toPath());
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Cannot delete " + file, ex);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Copies a tree, working on subdirectories in parallel.
+     * </p>
+     */
+    private static final class CopyTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final StorageLayout layout;
+        private final File source;
+        private final File target;
+        private final Progress progress;
+        private final BiConsumer<File, File> copyFile;
+        private final BiConsumer<File, File> afterCopy;
+
+        CopyTask(StorageLayout layout, File source, File target, Progress progress,
+                BiConsumer<File, File> copyFile, BiConsumer<File, File> afterCopy) {
+            this.layout = layout;
+            this.source = source;
+            this.target = target;
+            this.progress = progress;
+            this.copyFile = copyFile;
+            this.afterCopy = afterCopy;
+        }
+
+        @Override
+        protected void compute() {
+            // metadata files are written by afterCopy, indexes are rebuilt on demand
+            File[] files = layout.children(source);
+            if (files == null) {
+                return;
+            }
+            List<CopyTask> subtasks = new ArrayList<CopyTask>();
+            for (File file : files) {
+                File copy = layout.child(target, file.getName());
+                layout.prepare(copy);
+                if (file.isDirectory()) {
+                    if (!copy.mkdir()) {
+                        throw new UncheckedIOException(new IOException("Cannot create " + copy));
+                    }
+                    afterCopy.accept(file, copy);
+                    if (!QueueLog.isQueue(file)) {
+                        subtasks.add(new CopyTask(layout, file, copy, progress, copyFile,
+                                afterCopy));
+                    }
+                } else {
+                    copyFile.accept(file, copy);
+                    afterCopy.accept(file, copy);
+                }
+            }
+            progress.processed(files.length - subtasks.size());
+            invokeAll(subtasks);
+            progress.processed(subtasks.size());
+        }
+    }
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.memory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import org.snia.cdmiserver.dao.ContainerDao;
+import org.snia.cdmiserver.exception.BadRequestException;
+import org.snia.cdmiserver.exception.ConflictException;
+import org.snia.cdmiserver.exception.NotFoundException;
+import org.snia.cdmiserver.model.Container;
+import org.snia.cdmiserver.model.DataObject;
+import org.snia.cdmiserver.util.ObjectID;
+import org.snia.cdmiserver.util.Timestamps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Concrete implementation of {@link ContainerDao} keeping everything in a {@link MemoryStore}.
+ * Nothing survives a restart.
+ * </p>
+ */
+public class ContainerDaoImpl implements ContainerDao {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContainerDaoImpl.class);
+
+    // -------------------------------------------------------------- Properties
+    private MemoryStore store = null;
+
+    /**
+     * <p>
+     * Set the store holding the containers and data objects.
+     * </p>
+     *
+     * @param store
+     *            The new store
+     */
+    public void setStore(MemoryStore store) {
+        this.store = store;
+    }
+
+    // ---------------------------------------------------- ContainerDao Methods
+
+    @Override
+    public Container createByPath(String path, Container containerRequest) {
+        String key = MemoryStore.key(path);
+        if (containerRequest.getCopy() != null) {
+            return copyContainer(path, key, containerRequest);
+        }
+        if (containerRequest.getMove() != null) {
+            return moveContainer(path, key, containerRequest);
+        }
+
+        String now = now();
+        synchronized (store.lockFor(key)) {
+            MemoryStore.Node node = store.get(key);
+            if (node == null) {
+                containerRequest.setObjectID(ObjectID.getObjectID(9));
+                containerRequest.setCapabilitiesURI("/cdmi_capabilities/container/default");
+                if (containerRequest.getDomainURI() == null) {
+                    containerRequest.setDomainURI("/cdmi_domains/default_domain");
+                }
+                Map<String, String> metadata = containerRequest.getMetadata();
+                metadata.put("cdmi_ctime", now);
+                metadata.put("cdmi_mtime", "never");
+                metadata.put("cdmi_atime", "never");
+                metadata.put("cdmi_acount", "0");
+                metadata.put("cdmi_mcount", "0");
+                if (!store.add(key, new MemoryStore.Node(containerRequest.getObjectID(),
+                        toBytes(containerRequest), null, true))) {
+                    throw new IllegalArgumentException("Cannot create container '" + path + "'");
+                }
+            } else if (!node.isContainer()) {
+                throw new ConflictException("Data object '" + path + "' already exists");
+            } else {
+                Container current = parse(node, path);
+                containerRequest.setObjectID(current.getObjectID());
+                containerRequest.getMetadata().put("cdmi_ctime",
+                        current.getMetadata().get("cdmi_ctime"));
+                containerRequest.getMetadata().put("cdmi_atime",
+                        current.getMetadata().get("cdmi_atime"));
+                containerRequest.getMetadata().put("cdmi_mtime", now);
+                node.fields = toBytes(containerRequest);
+            }
+        }
+        containerRequest.setCompletionStatus("Complete");
+        return completeContainer(containerRequest, key, path, 0, Long.MAX_VALUE);
+    }
+
+    @Override
+    public boolean deleteByPath(String path) {
+        String key = MemoryStore.key(path);
+        if (store.remove(key) == null) {
+            throw new NotFoundException("Path '" + path + "' does not identify an existing object");
+        }
+        return true;
+    }
+
+    @Override
+    public Container findByObjectId(String objectId) {
+        String path = findPathByObjectId(objectId);
+        if (path == null || !isContainer(path)) {
+            return null;
+        }
+        return findByPath(path);
+    }
+
+    @Override
+    public String findPathByObjectId(String objectId) {
+        return store.find(objectId);
+    }
+
+    @Override
+    public Container findByPath(String path) {
+        return findByPath(path, 0, Long.MAX_VALUE);
+    }
+
+    @Override
+    public Container findByPath(String path, long firstChild, long lastChild) {
+        LOG.trace("In memory ContainerDAO.findByPath : {} children {}-{}", path, firstChild,
+                lastChild);
+        String key = MemoryStore.key(path);
+        MemoryStore.Node node = store.get(key);
+        if (node == null) {
+            throw new NotFoundException("Path '" + path
+                                        + "' does not identify an existing container");
+        }
+        if (!node.isContainer()) {
+            throw new IllegalArgumentException("Path '" + path + "' does not identify a container");
+        }
+        Container container;
+        if (key.isEmpty()) {
+            container = new Container();
+            container.setCapabilitiesURI("/cdmi_capabilities/container/default");
+            container.setDomainURI("/cdmi_domains/default_domain");
+        } else {
+            container = parse(node, path);
+        }
+        container.setCompletionStatus("Complete");
+        return completeContainer(container, key, path, firstChild, lastChild);
+    }
+
+    @Override
+    public boolean isContainer(String path) {
+        MemoryStore.Node node = store.get(MemoryStore.key(path));
+        return node != null && node.isContainer();
+    }
+
+    // --------------------------------------------------------- Private Methods
+
+    /**
+     * <p>
+     * Move the container named by the request's <code>move</code> field to <code>path</code>.
+     * The request's metadata, if any, replaces the user metadata of the moved container.
+     * </p>
+     */
+    private Container moveContainer(String path, String key, Container containerRequest) {
+        String sourceKey = MemoryStore.key(containerRequest.getMove());
+        MemoryStore.Node source = store.get(sourceKey);
+        if (source == null) {
+            throw new NotFoundException("Path '" + containerRequest.getMove()
+                                        + "' does not identify an existing container");
+        }
+        if (!source.isContainer() || sourceKey.isEmpty()) {
+            throw new IllegalArgumentException("Path '" + containerRequest.getMove()
+                                               + "' does not identify a container");
+        }
+        if (!store.move(sourceKey, key)) {
+            throw new IllegalArgumentException("Cannot move container '"
+                                               + containerRequest.getMove()
+                                               + "' to '"
+                                               + path
+                                               + "'; Destination already exists");
+        }
+        Container movedContainer;
+        synchronized (store.lockFor(key)) {
+            movedContainer = parse(source, path);
+            if (!containerRequest.getMetadata().isEmpty()) {
+                Map<String, String> metadata = movedContainer.getMetadata();
+                for (String name : new String[] { "cdmi_ctime", "cdmi_mtime", "cdmi_atime",
+                    "cdmi_acount", "cdmi_mcount" }) {
+                    containerRequest.getMetadata().put(name, metadata.get(name));
+                }
+                movedContainer.setMetaData(containerRequest.getMetadata());
+                source.fields = toBytes(movedContainer);
+            }
+        }
+        movedContainer.setCompletionStatus("Complete");
+        return completeContainer(movedContainer, key, path, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * <p>
+     * Create the container at <code>path</code> as a copy of the one named by the request's
+     * <code>copy</code> field. Everything in the copy gets a new object ID; the request's
+     * metadata, if any, replaces the user metadata of the copied container.
+     * </p>
+     */
+    private Container copyContainer(String path, String key, Container containerRequest) {
+        String sourceKey = MemoryStore.key(containerRequest.getCopy());
+        MemoryStore.Node source = store.get(sourceKey);
+        if (store.get(key) != null) {
+            throw new IllegalArgumentException("Cannot copy container '"
+                                               + containerRequest.getCopy()
+                                               + "' to '"
+                                               + path
+                                               + "'; Destination already exists");
+        }
+        if (source == null || !source.isContainer()) {
+            throw new NotFoundException("Path '" + containerRequest.getCopy()
+                                        + "' does not identify an existing container");
+        }
+        if (key.equals(sourceKey) || key.startsWith(sourceKey + "/") || sourceKey.isEmpty()) {
+            throw new BadRequestException("Cannot copy container '"
+                                          + containerRequest.getCopy()
+                                          + "' into itself");
+        }
+
+        Container copiedContainer = parse(source, containerRequest.getCopy());
+        if (!containerRequest.getMetadata().isEmpty()) {
+            copiedContainer.setMetaData(containerRequest.getMetadata());
+        }
+        copiedContainer.setObjectID(ObjectID.getObjectID(9));
+        resetTimes(copiedContainer.getMetadata());
+        if (!store.add(key, new MemoryStore.Node(copiedContainer.getObjectID(),
+                toBytes(copiedContainer), null, true))) {
+            throw new IllegalArgumentException("Cannot create container '" + path + "'");
+        }
+        copyChildren(sourceKey, source, key);
+
+        copiedContainer.setCompletionStatus("Complete");
+        return completeContainer(copiedContainer, key, path, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * <p>
+     * Copy everything in the container at <code>sourceKey</code> into the one at
+     * <code>targetKey</code>, giving every copy a new object ID.
+     * </p>
+     */
+    private void copyChildren(String sourceKey, MemoryStore.Node source, String targetKey) {
+        for (String child : source.children) {
+            String childKey = MemoryStore.childKey(sourceKey, child);
+            String copyKey = MemoryStore.childKey(targetKey, child);
+            MemoryStore.Node node = store.get(childKey);
+            if (node == null) {
+                continue;
+            }
+            if (node.isContainer()) {
+                Container fields = parse(node, childKey);
+                fields.setObjectID(ObjectID.getObjectID(9));
+                resetTimes(fields.getMetadata());
+                store.add(copyKey, new MemoryStore.Node(fields.getObjectID(), toBytes(fields),
+                        null, true));
+                copyChildren(childKey, node, copyKey);
+            } else {
+                Value value = node.value;
+                if (!value.retain()) {
+                    // deleted meanwhile
+                    continue;
+                }
+                try {
+                    DataObject fields = new DataObject();
+                    fields.fromJson(node.fields, true);
+                    fields.setObjectID(ObjectID.getObjectID(8));
+                    fields.setMetadata("cdmi_ctime", now());
+                    fields.setMetadata("cdmi_atime", "never");
+                    Value copy = value.copy();
+                    if (!store.add(copyKey, new MemoryStore.Node(fields.getObjectID(),
+                            fields.metadataToJson().getBytes(StandardCharsets.UTF_8), copy,
+                            false))) {
+                        copy.release();
+                    }
+                } catch (Exception ex) {
+                    LOG.error("Exception while copying", ex);
+                    throw new IllegalArgumentException("Cannot write Object @"
+                                                       + copyKey
+                                                       + " error : "
+                                                       + ex);
+                } finally {
+                    value.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Set the system times of a newly copied container.
+     * </p>
+     */
+    private static void resetTimes(Map<String, String> metadata) {
+        metadata.put("cdmi_ctime", now());
+        metadata.put("cdmi_mtime", "never");
+        metadata.put("cdmi_atime", "never");
+        metadata.put("cdmi_acount", "0");
+        metadata.put("cdmi_mcount", "0");
+    }
+
+    private static String now() {
+        return Timestamps.now();
+    }
+
+    private static byte[] toBytes(Container container) {
+        return container.toJson(true).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Container parse(MemoryStore.Node node, String path) {
+        Container container = new Container();
+        try {
+            container.fromJson(node.fields, true);
+        } catch (Exception ex) {
+            LOG.error("Exception while reading: ", ex);
+            throw new IllegalArgumentException("Cannot read container fields @"
+                                               + path
+                                               + " error : "
+                                               + ex);
+        }
+        return container;
+    }
+
+    /**
+     * <p>
+     * Add the fields derived from the position of the container in the tree.
+     * </p>
+     */
+    private Container completeContainer(Container container, String key, String path,
+            long firstChild, long lastChild) {
+        container.setObjectType("application/cdmi-container");
+
+        String parentURI = "/" + MemoryStore.parentKey(key);
+        if (!parentURI.endsWith("/")) {
+            parentURI += "/";
+        }
+        if (!key.isEmpty() && "/".equals(parentURI) && key.startsWith("cdmi")) {
+            throw new BadRequestException("Root container names must not start with cdmi");
+        }
+        container.setParentURI(parentURI);
+
+        MemoryStore.Node node = store.get(key);
+        List<String> children = container.getChildren();
+        if (node != null && lastChild >= firstChild) {
+            MemoryStore.list(node, firstChild, lastChild, children);
+        }
+        if (children.size() > 0) {
+            long lastindex = firstChild + children.size() - 1;
+            container.setChildrenrange(firstChild + "-" + lastindex);
+        }
+        return container;
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.memory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.snia.cdmiserver.dao.DataObjectDao;
+import org.snia.cdmiserver.exception.ConflictException;
+import org.snia.cdmiserver.exception.NotFoundException;
+import org.snia.cdmiserver.model.DataObject;
+import org.snia.cdmiserver.util.ObjectID;
+import org.snia.cdmiserver.util.Timestamps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Concrete implementation of {@link DataObjectDao} keeping everything in a {@link MemoryStore}.
+ * Values are held off-heap. Nothing survives a restart.
+ * </p>
+ */
+public class DataObjectDaoImpl implements DataObjectDao {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DataObjectDaoImpl.class);
+
+    // -------------------------------------------------------------- Properties
+    private MemoryStore store = null;
+
+    /**
+     * <p>
+     * Set the store holding the containers and data objects.
+     * </p>
+     *
+     * @param store
+     *            The new store
+     */
+    public void setStore(MemoryStore store) {
+        this.store = store;
+    }
+
+    // -------------------------------------------------- DataObjectDao Methods
+
+    @Override
+    public DataObject createByPath(String path, DataObject dObj) throws Exception {
+        byte[] value = dObj.getValue() == null ? new byte[0] : dObj.getValue();
+        if (dObj.getMimetype() == null) {
+            dObj.setMimetype("text/plain");
+        }
+        return create(path, dObj.getMimetype(), dObj, new ByteArrayInputStream(value));
+    }
+
+    @Override
+    public DataObject createNonCDMIByPath(String path, String contentType, DataObject dObj,
+            InputStream value) throws Exception {
+        if (contentType == null) {
+            contentType = "text/plain";
+        }
+        dObj.setMimetype(contentType);
+        return create(path, contentType, dObj, value);
+    }
+
+    @Override
+    public DataObject createById(String objectId, DataObject dObj) {
+        throw new UnsupportedOperationException("memory.DataObjectDaoImpl.createById()");
+    }
+
+    @Override
+    public DataObject updateByPath(String path, DataObject dObj) throws Exception {
+        String key = MemoryStore.key(path);
+        synchronized (store.lockFor(key)) {
+            MemoryStore.Node node = getExistingNode(path, key);
+            DataObject current = parse(node, path);
+            if (dObj.getValue() != null) {
+                replaceValue(node, path, new ByteArrayInputStream(dObj.getValue()));
+                current.setMetadata("cdmi_size", node.value.size() + "");
+                current.setValuetransferencoding(dObj.getValuetransferencoding());
+            }
+            if (dObj.getMimetype() != null) {
+                current.setMimetype(dObj.getMimetype());
+                current.setMetadata("mimetype", dObj.getMimetype());
+            }
+            if (!dObj.getMetadata().isEmpty()) {
+                // user metadata in the request replaces the existing user metadata
+                current.getMetadata().keySet().removeIf(name -> !isSystemMetadata(name));
+                for (Map.Entry<String, String> entry : dObj.getMetadata().entrySet()) {
+                    if (!isSystemMetadata(entry.getKey())) {
+                        current.setMetadata(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            modified(node, path, current);
+            return current;
+        }
+    }
+
+    @Override
+    public DataObject updateNonCDMIByPath(String path, String contentType, InputStream value)
+            throws Exception {
+        String key = MemoryStore.key(path);
+        synchronized (store.lockFor(key)) {
+            MemoryStore.Node node = getExistingNode(path, key);
+            DataObject current = parse(node, path);
+            replaceValue(node, path, value);
+            current.setMetadata("cdmi_size", node.value.size() + "");
+            if (contentType != null) {
+                current.setMimetype(contentType);
+                current.setMetadata("mimetype", contentType);
+            }
+            modified(node, path, current);
+            return current;
+        }
+    }
+
+    @Override
+    public DataObject updateValueRangeByPath(String path, long offset, long length,
+            InputStream value) throws Exception {
+        String key = MemoryStore.key(path);
+        synchronized (store.lockFor(key)) {
+            MemoryStore.Node node = getExistingNode(path, key);
+            DataObject current = parse(node, path);
+            try {
+                node.value.write(offset, length, value);
+            } catch (IOException ex) {
+                LOG.error("Exception while writing: ", ex);
+                throw new IllegalArgumentException("Cannot write Object @" + path + " error : " + ex);
+            } finally {
+                current.setMetadata("cdmi_size", node.value.size() + "");
+                modified(node, path, current);
+            }
+            return current;
+        }
+    }
+
+    @Override
+    public void deleteByPath(String path) {
+        String key = MemoryStore.key(path);
+        MemoryStore.Node node = store.get(key);
+        if (node == null) {
+            throw new NotFoundException("Object <" + path + "> doesn't exist");
+        }
+        if (node.isContainer()) {
+            throw new IllegalArgumentException("Path '" + path + "' identifies a container");
+        }
+        store.remove(key);
+    }
+
+    @Override
+    public DataObject findByObjectId(String objectId) {
+        String path = store.find(objectId);
+        if (path == null) {
+            return null;
+        }
+        MemoryStore.Node node = store.get(path);
+        if (node == null || node.isContainer()) {
+            return null;
+        }
+        return findByPath(path);
+    }
+
+    @Override
+    public DataObject findByPath(String path) {
+        MemoryStore.Node node = store.get(MemoryStore.key(path));
+        if (node == null || node.isContainer()) {
+            return null;
+        }
+        Value value = node.value;
+        if (!value.retain()) {
+            // replaced meanwhile
+            return findByPath(path);
+        }
+        try {
+            DataObject dObj = accessed(parse(node, path));
+            dObj.setValue(value.toByteArray());
+            return dObj;
+        } finally {
+            value.release();
+        }
+    }
+
+    @Override
+    public DataObject findMetadataByPath(String path) {
+        MemoryStore.Node node = store.get(MemoryStore.key(path));
+        if (node == null || node.isContainer()) {
+            return null;
+        }
+        return accessed(parse(node, path));
+    }
+
+    @Override
+    public boolean isDataObject(String path) {
+        MemoryStore.Node node = store.get(MemoryStore.key(path));
+        return node != null && !node.isContainer();
+    }
+
+    @Override
+    public SeekableByteChannel openValueByPath(String path) throws IOException {
+        String key = MemoryStore.key(path);
+        while (true) {
+            MemoryStore.Node node = store.get(key);
+            if (node == null || node.isContainer()) {
+                throw new ConflictException("Object <" + path + "> doesn't exist");
+            }
+            SeekableByteChannel channel = node.value.open();
+            if (channel != null) {
+                return channel;
+            }
+            // replaced or deleted meanwhile
+        }
+    }
+
+    // --------------------------------------------------------- Private Methods
+
+    private DataObject create(String path, String mimeType, DataObject dObj, InputStream in) {
+        String key = MemoryStore.key(path);
+        MemoryStore.Node parent = store.get(MemoryStore.parentKey(key));
+        if (parent == null || !parent.isContainer()) {
+            throw new ConflictException("Container <"
+                                        + MemoryStore.parentKey(key)
+                                        + "> doesn't exist");
+        }
+        if (store.get(key) != null) {
+            throw new ConflictException("Object <" + path + "> exists");
+        }
+        Value value;
+        try {
+            value = Value.read(store.getAllocator(), in);
+        } catch (IOException ex) {
+            LOG.error("Exception while writing: ", ex);
+            throw new IllegalArgumentException("Cannot write Object @" + path + " error : " + ex);
+        }
+        if (dObj.getObjectID() == null) {
+            dObj.setObjectID(ObjectID.getObjectID(8));
+        }
+        dObj.setCapabilitiesURI("/cdmi_capabilities/dataobject");
+        dObj.setMetadata("cdmi_size", value.size() + "");
+        dObj.setMetadata("cdmi_ctime", now());
+        dObj.setMetadata("cdmi_atime", "never");
+        dObj.setMetadata("mimetype", mimeType);
+        boolean added = false;
+        try {
+            added = store.add(key, new MemoryStore.Node(dObj.getObjectID(), toBytes(dObj, path),
+                    value, false));
+        } finally {
+            if (!added) {
+                value.release();
+            }
+        }
+        if (!added) {
+            throw new ConflictException("Object <" + path + "> exists");
+        }
+        return dObj;
+    }
+
+    /**
+     * <p>
+     * Return the node of an existing data object.
+     * </p>
+     *
+     * @exception NotFoundException
+     *                if the data object does not exist
+     */
+    private MemoryStore.Node getExistingNode(String path, String key) {
+        MemoryStore.Node node = store.get(key);
+        if (node == null || node.isContainer()) {
+            throw new NotFoundException("Object <" + path + "> doesn't exist");
+        }
+        return node;
+    }
+
+    private void replaceValue(MemoryStore.Node node, String path, InputStream in) {
+        Value value;
+        try {
+            value = Value.read(store.getAllocator(), in);
+        } catch (IOException ex) {
+            LOG.error("Exception while writing: ", ex);
+            throw new IllegalArgumentException("Cannot write Object @" + path + " error : " + ex);
+        }
+        Value old = node.value;
+        node.value = value;
+        old.release();
+    }
+
+    /**
+     * <p>
+     * Stamp the modification time of an updated data object and store its fields.
+     * </p>
+     */
+    private void modified(MemoryStore.Node node, String path, DataObject dObj) {
+        dObj.setMetadata("cdmi_mtime", now());
+        node.fields = toBytes(dObj, path);
+    }
+
+    private static DataObject accessed(DataObject dObj) {
+        dObj.setMetadata("cdmi_atime", now());
+        return dObj;
+    }
+
+    private static String now() {
+        return Timestamps.now();
+    }
+
+    private static byte[] toBytes(DataObject dObj, String path) {
+        try {
+            return dObj.metadataToJson().getBytes(StandardCharsets.UTF_8);
+        } catch (Exception ex) {
+            LOG.error("Exception while writing: ", ex);
+            throw new IllegalArgumentException("Cannot write Object @" + path + " error : " + ex);
+        }
+    }
+
+    private static DataObject parse(MemoryStore.Node node, String path) {
+        DataObject dObj = new DataObject();
+        try {
+            dObj.fromJson(node.fields, true);
+        } catch (Exception ex) {
+            LOG.error("Exception while reading: ", ex);
+            throw new IllegalArgumentException("Cannot read Object @" + path + " error : " + ex);
+        }
+        return dObj;
+    }
+
+    /**
+     * <p>
+     * Return <code>true</code> if the metadata item is maintained by the server rather than
+     * supplied by the client.
+     * </p>
+     */
+    private static boolean isSystemMetadata(String name) {
+        return name.startsWith("cdmi_") || "mimetype".equals(name);
+    }
+}
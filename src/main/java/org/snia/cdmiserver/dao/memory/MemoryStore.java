@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.memory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * <p>
+ * The tree of containers and data objects shared by the in-memory DAOs. Each node keeps the
+ * persisted fields of its container or data object as UTF-8 JSON in a single array, the same
+ * form the filesystem backend writes to its "." files, so that the heap holds a few objects per
+ * node however much metadata there is. Values live off-heap, see {@link SlabAllocator}.
+ * </p>
+ *
+ * <p>
+ * Nodes are keyed by their path without leading or trailing slashes; the root container is the
+ * empty path. Lookups do not lock; changes to the shape of the tree are serialized.
+ * </p>
+ */
+public class MemoryStore {
+
+    private final Map<String, Node> nodes = new ConcurrentHashMap<String, Node>();
+    private final Map<String, String> objectIds = new ConcurrentHashMap<String, String>();
+
+    // Updates to the same node are serialized on one of these
+    private final Object[] locks = new Object[64];
+
+    {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        nodes.put("", new Node(null, null, null, true));
+    }
+
+    // -------------------------------------------------------------- Properties
+    private SlabAllocator allocator = new SlabAllocator();
+
+    /**
+     * <p>
+     * Set the allocator of the memory holding values. Default value is a {@link SlabAllocator}
+     * with its default capacity.
+     * </p>
+     *
+     * @param allocator
+     *            The new allocator
+     */
+    public void setAllocator(SlabAllocator allocator) {
+        this.allocator = allocator;
+    }
+
+    // ---------------------------------------------------------- Public Methods
+
+    /**
+     * <p>
+     * Return the allocator of the memory holding values.
+     * </p>
+     */
+    public SlabAllocator getAllocator() {
+        return allocator;
+    }
+
+    /**
+     * <p>
+     * Return the number of containers and data objects, including the root container.
+     * </p>
+     */
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * <p>
+     * Return the key of <code>path</code>: the path without leading, trailing or repeated
+     * slashes. The key of the root container, whose path is <code>null</code>, is empty.
+     * </p>
+     */
+    public static String key(String path) {
+        if (path == null) {
+            return "";
+        }
+        StringBuilder key = new StringBuilder(path.length());
+        for (String segment : path.split("/")) {
+            if (!segment.isEmpty()) {
+                if (key.length() > 0) {
+                    key.append('/');
+                }
+                key.append(segment);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * <p>
+     * Return the key of the container holding the node at <code>key</code>.
+     * </p>
+     */
+    public static String parentKey(String key) {
+        int slash = key.lastIndexOf('/');
+        return slash < 0 ? "" : key.substring(0, slash);
+    }
+
+    /**
+     * <p>
+     * Return the node at <code>key</code>, or <code>null</code> if there is none.
+     * </p>
+     */
+    Node get(String key) {
+        return nodes.get(key);
+    }
+
+    /**
+     * <p>
+     * Return the lock serializing updates to the node at <code>key</code>.
+     * </p>
+     */
+    Object lockFor(String key) {
+        return locks[(key.hashCode() & 0x7fffffff) % locks.length];
+    }
+
+    /**
+     * <p>
+     * Return the key of the node with object ID <code>objectId</code>, or <code>null</code> if
+     * there is none.
+     * </p>
+     */
+    String find(String objectId) {
+        return objectIds.get(objectId);
+    }
+
+    /**
+     * <p>
+     * Add <code>node</code> at <code>key</code> to its container.
+     * </p>
+     *
+     * @return <code>false</code> if something already exists at <code>key</code>
+     *
+     * @exception IllegalArgumentException
+     *                if the container of <code>key</code> does not exist
+     */
+    synchronized boolean add(String key, Node node) {
+        Node parent = nodes.get(parentKey(key));
+        if (parent == null || !parent.isContainer()) {
+            throw new IllegalArgumentException("Container '" + parentKey(key) + "' doesn't exist");
+        }
+        if (nodes.putIfAbsent(key, node) != null) {
+            return false;
+        }
+        parent.children.add(childName(key, node));
+        if (node.objectId != null) {
+            objectIds.put(node.objectId, key);
+        }
+        return true;
+    }
+
+    /**
+     * <p>
+     * Remove the node at <code>key</code> and, for a container, everything in it, releasing the
+     * values.
+     * </p>
+     *
+     * @return the removed node, or <code>null</code> if there was none
+     */
+    synchronized Node remove(String key) {
+        Node node = nodes.get(key);
+        if (node == null || key.isEmpty()) {
+            return null;
+        }
+        nodes.get(parentKey(key)).children.remove(childName(key, node));
+        removeTree(key, node);
+        return node;
+    }
+
+    /**
+     * <p>
+     * Move the container at <code>source</code>, and everything in it, to <code>target</code>.
+     * </p>
+     *
+     * @return <code>false</code> if something already exists at <code>target</code>
+     *
+     * @exception IllegalArgumentException
+     *                if the container of <code>target</code> does not exist, or if
+     *                <code>target</code> is inside <code>source</code>
+     */
+    synchronized boolean move(String source, String target) {
+        if (target.equals(source) || target.startsWith(source + "/")) {
+            throw new IllegalArgumentException("Cannot move '" + source + "' into itself");
+        }
+        Node node = nodes.get(source);
+        Node targetParent = nodes.get(parentKey(target));
+        if (targetParent == null || !targetParent.isContainer()) {
+            throw new IllegalArgumentException("Container '" + parentKey(target)
+                                               + "' doesn't exist");
+        }
+        if (nodes.containsKey(target)) {
+            return false;
+        }
+        nodes.get(parentKey(source)).children.remove(childName(source, node));
+        moveTree(source, target, node);
+        targetParent.children.add(childName(target, node));
+        return true;
+    }
+
+    // --------------------------------------------------------- Private Methods
+
+    private void removeTree(String key, Node node) {
+        nodes.remove(key);
+        if (node.objectId != null) {
+            objectIds.remove(node.objectId, key);
+        }
+        if (node.isContainer()) {
+            for (String child : node.children) {
+                String childKey = childKey(key, child);
+                Node childNode = nodes.get(childKey);
+                if (childNode != null) {
+                    removeTree(childKey, childNode);
+                }
+            }
+        } else {
+            Value value = node.value;
+            if (value != null) {
+                value.release();
+            }
+        }
+    }
+
+    private void moveTree(String source, String target, Node node) {
+        nodes.remove(source);
+        nodes.put(target, node);
+        if (node.objectId != null) {
+            objectIds.put(node.objectId, target);
+        }
+        if (node.isContainer()) {
+            for (String child : node.children) {
+                Node childNode = nodes.get(childKey(source, child));
+                if (childNode != null) {
+                    moveTree(childKey(source, child), childKey(target, child), childNode);
+                }
+            }
+        }
+    }
+
+    private static String childName(String key, Node node) {
+        String name = key.substring(key.lastIndexOf('/') + 1);
+        return node.isContainer() ? name + "/" : name;
+    }
+
+    static String childKey(String key, String child) {
+        String name = child.endsWith("/") ? child.substring(0, child.length() - 1) : child;
+        return key.isEmpty() ? name : key + "/" + name;
+    }
+
+    /**
+     * <p>
+     * Add the names of the children of <code>node</code> from position <code>first</code> to
+     * position <code>last</code> (inclusive) to <code>page</code>, in order.
+     * </p>
+     */
+    static void list(Node node, long first, long last, List<String> page) {
+        long position = 0;
+        for (String child : node.children) {
+            if (position > last) {
+                break;
+            }
+            if (position >= first) {
+                page.add(child);
+            }
+            position++;
+        }
+    }
+
+    /**
+     * <p>
+     * A container or data object. The object ID never changes; the fields and the value are
+     * replaced as a whole.
+     * </p>
+     */
+    static final class Node {
+        final String objectId;
+        final NavigableSet<String> children;
+        volatile byte[] fields;
+        volatile Value value;
+
+        Node(String objectId, byte[] fields, Value value, boolean container) {
+            this.objectId = objectId;
+            this.fields = fields;
+            this.value = value;
+            this.children = container ? new ConcurrentSkipListSet<String>() : null;
+        }
+
+        boolean isContainer() {
+            return children != null;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.memory;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Hands out fixed size blocks of off-heap memory. Blocks are carved out of direct
+ * {@link ByteBuffer} slabs that are allocated on demand and never released, so the garbage
+ * collector sees a handful of slabs whatever the amount of data, and freed blocks are reused.
+ * </p>
+ *
+ * <p>
+ * The JVM must be allowed enough direct memory for the configured capacity, see
+ * <code>-XX:MaxDirectMemorySize</code>.
+ * </p>
+ */
+public class SlabAllocator {
+
+    private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+
+    // guarded by this
+    private int[] free = new int[1024];
+    private int freeCount = 0;
+    private int nextBlock = 0;
+
+    // -------------------------------------------------------------- Properties
+    private int blockSize = 4096;
+
+    /**
+     * <p>
+     * Set the size in bytes of a block, the unit in which values are stored. Must divide the slab
+     * size. Default value is 4096.
+     * </p>
+     *
+     * @param blockSize
+     *            The new block size
+     */
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    private int slabSize = 64 * 1024 * 1024;
+
+    /**
+     * <p>
+     * Set the size in bytes of a slab, the unit in which memory is allocated. Default value is
+     * 64 MiB.
+     * </p>
+     *
+     * @param slabSize
+     *            The new slab size
+     */
+    public void setSlabSize(int slabSize) {
+        this.slabSize = slabSize;
+    }
+
+    private long capacity = 1024L * 1024 * 1024;
+
+    /**
+     * <p>
+     * Set the maximum number of bytes to allocate. Default value is 1 GiB.
+     * </p>
+     *
+     * @param capacity
+     *            The new capacity
+     */
+    public void setCapacity(long capacity) {
+        this.capacity = capacity;
+    }
+
+    // ---------------------------------------------------------- Public Methods
+
+    /**
+     * <p>
+     * Return the size in bytes of a block.
+     * </p>
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * <p>
+     * Return the number of bytes held in slabs.
+     * </p>
+     */
+    public long getAllocatedBytes() {
+        return (long) slabs.length * slabSize;
+    }
+
+    /**
+     * <p>
+     * Return the number of bytes in blocks that are in use.
+     * </p>
+     */
+    public synchronized long getUsedBytes() {
+        return (long) (nextBlock - freeCount) * blockSize;
+    }
+
+    /**
+     * <p>
+     * Fill <code>blocks</code> from <code>from</code> up to <code>to</code> (exclusive) with newly
+     * allocated blocks.
+     * </p>
+     *
+     * @exception IllegalArgumentException
+     *                if the capacity is exhausted; no blocks are allocated then
+     */
+    public synchronized void allocate(int[] blocks, int from, int to) {
+        int count = to - from;
+        int reused = Math.min(count, freeCount);
+        for (int i = 0; i < reused; i++) {
+            blocks[from++] = free[--freeCount];
+        }
+        int fresh = count - reused;
+        int blocksPerSlab = slabSize / blockSize;
+        long needed = (long) nextBlock + fresh;
+        if (needed > (long) slabs.length * blocksPerSlab) {
+            int slabCount = (int) ((needed + blocksPerSlab - 1) / blocksPerSlab);
+            if ((long) slabCount * slabSize > capacity) {
+                release(blocks, from - reused, from);
+                throw new IllegalArgumentException("Memory store is full; capacity is "
+                                                   + capacity
+                                                   + " bytes");
+            }
+            ByteBuffer[] grown = Arrays.copyOf(slabs, slabCount);
+            for (int i = slabs.length; i < slabCount; i++) {
+                grown[i] = ByteBuffer.allocateDirect(slabSize);
+            }
+            slabs = grown;
+        }
+        for (int i = 0; i < fresh; i++) {
+            blocks[from++] = nextBlock++;
+        }
+    }
+
+    /**
+     * <p>
+     * Return the blocks in <code>blocks</code> from <code>from</code> up to <code>to</code>
+     * (exclusive) for reuse.
+     * </p>
+     */
+    public synchronized void release(int[] blocks, int from, int to) {
+        int count = to - from;
+        if (freeCount + count > free.length) {
+            free = Arrays.copyOf(free, Math.max(free.length * 2, freeCount + count));
+        }
+        System.arraycopy(blocks, from, free, freeCount, count);
+        freeCount += count;
+    }
+
+    /**
+     * <p>
+     * Return a buffer over <code>length</code> bytes of <code>block</code> starting at
+     * <code>offset</code>. The buffer is independent of those returned to other callers.
+     * </p>
+     */
+    public ByteBuffer buffer(int block, int offset, int length) {
+        int blocksPerSlab = slabSize / blockSize;
+        ByteBuffer buffer = slabs[block / blocksPerSlab].duplicate();
+        int start = (block % blocksPerSlab) * blockSize + offset;
+        buffer.limit(start + length).position(start);
+        return buffer;
+    }
+}
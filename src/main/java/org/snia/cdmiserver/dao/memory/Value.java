@@ -0,0 +1,377 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.memory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.snia.cdmiserver.exception.BadRequestException;
+
+/**
+ * <p>
+ * The value of a data object, held in blocks handed out by a {@link SlabAllocator}. The heap
+ * only holds the list of block numbers.
+ * </p>
+ *
+ * <p>
+ * A value is reference counted so that replacing or deleting it while it is being read does
+ * not hand its blocks to another value too early: the data object holds one reference and every
+ * open channel another, and the blocks are released when the last one is dropped.
+ * </p>
+ */
+final class Value {
+
+    // blocks allocated at a time while a value of unknown length is streamed in
+    private static final int ALLOCATION_CHUNK = 16;
+
+    private final SlabAllocator allocator;
+    private final int blockSize;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private volatile int[] blocks;
+    private volatile long size;
+
+    private Value(SlabAllocator allocator, int[] blocks, long size) {
+        this.allocator = allocator;
+        this.blockSize = allocator.getBlockSize();
+        this.blocks = blocks;
+        this.size = size;
+    }
+
+    /**
+     * <p>
+     * Store everything <code>in</code> supplies as a new value.
+     * </p>
+     *
+     * @exception IllegalArgumentException
+     *                if the allocator runs out of memory
+     */
+    static Value read(SlabAllocator allocator, InputStream in) throws IOException {
+        int blockSize = allocator.getBlockSize();
+        ReadableByteChannel channel = Channels.newChannel(in);
+        int[] blocks = new int[ALLOCATION_CHUNK];
+        int allocated = 0;
+        int used = 0;
+        long size = 0;
+        try {
+            while (true) {
+                if (used == allocated) {
+                    if (allocated == blocks.length) {
+                        blocks = Arrays.copyOf(blocks, blocks.length * 2);
+                    }
+                    int chunk = Math.min(ALLOCATION_CHUNK, blocks.length - allocated);
+                    allocator.allocate(blocks, allocated, allocated + chunk);
+                    allocated += chunk;
+                }
+                ByteBuffer block = allocator.buffer(blocks[used], 0, blockSize);
+                boolean more = fill(channel, block);
+                int filled = blockSize - block.remaining();
+                if (filled > 0) {
+                    used++;
+                    size += filled;
+                }
+                if (!more) {
+                    break;
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            allocator.release(blocks, 0, allocated);
+            throw ex;
+        }
+        allocator.release(blocks, used, allocated);
+        return new Value(allocator, Arrays.copyOf(blocks, used), size);
+    }
+
+    /**
+     * <p>
+     * Store <code>bytes</code> as a new value.
+     * </p>
+     */
+    static Value of(SlabAllocator allocator, byte[] bytes) {
+        try {
+            return read(allocator, new ByteArrayInputStream(bytes));
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * <p>
+     * Return the size of the value in bytes.
+     * </p>
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * <p>
+     * Return a copy of the value in new blocks.
+     * </p>
+     */
+    Value copy() throws IOException {
+        try (SeekableByteChannel channel = open()) {
+            return read(allocator, Channels.newInputStream(channel));
+        }
+    }
+
+    /**
+     * <p>
+     * Return the value as an array.
+     * </p>
+     */
+    byte[] toByteArray() {
+        long length = size;
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Value of " + length + " bytes is too large");
+        }
+        ByteBuffer bytes = ByteBuffer.allocate((int) length);
+        read(bytes, 0);
+        return bytes.array();
+    }
+
+    /**
+     * <p>
+     * Overwrite <code>length</code> bytes starting at <code>offset</code> with bytes from
+     * <code>in</code>, extending the value if needed. Any gap between the current end of the
+     * value and <code>offset</code> reads as zeros. The caller serializes writes.
+     * </p>
+     *
+     * @exception BadRequestException
+     *                if <code>in</code> supplies fewer than <code>length</code> bytes; the bytes
+     *                supplied have been written
+     */
+    void write(long offset, long length, InputStream in) throws IOException {
+        long end = offset + length;
+        long oldSize = size;
+        if (end > oldSize) {
+            int needed = (int) ((end + blockSize - 1) / blockSize);
+            int[] current = blocks;
+            if (needed > current.length) {
+                int[] grown = Arrays.copyOf(current, needed);
+                allocator.allocate(grown, current.length, needed);
+                blocks = grown;
+            }
+            zero(oldSize, end);
+        }
+        ReadableByteChannel channel = Channels.newChannel(in);
+        int[] current = blocks;
+        long position = offset;
+        while (position < end) {
+            int offsetInBlock = (int) (position % blockSize);
+            int count = (int) Math.min(blockSize - offsetInBlock, end - position);
+            ByteBuffer block =
+                    allocator.buffer(current[(int) (position / blockSize)], offsetInBlock, count);
+            boolean more = fill(channel, block);
+            position += count - block.remaining();
+            if (!more) {
+                break;
+            }
+        }
+        if (position > size) {
+            size = position;
+        }
+        if (position < end) {
+            throw new BadRequestException("Value range of " + length
+                                          + " bytes ended after " + (position - offset)
+                                          + " bytes");
+        }
+    }
+
+    /**
+     * <p>
+     * Open the value for reading, or return <code>null</code> if it has been released. The
+     * channel holds a reference to the value until it is closed.
+     * </p>
+     */
+    SeekableByteChannel open() {
+        return retain() ? new ValueChannel() : null;
+    }
+
+    /**
+     * <p>
+     * Add a reference, unless the value has already been released.
+     * </p>
+     */
+    boolean retain() {
+        int count;
+        do {
+            count = references.get();
+            if (count == 0) {
+                return false;
+            }
+        } while (!references.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    /**
+     * <p>
+     * Drop a reference, releasing the blocks when it was the last one.
+     * </p>
+     */
+    void release() {
+        if (references.decrementAndGet() == 0) {
+            int[] released = blocks;
+            allocator.release(released, 0, released.length);
+        }
+    }
+
+    // --------------------------------------------------------- Private Methods
+
+    /**
+     * <p>
+     * Read from <code>channel</code> until <code>block</code> is full, returning
+     * <code>false</code> if the end of the stream was reached first.
+     * </p>
+     */
+    private static boolean fill(ReadableByteChannel channel, ByteBuffer block) throws IOException {
+        while (block.hasRemaining()) {
+            if (channel.read(block) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * <p>
+     * Copy bytes starting at <code>position</code> into <code>destination</code> until it is full
+     * or the end of the value is reached, and return the number of bytes copied.
+     * </p>
+     */
+    private int read(ByteBuffer destination, long position) {
+        int[] current = blocks;
+        long end = Math.min(size, position + destination.remaining());
+        int copied = 0;
+        while (position < end) {
+            int offsetInBlock = (int) (position % blockSize);
+            int length = (int) Math.min(blockSize - offsetInBlock, end - position);
+            destination.put(allocator.buffer(current[(int) (position / blockSize)], offsetInBlock,
+                    length));
+            position += length;
+            copied += length;
+        }
+        return copied;
+    }
+
+    private void zero(long from, long to) {
+        int[] current = blocks;
+        byte[] zeros = new byte[(int) Math.min(blockSize, to - from)];
+        while (from < to) {
+            int offsetInBlock = (int) (from % blockSize);
+            int length = (int) Math.min(blockSize - offsetInBlock, to - from);
+            allocator.buffer(current[(int) (from / blockSize)], offsetInBlock, length)
+                    .put(zeros, 0, length);
+            from += length;
+        }
+    }
+
+    /**
+     * <p>
+     * Read-only channel over the value.
+     * </p>
+     */
+    private final class ValueChannel implements SeekableByteChannel {
+        private long position = 0;
+        private boolean open = true;
+
+        @Override
+        public synchronized int read(ByteBuffer destination) throws IOException {
+            ensureOpen();
+            if (position >= size) {
+                return destination.hasRemaining() ? -1 : 0;
+            }
+            int read = Value.this.read(destination, position);
+            position += read;
+            return read;
+        }
+
+        @Override
+        public int write(ByteBuffer source) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public synchronized long position() throws IOException {
+            ensureOpen();
+            return position;
+        }
+
+        @Override
+        public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+            ensureOpen();
+            if (newPosition < 0) {
+                throw new IllegalArgumentException("Negative position " + newPosition);
+            }
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            ensureOpen();
+            return size;
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long newSize) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public synchronized boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (open) {
+                open = false;
+                release();
+            }
+        }
+
+        private void ensureOpen() throws ClosedChannelException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+        }
+    }
+}
@@ -31,11 +31,16 @@
 
 package org.snia.cdmiserver.model;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.snia.cdmiserver.exception.BadRequestException;
+
 /**
  * <p>
  * Representation of a CDMI <em>Capability</em>.
@@ -58,7 +63,7 @@ public class Capability {
     }
 
     public void setObjectType(String objectURI) {
-        this.objectType = objectType;
+        this.objectType = objectURI;
     }
 
     public String getObjectID() {
@@ -108,4 +113,47 @@ public class Capability {
     public Capability getByPath(String path) {
         return this;
     }
+
+    /**
+     * <p>
+     * Read the fields of a JSON capability object from <code>jp</code>; the entries of its
+     * <code>capabilities</code> object become the metadata of this capability.
+     * </p>
+     */
+    public void fromJson(JsonParser jp) throws IOException {
+        if (jp.nextToken() != JsonToken.START_OBJECT) {
+            throw new BadRequestException("Expected a JSON object");
+        }
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            String key = jp.getCurrentName();
+            JsonToken token = jp.nextToken();
+            if ("capabilities".equals(key) && token == JsonToken.START_OBJECT) {
+                while (jp.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = jp.getCurrentName();
+                    JsonToken value = jp.nextToken();
+                    if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+                        throw new BadRequestException("Invalid capability : " + name);
+                    }
+                    metadata.put(name, jp.getText());
+                }
+            } else if ("children".equals(key) && token == JsonToken.START_ARRAY) {
+                while (jp.nextToken() != JsonToken.END_ARRAY) {
+                    if (jp.getCurrentToken() != JsonToken.VALUE_STRING) {
+                        throw new BadRequestException("Invalid child : " + jp.getText());
+                    }
+                    children.add(jp.getText());
+                }
+            } else if ("objectType".equals(key)) {
+                setObjectType(jp.getText());
+            } else if ("objectID".equals(key)) {
+                setObjectID(jp.getText());
+            } else if ("parentURI".equals(key)) {
+                setParentURI(jp.getText());
+            } else if ("parentID".equals(key)) {
+                setParentID(jp.getText());
+            } else {
+                throw new BadRequestException("Invalid Key : " + key);
+            }
+        }
+    }
 }
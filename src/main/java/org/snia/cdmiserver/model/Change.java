@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.model;
+
+import java.io.IOException;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.snia.cdmiserver.util.MediaTypes;
+
+/**
+ * <p>
+ * A change made to a container or data object, as delivered by the change feed, e.g.
+ * </p>
+ *
+ * <pre>
+ * { "sequence" : 42, "operation" : "move", "objectType" : "application/cdmi-container",
+ *   "objectID" : "...", "path" : "/b/", "source" : "/a/", "time" : 1476000000000 }
+ * </pre>
+ *
+ * <p>
+ * Changes are immutable and numbered in the order they were made. Paths are kept as they were
+ * passed to the DAO and only made absolute when written, so that recording a change costs no
+ * more than allocating it.
+ * </p>
+ */
+public final class Change {
+
+    /**
+     * <p>
+     * The kinds of change. A move has the old path as its <code>source</code>; a copy is
+     * recorded as the creation of every copied object.
+     * </p>
+     */
+    public enum Operation {
+        CREATE, UPDATE, MOVE, DELETE;
+
+        private final String name = name().toLowerCase();
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private final long sequence;
+    private final Operation operation;
+    private final String objectType;
+    private final String objectID;
+    private final String path;
+    private final String source;
+    private final long time;
+
+    public Change(long sequence, Operation operation, String objectType, String objectID,
+            String path, String source, long time) {
+        this.sequence = sequence;
+        this.operation = operation;
+        this.objectType = objectType;
+        this.objectID = objectID;
+        this.path = path;
+        this.source = source;
+        this.time = time;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public String getObjectType() {
+        return objectType;
+    }
+
+    /**
+     * <p>
+     * Return the object ID of the changed object, or <code>null</code> if it was not known,
+     * e.g. for an object deleted before it was given one.
+     * </p>
+     */
+    public String getObjectID() {
+        return objectID;
+    }
+
+    /**
+     * <p>
+     * Return the absolute path of the changed object, ending with "/" for a container.
+     * </p>
+     */
+    public String getPath() {
+        return absolute(path);
+    }
+
+    /**
+     * <p>
+     * Return the absolute path the object was moved from, or <code>null</code> unless this is
+     * a move.
+     * </p>
+     */
+    public String getSource() {
+        return source == null ? null : absolute(source);
+    }
+
+    /**
+     * <p>
+     * Return the time of the change, in milliseconds since the epoch.
+     * </p>
+     */
+    public long getTime() {
+        return time;
+    }
+
+    public void writeJson(JsonGenerator g) throws IOException {
+        g.writeStartObject();
+        g.writeNumberField("sequence", sequence);
+        g.writeStringField("operation", operation.toString());
+        g.writeStringField("objectType", objectType);
+        if (objectID != null) {
+            g.writeStringField("objectID", objectID);
+        }
+        g.writeStringField("path", getPath());
+        if (source != null) {
+            g.writeStringField("source", getSource());
+        }
+        g.writeNumberField("time", time);
+        g.writeEndObject();
+    }
+
+    @Override
+    public String toString() {
+        return sequence + " " + operation + " " + getPath();
+    }
+
+    private String absolute(String p) {
+        StringBuilder absolute = new StringBuilder(p.length() + 2);
+        if (!p.startsWith("/")) {
+            absolute.append('/');
+        }
+        absolute.append(p);
+        if (MediaTypes.CONTAINER.equals(objectType)
+            && absolute.charAt(absolute.length() - 1) != '/') {
+            absolute.append('/');
+        }
+        return absolute.toString();
+    }
+}
@@ -31,6 +31,7 @@
 
 package org.snia.cdmiserver.model;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
 import java.util.ArrayList;
@@ -39,7 +40,6 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 
-import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.JsonParser;
 import org.codehaus.jackson.JsonToken;
@@ -47,6 +47,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.snia.cdmiserver.dao.filesystem.ContainerDaoImpl;
 import org.snia.cdmiserver.exception.BadRequestException;
+import org.snia.cdmiserver.util.BinaryJson;
+import org.snia.cdmiserver.util.Json;
 
 /**
  * <p>
@@ -80,6 +82,34 @@ public class Container {
     // Representation also includes "metadata", "exports"
     // Representation also includes "mimetype", "metadata", and "value" from creation fields
 
+    public Container() {
+    }
+
+    /**
+     * <p>
+     * Create a copy of <code>other</code> whose metadata, exports and lists can be changed
+     * without affecting it.
+     * </p>
+     */
+    public Container(Container other) {
+        metadata.putAll(other.metadata);
+        exports.putAll(other.exports);
+        copy = other.copy;
+        move = other.move;
+        reference = other.reference;
+        snapshot = other.snapshot;
+        objectType = other.objectType;
+        objectID = other.objectID;
+        parentURI = other.parentURI;
+        domainURI = other.domainURI;
+        capabilitiesURI = other.capabilitiesURI;
+        completionStatus = other.completionStatus;
+        percentComplete = other.percentComplete;
+        snapshots.addAll(other.snapshots);
+        childrenrange = other.childrenrange;
+        children.addAll(other.children);
+    }
+
     public Map<String, String> getMetadata() {
         return metadata;
     }
@@ -199,69 +229,94 @@ public class Container {
     public String toJson(boolean toFile) {
         //
         StringWriter outBuffer = new StringWriter();
-        try {
-            JsonFactory f = new JsonFactory();
-            JsonGenerator g = f.createJsonGenerator(outBuffer);
-            g.useDefaultPrettyPrinter();
-            g.writeStartObject();
-
-            g.writeStringField("objectID", objectID);
+        try (JsonGenerator g = Json.createGenerator(outBuffer, false)) {
+            writeJson(g, toFile);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            return ("Error : " + ex);
+        }
+        //
+        return outBuffer.toString();
+    }
 
-            g.writeStringField("capabilitiesURI", capabilitiesURI);
-            g.writeStringField("domainURI", domainURI);
+    /**
+     * <p>
+     * Write the JSON representation of this container to <code>g</code>: the persisted fields
+     * only if <code>toFile</code> is set, or the full representation returned to clients.
+     * </p>
+     */
+    public void writeJson(JsonGenerator g, boolean toFile) throws IOException {
+        g.writeStartObject();
 
-            g.writeObjectFieldStart("metadata");
-            for (Map.Entry<String, String> entry : metadata.entrySet()) {
-                g.writeStringField(entry.getKey(), entry.getValue());
-            }
-            g.writeEndObject();
+        g.writeStringField("objectID", objectID);
 
-            g.writeObjectFieldStart("exports");
-            for (Map.Entry<String, Object> entry : exports.entrySet()) {
-                g.writeObjectFieldStart(entry.getKey());
-                g.writeEndObject();
-            }
-            g.writeEndObject();
+        g.writeStringField("capabilitiesURI", capabilitiesURI);
+        g.writeStringField("domainURI", domainURI);
 
-            if (!toFile) {
-                g.writeStringField("objectType", objectType);
-                g.writeStringField("parentURI", parentURI);
-                g.writeArrayFieldStart("children");
-                ListIterator<String> it = children.listIterator();
-                while (it.hasNext()) {
-                    g.writeString((String) it.next());
-                }
-                g.writeEndArray();
-                g.writeStringField("childrenrange", childrenrange);
-                if (completionStatus != null)
-                    g.writeStringField("completionStatus", completionStatus);
-            }
+        g.writeObjectFieldStart("metadata");
+        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+            g.writeStringField(entry.getKey(), entry.getValue());
+        }
+        g.writeEndObject();
 
+        g.writeObjectFieldStart("exports");
+        for (Map.Entry<String, Object> entry : exports.entrySet()) {
+            g.writeObjectFieldStart(entry.getKey());
             g.writeEndObject();
-            g.flush();
-        } catch (Exception ex) {
-            ex.printStackTrace();
-            return ("Error : " + ex);
         }
-        //
-        return outBuffer.toString();
+        g.writeEndObject();
+
+        if (!toFile) {
+            g.writeStringField("objectType", objectType);
+            g.writeStringField("parentURI", parentURI);
+            g.writeArrayFieldStart("children");
+            ListIterator<String> it = children.listIterator();
+            while (it.hasNext()) {
+                g.writeString((String) it.next());
+            }
+            g.writeEndArray();
+            g.writeStringField("childrenrange", childrenrange);
+            if (completionStatus != null)
+                g.writeStringField("completionStatus", completionStatus);
+            if (percentComplete != null)
+                g.writeStringField("percentComplete", percentComplete.toString());
+        }
+
+        g.writeEndObject();
     }
 
     public void fromJson(InputStream jsonIs, boolean fromFile) throws Exception {
-        JsonFactory f = new JsonFactory();
-        JsonParser jp = f.createJsonParser(jsonIs);
-        fromJson(jp, fromFile);
+        try (JsonParser jp = Json.FACTORY.createJsonParser(jsonIs)) {
+            fromJson(jp, fromFile);
+        }
     }
 
+    /**
+     * <p>
+     * Read the fields in <code>jsonBytes</code>. Persisted fields, read with
+     * <code>fromFile</code> set, may be JSON text or {@link BinaryJson}.
+     * </p>
+     */
     public void fromJson(byte[] jsonBytes, boolean fromFile) throws Exception {
-        JsonFactory f = new JsonFactory();
-        JsonParser jp = f.createJsonParser(jsonBytes);
-        fromJson(jp, fromFile);
+        try (JsonParser jp = fromFile ? BinaryJson.createParser(jsonBytes)
+                                      : Json.FACTORY.createJsonParser(jsonBytes)) {
+            fromJson(jp, fromFile);
+        }
     }
 
-    private void fromJson(JsonParser jp, boolean fromFile) throws Exception {
+    /**
+     * <p>
+     * Read the fields of a JSON object from <code>jp</code>, which is left positioned on its
+     * closing brace. Unless <code>fromFile</code> is set only the fields a client may supply are
+     * accepted.
+     * </p>
+     */
+    public void fromJson(JsonParser jp, boolean fromFile) throws IOException {
         JsonToken tolkein;
         tolkein = jp.nextToken();// START_OBJECT
+        if (tolkein != JsonToken.START_OBJECT) {
+            throw new BadRequestException("Expected a JSON object");
+        }
         while ((tolkein = jp.nextToken()) != JsonToken.END_OBJECT) {
             String key = jp.getCurrentName();
             if ("metadata".equals(key)) {// process metadata
@@ -297,6 +352,11 @@ public class Container {
                 String value2 = jp.getText();
                 LOG.trace("Key : {} Val : {}", key, value2);
                 this.setMove(value2);
+            } else if ("copy".equals(key)) {// process copy
+                jp.nextToken();
+                String value2 = jp.getText();
+                LOG.trace("Key : {} Val : {}", key, value2);
+                this.setCopy(value2);
             } else {
                 if (fromFile) { // accept rest of key-values
                     if ("objectID".equals(key)) { // process value
@@ -31,16 +31,24 @@
 
 package org.snia.cdmiserver.model;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.Map;
 
-import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.JsonParser;
 import org.codehaus.jackson.JsonToken;
 import org.snia.cdmiserver.exception.BadRequestException;
+import org.snia.cdmiserver.util.BinaryJson;
+import org.snia.cdmiserver.util.Json;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,6 +60,9 @@ import org.slf4j.LoggerFactory;
 public class DataObject {
     private static final Logger LOG = LoggerFactory.getLogger(DataObject.class);
 
+    public static final String UTF_8_ENCODING = "utf-8";
+    public static final String BASE64_ENCODING = "base64";
+
     // DataObject creation fields
     private String mimetype;
     private Map<String, String> metadata = new HashMap<String, String>();
@@ -60,8 +71,8 @@ public class DataObject {
     private String copy;
     private String move;
     private String reference;
-    private String value;
-    private byte[] binaryValue;
+    private byte[] value;
+    private String valuetransferencoding;
     // DataObject representation fields
     private String objectType;
     private String objectID;
@@ -76,6 +87,35 @@ public class DataObject {
     // Representation also includes "mimetype", "metadata", and "value" from creation fields
     //
 
+    public DataObject() {
+    }
+
+    /**
+     * <p>
+     * Create a copy of <code>other</code> whose fields and metadata can be changed without
+     * affecting it. The value is shared, as values are replaced rather than modified.
+     * </p>
+     */
+    public DataObject(DataObject other) {
+        mimetype = other.mimetype;
+        metadata.putAll(other.metadata);
+        deserialize = other.deserialize;
+        serialize = other.serialize;
+        copy = other.copy;
+        move = other.move;
+        reference = other.reference;
+        value = other.value;
+        valuetransferencoding = other.valuetransferencoding;
+        objectType = other.objectType;
+        objectID = other.objectID;
+        parentURI = other.parentURI;
+        accountURI = other.accountURI;
+        capabilitiesURI = other.capabilitiesURI;
+        completionStatus = other.completionStatus;
+        percentComplete = other.percentComplete;
+        valuerange = other.valuerange;
+    }
+
     public String getMimetype() {
         return mimetype;
     }
@@ -132,14 +172,34 @@ public class DataObject {
         this.reference = reference;
     }
 
-    public String getValue() {
+    /**
+     * <p>
+     * Return the raw bytes of the value, or <code>null</code> if the value has not been loaded.
+     * </p>
+     */
+    public byte[] getValue() {
         return value;
     }
 
-    public void setValue(String value) {
+    public void setValue(byte[] value) {
         this.value = value;
     }
 
+    /**
+     * <p>
+     * Return how the value is encoded in the JSON representation, either
+     * {@link #UTF_8_ENCODING} or {@link #BASE64_ENCODING}. The value itself is always held as
+     * raw bytes; the encoding only applies when it is read from or written to JSON.
+     * </p>
+     */
+    public String getValuetransferencoding() {
+        return valuetransferencoding;
+    }
+
+    public void setValuetransferencoding(String valuetransferencoding) {
+        this.valuetransferencoding = valuetransferencoding;
+    }
+
     public String getObjectType() {
         return objectType;
     }
@@ -207,34 +267,8 @@ public class DataObject {
     public String toJson() throws Exception {
         //
         StringWriter outBuffer = new StringWriter();
-        try {
-            JsonFactory f = new JsonFactory();
-            JsonGenerator g = f.createJsonGenerator(outBuffer);
-            g.useDefaultPrettyPrinter();
-            g.writeStartObject();
-            //
-            if (objectType != null)
-                g.writeStringField("objectType", objectType);
-            if (capabilitiesURI != null)
-                g.writeStringField("capabilitiesURI", capabilitiesURI);
-            if (objectID != null)
-                g.writeStringField("objectID", objectID);
-            if (mimetype != null)
-                g.writeStringField("mimetype", mimetype);
-            //
-            g.writeObjectFieldStart("metadata");
-            for (Map.Entry<String, String> entry : metadata.entrySet()) {
-                g.writeStringField(entry.getKey(), entry.getValue());
-            }
-            g.writeEndObject();
-            //
-            if (value != null)
-                g.writeStringField("valueRange", value.length() + "");
-            if (value != null)
-                g.writeStringField("value", value);
-            //
-            g.writeEndObject();
-            g.flush();
+        try (JsonGenerator g = Json.createGenerator(outBuffer, false)) {
+            writeJson(g);
         } catch (Exception ex) {
             ex.printStackTrace();
             throw ex;
@@ -244,32 +278,53 @@ public class DataObject {
         return outBuffer.toString();
     }
 
+    /**
+     * <p>
+     * Write the full representation of this object to <code>g</code>. A base64 value is encoded
+     * straight into the generator rather than through an intermediate string.
+     * </p>
+     */
+    public void writeJson(JsonGenerator g) throws IOException {
+        g.writeStartObject();
+        //
+        if (objectType != null)
+            g.writeStringField("objectType", objectType);
+        if (capabilitiesURI != null)
+            g.writeStringField("capabilitiesURI", capabilitiesURI);
+        if (objectID != null)
+            g.writeStringField("objectID", objectID);
+        if (mimetype != null)
+            g.writeStringField("mimetype", mimetype);
+        //
+        g.writeObjectFieldStart("metadata");
+        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+            g.writeStringField(entry.getKey(), entry.getValue());
+        }
+        g.writeEndObject();
+        //
+        if (valuerange != null)
+            g.writeStringField("valueRange", valuerange);
+        else if (value != null && value.length > 0)
+            g.writeStringField("valueRange", "0-" + (value.length - 1));
+        if (value != null) {
+            String encoding = transferEncodingFor(value);
+            g.writeStringField("valuetransferencoding", encoding);
+            g.writeFieldName("value");
+            if (BASE64_ENCODING.equals(encoding)) {
+                g.writeBinary(value);
+            } else {
+                g.writeString(new String(value, StandardCharsets.UTF_8));
+            }
+        }
+        //
+        g.writeEndObject();
+    }
+
     public String metadataToJson() throws Exception {
         //
         StringWriter outBuffer = new StringWriter();
-        try {
-            JsonFactory f = new JsonFactory();
-            JsonGenerator g = f.createJsonGenerator(outBuffer);
-            g.useDefaultPrettyPrinter();
-            g.writeStartObject();
-            // get top level metadata
-            if (objectType != null)
-                g.writeStringField("objectType", objectType);
-            if (capabilitiesURI != null)
-                g.writeStringField("capabilitiesURI", capabilitiesURI);
-            if (objectID != null)
-                g.writeStringField("objectID", objectID);
-            if (mimetype != null)
-                g.writeStringField("mimetype", mimetype);
-            //
-            g.writeObjectFieldStart("metadata");
-            for (Map.Entry<String, String> entry : metadata.entrySet()) {
-                g.writeStringField(entry.getKey(), entry.getValue());
-            }
-            g.writeEndObject();
-            //
-            g.writeEndObject();
-            g.flush();
+        try (JsonGenerator g = Json.createGenerator(outBuffer, false)) {
+            writeMetadataJson(g);
         } catch (Exception ex) {
             ex.printStackTrace();
             throw ex;
@@ -279,21 +334,68 @@ public class DataObject {
         return outBuffer.toString();
     }
 
+    /**
+     * <p>
+     * Write the fields persisted alongside the value to <code>g</code>; the value itself is
+     * stored separately.
+     * </p>
+     */
+    public void writeMetadataJson(JsonGenerator g) throws IOException {
+        g.writeStartObject();
+        // get top level metadata
+        if (objectType != null)
+            g.writeStringField("objectType", objectType);
+        if (capabilitiesURI != null)
+            g.writeStringField("capabilitiesURI", capabilitiesURI);
+        if (objectID != null)
+            g.writeStringField("objectID", objectID);
+        if (mimetype != null)
+            g.writeStringField("mimetype", mimetype);
+        if (valuetransferencoding != null)
+            g.writeStringField("valuetransferencoding", valuetransferencoding);
+        //
+        g.writeObjectFieldStart("metadata");
+        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+            g.writeStringField(entry.getKey(), entry.getValue());
+        }
+        g.writeEndObject();
+        //
+        g.writeEndObject();
+    }
+
     public void fromJson(InputStream jsonIs, boolean fromFile) throws Exception {
-        JsonFactory f = new JsonFactory();
-        JsonParser jp = f.createJsonParser(jsonIs);
-        fromJson(jp, fromFile);
+        try (JsonParser jp = Json.FACTORY.createJsonParser(jsonIs)) {
+            fromJson(jp, fromFile);
+        }
     }
 
+    /**
+     * <p>
+     * Read the fields in <code>jsonBytes</code>. Persisted fields, read with
+     * <code>fromFile</code> set, may be JSON text or {@link BinaryJson}.
+     * </p>
+     */
     public void fromJson(byte[] jsonBytes, boolean fromFile) throws Exception {
-        JsonFactory f = new JsonFactory();
-        JsonParser jp = f.createJsonParser(jsonBytes);
-        fromJson(jp, fromFile);
+        try (JsonParser jp = fromFile ? BinaryJson.createParser(jsonBytes)
+                                      : Json.FACTORY.createJsonParser(jsonBytes)) {
+            fromJson(jp, fromFile);
+        }
     }
 
-    private void fromJson(JsonParser jp, boolean fromFile) throws Exception {
+    /**
+     * <p>
+     * Read the fields of a JSON object from <code>jp</code>, which is left positioned on its
+     * closing brace. Unless <code>fromFile</code> is set only the fields a client may supply are
+     * accepted.
+     * </p>
+     */
+    public void fromJson(JsonParser jp, boolean fromFile) throws IOException {
+        String encodedValue = null;
         JsonToken tolkein;
         tolkein = jp.nextToken();// START_OBJECT
+        if (tolkein != JsonToken.START_OBJECT) {
+            throw new BadRequestException("Expected a JSON object");
+        }
         while ((tolkein = jp.nextToken()) != JsonToken.END_OBJECT) {
             String key = jp.getCurrentName();
             if ("metadata".equals(key)) {// process metadata
@@ -308,9 +410,16 @@ public class DataObject {
                 }// while
             } else if ("value".equals(key)) { // process value
                 jp.nextToken();
-                String value1 = jp.getText();
-                LOG.trace("Key : {} Val : {}", key, value1);
-                this.setValue(value1);
+                encodedValue = jp.getText();
+                LOG.trace("Key : {} Val : {}", key, encodedValue);
+            } else if ("valuetransferencoding".equals(key)) { // process valuetransferencoding
+                jp.nextToken();
+                String value2 = jp.getText();
+                LOG.trace("Key : {} Val : {}", key, value2);
+                if (!UTF_8_ENCODING.equals(value2) && !BASE64_ENCODING.equals(value2)) {
+                    throw new BadRequestException("Invalid valuetransferencoding : " + value2);
+                }
+                this.setValuetransferencoding(value2);
             } else if ("mimetype".equals(key)) { // process mimetype
                 jp.nextToken();
                 String value2 = jp.getText();
@@ -348,10 +457,52 @@ public class DataObject {
                 }
             }
         }
+        if (encodedValue != null) {
+            // the encoding may follow the value, so decode once everything has been read
+            this.setValue(decodeValue(encodedValue, valuetransferencoding));
+        }
     }
 
+    /**
+     * <p>
+     * Return the transfer encoding to use when writing <code>bytes</code> to JSON: the declared
+     * encoding if any, falling back to base64 for values that are not valid UTF-8 so that binary
+     * data is never mangled.
+     * </p>
+     */
+    private String transferEncodingFor(byte[] bytes) {
+        return transferEncodingFor(bytes, valuetransferencoding);
+    }
+
+    /**
+     * <p>
+     * Return the transfer encoding to use when writing <code>bytes</code> declared with
+     * <code>declared</code>, which may be <code>null</code>.
+     * </p>
+     */
+    static String transferEncodingFor(byte[] bytes, String declared) {
+        if (BASE64_ENCODING.equals(declared)) {
+            return BASE64_ENCODING;
+        }
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        try {
+            decoder.decode(ByteBuffer.wrap(bytes));
+            return UTF_8_ENCODING;
+        } catch (CharacterCodingException ex) {
+            return BASE64_ENCODING;
+        }
+    }
 
-    public void setValue(byte[] bytes) {
-        this.value = new String(bytes);
+    static byte[] decodeValue(String text, String encoding) {
+        if (BASE64_ENCODING.equals(encoding)) {
+            try {
+                return Base64.getDecoder().decode(text);
+            } catch (IllegalArgumentException ex) {
+                throw new BadRequestException("Invalid base64 value", ex);
+            }
+        }
+        return text.getBytes(StandardCharsets.UTF_8);
     }
 }
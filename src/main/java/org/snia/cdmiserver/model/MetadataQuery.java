@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.snia.cdmiserver.model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.snia.cdmiserver.exception.BadRequestException;
+import org.snia.cdmiserver.util.Json;
+
+/**
+ * <p>
+ * A query for containers and data objects by user metadata, e.g.
+ * </p>
+ *
+ * <pre>
+ * { "metadata" : { "project" : "== x", "status" : "== done", "size" : [ "&gt;= 10", "&lt; 100" ],
+ *                  "owner" : "starts j" },
+ *   "limit" : 100 }
+ * </pre>
+ *
+ * <p>
+ * Each metadata item holds one condition or a list of them, and a container or data object
+ * matches if its metadata satisfy every condition. A condition is an operator followed by a
+ * space and a value: <code>==</code>, <code>starts</code> for a prefix, or <code>&lt;</code>,
+ * <code>&lt;=</code>, <code>&gt;</code>, <code>&gt;=</code> for a range. A value without an
+ * operator must be equal. Ranges compare numerically when their bound is a number, and as
+ * strings otherwise.
+ * </p>
+ */
+public class MetadataQuery {
+
+    public static final int DEFAULT_LIMIT = 1000;
+
+    private final List<Condition> conditions = new ArrayList<Condition>();
+    private int limit = DEFAULT_LIMIT;
+
+    public List<Condition> getConditions() {
+        return conditions;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * <p>
+     * Add the condition <code>expression</code> on the metadata item <code>key</code>.
+     * </p>
+     *
+     * @exception BadRequestException
+     *                if the expression is not valid
+     */
+    public void addCondition(String key, String expression) {
+        conditions.add(Condition.parse(key, expression));
+    }
+
+    public void fromJson(InputStream jsonIs) throws IOException {
+        try (JsonParser jp = Json.FACTORY.createJsonParser(jsonIs)) {
+            fromJson(jp);
+        }
+    }
+
+    /**
+     * <p>
+     * Read a query from <code>jp</code>.
+     * </p>
+     */
+    public void fromJson(JsonParser jp) throws IOException {
+        if (jp.nextToken() != JsonToken.START_OBJECT) {
+            throw new BadRequestException("Expected a JSON object");
+        }
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            String key = jp.getCurrentName();
+            JsonToken token = jp.nextToken();
+            if ("metadata".equals(key) && token == JsonToken.START_OBJECT) {
+                while (jp.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = jp.getCurrentName();
+                    if (jp.nextToken() == JsonToken.START_ARRAY) {
+                        while (jp.nextToken() == JsonToken.VALUE_STRING) {
+                            addCondition(name, jp.getText());
+                        }
+                        if (jp.getCurrentToken() != JsonToken.END_ARRAY) {
+                            throw new BadRequestException("Invalid condition on " + name);
+                        }
+                    } else if (jp.getCurrentToken() == JsonToken.VALUE_STRING) {
+                        addCondition(name, jp.getText());
+                    } else {
+                        throw new BadRequestException("Invalid condition on " + name);
+                    }
+                }
+            } else if ("limit".equals(key) && token == JsonToken.VALUE_NUMBER_INT) {
+                limit = jp.getIntValue();
+                if (limit <= 0) {
+                    throw new BadRequestException("Invalid limit : " + limit);
+                }
+            } else {
+                throw new BadRequestException("Invalid Key : " + key);
+            }
+        }
+        if (conditions.isEmpty()) {
+            throw new BadRequestException("A query needs at least one metadata condition");
+        }
+    }
+
+    /**
+     * <p>
+     * A condition on the value of one metadata item.
+     * </p>
+     */
+    public static class Condition {
+
+        /**
+         * <p>
+         * The comparison made by a condition.
+         * </p>
+         */
+        public enum Operator {
+            EQUALS("=="), STARTS("starts"), LESS("<"), LESS_OR_EQUAL("<="), GREATER(">"),
+            GREATER_OR_EQUAL(">=");
+
+            private final String symbol;
+
+            Operator(String symbol) {
+                this.symbol = symbol;
+            }
+
+            public String getSymbol() {
+                return symbol;
+            }
+        }
+
+        private final String key;
+        private final Operator operator;
+        private final String value;
+        private final BigDecimal number;
+
+        public Condition(String key, Operator operator, String value) {
+            this.key = key;
+            this.operator = operator;
+            this.value = value;
+            this.number = toNumber(value);
+        }
+
+        /**
+         * <p>
+         * Parse a condition such as <code>&gt;= 10</code> on the metadata item <code>key</code>.
+         * </p>
+         *
+         * @exception BadRequestException
+         *                if the expression is not valid
+         */
+        public static Condition parse(String key, String expression) {
+            if (key == null || key.isEmpty() || expression == null) {
+                throw new BadRequestException("Invalid condition on " + key);
+            }
+            int space = expression.indexOf(' ');
+            if (space > 0) {
+                String symbol = expression.substring(0, space);
+                for (Operator operator : Operator.values()) {
+                    if (operator.symbol.equals(symbol)) {
+                        return new Condition(key, operator, expression.substring(space + 1));
+                    }
+                }
+            }
+            return new Condition(key, Operator.EQUALS, expression);
+        }
+
+        /**
+         * <p>
+         * Return the value as a number, or <code>null</code> if it is not one.
+         * </p>
+         */
+        public static BigDecimal toNumber(String value) {
+            int length = value.length();
+            if (length == 0 || length > 64) {
+                return null;
+            }
+            char first = value.charAt(0);
+            if (!(first == '-' || first == '+' || first == '.' || (first >= '0' && first <= '9'))) {
+                return null;
+            }
+            try {
+                return new BigDecimal(value);
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public Operator getOperator() {
+            return operator;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * <p>
+         * Return the value as a number if the condition compares numbers, otherwise
+         * <code>null</code>.
+         * </p>
+         */
+        public BigDecimal getNumber() {
+            return operator == Operator.EQUALS || operator == Operator.STARTS ? null : number;
+        }
+
+        /**
+         * <p>
+         * Return <code>true</code> if <code>candidate</code>, the value of the metadata item,
+         * satisfies this condition.
+         * </p>
+         */
+        public boolean matches(String candidate) {
+            if (candidate == null) {
+                return false;
+            }
+            int comparison;
+            switch (operator) {
+            case EQUALS:
+                return value.equals(candidate);
+            case STARTS:
+                return candidate.startsWith(value);
+            default:
+                if (getNumber() != null) {
+                    BigDecimal candidateNumber = toNumber(candidate);
+                    if (candidateNumber == null) {
+                        return false;
+                    }
+                    comparison = candidateNumber.compareTo(number);
+                } else {
+                    comparison = candidate.compareTo(value);
+                }
+            }
+            switch (operator) {
+            case LESS:
+                return comparison < 0;
+            case LESS_OR_EQUAL:
+                return comparison <= 0;
+            case GREATER:
+                return comparison > 0;
+            default:
+                return comparison >= 0;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return key + " " + operator.symbol + " " + value;
+        }
+    }
+}
@@ -1,43 +1,337 @@
 /*
  * Copyright (c) 2010, Sun Microsystems, Inc.
  * Copyright (c) 2010, The Storage Networking Industry Association.
- *  
- * Redistribution and use in source and binary forms, with or without 
+ *
+ * Redistribution and use in source and binary forms, with or without
  * modification, are permitted provided that the following conditions are met:
- *  
- * Redistributions of source code must retain the above copyright notice, 
+ *
+ * Redistributions of source code must retain the above copyright notice,
  * this list of conditions and the following disclaimer.
- *  
- * Redistributions in binary form must reproduce the above copyright notice, 
- * this list of conditions and the following disclaimer in the documentation 
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
  * and/or other materials provided with the distribution.
- *  
- * Neither the name of The Storage Networking Industry Association (SNIA) nor 
- * the names of its contributors may be used to endorse or promote products 
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
  * derived from this software without specific prior written permission.
- *  
- *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
- *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
- *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
- *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE 
- *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
- *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
- *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
- *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
- *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
- *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF 
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
  *  THE POSSIBILITY OF SUCH DAMAGE.
  */
-
 package org.snia.cdmiserver.model;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.snia.cdmiserver.exception.BadRequestException;
+import org.snia.cdmiserver.util.BinaryJson;
+import org.snia.cdmiserver.util.Json;
+
 /**
  * <p>
  * Representation of a CDMI <em>Queue</em>.
  * </p>
+ *
+ * <p>
+ * Values are enqueued in order and read oldest first. <code>queueValues</code> gives the
+ * sequence numbers of the values still in the queue, e.g. "3-7"; deleting values acknowledges
+ * the oldest ones. The <code>value</code>, <code>mimetype</code>, <code>valuerange</code> and
+ * <code>valuetransferencoding</code> fields are arrays with one element per value.
+ * </p>
  */
 public class Queue {
 
-    // FIXME - flesh out fields and getter/setter pairs
+    public static final String OBJECT_TYPE = "application/cdmi-queue";
+
+    // Queue creation fields
+    private Map<String, String> metadata = new HashMap<String, String>();
+    private List<byte[]> value = new ArrayList<byte[]>();
+    private List<String> mimetype = new ArrayList<String>();
+    private List<String> valuetransferencoding = new ArrayList<String>();
+    // Queue representation fields
+    private String objectType;
+    private String objectID;
+    private String parentURI;
+    private String capabilitiesURI;
+    private String completionStatus;
+    private String queueValues;
+
+    public Map<String, String> getMetadata() {
+        return metadata;
+    }
+
+    public void setMetadata(String key, String val) {
+        metadata.put(key, val);
+    }
+
+    public List<byte[]> getValue() {
+        return value;
+    }
+
+    public List<String> getMimetype() {
+        return mimetype;
+    }
+
+    public List<String> getValuetransferencoding() {
+        return valuetransferencoding;
+    }
+
+    public String getObjectType() {
+        return objectType;
+    }
+
+    public void setObjectType(String objectType) {
+        this.objectType = objectType;
+    }
+
+    public String getObjectID() {
+        return objectID;
+    }
+
+    public void setObjectID(String objectID) {
+        this.objectID = objectID;
+    }
+
+    public String getParentURI() {
+        return parentURI;
+    }
+
+    public void setParentURI(String parentURI) {
+        this.parentURI = parentURI;
+    }
+
+    public String getCapabilitiesURI() {
+        return capabilitiesURI;
+    }
+
+    public void setCapabilitiesURI(String capabilitiesURI) {
+        this.capabilitiesURI = capabilitiesURI;
+    }
+
+    public String getCompletionStatus() {
+        return completionStatus;
+    }
+
+    public void setCompletionStatus(String completionStatus) {
+        this.completionStatus = completionStatus;
+    }
+
+    public String getQueueValues() {
+        return queueValues;
+    }
+
+    public void setQueueValues(String queueValues) {
+        this.queueValues = queueValues;
+    }
+
+    /**
+     * <p>
+     * Add a value to be enqueued or returned.
+     * </p>
+     */
+    public void addValue(byte[] bytes, String type) {
+        value.add(bytes);
+        mimetype.add(type);
+    }
+
+    /**
+     * <p>
+     * Return the mimetype of the value at <code>index</code>, defaulting to "text/plain".
+     * </p>
+     */
+    public String getMimetype(int index) {
+        return index < mimetype.size() && mimetype.get(index) != null
+                ? mimetype.get(index) : "text/plain";
+    }
+
+    /**
+     * <p>
+     * Write the CDMI representation of the queue, with the values it holds, to
+     * <code>g</code>.
+     * </p>
+     */
+    public void writeJson(JsonGenerator g) throws IOException {
+        g.writeStartObject();
+        g.writeStringField("objectType", OBJECT_TYPE);
+        if (objectID != null)
+            g.writeStringField("objectID", objectID);
+        if (parentURI != null)
+            g.writeStringField("parentURI", parentURI);
+        if (capabilitiesURI != null)
+            g.writeStringField("capabilitiesURI", capabilitiesURI);
+        if (completionStatus != null)
+            g.writeStringField("completionStatus", completionStatus);
+        writeMetadata(g);
+        if (queueValues != null)
+            g.writeStringField("queueValues", queueValues);
+        if (!value.isEmpty()) {
+            List<String> encodings = new ArrayList<String>(value.size());
+            g.writeArrayFieldStart("mimetype");
+            for (int i = 0; i < value.size(); i++) {
+                g.writeString(getMimetype(i));
+                encodings.add(DataObject.transferEncodingFor(value.get(i), null));
+            }
+            g.writeEndArray();
+            g.writeArrayFieldStart("valuerange");
+            for (byte[] bytes : value) {
+                g.writeString(bytes.length == 0 ? "" : "0-" + (bytes.length - 1));
+            }
+            g.writeEndArray();
+            g.writeArrayFieldStart("valuetransferencoding");
+            for (String encoding : encodings) {
+                g.writeString(encoding);
+            }
+            g.writeEndArray();
+            g.writeArrayFieldStart("value");
+            for (int i = 0; i < value.size(); i++) {
+                if (DataObject.BASE64_ENCODING.equals(encodings.get(i))) {
+                    g.writeBinary(value.get(i));
+                } else {
+                    g.writeString(new String(value.get(i), StandardCharsets.UTF_8));
+                }
+            }
+            g.writeEndArray();
+        }
+        g.writeEndObject();
+    }
+
+    /**
+     * <p>
+     * Write the fields persisted for the queue, which leave out its values, to <code>g</code>.
+     * </p>
+     */
+    public void writeMetadataJson(JsonGenerator g) throws IOException {
+        g.writeStartObject();
+        g.writeStringField("objectType", OBJECT_TYPE);
+        if (capabilitiesURI != null)
+            g.writeStringField("capabilitiesURI", capabilitiesURI);
+        if (objectID != null)
+            g.writeStringField("objectID", objectID);
+        writeMetadata(g);
+        g.writeEndObject();
+    }
+
+    public void fromJson(InputStream jsonIs, boolean fromFile) throws IOException {
+        try (JsonParser jp = Json.FACTORY.createJsonParser(jsonIs)) {
+            fromJson(jp, fromFile);
+        }
+    }
+
+    /**
+     * <p>
+     * Read persisted fields, as JSON text or {@link BinaryJson}, if <code>fromFile</code> is set,
+     * and a request body otherwise.
+     * </p>
+     */
+    public void fromJson(byte[] jsonBytes, boolean fromFile) throws IOException {
+        try (JsonParser jp = fromFile ? BinaryJson.createParser(jsonBytes)
+                                      : Json.FACTORY.createJsonParser(jsonBytes)) {
+            fromJson(jp, fromFile);
+        }
+    }
+
+    /**
+     * <p>
+     * Read the fields of a queue from <code>jp</code>. A request may hold metadata and values
+     * to enqueue, each of <code>value</code>, <code>mimetype</code> and
+     * <code>valuetransferencoding</code> being a string or an array of strings.
+     * </p>
+     */
+    public void fromJson(JsonParser jp, boolean fromFile) throws IOException {
+        if (jp.nextToken() != JsonToken.START_OBJECT) {
+            throw new BadRequestException("Expected a JSON object");
+        }
+        List<String> encodedValues = new ArrayList<String>();
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            String key = jp.getCurrentName();
+            JsonToken token = jp.nextToken();
+            if ("metadata".equals(key) && token == JsonToken.START_OBJECT) {
+                while (jp.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = jp.getCurrentName();
+                    jp.nextToken();
+                    metadata.put(name, jp.getText());
+                }
+            } else if ("value".equals(key)) {
+                readStrings(jp, key, encodedValues);
+            } else if ("mimetype".equals(key)) {
+                readStrings(jp, key, mimetype);
+            } else if ("valuetransferencoding".equals(key)) {
+                readStrings(jp, key, valuetransferencoding);
+                for (String encoding : valuetransferencoding) {
+                    if (!DataObject.UTF_8_ENCODING.equals(encoding)
+                        && !DataObject.BASE64_ENCODING.equals(encoding)) {
+                        throw new BadRequestException("Invalid valuetransferencoding : "
+                                                      + encoding);
+                    }
+                }
+            } else if (fromFile && "objectType".equals(key)) {
+                objectType = jp.getText();
+            } else if (fromFile && "capabilitiesURI".equals(key)) {
+                capabilitiesURI = jp.getText();
+            } else if (fromFile && "objectID".equals(key)) {
+                objectID = jp.getText();
+            } else {
+                throw new BadRequestException("Invalid Key : " + key);
+            }
+        }
+        if (mimetype.size() > encodedValues.size()
+            || valuetransferencoding.size() > encodedValues.size()) {
+            throw new BadRequestException("More mimetypes or encodings than values");
+        }
+        for (int i = 0; i < encodedValues.size(); i++) {
+            String encoding = i < valuetransferencoding.size()
+                    ? valuetransferencoding.get(i) : DataObject.UTF_8_ENCODING;
+            value.add(DataObject.decodeValue(encodedValues.get(i), encoding));
+        }
+    }
+
+    // --------------------------------------------------------- Private Methods
+
+    private void writeMetadata(JsonGenerator g) throws IOException {
+        g.writeObjectFieldStart("metadata");
+        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+            g.writeStringField(entry.getKey(), entry.getValue());
+        }
+        g.writeEndObject();
+    }
 
+    /**
+     * <p>
+     * Read a string or an array of strings into <code>strings</code>.
+     * </p>
+     */
+    private static void readStrings(JsonParser jp, String key, List<String> strings)
+            throws IOException {
+        if (jp.getCurrentToken() == JsonToken.VALUE_STRING) {
+            strings.add(jp.getText());
+            return;
+        }
+        if (jp.getCurrentToken() == JsonToken.START_ARRAY) {
+            while (jp.nextToken() == JsonToken.VALUE_STRING) {
+                strings.add(jp.getText());
+            }
+            if (jp.getCurrentToken() == JsonToken.END_ARRAY) {
+                return;
+            }
+        }
+        throw new BadRequestException("Invalid " + key + " : expected a string or an array");
+    }
 }
@@ -33,84 +33,45 @@ package org.snia.cdmiserver.provider;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
 
-import org.codehaus.jettison.json.JSONArray;
-import org.codehaus.jettison.json.JSONException;
-import org.codehaus.jettison.json.JSONObject;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.codehaus.jackson.JsonParser;
+import org.snia.cdmiserver.util.Json;
 
 /**
  * <p>
  * Convenience base class for providers performing JSON reading.
  * </p>
+ *
+ * <p>
+ * Request bodies are parsed once, straight from the input stream through the shared
+ * {@link Json#FACTORY}, so only the parser's buffers and the resulting model are held in memory.
+ * </p>
  */
 public abstract class AbstractProvider {
 
-    protected List<String> convertArray(JSONArray entity) throws IOException {
-        List<String> list = new ArrayList<String>();
-        for (int i = 0; i < entity.length(); i++) {
-            try {
-                list.add(entity.getString(i));
-            } catch (JSONException e) {
-                throw new IOException(e);
-            }
-        }
-        return list;
-    }
-
-    protected Map<String, Object> convertHash(JSONObject entity) throws IOException {
-        Map<String, Object> map = new HashMap<String, Object>();
-        Iterator names = entity.keys();
-        while (names.hasNext()) {
-            String name = (String) names.next();
-            try {
-                JSONObject value = entity.getJSONObject(name);
-                if (value.length() > 0) {
-                    map.put(name, convertHash(value));
-                } else {
-                    map.put(name, value.get(name));
-                }
-            } catch (JSONException e) {
-                throw new IOException(e);
-            }
-        }
-        return map;
-    }
-
-    protected JSONObject convertJSON(InputStream in) throws IOException {
-        StringBuilder sb = new StringBuilder();
-        InputStreamReader reader = new InputStreamReader(in);
-        while (true) {
-            int ch = reader.read();
-            if (ch < 0) {
-                break;
-            }
-            sb.append((char) ch);
-        }
-        try {
-            return new JSONObject(sb.toString());
-        } catch (JSONException e) {
-            throw new IOException(e);
-        }
+    /**
+     * <p>
+     * Return a parser reading the request body <code>in</code>.
+     * </p>
+     */
+    protected JsonParser createParser(InputStream in) throws IOException {
+        return Json.FACTORY.createJsonParser(in);
     }
 
-    protected Map<String, String> convertMap(JSONObject entity) throws IOException {
-        Map<String, String> map = new HashMap<String, String>();
-        Iterator names = entity.keys();
-        while (names.hasNext()) {
-            String name = (String) names.next();
-            try {
-                map.put(name, entity.getString(name));
-            } catch (JSONException e) {
-                throw new IOException(e);
-            }
-        }
-        return map;
+    /**
+     * <p>
+     * Return the exception reporting a request body that cannot be read. It carries its own 400
+     * response, so that the status does not depend on how the runtime treats other exceptions
+     * raised while reading an entity.
+     * </p>
+     */
+    protected WebApplicationException badRequest(String message, Throwable cause) {
+        return new WebApplicationException(cause, Response.status(Response.Status.BAD_REQUEST)
+                .type(MediaType.TEXT_PLAIN_TYPE).entity(message).build());
     }
 
 }
@@ -38,7 +38,6 @@ import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Type;
-import java.util.Map;
 
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
@@ -46,8 +45,11 @@ import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.ext.MessageBodyReader;
 import javax.ws.rs.ext.MessageBodyWriter;
 
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonProcessingException;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
+import org.snia.cdmiserver.exception.BadRequestException;
 import org.snia.cdmiserver.model.Capability;
 
 /**
@@ -79,16 +81,15 @@ public class CapabilityProvider extends AbstractProvider
             MediaType mediaType,
             MultivaluedMap<String, String> headers,
             InputStream in) throws IOException, WebApplicationException {
-        JSONObject entity = convertJSON(in);
-        Capability capabilty = new Capability();
-        try {
-            Map<String, String> metadata = convertMap(entity.getJSONObject("capabilities"));
-            capabilty.getMetadata().putAll(metadata);
-
-        } catch (JSONException e) {
-            throw new IOException(e);
+        Capability capability = new Capability();
+        try (JsonParser jp = createParser(in)) {
+            capability.fromJson(jp);
+        } catch (JsonProcessingException e) {
+            throw badRequest("Invalid JSON : " + e.getMessage(), e);
+        } catch (BadRequestException e) {
+            throw badRequest(e.getMessage(), e);
         }
-        throw new UnsupportedOperationException("Not supported yet.");
+        return capability;
     }
 
     // ----------------------------------------------- MessageBodyWriter Methods
@@ -34,32 +34,42 @@ package org.snia.cdmiserver.provider;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Type;
-import java.util.Map;
 
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.UriInfo;
 import javax.ws.rs.ext.MessageBodyReader;
 import javax.ws.rs.ext.MessageBodyWriter;
 
-import org.codehaus.jettison.json.JSONException;
-import org.codehaus.jettison.json.JSONObject;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonProcessingException;
+import org.snia.cdmiserver.exception.BadRequestException;
 import org.snia.cdmiserver.model.Container;
+import org.snia.cdmiserver.util.Json;
 
 /**
  * <p>
  * JSON Serialization/Deserialization for {@link Container} instances.
  * </p>
+ *
+ * <p>
+ * Representations are streamed to the response through the shared {@link Json#FACTORY},
+ * compact unless the request query contains a <code>pretty</code> field.
+ * </p>
  * 
  * @author craigmcc
  */
 public class ContainerProvider extends AbstractProvider
         implements MessageBodyReader<Container>, MessageBodyWriter<Container> {
 
+    @Context
+    private UriInfo uriInfo;
+
     // ----------------------------------------------- MessageBodyReader Methods
 
     @Override
@@ -79,26 +89,15 @@ public class ContainerProvider extends AbstractProvider
             MediaType mediaType,
             MultivaluedMap<String, String> headers,
             InputStream in) throws IOException, WebApplicationException {
-        JSONObject entity = convertJSON(in);
         Container container = new Container();
-        try {
-            Map<String, String> metadata = convertMap(entity.getJSONObject("metadata"));
-            container.getMetadata().putAll(metadata);
-            Map<String, Object> exports = convertHash(entity.getJSONObject("exports"));
-            container.getExports().putAll(exports);
-            if (entity.has("copy")) {
-                container.setCopy(entity.getString("copy"));
-            }
-            if (entity.has("move")) {
-                container.setMove(entity.getString("move"));
-            }
-            if (entity.has("reference")) {
-                container.setReference(entity.getString("reference"));
-            }
-        } catch (JSONException e) {
-            throw new IOException(e);
+        try (JsonParser jp = createParser(in)) {
+            container.fromJson(jp, false);
+        } catch (JsonProcessingException e) {
+            throw badRequest("Invalid JSON : " + e.getMessage(), e);
+        } catch (BadRequestException e) {
+            throw badRequest(e.getMessage(), e);
         }
-        throw new UnsupportedOperationException("Not supported yet.");
+        return container;
     }
 
     // ----------------------------------------------- MessageBodyWriter Methods
@@ -131,47 +130,15 @@ public class ContainerProvider extends AbstractProvider
             MediaType mediaType,
             MultivaluedMap<String, Object> headers,
             OutputStream out) throws IOException, WebApplicationException {
-        JSONObject entity = new JSONObject();
-        try {
-            Writer writer = new OutputStreamWriter(out);
-            if (container.getObjectURI() != null) {
-                entity.put("objectURI", container.getObjectURI());
-            }
-            if (container.getObjectID() != null) {
-                entity.put("objectID", container.getObjectID());
-            }
-            if (container.getParentURI() != null) {
-                entity.put("parentURI", container.getParentURI());
-            }
-            if (container.getDomainURI() != null) {
-                entity.put("domainURI", container.getDomainURI());
-            }
-            if (container.getCapabilitiesURI() != null) {
-                entity.put("capabilitiesURI", container.getCapabilitiesURI());
-            }
-            if (container.getCompletionStatus() != null) {
-                entity.put("completionStatus", container.getCompletionStatus());
-            }
-            if (container.getPercentComplete() != null) {
-                entity.put("percentComplete", container.getPercentComplete());
-            }
-            if (container.getMetadata().size() > 0) {
-                entity.put("metadata", container.getMetadata());
-            }
-            if (container.getExports().size() > 0) {
-                entity.put("exports", container.getExports());
-            }
-            if (container.getChildrenrange() != null) {
-                entity.put("childrenrange", container.getChildrenrange());
-            }
-            if (container.getChildren().size() > 0) {
-                entity.put("children", container.getChildren());
-            }
-            entity.write(writer);
-            writer.flush();
-        } catch (JSONException e) {
-            throw new IOException(e);
+        try (JsonGenerator g = Json.createGenerator(out, isPrettyPrinted())) {
+            container.writeJson(g, false);
         }
     }
 
+    // --------------------------------------------------------- Private Methods
+
+    private boolean isPrettyPrinted() {
+        return uriInfo != null && Json.isPrettyPrinted(uriInfo.getRequestUri().getRawQuery());
+    }
+
 }
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *  
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *  
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer.
+ *  
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ *  
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor 
+ * the names of its contributors may be used to endorse or promote products 
+ * derived from this software without specific prior written permission.
+ *  
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE 
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF 
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.snia.cdmiserver.provider;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonProcessingException;
+import org.snia.cdmiserver.exception.BadRequestException;
+import org.snia.cdmiserver.model.Queue;
+import org.snia.cdmiserver.util.Json;
+
+/**
+ * <p>
+ * JSON Serialization/Deserialization for {@link Queue} instances.
+ * </p>
+ *
+ * <p>
+ * Representations are streamed to the response through the shared {@link Json#FACTORY},
+ * compact unless the request query contains a <code>pretty</code> field.
+ * </p>
+ */
+public class QueueProvider extends AbstractProvider
+        implements MessageBodyReader<Queue>, MessageBodyWriter<Queue> {
+
+    @Context
+    private UriInfo uriInfo;
+
+    // ----------------------------------------------- MessageBodyReader Methods
+
+    @Override
+    public boolean isReadable(
+            Class<?> clazz,
+            Type type,
+            Annotation[] annotations,
+            MediaType mediaType) {
+        return Queue.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public Queue readFrom(
+            Class<Queue> clazz,
+            Type type,
+            Annotation[] annotations,
+            MediaType mediaType,
+            MultivaluedMap<String, String> headers,
+            InputStream in) throws IOException, WebApplicationException {
+        Queue queue = new Queue();
+        try (JsonParser jp = createParser(in)) {
+            queue.fromJson(jp, false);
+        } catch (JsonProcessingException e) {
+            throw badRequest("Invalid JSON : " + e.getMessage(), e);
+        } catch (BadRequestException e) {
+            throw badRequest(e.getMessage(), e);
+        }
+        return queue;
+    }
+
+    // ----------------------------------------------- MessageBodyWriter Methods
+
+    @Override
+    public boolean isWriteable(
+            Class<?> clazz,
+            Type type,
+            Annotation[] annotations,
+            MediaType mediaType) {
+        return Queue.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public long getSize(
+            Queue entity,
+            Class<?> clazz,
+            Type type,
+            Annotation[] annotations,
+            MediaType mediaTYpe) {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(
+            Queue queue,
+            Class<?> clazz,
+            Type type,
+            Annotation[] annotations,
+            MediaType mediaType,
+            MultivaluedMap<String, Object> headers,
+            OutputStream out) throws IOException, WebApplicationException {
+        try (JsonGenerator g = Json.createGenerator(out, isPrettyPrinted())) {
+            queue.writeJson(g);
+        }
+    }
+
+    // --------------------------------------------------------- Private Methods
+
+    private boolean isPrettyPrinted() {
+        return uriInfo != null && Json.isPrettyPrinted(uriInfo.getRequestUri().getRawQuery());
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.resource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.snia.cdmiserver.dao.ChangeDao;
+import org.snia.cdmiserver.exception.BadRequestException;
+import org.snia.cdmiserver.model.Change;
+import org.snia.cdmiserver.util.ByteRange;
+import org.snia.cdmiserver.util.Json;
+import org.snia.cdmiserver.util.MediaTypes;
+
+/**
+ * <p>
+ * Long poll for the changes made to containers and data objects. A GET of
+ * <code>/cdmi_changes?since:&lt;sequence&gt;</code> returns the changes from that sequence
+ * number on, waiting up to <code>wait:&lt;seconds&gt;</code> for the first one, e.g.
+ * </p>
+ *
+ * <pre>
+ * { "feedID" : "...", "since" : 40, "next" : 42,
+ *   "changes" : [ { "sequence" : 40, ... }, { "sequence" : 41, ... } ] }
+ * </pre>
+ *
+ * <p>
+ * Clients ask for <code>next</code> in their following request. Without <code>since</code>
+ * only changes made from now on are returned. A <code>missed</code> field counts the changes
+ * that are no longer kept, and a different <code>feedID</code> means that the server has
+ * restarted; either way, the client should rescan.
+ * </p>
+ */
+
+@Path("/cdmi_changes")
+public class ChangeResource {
+    private static final Logger LOG = LoggerFactory.getLogger(ChangeResource.class);
+
+    public static final int DEFAULT_LIMIT = 1000;
+    public static final int MAX_LIMIT = 10000;
+    public static final long DEFAULT_WAIT = 30;
+    public static final long MAX_WAIT = 300;
+
+    /**
+     * <p>
+     * Injected information about the current request.
+     * </p>
+     */
+    @Context
+    UriInfo uriInfo;
+
+    private ChangeDao changeDao;
+
+    /**
+     * <p>
+     * Injected {@link ChangeDao} instance.
+     * </p>
+     */
+    public void setChangeDao(ChangeDao changeDao) {
+        this.changeDao = changeDao;
+    }
+
+    /**
+     * <p>
+     * Return the changes from <code>?since:&lt;sequence&gt;</code> on, at most
+     * <code>limit:&lt;count&gt;</code> of them, waiting up to <code>wait:&lt;seconds&gt;</code>
+     * for the first one.
+     * </p>
+     */
+    @GET
+    @Produces(MediaTypes.JSON)
+    public Response getChanges() {
+        if (changeDao == null) {
+            throw new UnsupportedOperationException("ChangeResource.getChanges()");
+        }
+        String query = uriInfo == null ? null : uriInfo.getRequestUri().getRawQuery();
+        String sinceField = ByteRange.findQueryRange(query, "since");
+        long since = sinceField == null
+                ? changeDao.getSequence() : parse("since", sinceField, Long.MAX_VALUE);
+        int limit = (int) parse("limit", ByteRange.findQueryRange(query, "limit"), MAX_LIMIT,
+                DEFAULT_LIMIT);
+        long wait = parse("wait", ByteRange.findQueryRange(query, "wait"), MAX_WAIT,
+                DEFAULT_WAIT);
+        LOG.trace("In ChangeResource.getChanges, since {} limit {} wait {}", since, limit, wait);
+
+        List<Change> changes = new ArrayList<Change>();
+        long next = changeDao.findChanges(since, limit, TimeUnit.SECONDS.toMillis(wait), changes);
+        long first = changes.isEmpty() ? next : changes.get(0).getSequence();
+        String feedID = changeDao.getFeedID();
+        boolean pretty = Json.isPrettyPrinted(query);
+        StreamingOutput output = out -> {
+            try (JsonGenerator g = Json.createGenerator(out, pretty)) {
+                g.writeStartObject();
+                g.writeStringField("feedID", feedID);
+                g.writeNumberField("since", since);
+                g.writeNumberField("next", next);
+                if (first > since) {
+                    g.writeNumberField("missed", first - since);
+                }
+                g.writeArrayFieldStart("changes");
+                for (Change change : changes) {
+                    change.writeJson(g);
+                }
+                g.writeEndArray();
+                g.writeEndObject();
+            }
+        };
+        return Response.ok(output).type(MediaTypes.JSON).header(
+                "X-CDMI-Specification-Version", "1.0.2").build();
+    }
+
+    private static long parse(String name, String field, long max, long defaultValue) {
+        return field == null ? defaultValue : parse(name, field, max);
+    }
+
+    private static long parse(String name, String field, long max) {
+        try {
+            long parsed = Long.parseLong(field);
+            if (parsed >= 0) {
+                return Math.min(parsed, max);
+            }
+        } catch (NumberFormatException ex) {
+            // reported below
+        }
+        throw new BadRequestException("Invalid " + name + " '" + field + "'");
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.resource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import org.snia.cdmiserver.util.ByteRange;
+
+/**
+ * <p>
+ * Streams several ranges of a data object value as a <code>multipart/byteranges</code> response
+ * body, reading each range with positional I/O on the value channel.
+ * </p>
+ *
+ * <p>
+ * The channel is closed once all the ranges have been written.
+ * </p>
+ */
+public class MultipartRangesOutput implements StreamingOutput {
+
+    private final SeekableByteChannel channel;
+    private final List<ByteRange> ranges;
+    private final String contentType;
+    private final long size;
+    private final String boundary = UUID.randomUUID().toString();
+
+    /**
+     * @param channel
+     *            Open channel on the value
+     * @param ranges
+     *            Satisfiable ranges to send, in request order
+     * @param contentType
+     *            Media type of the value
+     */
+    public MultipartRangesOutput(SeekableByteChannel channel, List<ByteRange> ranges,
+            String contentType) throws IOException {
+        this.channel = channel;
+        this.ranges = ranges;
+        this.contentType = contentType;
+        this.size = channel.size();
+    }
+
+    /**
+     * <p>
+     * Return the media type of the response body, including the part boundary.
+     * </p>
+     */
+    public String getMediaType() {
+        return "multipart/byteranges; boundary=" + boundary;
+    }
+
+    @Override
+    public void write(OutputStream out) throws IOException {
+        try {
+            WritableByteChannel target = Channels.newChannel(out);
+            for (ByteRange range : ranges) {
+                StringBuilder part = new StringBuilder();
+                part.append("\r\n--").append(boundary).append("\r\n");
+                if (contentType != null) {
+                    part.append("Content-Type: ").append(contentType).append("\r\n");
+                }
+                part.append("Content-Range: ").append(range.toContentRange(size)).append("\r\n");
+                part.append("\r\n");
+                out.write(part.toString().getBytes(StandardCharsets.US_ASCII));
+                ValueStreamingOutput.transfer(channel, range.getFirst(), range.getLength(), target);
+            }
+            out.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
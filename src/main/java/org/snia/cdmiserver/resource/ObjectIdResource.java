@@ -31,10 +31,13 @@
 
 package org.snia.cdmiserver.resource;
 
+import java.io.InputStream;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
@@ -44,8 +47,12 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
 
+import org.snia.cdmiserver.dao.ContainerDao;
 import org.snia.cdmiserver.dao.DataObjectDao;
+import org.snia.cdmiserver.dao.QueueDao;
+import org.snia.cdmiserver.model.Container;
 import org.snia.cdmiserver.model.DataObject;
 import org.snia.cdmiserver.util.MediaTypes;
 
@@ -60,6 +67,25 @@ import org.snia.cdmiserver.util.MediaTypes;
 public class ObjectIdResource {
     private static final Logger LOG = LoggerFactory.getLogger(ObjectIdResource.class);
 
+    /**
+     * <p>
+     * Injected information about the current request.
+     * </p>
+     */
+    @Context
+    UriInfo uriInfo;
+
+    private ContainerDao containerDao;
+
+    /**
+     * <p>
+     * Injected {@link ContainerDao} instance.
+     * </p>
+     */
+    public void setContainerDao(ContainerDao containerDao) {
+        this.containerDao = containerDao;
+    }
+
     private DataObjectDao dObjDao;// = new DataObjectDaoImpl();
 
     //
@@ -67,6 +93,17 @@ public class ObjectIdResource {
         this.dObjDao = dataObjectDao;
     }
 
+    private QueueDao queueDao;
+
+    /**
+     * <p>
+     * Injected {@link QueueDao} instance.
+     * </p>
+     */
+    public void setQueueDao(QueueDao queueDao) {
+        this.queueDao = queueDao;
+    }
+
     /**
      * <p>
      * [7.5.8] Get Container By Object Id
@@ -75,14 +112,20 @@ public class ObjectIdResource {
      * @param objectId
      *            Object ID of the requested {@link Container}
      */
+    @GET
+    @Consumes(MediaTypes.CONTAINER)
+    @Produces(MediaTypes.CONTAINER)
+    public Response getContainer(
+            @PathParam("objectId") String objectId,
+            @Context HttpHeaders headers) {
+        LOG.debug("Get Container ID = {}", objectId);
 
-
-    /*
-     * @GET
-     *
-     * @Produces(MediaTypes.CONTAINER) public Response getContainer(@PathParam("objectId") String
-     * objectId) { throw new UnsupportedOperationException("ObjectIdResource.getContainer()"); }
-     */
+        String path = containerDao.findPathByObjectId(objectId);
+        if (path == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return pathResource().getContainerOrDataObject(path, headers);
+    }
 
     /**
      * <p>
@@ -106,9 +149,11 @@ public class ObjectIdResource {
         }
         LOG.debug("Get Object ID = {}", objectId);
 
-        String path = "object_id/" + objectId;
-        PathResource pathResource = new PathResource();
-        return pathResource.getContainerOrDataObject(path,headers);
+        String path = containerDao.findPathByObjectId(objectId);
+        if (path == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return pathResource().getContainerOrDataObject(path, headers);
     }
 
     @PUT
@@ -118,19 +163,19 @@ public class ObjectIdResource {
     public Response updateDataObject(
             @Context HttpHeaders headers,
             @PathParam("objectId") String objectId,
-            byte[] bytes) {
+            DataObject request) {
         // print headers for debug
         if (LOG.isDebugEnabled()) {
             for (String hdr : headers.getRequestHeaders().keySet()) {
                 LOG.debug("{} - {}", hdr, headers.getRequestHeader(hdr));
             }
-
-            String inBuffer = new String(bytes);
-            LOG.debug("Object Id = {} {}", objectId, inBuffer);
+            LOG.debug("Object Id = {}", objectId);
         }
-        PathResource pathResource = new PathResource();
-        String objectPath = "object_id" + "/" + objectId;
-        Response resp = pathResource.putDataObject(headers,objectPath,bytes);
+        String objectPath = containerDao.findPathByObjectId(objectId);
+        if (objectPath == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        Response resp = pathResource().putDataObject(headers,objectPath,request);
         return resp;
     }
 
@@ -141,18 +186,57 @@ public class ObjectIdResource {
     public Response createDataObject(
             @Context HttpHeaders headers,
             @PathParam("objectId") String objectId,
-            byte[] bytes) {
+            InputStream body) {
         // print headers for debug
         if (LOG.isDebugEnabled()) {
             for (String hdr : headers.getRequestHeaders().keySet()) {
                 LOG.debug("{} - {}", hdr, headers.getRequestHeader(hdr));
             }
-            String inBuffer = new String(bytes);
-            LOG.debug("Object Id = {} {}", objectId, inBuffer);
+            LOG.debug("Object Id = {}", objectId);
         }
-        PathResource pathResource = new PathResource();
-        String objectPath = "object_id" + "/" + objectId;
-        Response resp = pathResource.postDataObject(objectPath,bytes);
+        // the new data object is created in the container with this object ID
+        String objectPath = containerDao.findPathByObjectId(objectId);
+        if (objectPath == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        Response resp = pathResource().postDataObject(objectPath,
+                headers.getMediaType() == null ? null : headers.getMediaType().toString(), body);
         return resp;
-  }
+    }
+
+    /**
+     * <p>
+     * [8.8] Delete a Data Object and
+     * [9.7] Delete a Container Object by Object Id
+     * </p>
+     *
+     * @param objectId
+     *            Object ID of the container or data object to delete
+     */
+    @DELETE
+    public Response deleteDataObjectOrContainer(
+            @PathParam("objectId") String objectId) {
+        LOG.debug("Delete Object ID = {}", objectId);
+
+        String path = containerDao.findPathByObjectId(objectId);
+        if (path == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return pathResource().deleteDataObjectOrContainer(path);
+    }
+
+    /**
+     * <p>
+     * Return a {@link PathResource} sharing our DAOs and request information, to which requests
+     * are delegated once the object ID has been resolved to a path.
+     * </p>
+     */
+    private PathResource pathResource() {
+        PathResource pathResource = new PathResource();
+        pathResource.setContainerDao(containerDao);
+        pathResource.setDataObjectDao(dObjDao);
+        pathResource.setQueueDao(queueDao);
+        pathResource.uriInfo = uriInfo;
+        return pathResource;
+    }
 }
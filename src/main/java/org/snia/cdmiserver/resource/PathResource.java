@@ -34,9 +34,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
@@ -50,13 +58,21 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.UriInfo;
 
 import org.snia.cdmiserver.dao.ContainerDao;
 import org.snia.cdmiserver.dao.DataObjectDao;
+import org.snia.cdmiserver.dao.QueueDao;
+import org.snia.cdmiserver.exception.BadRequestException;
+import org.snia.cdmiserver.exception.ConflictException;
+import org.snia.cdmiserver.exception.NotFoundException;
 import org.snia.cdmiserver.model.Container;
 import org.snia.cdmiserver.model.DataObject;
+import org.snia.cdmiserver.model.Queue;
+import org.snia.cdmiserver.util.ByteRange;
 import org.snia.cdmiserver.util.MediaTypes;
 import org.snia.cdmiserver.util.ObjectID;
 
@@ -69,6 +85,22 @@ import org.snia.cdmiserver.util.ObjectID;
 public class PathResource {
     private static final Logger LOG = LoggerFactory.getLogger(PathResource.class);
 
+    private static final String RANGE = "Range";
+    private static final String CONTENT_RANGE = "Content-Range";
+    private static final String ACCEPT_RANGES = "Accept-Ranges";
+    private static final int PARTIAL_CONTENT = 206;
+    private static final int REQUEST_ENTITY_TOO_LARGE = 413;
+    private static final int REQUESTED_RANGE_NOT_SATISFIABLE = 416;
+    private static final int MAX_QUEUE_VALUES = 10000;
+
+    /**
+     * <p>
+     * Injected information about the current request.
+     * </p>
+     */
+    @Context
+    UriInfo uriInfo;
+
     //
     // Properties and Dependency Injection Methods
     //
@@ -96,13 +128,46 @@ public class PathResource {
         this.dataObjectDao = dataObjectDao;
     }
 
+    private QueueDao queueDao;
+
+    /**
+     * <p>
+     * Injected {@link QueueDao} instance.
+     * </p>
+     */
+    public void setQueueDao(
+            QueueDao queueDao) {
+        this.queueDao = queueDao;
+    }
+
+    private long maxQueueValueSize = 16 * 1024 * 1024;
+
+    /**
+     * <p>
+     * Set the largest value, in bytes, that can be posted to a queue. Larger bodies are
+     * rejected before they have been read completely.
+     * </p>
+     *
+     * @param maxQueueValueSize
+     *            The new maximum size
+     */
+    public void setMaxQueueValueSize(long maxQueueValueSize) {
+        this.maxQueueValueSize = maxQueueValueSize;
+    }
+
     //
     // Resource Methods
     //
     /**
      * <p>
-     * [8.8] Delete a Data Object and
-     * [9.7] Delete a Container Object
+     * [8.8] Delete a Data Object,
+     * [9.7] Delete a Container Object and
+     * [11.6] Delete a Queue Object
+     * </p>
+     *
+     * <p>
+     * A <code>?values:&lt;count&gt;</code> query on a queue acknowledges that many of its oldest
+     * values instead of deleting the queue.
      * </p>
      *
      * @param path
@@ -113,10 +178,26 @@ public class PathResource {
     public Response deleteDataObjectOrContainer(
             @PathParam("path") String path) {
 
+        if (isQueue(path)) {
+            String count = ByteRange.findQueryRange(getQuery(), "values");
+            if (count == null) {
+                queueDao.deleteByPath(path);
+            } else {
+                queueDao.deleteValuesByPath(path, parseCount(count));
+            }
+            return Response.ok().header(
+                    "X-CDMI-Specification-Version", "1.0.2").build();
+        }
         try {
-            containerDao.deleteByPath(path);
+            if (!containerDao.deleteByPath(path)) {
+                // a large container is still being deleted; GET reports the progress
+                return Response.status(Response.Status.ACCEPTED).header(
+                        "X-CDMI-Specification-Version", "1.0.2").build();
+            }
             return Response.ok().header(
                     "X-CDMI-Specification-Version", "1.0.2").build();
+        } catch (ConflictException ex) {
+            throw ex;
         } catch (Exception ex) {
             LOG.error("Delete error", ex);
             return Response.status(Response.Status.BAD_REQUEST).tag(
@@ -171,14 +252,17 @@ public class PathResource {
 
         // Check for container vs object
         if (containerDao.isContainer(path)) {
+          if (isQueue(path)) {
+            return getQueue(path);
+          }
           // if container build container browser page
+          ByteRange childrenRange = getChildrenRange();
           try {
-            Container container = containerDao.findByPath(path);
+            Container container = findContainer(path, childrenRange);
             if (container == null) {
               return Response.status(Response.Status.NOT_FOUND).build();
             } else {
-              String respStr = container.toJson(false);
-              return Response.ok(respStr).header(
+              return Response.ok(container).header(
                       "X-CDMI-Specification-Version", "1.0.2").build();
             }
           } catch (Exception ex) {
@@ -188,15 +272,32 @@ public class PathResource {
           }
         }
         try {
-          DataObject dObj = dataObjectDao.findByPath(path);
+          String query = getQuery();
+          DataObject dObj;
+          if (ByteRange.findValueRange(query) == null) {
+            dObj = dataObjectDao.findByPath(path);
+          } else {
+            dObj = dataObjectDao.findMetadataByPath(path);
+            if (dObj != null) {
+              // read only the requested part of the value
+              try (SeekableByteChannel channel = dataObjectDao.openValueByPath(path)) {
+                ByteRange range = ByteRange.parseValueRange(query, channel.size());
+                if (range == null) {
+                  dObj.setValue(new byte[0]);
+                } else {
+                  dObj.setValue(readRange(channel, range));
+                  dObj.setValuerange(range.toString());
+                }
+              }
+            }
+          }
           if (dObj == null) {
             return Response.status(Response.Status.NOT_FOUND).build();
           } else {
             // make http response
             // build a JSON representation
-            String respStr = dObj.toJson();
             //ResponseBuilder builder = Response.status(Response.Status.CREATED)
-            return Response.ok(respStr).header(
+            return Response.ok(dObj).header(
                     "X-CDMI-Specification-Version", "1.0.2").build();
           } // if/else
         } catch (Exception ex) {
@@ -243,10 +344,14 @@ public class PathResource {
      * the response content type must be"text/json".
      * </p>
      *
+     * <p>
+     * A <code>Range</code> header selecting one or more byte ranges of a data object value is
+     * answered with a 206 response holding only those ranges, merged where they overlap. A header
+     * with more than {@link ByteRange#MAX_RANGES} ranges is ignored.
+     * </p>
+     *
      * @param path
      *            Path to the existing data object or container
-     * @param range
-     *            Range header value (if specified), else empty string
      */
     @GET
     @Path("/{path:.+}")
@@ -256,28 +361,28 @@ public class PathResource {
 
         LOG.trace("In PathResource.getDataObjectOrContainer, path: {}", path);
 
-        boolean NonCDMI = true;
-
         // print headers for debug
-        for (String hdr : headers.getRequestHeaders().keySet()) {
-            if (hdr.equals("x-cdmi-specification-version")) {
-                NonCDMI = false;
+        if (LOG.isDebugEnabled()) {
+            for (String hdr : headers.getRequestHeaders().keySet()) {
+                LOG.debug("Hdr: {} - {}", hdr, headers.getRequestHeader(hdr));
             }
-            LOG.debug("Hdr: {} - {}", hdr, headers.getRequestHeader(hdr));
         }
-        if (path == null && NonCDMI) {
-            path = new String("/index.html");
+        if (path == null && isNonCDMI(headers)) {
+            path = "/index.html";
         }
         // Check for container vs object
         if (containerDao.isContainer(path)) {
+            if (isQueue(path)) {
+                return getQueue(path);
+            }
             // if container build container browser page
+            ByteRange childrenRange = getChildrenRange();
             try {
-                Container container = containerDao.findByPath(path);
+                Container container = findContainer(path, childrenRange);
                 if (container == null) {
                     return Response.status(Response.Status.NOT_FOUND).build();
                 } else {
-                    String respStr = container.toJson(false);
-                    return Response.ok(respStr).header(
+                    return Response.ok(container).header(
                             "X-CDMI-Specification-Version", "1.0.2").build();
                 }
             } catch (Exception ex) {
@@ -288,16 +393,21 @@ public class PathResource {
         } else {
             // if object, send out the object in it's native form
             try {
-                DataObject dObj = dataObjectDao.findByPath(path);
+                DataObject dObj = dataObjectDao.findMetadataByPath(path);
                 if (dObj == null) {
                     return Response.status(Response.Status.NOT_FOUND).build();
                 } else {
                     // make http response
-                    // build a JSON representation
-                    String respStr = dObj.getValue();// dObj.toJson();
+                    // stream the value without loading it into memory
+                    SeekableByteChannel channel = dataObjectDao.openValueByPath(path);
                     LOG.trace("MimeType = {}", dObj.getMimetype());
-                    return Response.ok(respStr).type(dObj.getMimetype()).header(
-                            "X-CDMI-Specification-Version", "1.0.2").build();
+                    try {
+                        return getValue(channel, headers, dObj.getMimetype());
+                    } catch (IOException | RuntimeException ex) {
+                        // the response did not take the channel over
+                        closeQuietly(channel);
+                        throw ex;
+                    }
                 } // if/else
             } catch (Exception ex) {
                 LOG.error("Failed to find data object", ex);
@@ -307,6 +417,228 @@ public class PathResource {
         }
     }
 
+    /**
+     * <p>
+     * Return <code>true</code> if the request has no <code>X-CDMI-Specification-Version</code>
+     * header.
+     * </p>
+     */
+    private static boolean isNonCDMI(HttpHeaders headers) {
+        List<String> version = headers.getRequestHeader("X-CDMI-Specification-Version");
+        return version == null || version.isEmpty();
+    }
+
+    /**
+     * <p>
+     * Build the response streaming a data object value, or the byte ranges of it requested by
+     * a <code>Range</code> header. The response entity closes <code>channel</code>.
+     * </p>
+     */
+    private Response getValue(SeekableByteChannel channel, HttpHeaders headers, String mimeType)
+            throws IOException {
+        List<String> rangeHeader = headers.getRequestHeader(RANGE);
+        if (rangeHeader != null && !rangeHeader.isEmpty()) {
+            Response partial = getValueRanges(channel, rangeHeader.get(0), mimeType);
+            if (partial != null) {
+                return partial;
+            }
+        }
+        ValueStreamingOutput value = new ValueStreamingOutput(channel);
+        return Response.ok(value).type(mimeType).header(
+                HttpHeaders.CONTENT_LENGTH, value.getCount()).header(
+                ACCEPT_RANGES, "bytes").header(
+                "X-CDMI-Specification-Version", "1.0.2").build();
+    }
+
+    private static void closeQuietly(SeekableByteChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            LOG.warn("Cannot close value channel: {}", ex.toString());
+        }
+    }
+
+    /**
+     * <p>
+     * Build a 206 (or 416) response for the byte ranges requested by a <code>Range</code> header.
+     * </p>
+     *
+     * @param channel
+     *            Open channel on the data object value
+     * @param rangeHeader
+     *            Value of the <code>Range</code> header
+     * @param mimeType
+     *            Media type of the data object value
+     *
+     * @return the response, or <code>null</code> if the header should be ignored and the whole
+     *         value returned
+     */
+    private Response getValueRanges(SeekableByteChannel channel, String rangeHeader,
+            String mimeType) throws IOException {
+        long size = channel.size();
+        List<ByteRange> ranges = ByteRange.parseRangeHeader(rangeHeader, size);
+        if (ranges == null) {
+            LOG.debug("Ignoring invalid Range header: {}", rangeHeader);
+            return null;
+        }
+        if (ranges.isEmpty()) {
+            channel.close();
+            return Response.status(REQUESTED_RANGE_NOT_SATISFIABLE).header(
+                    CONTENT_RANGE, "bytes */" + size).header(
+                    "X-CDMI-Specification-Version", "1.0.2").build();
+        }
+        if (ranges.size() == 1) {
+            ByteRange range = ranges.get(0);
+            return Response.status(PARTIAL_CONTENT).entity(
+                    new ValueStreamingOutput(channel, range.getFirst(), range.getLength())).type(
+                    mimeType).header(
+                    HttpHeaders.CONTENT_LENGTH, range.getLength()).header(
+                    CONTENT_RANGE, range.toContentRange(size)).header(
+                    ACCEPT_RANGES, "bytes").header(
+                    "X-CDMI-Specification-Version", "1.0.2").build();
+        }
+        MultipartRangesOutput parts = new MultipartRangesOutput(channel, ranges, mimeType);
+        return Response.status(PARTIAL_CONTENT).entity(parts).type(parts.getMediaType()).header(
+                ACCEPT_RANGES, "bytes").header(
+                "X-CDMI-Specification-Version", "1.0.2").build();
+    }
+
+    /**
+     * <p>
+     * Read the bytes of a value covered by <code>range</code>.
+     * </p>
+     */
+    private byte[] readRange(SeekableByteChannel channel, ByteRange range) throws IOException {
+        if (range.getLength() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Value range " + range + " is too large");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) range.getLength());
+        channel.position(range.getFirst());
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                break;
+            }
+        }
+        byte[] bytes = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * <p>
+     * Return the positions selected by a <code>?children:&lt;first&gt;-&lt;last&gt;</code>
+     * query, or <code>null</code> if there is none.
+     * </p>
+     *
+     * @exception BadRequestException
+     *                if the range is malformed
+     */
+    private ByteRange getChildrenRange() {
+        String childrenRange = ByteRange.findQueryRange(getQuery(), "children");
+        if (childrenRange == null) {
+            return null;
+        }
+        try {
+            return ByteRange.parse(childrenRange);
+        } catch (IllegalArgumentException ex) {
+            throw new BadRequestException("Invalid children range '" + childrenRange + "'", ex);
+        }
+    }
+
+    /**
+     * <p>
+     * Find a container, listing only the children in <code>range</code> if it is not
+     * <code>null</code>.
+     * </p>
+     */
+    private Container findContainer(String path, ByteRange range) {
+        if (range == null) {
+            return containerDao.findByPath(path);
+        }
+        return containerDao.findByPath(path, range.getFirst(), range.getLast());
+    }
+
+    /**
+     * <p>
+     * Return the raw query string of the current request, if any.
+     * </p>
+     */
+    private String getQuery() {
+        if (uriInfo == null) {
+            return null;
+        }
+        return uriInfo.getRequestUri().getRawQuery();
+    }
+
+    /**
+     * <p>
+     * Read all of <code>in</code>, or return <code>null</code> as soon as it turns out to hold
+     * more than <code>limit</code> bytes.
+     * </p>
+     */
+    private static byte[] readAll(InputStream in, long limit) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            if (out.size() + n > limit) {
+                return null;
+            }
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private boolean isQueue(String path) {
+        return queueDao.isQueue(path);
+    }
+
+    /**
+     * <p>
+     * [11.4] Read a Queue Object (CDMI Content Type). The oldest value is returned, or the
+     * oldest <code>?values:&lt;count&gt;</code>, or those whose sequence numbers are in
+     * <code>?value:&lt;first&gt;-&lt;last&gt;</code>.
+     * </p>
+     */
+    private Response getQueue(String path) {
+        String query = getQuery();
+        String count = ByteRange.findQueryRange(query, "values");
+        String valueRange = ByteRange.findValueRange(query);
+        Queue queue;
+        if (count != null) {
+            queue = queueDao.findByPath(path, (int) Math.min(parseCount(count), MAX_QUEUE_VALUES));
+        } else if (valueRange != null) {
+            ByteRange range;
+            try {
+                range = ByteRange.parse(valueRange);
+            } catch (IllegalArgumentException ex) {
+                throw new BadRequestException(ex.getMessage(), ex);
+            }
+            queue = queueDao.findByPath(path, range.getFirst(),
+                    Math.min(range.getLast(), range.getFirst() + MAX_QUEUE_VALUES - 1));
+        } else {
+            queue = queueDao.findByPath(path, 1);
+        }
+        if (queue == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return Response.ok(queue).type(MediaTypes.QUEUE).header(
+                "X-CDMI-Specification-Version", "1.0.2").build();
+    }
+
+    private static long parseCount(String count) {
+        try {
+            long parsed = Long.parseLong(count);
+            if (parsed >= 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException ex) {
+            // reported below
+        }
+        throw new BadRequestException("Invalid number of values '" + count + "'");
+    }
+
     /**
      * <p>
      * [9.2] Create a Container (CDMI Content Type) and
@@ -328,19 +660,11 @@ public class PathResource {
             @PathParam("path") String path,
             @HeaderParam("X-CDMI-NoClobber") @DefaultValue("false") String noClobber,
             @HeaderParam("X-CDMI-MustExist") @DefaultValue("false") String mustExist,
-            byte[] bytes) {
+            Container containerRequest) {
 
         LOG.trace("In PathResource.putContainer, path is: {}", path);
 
-        if (LOG.isTraceEnabled()) {
-            String inBuffer = new String(bytes);
-            LOG.trace("Request = {}", inBuffer);
-        }
-
-        Container containerRequest = new Container();
-
         try {
-            containerRequest.fromJson(bytes, false);
             Container container = containerDao.createByPath(path,
                     containerRequest);
             if (container == null) {
@@ -348,11 +672,12 @@ public class PathResource {
             } else {
                 // make http response
                 // build a JSON representation
-                String respStr = container.toJson(false);
-                ResponseBuilder builder = Response.created(new URI(path));
+                ResponseBuilder builder = "Processing".equals(container.getCompletionStatus())
+                        ? Response.status(Response.Status.ACCEPTED).location(new URI(path))
+                        : Response.created(new URI(path));
                 builder.header("X-CDMI-Specification-Version", "1.0.2");
                 //ResponseBuilder builder = Response.status(Response.Status.CREATED);
-                return builder.entity(respStr).build();
+                return builder.entity(container).build();
                 /* return Response.created(respStr).header(
                         "X-CDMI-Specification-Version", "1.0.2").build(); */
             } // if/else
@@ -363,18 +688,65 @@ public class PathResource {
         }
     }
 
+    /**
+     * <p>
+     * [11.2] Create a Queue Object (CDMI Content Type) and
+     * [11.5] Update a Queue Object (CDMI Content Type)
+     * </p>
+     *
+     * <p>
+     * The values of the request, if any, are enqueued in order.
+     * </p>
+     *
+     * @param path
+     *            Path to the new or existing queue
+     * @param request
+     *            Metadata and values of the queue
+     */
+    @PUT
+    @Path("/{path:.+}")
+    @Consumes(MediaTypes.QUEUE)
+    @Produces(MediaTypes.QUEUE)
+    public Response putQueue(
+            @PathParam("path") String path,
+            Queue request) {
+
+        LOG.trace("In PathResource.putQueue, path is: {}", path);
+        try {
+            if (queueDao.isQueue(path)) {
+                Queue queue = queueDao.updateByPath(path, request);
+                return Response.ok(queue).type(MediaTypes.QUEUE).header(
+                        "X-CDMI-Specification-Version", "1.0.2").build();
+            }
+            Queue queue = queueDao.createByPath(path, request);
+            return Response.created(URI.create(path)).type(MediaTypes.QUEUE).header(
+                    "X-CDMI-Specification-Version", "1.0.2").entity(queue).build();
+        } catch (ConflictException | NotFoundException | BadRequestException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            LOG.error("Failed to write queue", ex);
+            return Response.status(Response.Status.BAD_REQUEST).tag(
+                    "Queue PUT Error : " + ex.toString()).build();
+        }
+    }
+
     /**
      * <p>
      * [8.2] Create a Data Object (CDMI Content Type)
      * [8.6] Update Data Object (CDMI Content Type)
      * </p>
      *
+     * <p>
+     * A <code>?value:&lt;first&gt;-&lt;last&gt;</code> query limits the update to that byte range
+     * of the value.
+     * </p>
+     *
      * @param path
      *            Path to the parent container for the new data object
      * @param mediaType
      *            Declared media type of the data object
-     * @param dataObject
-     *            Raw content of the new data object
+     * @param request
+     *            Fields of the new data object, or the fields to update
      */
     @PUT
     @Path("/{path:.+}")
@@ -383,7 +755,7 @@ public class PathResource {
     public Response putDataObject(
             @Context HttpHeaders headers,
             @PathParam("path") String path,
-            byte[] bytes) {
+            DataObject request) {
 
         LOG.trace("putDataObject(): ");
         if (LOG.isTraceEnabled()) {
@@ -391,31 +763,47 @@ public class PathResource {
             for (String hdr : headers.getRequestHeaders().keySet()) {
                 LOG.trace("{} - {}", hdr, headers.getRequestHeader(hdr));
             }
-            String inBuffer = new String(bytes);
-            LOG.trace("Path = {} {}", path, inBuffer);
+            LOG.trace("Path = {}", path);
         }
 
         try {
-            DataObject dObj = dataObjectDao.findByPath(path);
-            if (dObj == null) {
-                dObj = new DataObject();
-
+            // an existence check, which must not count as a read
+            if (!dataObjectDao.isDataObject(path)) {
+                DataObject dObj = request;
                 dObj.setObjectType("application/cdmi-object");
-                // parse json
-                dObj.fromJson(bytes, false);
                 if (dObj.getValue() == null) {
-                    dObj.setValue("== N/A ==");
+                    dObj.setValue("== N/A ==".getBytes(StandardCharsets.UTF_8));
                 }
                 dObj = dataObjectDao.createByPath(path, dObj);
                 // return representation
-                String respStr = dObj.toJson();
                 return Response.created(URI.create(path)).
                         header("X-CDMI-Specification-Version", "1.0.2").
-                        entity(respStr).
+                        entity(dObj).
                         build();
             }
-            dObj.fromJson(bytes,false);
-            return Response.ok().build();
+            DataObject update = request;
+            String valueRange = ByteRange.findValueRange(getQuery());
+            if (valueRange != null) {
+                // update only the part of the value selected by ?value:<first>-<last>
+                ByteRange range = ByteRange.parse(valueRange);
+                byte[] value = update.getValue() == null ? new byte[0] : update.getValue();
+                if (value.length != range.getLength()) {
+                    throw new BadRequestException("Value range " + range + " needs "
+                                                  + range.getLength() + " bytes but "
+                                                  + value.length + " were supplied");
+                }
+                dataObjectDao.updateValueRangeByPath(path, range.getFirst(), range.getLength(),
+                        new ByteArrayInputStream(value));
+                if (update.getMetadata().isEmpty() && update.getMimetype() == null) {
+                    // nothing else to change, so one metadata write and one event
+                    return Response.ok().header(
+                            "X-CDMI-Specification-Version", "1.0.2").build();
+                }
+                update.setValue(null);
+            }
+            dataObjectDao.updateByPath(path, update);
+            return Response.ok().header(
+                    "X-CDMI-Specification-Version", "1.0.2").build();
         } catch (Exception ex) {
             LOG.error("Failed to find the data object", ex);
             return Response.status(Response.Status.BAD_REQUEST).tag(
@@ -429,11 +817,17 @@ public class PathResource {
      * [8.7] Update a Data Object (Non-CDMI Content Type)
      * </p>
      *
+     * <p>
+     * A <code>Content-Range</code> header limits the update to the given byte range of the value.
+     * </p>
+     *
      * @param path
      *            Path to the new or existing data object
-     * @param mediaType
+     * @param contentType
      *            Declared media type of the data object
-     * @param dataObject
+     * @param headers
+     *            Headers of the request
+     * @param body
      *            Raw content of the new data object
      */
     @PUT
@@ -441,37 +835,37 @@ public class PathResource {
     public Response putDataObject(
             @PathParam("path") String path,
             @HeaderParam("Content-Type") String contentType,
-            byte[] bytes) {
-        LOG.trace("Non-CDMI putDataObject(): type={}, size={}, path={}",
-                contentType, bytes.length, path);
+            @Context HttpHeaders headers,
+            InputStream body) {
+        LOG.trace("Non-CDMI putDataObject(): type={}, path={}", contentType, path);
 
         try {
-            DataObject dObj = dataObjectDao.findByPath(path);
-            if (dObj == null) {
-                dObj = new DataObject();
+            List<String> contentRange = headers.getRequestHeader(CONTENT_RANGE);
+            if (!dataObjectDao.isDataObject(path)) {
+                DataObject dObj = new DataObject();
 
                 dObj.setObjectType("application/cdmi-object");
-                // parse json
-                //dObj.fromJson(bytes, false);
-                if (dObj.getValue() == null) {
-                    dObj.setValue(bytes);
-                }
                 LOG.trace("Calling createNonCDMIByPath");
-                dObj = dataObjectDao.createNonCDMIByPath(path, contentType, dObj);
-                // return representation
-                //String respStr = dObj.toJson();
-                //return Response.ok(respStr).header(
-                 //       "X-CDMI-Specification-Version", "1.0.2").build();
+                InputStream value = body;
+                if (contentRange != null && !contentRange.isEmpty()) {
+                    // a new value holding only the range, so that nothing is left if it fails
+                    value = ByteRange.parseContentRange(contentRange.get(0)).toValue(body);
+                }
+                dataObjectDao.createNonCDMIByPath(path, contentType, dObj, value);
+                return Response.created(URI.create(path)).build();
+            } else if (contentRange == null || contentRange.isEmpty()) {
+                dataObjectDao.updateNonCDMIByPath(path, contentType, body);
+                return Response.noContent().build();
             }
-            //dObj.fromJson(bytes,false);
-            return Response.created(URI.create(path)).build();
+            // write only the range given by Content-Range
+            ByteRange range = ByteRange.parseContentRange(contentRange.get(0));
+            dataObjectDao.updateValueRangeByPath(path, range.getFirst(), range.getLength(), body);
+            return Response.noContent().build();
         } catch (Exception ex) {
             LOG.error("Failed to find data object", ex);
             return Response.status(Response.Status.BAD_REQUEST).tag(
                   "Object PUT Error : " + ex.toString()).build();
         }
-        //throw new UnsupportedOperationException(
-         //       "PathResource.putDataObject(Non-CDMI Content Type");
     }
 
     /**
@@ -479,19 +873,49 @@ public class PathResource {
      * [9.10] Create a New Data Object (NON-CDMI Content Type)
      * </p>
      *
+     * <p>
+     * Posting to a queue enqueues the body as one value of type <code>contentType</code>;
+     * bodies larger than the maximum queue value size are rejected with status 413.
+     * </p>
+     *
      * @param
      *      path Path to the new or existing data object
      * @param
-     *      object value
+     *      contentType Declared media type of the data object
+     * @param
+     *      body Raw content of the new data object
      */
     @Path("/{path:.+}")
     @POST
     public Response postDataObject(
             @PathParam("path") String path,
-            byte[] bytes) {
+            @HeaderParam("Content-Type") String contentType,
+            InputStream body) {
 
-        String inBuffer = new String(bytes);
-        LOG.trace("Path = {} {}", path, inBuffer);
+        LOG.trace("Path = {}", path);
+
+        if (isQueue(path)) {
+            try {
+                byte[] value = readAll(body, maxQueueValueSize);
+                if (value == null) {
+                    return Response.status(REQUEST_ENTITY_TOO_LARGE)
+                            .type(MediaType.TEXT_PLAIN_TYPE)
+                            .entity("Queue values are limited to " + maxQueueValueSize
+                                    + " bytes").build();
+                }
+                Queue values = new Queue();
+                values.addValue(value, contentType == null ? "text/plain" : contentType);
+                queueDao.updateByPath(path, values);
+                return Response.noContent().header(
+                        "X-CDMI-Specification-Version", "1.0.2").build();
+            } catch (NotFoundException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                LOG.error("Failed to enqueue value", ex);
+                return Response.status(Response.Status.BAD_REQUEST).
+                  tag("Queue POST Error : " + ex.toString()).build();
+            }
+        }
 
         boolean containerRequest = false;
         if (containerDao.isContainer(path)) {
@@ -505,12 +929,11 @@ public class PathResource {
             DataObject dObj = new DataObject();
             dObj.setObjectID(objectId);
             dObj.setObjectType(objectPath);
-            dObj.setValue(inBuffer);
 
             LOG.trace("objectId = {}, objecctPath = {}", objectId,
                     objectPath);
 
-            dObj = dataObjectDao.createByPath(objectPath, dObj);
+            dObj = dataObjectDao.createNonCDMIByPath(objectPath, contentType, dObj, body);
 
             if (containerRequest) {
                 return Response.created(URI.create(path)).header("Location",
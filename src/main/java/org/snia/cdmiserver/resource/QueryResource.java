@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.resource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonProcessingException;
+import org.snia.cdmiserver.dao.QueryDao;
+import org.snia.cdmiserver.exception.BadRequestException;
+import org.snia.cdmiserver.model.MetadataQuery;
+import org.snia.cdmiserver.util.Json;
+import org.snia.cdmiserver.util.MediaTypes;
+
+/**
+ * <p>
+ * Queries for containers and data objects by user metadata, scoped to the container at the
+ * path following <code>/cdmi_query</code>.
+ * </p>
+ */
+
+@Path("/cdmi_query{path:.*}")
+public class QueryResource {
+    private static final Logger LOG = LoggerFactory.getLogger(QueryResource.class);
+
+    /**
+     * <p>
+     * Injected information about the current request.
+     * </p>
+     */
+    @Context
+    UriInfo uriInfo;
+
+    private QueryDao queryDao;
+
+    /**
+     * <p>
+     * Injected {@link QueryDao} instance.
+     * </p>
+     */
+    public void setQueryDao(QueryDao queryDao) {
+        this.queryDao = queryDao;
+    }
+
+    /**
+     * <p>
+     * Find the containers and data objects at or below a container whose user metadata match
+     * the {@link MetadataQuery} in the request body. The response lists their paths in order.
+     * </p>
+     *
+     * @param path
+     *            Path to the container to search
+     * @param body
+     *            The query
+     */
+    @POST
+    @Produces(MediaTypes.JSON)
+    public Response query(@PathParam("path") String path, InputStream body) {
+        LOG.trace("In QueryResource.query, path is: {}", path);
+        if (queryDao == null) {
+            throw new UnsupportedOperationException("QueryResource.query()");
+        }
+        MetadataQuery query = new MetadataQuery();
+        try {
+            query.fromJson(body);
+        } catch (JsonProcessingException ex) {
+            throw new BadRequestException("Invalid query : " + ex.getMessage(), ex);
+        } catch (IOException ex) {
+            throw new BadRequestException("Cannot read query : " + ex.getMessage(), ex);
+        }
+        String parentURI = path == null || path.isEmpty() ? "/" : path;
+        List<String> results = queryDao.findByMetadata(parentURI, query);
+        boolean pretty = uriInfo != null
+                         && Json.isPrettyPrinted(uriInfo.getRequestUri().getRawQuery());
+        StreamingOutput output = out -> {
+            try (JsonGenerator g = Json.createGenerator(out, pretty)) {
+                g.writeStartObject();
+                g.writeStringField("parentURI", parentURI);
+                g.writeNumberField("count", results.size());
+                g.writeArrayFieldStart("results");
+                for (String result : results) {
+                    g.writeString(result);
+                }
+                g.writeEndArray();
+                g.writeEndObject();
+            }
+        };
+        return Response.ok(output).type(MediaTypes.JSON).header(
+                "X-CDMI-Specification-Version", "1.0.2").build();
+    }
+
+}
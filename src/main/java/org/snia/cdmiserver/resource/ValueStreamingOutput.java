@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.resource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * <p>
+ * Streams a region of a data object value straight from its backing channel to the response,
+ * so that the heap used per request does not depend on the size of the object. File backed
+ * values are sent with {@link FileChannel#transferTo(long, long, WritableByteChannel)}, which
+ * lets the operating system avoid copying through user space where the container allows it.
+ * </p>
+ *
+ * <p>
+ * The channel is closed once the value has been written.
+ * </p>
+ */
+public class ValueStreamingOutput implements StreamingOutput {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final SeekableByteChannel channel;
+    private final long position;
+    private final long count;
+
+    /**
+     * <p>
+     * Stream the whole value available from <code>channel</code>.
+     * </p>
+     *
+     * @param channel
+     *            Open channel on the value
+     */
+    public ValueStreamingOutput(SeekableByteChannel channel) throws IOException {
+        this(channel, 0, channel.size());
+    }
+
+    /**
+     * <p>
+     * Stream <code>count</code> bytes of the value starting at <code>position</code>.
+     * </p>
+     *
+     * @param channel
+     *            Open channel on the value
+     * @param position
+     *            Offset of the first byte to send
+     * @param count
+     *            Number of bytes to send
+     */
+    public ValueStreamingOutput(SeekableByteChannel channel, long position, long count) {
+        this.channel = channel;
+        this.position = position;
+        this.count = count;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public void write(OutputStream out) throws IOException {
+        try {
+            WritableByteChannel target = Channels.newChannel(out);
+            transfer(channel, position, count, target);
+            out.flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * <p>
+     * Copy <code>count</code> bytes starting at <code>position</code> from <code>source</code> to
+     * <code>target</code>, using a fixed size buffer when the source is not a file.
+     * </p>
+     */
+    static void transfer(SeekableByteChannel source, long position, long count,
+            WritableByteChannel target) throws IOException {
+        long remaining = count;
+        long offset = position;
+        if (source instanceof FileChannel) {
+            FileChannel file = (FileChannel) source;
+            while (remaining > 0) {
+                long sent = file.transferTo(offset, remaining, target);
+                if (sent <= 0) {
+                    break;
+                }
+                offset += sent;
+                remaining -= sent;
+            }
+        } else {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, Math.max(remaining, 1)));
+            source.position(offset);
+            while (remaining > 0) {
+                buffer.clear();
+                if (remaining < buffer.capacity()) {
+                    buffer.limit((int) remaining);
+                }
+                int read = source.read(buffer);
+                if (read < 0) {
+                    break;
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+                remaining -= read;
+            }
+        }
+        if (remaining > 0) {
+            throw new IOException("Value ended " + remaining + " bytes early");
+        }
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.snia.cdmiserver.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.util.TokenBuffer;
+
+/**
+ * <p>
+ * A compact, versioned binary encoding of the JSON used for the persisted fields of containers
+ * and data objects. Field names and common values found in the fields are replaced by one-byte
+ * ids from fixed dictionaries, strings are length-prefixed and need no escaping, and there is no
+ * whitespace. The CDMI wire format is not affected.
+ * </p>
+ *
+ * <p>
+ * Encoded fields start with the byte <code>0xCD</code>, which cannot start JSON text, followed
+ * by the format version. {@link #createParser(byte[])} reads either encoding, so fields written
+ * as JSON stay readable and are converted as they are rewritten. Version 1 encodes each token as
+ * a tag byte:
+ * </p>
+ *
+ * <ul>
+ * <li><code>0x01</code>-<code>0x04</code>: start object, end object, start array, end array</li>
+ * <li><code>0x05</code>, <code>0x06</code>: field name or string, followed by the length of its
+ * UTF-8 bytes as an unsigned varint and the bytes</li>
+ * <li><code>0x07</code>-<code>0x09</code>: null, true, false</li>
+ * <li><code>0x0A</code>: number, encoded like a string holding its JSON text</li>
+ * <li><code>0x40</code>-<code>0x7F</code>: string from the value dictionary</li>
+ * <li><code>0x80</code>-<code>0xFF</code>: field name from the name dictionary</li>
+ * </ul>
+ *
+ * <p>
+ * The dictionaries may only be appended to; changing an existing entry needs a new version.
+ * </p>
+ */
+public final class BinaryJson {
+
+    public static final byte MAGIC = (byte) 0xCD;
+    public static final byte VERSION = 1;
+
+    private static final int START_OBJECT = 0x01;
+    private static final int END_OBJECT = 0x02;
+    private static final int START_ARRAY = 0x03;
+    private static final int END_ARRAY = 0x04;
+    private static final int FIELD_NAME = 0x05;
+    private static final int STRING = 0x06;
+    private static final int NULL = 0x07;
+    private static final int TRUE = 0x08;
+    private static final int FALSE = 0x09;
+    private static final int NUMBER = 0x0A;
+    private static final int VALUE_ID = 0x40;
+    private static final int NAME_ID = 0x80;
+
+    private static final String[] NAMES = {
+        "objectType", "capabilitiesURI", "objectID", "mimetype", "valuetransferencoding",
+        "metadata", "exports", "domainURI", "parentURI", "copy", "move", "reference",
+        "completionStatus", "percentComplete", "fileName", "metadataFileName",
+        "cdmi_ctime", "cdmi_atime", "cdmi_mtime", "cdmi_acount", "cdmi_mcount", "cdmi_size",
+        "cdmi_hash", "cdmi_compression", "cdmi_compression_ratio"
+    };
+
+    private static final String[] VALUES = {
+        "application/cdmi-object", "application/cdmi-container", "utf-8", "base64",
+        "text/plain", "application/octet-stream", "application/json", "true", "false",
+        "0", "1", "Complete", "Processing", "Error", "/cdmi_capabilities/dataobject",
+        "/cdmi_capabilities/container/default", "/cdmi_domains/default_domain", "deflate"
+    };
+
+    private static final Map<String, Integer> NAME_IDS = ids(NAMES, 0x80);
+    private static final Map<String, Integer> VALUE_IDS = ids(VALUES, 0x40);
+
+    /**
+     * <p>
+     * Writes a JSON representation to a generator.
+     * </p>
+     */
+    public interface Content {
+
+        void writeTo(JsonGenerator g) throws IOException;
+    }
+
+    /**
+     * <p>
+     * Private constructor to prohibit instantiation.
+     * </p>
+     */
+    private BinaryJson() {}
+
+    // ---------------------------------------------------------- Public Methods
+
+    /**
+     * <p>
+     * Return <code>true</code> if <code>bytes</code> hold binary rather than JSON text.
+     * </p>
+     */
+    public static boolean isBinary(byte[] bytes) {
+        return bytes.length > 0 && bytes[0] == MAGIC;
+    }
+
+    /**
+     * <p>
+     * Return the binary encoding of what <code>content</code> writes.
+     * </p>
+     */
+    public static byte[] toBinary(Content content) throws IOException {
+        TokenBuffer buffer = new TokenBuffer(null);
+        content.writeTo(buffer);
+        try (JsonParser jp = buffer.asParser()) {
+            return encode(jp);
+        }
+    }
+
+    /**
+     * <p>
+     * Return the binary encoding of <code>bytes</code>, which may be binary or JSON text.
+     * </p>
+     */
+    public static byte[] toBinary(byte[] bytes) throws IOException {
+        if (isBinary(bytes)) {
+            return bytes;
+        }
+        try (JsonParser jp = Json.FACTORY.createJsonParser(bytes)) {
+            return encode(jp);
+        }
+    }
+
+    /**
+     * <p>
+     * Return <code>bytes</code>, which may be binary or JSON text, as compact UTF-8 JSON text.
+     * </p>
+     */
+    public static byte[] toJson(byte[] bytes) throws IOException {
+        if (!isBinary(bytes)) {
+            return bytes;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 2);
+        try (JsonParser jp = createParser(bytes);
+                JsonGenerator g = Json.createGenerator(out, false)) {
+            while (jp.nextToken() != null) {
+                g.copyCurrentEvent(jp);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * <p>
+     * Return a parser reading <code>bytes</code>, which may be binary or JSON text.
+     * </p>
+     */
+    public static JsonParser createParser(byte[] bytes) throws IOException {
+        if (!isBinary(bytes)) {
+            return Json.FACTORY.createJsonParser(bytes);
+        }
+        return decode(bytes).asParser();
+    }
+
+    // --------------------------------------------------------- Private Methods
+
+    private static byte[] encode(JsonParser jp) throws IOException {
+        Output out = new Output();
+        out.write(MAGIC);
+        out.write(VERSION);
+        JsonToken token;
+        while ((token = jp.nextToken()) != null) {
+            switch (token) {
+            case START_OBJECT:
+                out.write(START_OBJECT);
+                break;
+            case END_OBJECT:
+                out.write(END_OBJECT);
+                break;
+            case START_ARRAY:
+                out.write(START_ARRAY);
+                break;
+            case END_ARRAY:
+                out.write(END_ARRAY);
+                break;
+            case FIELD_NAME:
+                out.writeString(FIELD_NAME, NAME_IDS, jp.getCurrentName());
+                break;
+            case VALUE_STRING:
+                out.writeString(STRING, VALUE_IDS, jp.getText());
+                break;
+            case VALUE_NULL:
+                out.write(NULL);
+                break;
+            case VALUE_TRUE:
+                out.write(TRUE);
+                break;
+            case VALUE_FALSE:
+                out.write(FALSE);
+                break;
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                out.writeString(NUMBER, null, jp.getText());
+                break;
+            default:
+                throw new IOException("Cannot encode " + token);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static TokenBuffer decode(byte[] bytes) throws IOException {
+        if (bytes.length < 2 || bytes[1] != VERSION) {
+            throw new IOException("Unsupported binary fields version "
+                                  + (bytes.length < 2 ? "(none)" : Integer.toString(bytes[1])));
+        }
+        TokenBuffer buffer = new TokenBuffer(null);
+        int[] position = { 2 };
+        while (position[0] < bytes.length) {
+            int tag = bytes[position[0]++] & 0xff;
+            if (tag >= NAME_ID) {
+                buffer.writeFieldName(lookup(NAMES, tag - NAME_ID));
+            } else if (tag >= VALUE_ID) {
+                buffer.writeString(lookup(VALUES, tag - VALUE_ID));
+            } else {
+                switch (tag) {
+                case START_OBJECT:
+                    buffer.writeStartObject();
+                    break;
+                case END_OBJECT:
+                    buffer.writeEndObject();
+                    break;
+                case START_ARRAY:
+                    buffer.writeStartArray();
+                    break;
+                case END_ARRAY:
+                    buffer.writeEndArray();
+                    break;
+                case FIELD_NAME:
+                    buffer.writeFieldName(readString(bytes, position));
+                    break;
+                case STRING:
+                    buffer.writeString(readString(bytes, position));
+                    break;
+                case NULL:
+                    buffer.writeNull();
+                    break;
+                case TRUE:
+                    buffer.writeBoolean(true);
+                    break;
+                case FALSE:
+                    buffer.writeBoolean(false);
+                    break;
+                case NUMBER:
+                    writeNumber(buffer, readString(bytes, position));
+                    break;
+                default:
+                    throw new IOException("Invalid binary fields tag " + tag + " at "
+                                          + (position[0] - 1));
+                }
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * <p>
+     * Write a number kept as its JSON text, as an integer or a decimal number like a JSON parser
+     * would; written as text it would be read back as a string.
+     * </p>
+     */
+    private static void writeNumber(TokenBuffer buffer, String text) throws IOException {
+        try {
+            if (text.indexOf('.') < 0 && text.indexOf('e') < 0 && text.indexOf('E') < 0) {
+                buffer.writeNumber(new BigInteger(text));
+            } else {
+                buffer.writeNumber(new BigDecimal(text));
+            }
+        } catch (NumberFormatException ex) {
+            throw new IOException("Invalid binary fields number " + text);
+        }
+    }
+
+    private static String readString(byte[] bytes, int[] position) throws IOException {
+        int length = 0;
+        for (int shift = 0;; shift += 7) {
+            if (position[0] >= bytes.length || shift > 28) {
+                throw new IOException("Truncated binary fields");
+            }
+            int b = bytes[position[0]++];
+            length |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                break;
+            }
+        }
+        if (length < 0 || length > bytes.length - position[0]) {
+            throw new IOException("Truncated binary fields");
+        }
+        String text = new String(bytes, position[0], length, StandardCharsets.UTF_8);
+        position[0] += length;
+        return text;
+    }
+
+    private static String lookup(String[] dictionary, int id) throws IOException {
+        if (id >= dictionary.length) {
+            throw new IOException("Unknown binary fields dictionary id " + id);
+        }
+        return dictionary[id];
+    }
+
+    private static Map<String, Integer> ids(String[] dictionary, int base) {
+        Map<String, Integer> ids = new HashMap<String, Integer>();
+        for (int i = 0; i < dictionary.length; i++) {
+            ids.put(dictionary[i], base + i);
+        }
+        return ids;
+    }
+
+    /**
+     * <p>
+     * A byte array output stream that writes tags, varints and dictionary ids.
+     * </p>
+     */
+    private static class Output extends ByteArrayOutputStream {
+
+        Output() {
+            super(256);
+        }
+
+        void writeString(int tag, Map<String, Integer> dictionary, String text) {
+            Integer id = dictionary == null ? null : dictionary.get(text);
+            if (id != null) {
+                write(id);
+                return;
+            }
+            byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+            write(tag);
+            for (int length = utf8.length; ; length >>>= 7) {
+                if (length < 0x80) {
+                    write(length);
+                    break;
+                }
+                write((length & 0x7f) | 0x80);
+            }
+            write(utf8, 0, utf8.length);
+        }
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * <p>
+ * An inclusive range of byte offsets within a data object value, as requested either by an HTTP
+ * <code>Range</code> header or by a CDMI <code>?value:&lt;first&gt;-&lt;last&gt;</code> query.
+ * The same form selects positions in a container listing with
+ * <code>?children:&lt;first&gt;-&lt;last&gt;</code>.
+ * </p>
+ */
+public class ByteRange {
+
+    /**
+     * <p>
+     * The largest number of ranges honored in one <code>Range</code> header; a header asking
+     * for more is ignored and the whole value returned.
+     * </p>
+     */
+    public static final int MAX_RANGES = 16;
+
+    private final long first;
+    private final long last;
+
+    public ByteRange(long first, long last) {
+        if (first < 0 || last < first) {
+            throw new IllegalArgumentException("Invalid byte range " + first + "-" + last);
+        }
+        this.first = first;
+        this.last = last;
+    }
+
+    public long getFirst() {
+        return first;
+    }
+
+    public long getLast() {
+        return last;
+    }
+
+    public long getLength() {
+        return last - first + 1;
+    }
+
+    /**
+     * <p>
+     * Return the value of a <code>Content-Range</code> header describing this range of a value
+     * that is <code>size</code> bytes long.
+     * </p>
+     */
+    public String toContentRange(long size) {
+        return "bytes " + first + "-" + last + "/" + size;
+    }
+
+    /**
+     * <p>
+     * Return a stream of a new value holding only this range: zeros up to its first byte,
+     * followed by the bytes of the range read from <code>range</code>. Reading fails with an
+     * {@link EOFException} if <code>range</code> ends early.
+     * </p>
+     *
+     * @param range
+     *            Stream supplying the bytes of the range
+     */
+    public InputStream toValue(InputStream range) {
+        return new InputStream() {
+            private long position = 0;
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (position > last) {
+                    return -1;
+                }
+                int count;
+                if (position < first) {
+                    count = (int) Math.min(len, first - position);
+                    Arrays.fill(b, off, off + count, (byte) 0);
+                } else {
+                    count = range.read(b, off, (int) Math.min(len, last + 1 - position));
+                    if (count < 0) {
+                        throw new EOFException("Value range of " + getLength()
+                                               + " bytes ended after " + (position - first)
+                                               + " bytes");
+                    }
+                }
+                position += count;
+                return count;
+            }
+        };
+    }
+
+    /**
+     * <p>
+     * Return this range in the <code>&lt;first&gt;-&lt;last&gt;</code> form used by the CDMI
+     * <code>valuerange</code> field.
+     * </p>
+     */
+    @Override
+    public String toString() {
+        return first + "-" + last;
+    }
+
+    /**
+     * <p>
+     * Parse an HTTP <code>Range</code> header against a value of <code>size</code> bytes.
+     * </p>
+     *
+     * @param header
+     *            Value of the <code>Range</code> header, e.g. <code>bytes=0-99,200-</code>
+     * @param size
+     *            Size of the value in bytes
+     *
+     * @return the satisfiable ranges in ascending order, with overlapping and adjacent ranges
+     *         merged, which may be empty if none can be satisfied; or <code>null</code> if the
+     *         header is not a valid byte range request, or asks for more than
+     *         {@link #MAX_RANGES} ranges, and should be ignored
+     */
+    public static List<ByteRange> parseRangeHeader(String header, long size) {
+        if (header == null) {
+            return null;
+        }
+        String spec = header.trim();
+        if (!spec.regionMatches(true, 0, "bytes=", 0, 6)) {
+            return null;
+        }
+        String[] parts = spec.substring(6).split(",");
+        if (parts.length > MAX_RANGES) {
+            return null;
+        }
+        List<ByteRange> ranges = new ArrayList<ByteRange>(parts.length);
+        for (String part : parts) {
+            part = part.trim();
+            int dash = part.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            try {
+                String from = part.substring(0, dash).trim();
+                String to = part.substring(dash + 1).trim();
+                if (from.isEmpty()) {
+                    // suffix range: the last <to> bytes
+                    long suffix = Long.parseLong(to);
+                    if (suffix <= 0) {
+                        continue;
+                    }
+                    if (size > 0) {
+                        ranges.add(new ByteRange(Math.max(0, size - suffix), size - 1));
+                    }
+                } else {
+                    long first = Long.parseLong(from);
+                    long last = to.isEmpty() ? size - 1 : Long.parseLong(to);
+                    if (last < first) {
+                        return null;
+                    }
+                    if (first < size) {
+                        ranges.add(new ByteRange(first, Math.min(last, size - 1)));
+                    }
+                }
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+        }
+        return coalesce(ranges);
+    }
+
+    /**
+     * <p>
+     * Sort <code>ranges</code> and merge those that overlap or touch, so that no byte of the
+     * value is sent twice.
+     * </p>
+     */
+    private static List<ByteRange> coalesce(List<ByteRange> ranges) {
+        if (ranges.size() < 2) {
+            return ranges;
+        }
+        Collections.sort(ranges, Comparator.comparingLong(ByteRange::getFirst));
+        List<ByteRange> merged = new ArrayList<ByteRange>(ranges.size());
+        ByteRange current = ranges.get(0);
+        for (ByteRange range : ranges.subList(1, ranges.size())) {
+            if (range.first <= current.last + 1) {
+                if (range.last > current.last) {
+                    current = new ByteRange(current.first, range.last);
+                }
+            } else {
+                merged.add(current);
+                current = range;
+            }
+        }
+        merged.add(current);
+        return merged;
+    }
+
+    /**
+     * <p>
+     * Find the <code>value:&lt;first&gt;-&lt;last&gt;</code> field in a CDMI query string, e.g.
+     * <code>metadata;value:0-1023</code>, and return it as a range of a value of
+     * <code>size</code> bytes.
+     * </p>
+     *
+     * @param query
+     *            Raw query string of the request, if any
+     * @param size
+     *            Size of the value in bytes
+     *
+     * @return the requested range, clipped to the value, or <code>null</code> if the query does
+     *         not request a value range
+     *
+     * @exception IllegalArgumentException
+     *                if the requested range is malformed
+     */
+    public static ByteRange parseValueRange(String query, long size) {
+        String spec = findValueRange(query);
+        if (spec == null) {
+            return null;
+        }
+        ByteRange range = parse(spec);
+        if (size == 0 || range.first >= size) {
+            return null;
+        }
+        return new ByteRange(range.first, Math.min(range.last, size - 1));
+    }
+
+    /**
+     * <p>
+     * Parse a range in the <code>&lt;first&gt;-&lt;last&gt;</code> form used by CDMI queries.
+     * </p>
+     *
+     * @exception IllegalArgumentException
+     *                if the range is malformed
+     */
+    public static ByteRange parse(String spec) {
+        int dash = spec.indexOf('-');
+        if (dash <= 0) {
+            throw new IllegalArgumentException("Invalid value range '" + spec + "'");
+        }
+        try {
+            return new ByteRange(Long.parseLong(spec.substring(0, dash).trim()),
+                                 Long.parseLong(spec.substring(dash + 1).trim()));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid value range '" + spec + "'");
+        }
+    }
+
+    /**
+     * <p>
+     * Parse the range of an HTTP <code>Content-Range</code> request header, e.g.
+     * <code>bytes 100-199/1000</code> or <code>bytes 100-199/*</code>.
+     * </p>
+     *
+     * @exception IllegalArgumentException
+     *                if the header is malformed
+     */
+    public static ByteRange parseContentRange(String header) {
+        String spec = header.trim();
+        if (!spec.regionMatches(true, 0, "bytes ", 0, 6)) {
+            throw new IllegalArgumentException("Invalid Content-Range '" + header + "'");
+        }
+        spec = spec.substring(6).trim();
+        int slash = spec.indexOf('/');
+        if (slash >= 0) {
+            spec = spec.substring(0, slash);
+        }
+        return parse(spec);
+    }
+
+    /**
+     * <p>
+     * Return the <code>&lt;first&gt;-&lt;last&gt;</code> part of the <code>value:</code> field of a
+     * CDMI query string, or <code>null</code> if there is none.
+     * </p>
+     */
+    public static String findValueRange(String query) {
+        return findQueryRange(query, "value");
+    }
+
+    /**
+     * <p>
+     * Return the <code>&lt;first&gt;-&lt;last&gt;</code> part of the <code>&lt;name&gt;:</code>
+     * field of a CDMI query string, e.g. <code>children:0-99</code>, or <code>null</code> if there
+     * is none.
+     * </p>
+     */
+    public static String findQueryRange(String query, String name) {
+        if (query == null) {
+            return null;
+        }
+        String prefix = name + ":";
+        for (String field : query.split(";")) {
+            if (field.startsWith(prefix)) {
+                return field.substring(prefix.length());
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.snia.cdmiserver.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+
+/**
+ * <p>
+ * The {@link JsonFactory} shared by every JSON representation of the server.
+ * </p>
+ *
+ * <p>
+ * A factory is thread-safe once configured and recycles its buffers per thread, so one instance
+ * serves all requests. Parsers and generators leave their source or target open when closed, so
+ * that a representation can be read from a request or written to a response stream that belongs
+ * to the container.
+ * </p>
+ */
+public final class Json {
+
+    public static final JsonFactory FACTORY =
+            new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                    .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+    /**
+     * <p>
+     * Private constructor to prohibit instantiation.
+     * </p>
+     */
+    private Json() {}
+
+    // ---------------------------------------------------------- Public Methods
+
+    /**
+     * <p>
+     * Return a generator writing UTF-8 to <code>out</code>, compact unless <code>pretty</code>
+     * is set.
+     * </p>
+     */
+    public static JsonGenerator createGenerator(OutputStream out, boolean pretty)
+            throws IOException {
+        return prettyPrint(FACTORY.createJsonGenerator(out, JsonEncoding.UTF8), pretty);
+    }
+
+    /**
+     * <p>
+     * Return a generator writing to <code>out</code>, compact unless <code>pretty</code> is set.
+     * </p>
+     */
+    public static JsonGenerator createGenerator(Writer out, boolean pretty) throws IOException {
+        return prettyPrint(FACTORY.createJsonGenerator(out), pretty);
+    }
+
+    /**
+     * <p>
+     * Return whether the CDMI query string <code>query</code> asks for an indented
+     * representation through a <code>pretty</code> field, e.g. <code>children:0-9;pretty</code>.
+     * </p>
+     */
+    public static boolean isPrettyPrinted(String query) {
+        if (query == null) {
+            return false;
+        }
+        for (String field : query.split(";")) {
+            if ("pretty".equals(field)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // --------------------------------------------------------- Private Methods
+
+    private static JsonGenerator prettyPrint(JsonGenerator g, boolean pretty) {
+        if (pretty) {
+            g.useDefaultPrettyPrinter();
+        }
+        return g;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.util;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * <p>
+ * Formatting of the <code>cdmi_ctime</code>, <code>cdmi_mtime</code> and <code>cdmi_atime</code>
+ * metadata, in the local time zone with a resolution of one second.
+ * </p>
+ *
+ * <p>
+ * Every request stamps at least one of these, so the text of the last second formatted is kept
+ * and reused until the clock moves on.
+ * </p>
+ */
+public final class Timestamps {
+
+    private static final DateTimeFormatter FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private static volatile Stamp last = new Stamp(Long.MIN_VALUE, null);
+
+    /**
+     * <p>
+     * Private constructor to prohibit instantiation.
+     * </p>
+     */
+    private Timestamps() {}
+
+    // ---------------------------------------------------------- Public Methods
+
+    /**
+     * <p>
+     * Return the current time as a metadata timestamp.
+     * </p>
+     */
+    public static String now() {
+        return format(System.currentTimeMillis());
+    }
+
+    /**
+     * <p>
+     * Return <code>millis</code>, in milliseconds since the epoch, as a metadata timestamp.
+     * </p>
+     */
+    public static String format(long millis) {
+        long second = Math.floorDiv(millis, 1000);
+        Stamp stamp = last;
+        if (stamp.second != second) {
+            stamp = new Stamp(second, FORMAT.format(Instant.ofEpochSecond(second)));
+            last = stamp;
+        }
+        return stamp.text;
+    }
+
+    // --------------------------------------------------------- Private Classes
+
+    private static final class Stamp {
+        private final long second;
+        private final String text;
+
+        private Stamp(long second, String text) {
+            this.second = second;
+            this.text = text;
+        }
+    }
+}
@@ -126,6 +126,11 @@ public class CDMIClient implements Closeable
     }
 
     public URI buildURI(String path)
+    {
+        return buildURI(path, null);
+    }
+
+    public URI buildURI(String path, String query)
     {
         try {
             String resolvedPath;
@@ -145,7 +150,7 @@ public class CDMIClient implements Closeable
             }
 
             return new URI(endpoint.getScheme(), null, endpoint.getHost(),
-                    endpoint.getPort(), resolvedPath, null, null);
+                    endpoint.getPort(), resolvedPath, query, null);
         } catch (URISyntaxException e) {
             throw new IllegalArgumentException("Broken URI: " + e.getMessage());
         }
@@ -43,6 +43,8 @@ import org.apache.http.entity.ByteArrayEntity;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Represents a single CDMI request using a fluent style.
@@ -57,6 +59,8 @@ public class Request
     private String contentType;
     private String accept;
     private byte[] entity;
+    private String query;
+    private final Map<String,String> headers = new LinkedHashMap<>();
 
     public enum Method {
         HEAD(false),
@@ -100,6 +104,18 @@ public class Request
         return this;
     }
 
+    public Request withHeader(String name, String value)
+    {
+        headers.put(name, value);
+        return this;
+    }
+
+    public Request withQuery(String query)
+    {
+        this.query = query;
+        return this;
+    }
+
     public Request withContentType(String type)
     {
         contentType = type;
@@ -126,7 +142,7 @@ public class Request
             throw new IllegalArgumentException("path not specified");
         }
 
-        URI uri = client.buildURI(path);
+        URI uri = client.buildURI(path, query);
 
         switch (method) {
         case HEAD:
@@ -156,6 +172,9 @@ public class Request
         if (accept != null) {
             request.setHeader("Accept", accept);
         }
+        for (Map.Entry<String,String> header : headers.entrySet()) {
+            request.setHeader(header.getKey(), header.getValue());
+        }
         if (entity != null) {
             ((HttpEntityEnclosingRequest)request).setEntity(new ByteArrayEntity(entity));
         }
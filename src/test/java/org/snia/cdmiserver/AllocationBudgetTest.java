@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snia.cdmiserver.dao.filesystem.AccessTracker;
+import org.snia.cdmiserver.dao.filesystem.ChildIndex;
+import org.snia.cdmiserver.dao.filesystem.ContainerDaoImpl;
+import org.snia.cdmiserver.dao.filesystem.DataObjectDaoImpl;
+import org.snia.cdmiserver.dao.filesystem.FlatLayout;
+import org.snia.cdmiserver.dao.filesystem.MetadataCache;
+import org.snia.cdmiserver.dao.filesystem.PathResolver;
+import org.snia.cdmiserver.model.Container;
+import org.snia.cdmiserver.model.DataObject;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the bytes allocated per request on the data object and
+ * container read paths, and fails when one of them exceeds its budget.
+ *
+ * Each operation is run until the JIT has compiled it before the bytes
+ * allocated by the calling thread are counted. The scratch directory is
+ * kept below target so that path lengths, and with them the size of the
+ * File objects, do not depend on the machine. Raise a budget only
+ * together with the change that needs it.
+ *
+ * The budgets hold for the HotSpot JIT they were measured with, so the
+ * test only runs when asked for with -Dcdmi.allocation-budget=true.
+ */
+public class AllocationBudgetTest
+{
+    private static final Logger LOG = LoggerFactory.getLogger(AllocationBudgetTest.class);
+
+    private static final int WARMUP = 20000;
+    private static final int OPERATIONS = 20000;
+    private static final int OBJECTS = 16;
+
+    private com.sun.management.ThreadMXBean threads;
+    private File base;
+    private ContainerDaoImpl containerDao;
+    private DataObjectDaoImpl dataObjectDao;
+    private AccessTracker accessTracker;
+    private String[] paths = new String[OBJECTS];
+
+    @Before
+    public void setup() throws Exception
+    {
+        Assume.assumeTrue(Boolean.getBoolean("cdmi.allocation-budget"));
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean()
+                instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        File target = new File("target");
+        target.mkdirs();
+        base = Files.createTempDirectory(target.toPath(), "alloc").toFile();
+        FlatLayout layout = new FlatLayout();
+        MetadataCache metadataCache = new MetadataCache();
+        metadataCache.setMaxEntries(10000);
+        ChildIndex childIndex = new ChildIndex();
+        childIndex.setLayout(layout);
+        PathResolver pathResolver = new PathResolver();
+        pathResolver.setBaseDirectoryName(base.getPath());
+        pathResolver.setLayout(layout);
+        accessTracker = new AccessTracker();
+
+        containerDao = new ContainerDaoImpl();
+        containerDao.setBaseDirectoryName(base.getPath());
+        containerDao.setLayout(layout);
+        containerDao.setMetadataCache(metadataCache);
+        containerDao.setChildIndex(childIndex);
+        containerDao.setPathResolver(pathResolver);
+        dataObjectDao = new DataObjectDaoImpl();
+        dataObjectDao.setBaseDirectoryName(base.getPath());
+        dataObjectDao.setLayout(layout);
+        dataObjectDao.setMetadataCache(metadataCache);
+        dataObjectDao.setChildIndex(childIndex);
+        dataObjectDao.setAccessTracker(accessTracker);
+        dataObjectDao.setPathResolver(pathResolver);
+
+        containerDao.createByPath("Budget", new Container());
+        containerDao.createByPath("Budget/Objects", new Container());
+        for (int i = 0; i < OBJECTS; i++) {
+            paths[i] = "Budget/Objects/object-" + i;
+            DataObject dObj = new DataObject();
+            dObj.setMimetype("text/plain");
+            dObj.setValue(new byte[64]);
+            dataObjectDao.createByPath(paths[i], dObj);
+        }
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (base != null) {
+            accessTracker.close();
+            containerDao.deleteByPath("Budget");
+            base.delete();
+        }
+    }
+
+    @Test
+    public void shouldReadMetadataWithinBudget() throws Exception
+    {
+        assertWithinBudget("findMetadataByPath", 2048,
+                i -> dataObjectDao.findMetadataByPath(paths[i % OBJECTS]));
+    }
+
+    @Test
+    public void shouldOpenValueWithinBudget() throws Exception
+    {
+        assertWithinBudget("openValueByPath", 2048, i -> {
+            try (SeekableByteChannel channel = dataObjectDao.openValueByPath(paths[i % OBJECTS])) {
+                channel.size();
+            }
+        });
+    }
+
+    @Test
+    public void shouldReadDataObjectWithinBudget() throws Exception
+    {
+        assertWithinBudget("findByPath", 4096,
+                i -> dataObjectDao.findByPath(paths[i % OBJECTS]));
+    }
+
+    @Test
+    public void shouldReadContainerWithinBudget() throws Exception
+    {
+        assertWithinBudget("container findByPath", 10240,
+                i -> containerDao.findByPath("Budget/Objects"));
+    }
+
+    private void assertWithinBudget(String name, long budget, Operation operation)
+            throws Exception
+    {
+        for (int i = 0; i < WARMUP; i++) {
+            operation.run(i);
+        }
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < OPERATIONS; i++) {
+            operation.run(i);
+        }
+        long allocated = (threads.getThreadAllocatedBytes(thread) - before) / OPERATIONS;
+        LOG.info("{}: {} bytes per operation", name, allocated);
+        assertTrue(name + " allocated " + allocated + " bytes per operation, budget is " + budget,
+                allocated <= budget);
+    }
+
+    private interface Operation
+    {
+        void run(int i) throws Exception;
+    }
+}
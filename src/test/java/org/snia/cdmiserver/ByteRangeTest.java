@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2016, Deutsches Elektronen-Synchrotron (DESY)
+ * Copyright (c) 2016, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver;
+
+import org.junit.Test;
+import org.snia.cdmiserver.util.ByteRange;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the parsing of HTTP Range headers against a value of known size, and the values
+ * made of a single range.
+ */
+public class ByteRangeTest
+{
+    @Test
+    public void shouldParseSingleRange()
+    {
+        List<ByteRange> ranges = ByteRange.parseRangeHeader("bytes=5-6", 14);
+
+        assertEquals("[5-6]", ranges.toString());
+    }
+
+    @Test
+    public void shouldClipOpenAndSuffixRanges()
+    {
+        assertEquals("[10-13]", ByteRange.parseRangeHeader("bytes=10-", 14).toString());
+        assertEquals("[10-13]", ByteRange.parseRangeHeader("bytes=-4", 14).toString());
+        assertEquals("[10-13]", ByteRange.parseRangeHeader("bytes=10-100", 14).toString());
+    }
+
+    @Test
+    public void shouldMergeOverlappingAndAdjacentRanges()
+    {
+        assertEquals("[0-5]", ByteRange.parseRangeHeader("bytes=2-5,0-3", 14).toString());
+        assertEquals("[0-7]", ByteRange.parseRangeHeader("bytes=0-3,4-7", 14).toString());
+        assertEquals("[0-13]", ByteRange.parseRangeHeader("bytes=0-,0-,0-,0-", 14).toString());
+        assertEquals("[0-1, 10-13]",
+                ByteRange.parseRangeHeader("bytes=-4,0-1,11-12", 14).toString());
+    }
+
+    @Test
+    public void shouldIgnoreTooManyRanges()
+    {
+        StringBuilder header = new StringBuilder("bytes=0-0");
+        for (int i = 1; i <= ByteRange.MAX_RANGES; i++) {
+            header.append(',').append(i * 2).append('-').append(i * 2);
+        }
+
+        assertNull(ByteRange.parseRangeHeader(header.toString(), 1000));
+    }
+
+    @Test
+    public void shouldReturnNoRangeWhenNoneIsSatisfiable()
+    {
+        assertTrue(ByteRange.parseRangeHeader("bytes=100-200", 14).isEmpty());
+    }
+
+    @Test
+    public void shouldMakeValueOfRange() throws IOException
+    {
+        InputStream value = new ByteRange(2, 4).toValue(
+                new ByteArrayInputStream(bytes("abcdef")));
+
+        assertArrayEquals(new byte[] {0, 0, 'a', 'b', 'c'}, readAll(value));
+    }
+
+    @Test(expected = EOFException.class)
+    public void shouldFailOnShortRange() throws IOException
+    {
+        readAll(new ByteRange(0, 9).toValue(new ByteArrayInputStream(bytes("abc"))));
+    }
+
+    @Test
+    public void shouldIgnoreInvalidHeader()
+    {
+        assertNull(ByteRange.parseRangeHeader("bytes=6-5", 14));
+        assertNull(ByteRange.parseRangeHeader("items=0-5", 14));
+        assertNull(ByteRange.parseRangeHeader("bytes=a-b", 14));
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[3];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] bytes(String value)
+    {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
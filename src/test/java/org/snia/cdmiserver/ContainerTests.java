@@ -44,8 +44,10 @@ import java.net.URISyntaxException;
 
 import static org.junit.Assert.assertThat;
 import static org.snia.cdmiclient.Request.Method.DELETE;
+import static org.snia.cdmiclient.Request.Method.GET;
 import static org.snia.cdmiclient.Request.Method.PUT;
 import static org.snia.cdmiserver.ServerContext.given;
+import static org.snia.cdmiserver.ServerContext.givenBackend;
 
 /**
  *  These tests check various container operations.
@@ -124,6 +126,63 @@ public class ContainerTests
         assertThat(entity, hasJsonValueAt("$.completionStatus").of("Complete"));
     }
 
+    @Test
+    public void shouldListRangeOfChildren() throws Exception
+    {
+        given(server.hasDataObject("/TestContainer/a.txt", "a"));
+        given(server.hasDataObject("/TestContainer/b.txt", "b"));
+        given(server.hasDataObject("/TestContainer/c.txt", "c"));
+
+
+        HttpResponse response = client.request(GET, "/TestContainer/")
+                .withQuery("children:1-2")
+                .withContentType("application/cdmi-container")
+                .withAccept("application/cdmi-container")
+                .send();
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(200));
+
+        HttpEntity entity = response.getEntity();
+        assertThat(entity, hasJsonValueAt("$.childrenrange").of("1-2"));
+        assertThat(entity, hasJsonValueAt("$.children[0]").of("b.txt"));
+        assertThat(entity, hasJsonValueAt("$.children[1]").of("c.txt"));
+
+        response = client.request(GET, "/TestContainer/")
+                .withQuery("children:abc")
+                .withContentType("application/cdmi-container")
+                .withAccept("application/cdmi-container")
+                .send();
+
+        assertThat(response.getStatusLine(), hasStatusCode(400));
+    }
+
+    @Test
+    public void shouldCopyContainer() throws Exception
+    {
+        given(server.hasDataObject("/TestContainer/a.txt", "a"));
+
+
+        HttpResponse response = client.request(PUT, "/CopiedContainer/")
+                .withContentType("application/cdmi-container")
+                .withEntity("{ \"copy\" : \"/TestContainer/\" }")
+                .send();
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(201));
+
+        HttpEntity entity = response.getEntity();
+        assertThat(entity, hasJsonStringAt("$.objectID"));
+        assertThat(entity, hasJsonValueAt("$.children[0]").of("a.txt"));
+        assertThat(entity, hasJsonValueAt("$.completionStatus").of("Complete"));
+
+        response = client.request(GET, "/CopiedContainer/a.txt")
+                .withAccept("application/cdmi-object")
+                .send();
+
+        assertThat(response.getStatusLine(), hasStatusCode(200));
+        assertThat(response.getEntity(), hasJsonValueAt("$.value").of("a"));
+    }
 
     @Test
     public void shouldDeleteContainer() throws Exception
@@ -142,4 +201,61 @@ public class ContainerTests
         assertThat(headers, hasHeader("Content-Length", "0"));
         assertThat(headers, hasHeader("X-CDMI-Specification-Version", "1.0.2"));
     }
+
+    @Test
+    public void shouldDeleteLargeContainerInBackground() throws Exception
+    {
+        givenBackend("filesystem");
+        // the test server starts trees of 20 or more entries in the background
+        for (int i = 0; i < 40; i++) {
+            given(server.hasDataObject("/TestContainer/" + i + ".txt", "" + i));
+        }
+
+
+        HttpResponse response = client.request(DELETE, "/TestContainer/")
+                .withContentType("application/cdmi-container")
+                .send();
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(202));
+
+        int status = 0;
+        for (int attempt = 0; attempt < 100 && status != 404; attempt++) {
+            response = client.request(GET, "/TestContainer/")
+                    .withAccept("application/cdmi-container")
+                    .send();
+            status = response.getStatusLine().getStatusCode();
+            if (status == 200) {
+                assertThat(response.getEntity(),
+                        hasJsonValueAt("$.completionStatus").of("Processing"));
+            } else if (response.getEntity() != null) {
+                response.getEntity().consumeContent();
+            }
+            Thread.sleep(100);
+        }
+
+        assertThat(response.getStatusLine(), hasStatusCode(404));
+    }
+
+    @Test
+    public void shouldRejectMalformedContainer() throws Exception
+    {
+        HttpResponse response = client.request(PUT, "/TestContainer/")
+                .withContentType("application/cdmi-container")
+                .withEntity("{ \"metadata\" : { ")
+                .send();
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(400));
+        assertThat(response.getAllHeaders(), hasHeader("Content-Type", "text/plain"));
+
+        response.getEntity().consumeContent();
+        response = client.request(PUT, "/TestContainer/")
+                .withContentType("application/cdmi-container")
+                .withEntity("[ { \"metadata\" : { } } ]")
+                .send();
+
+        assertThat(response.getStatusLine(), hasStatusCode(400));
+        assertThat(response.getAllHeaders(), hasHeader("Content-Type", "text/plain"));
+    }
 }
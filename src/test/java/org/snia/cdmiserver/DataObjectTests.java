@@ -1,9 +1,11 @@
 package org.snia.cdmiserver;
 
 
+import com.jayway.jsonpath.JsonPath;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.util.EntityUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -13,9 +15,15 @@ import static org.snia.cdmiclient.Request.Method.*;
 import static org.snia.cdmiserver.Matchers.*;
 
 import java.net.URISyntaxException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.snia.cdmiserver.ServerContext.given;
+import static org.snia.cdmiserver.ServerContext.givenBackend;
 
 /*
  * Copyright (c) 2016, Deutsches Elektronen-Synchrotron (DESY)
@@ -100,7 +108,7 @@ public class DataObjectTests
         assertThat(entity, hasJsonValueAt("$.mimetype").of("text/plain"));
 
         // REVISIT: should be numerical type?
-        assertThat(entity, hasJsonValueAt("$.valueRange").of("14"));
+        assertThat(entity, hasJsonValueAt("$.valueRange").of("0-13"));
 
         assertThat(entity, hasJsonValueAt("$.value").of("This is a test"));
         assertThat(entity, hasJsonValueAt("$.metadata.mimetype").of("text/plain"));
@@ -159,6 +167,373 @@ public class DataObjectTests
         // FIXME: server returns content and not the expected JSON object
     }
 
+    @Test
+    public void shouldReadValueAsNonCdmiContent() throws Exception
+    {
+        given(server.hasDataObject("/TestContainer/TestObject.txt", "This is a test"));
+
+
+        HttpResponse response = client.request(GET, "/TestContainer/TestObject.txt")
+                .send();
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(200));
+
+        Header[] headers = response.getAllHeaders();
+        assertThat(headers, hasHeader("Content-Type", "text/plain"));
+        assertThat(headers, hasHeader("Content-Length", "14"));
+
+        assertThat(response.getEntity(), hasContent("This is a test"));
+    }
+
+    @Test
+    public void shouldReadByteRangeOfValue() throws Exception
+    {
+        given(server.hasDataObject("/TestContainer/TestObject.txt", "This is a test"));
+
+
+        HttpResponse response = client.request(GET, "/TestContainer/TestObject.txt")
+                .withHeader("Range", "bytes=5-6")
+                .send();
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(206));
+
+        Header[] headers = response.getAllHeaders();
+        assertThat(headers, hasHeader("Content-Range", "bytes 5-6/14"));
+        assertThat(headers, hasHeader("Content-Length", "2"));
+
+        assertThat(response.getEntity(), hasContent("is"));
+    }
+
+    @Test
+    public void shouldReadByteRangeOfCompressedValue() throws Exception
+    {
+        givenBackend("filesystem");
+        client.request(PUT, "/TestContainer/")
+                .withContentType("application/cdmi-container")
+                .withEntity("{ \"capabilitiesURI\" : \"/cdmi_capabilities/container/compressed\" }")
+                .send();
+        given(server.hasDataObject("/TestContainer/TestObject.txt", "This is a test"));
+
+
+        HttpResponse response = client.request(GET, "/TestContainer/TestObject.txt")
+                .withHeader("Range", "bytes=5-6")
+                .send();
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(206));
+        assertThat(response.getAllHeaders(), hasHeader("Content-Range", "bytes 5-6/14"));
+        assertThat(response.getEntity(), hasContent("is"));
+
+        response = client.request(GET, "/TestContainer/TestObject.txt")
+                .withAccept("application/cdmi-object")
+                .send();
+
+        HttpEntity entity = response.getEntity();
+        assertThat(entity, hasJsonValueAt("$.metadata.cdmi_compression").of("deflate"));
+        assertThat(entity, hasJsonValueAt("$.metadata.cdmi_size").of("14"));
+    }
+
+    @Test
+    public void shouldRejectUnsatisfiableByteRange() throws Exception
+    {
+        given(server.hasDataObject("/TestContainer/TestObject.txt", "This is a test"));
+
+
+        HttpResponse response = client.request(GET, "/TestContainer/TestObject.txt")
+                .withHeader("Range", "bytes=100-200")
+                .send();
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(416));
+        assertThat(response.getAllHeaders(), hasHeader("Content-Range", "bytes */14"));
+    }
+
+    @Test
+    public void shouldMergeOverlappingByteRanges() throws Exception
+    {
+        given(server.hasDataObject("/TestContainer/TestObject.txt", "This is a test"));
+
+
+        HttpResponse response = client.request(GET, "/TestContainer/TestObject.txt")
+                .withHeader("Range", "bytes=2-5,0-3,0-")
+                .send();
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(206));
+
+        Header[] headers = response.getAllHeaders();
+        assertThat(headers, hasHeader("Content-Range", "bytes 0-13/14"));
+        assertThat(headers, hasHeader("Content-Length", "14"));
+
+        assertThat(response.getEntity(), hasContent("This is a test"));
+    }
+
+    @Test
+    public void shouldIgnoreRangeHeaderWithTooManyRanges() throws Exception
+    {
+        given(server.hasDataObject("/TestContainer/TestObject.txt", "This is a test"));
+
+        StringBuilder header = new StringBuilder("bytes=0-0");
+        for (int i = 0; i < 20; i++) {
+            header.append(",0-");
+        }
+
+
+        HttpResponse response = client.request(GET, "/TestContainer/TestObject.txt")
+                .withHeader("Range", header.toString())
+                .send();
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(200));
+        assertThat(response.getAllHeaders(), hasHeader("Content-Length", "14"));
+        assertThat(response.getEntity(), hasContent("This is a test"));
+    }
+
+    @Test
+    public void shouldReadCdmiValueRange() throws Exception
+    {
+        given(server.hasDataObject("/TestContainer/TestObject.txt", "This is a test"));
+
+
+        HttpResponse response = client.request(GET, "/TestContainer/TestObject.txt")
+                .withQuery("value:10-13")
+                .withContentType("application/cdmi-object")
+                .withAccept("application/cdmi-object")
+                .send();
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(200));
+
+        HttpEntity entity = response.getEntity();
+        assertThat(entity, hasJsonValueAt("$.valueRange").of("10-13"));
+        assertThat(entity, hasJsonValueAt("$.value").of("test"));
+    }
+
+    @Test
+    public void shouldUpdateCdmiValueRange() throws Exception
+    {
+        given(server.hasDataObject("/TestContainer/TestObject.txt", "This is a test"));
+
+
+        HttpResponse response = client.request(PUT, "/TestContainer/TestObject.txt")
+                .withQuery("value:10-13")
+                .withContentType("application/cdmi-object")
+                .withEntity("{ \"value\" : \"TEST\" }")
+                .send();
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(200));
+
+        HttpResponse getResponse = client.request(GET, "/TestContainer/TestObject.txt")
+                .send();
+        assertThat(getResponse.getEntity(), hasContent("This is a TEST"));
+    }
+
+    @Test
+    public void shouldPublishOneChangeForCdmiValueRange() throws Exception
+    {
+        givenBackend("filesystem");
+        given(server.hasDataObject("/TestContainer/TestObject.txt", "This is a test"));
+        HttpResponse changes = client.request(GET, "/cdmi_changes")
+                .withQuery("wait:0")
+                .send();
+        Integer since = JsonPath.read(EntityUtils.toString(changes.getEntity()), "$.next");
+
+
+        HttpResponse response = client.request(PUT, "/TestContainer/TestObject.txt")
+                .withQuery("value:10-13")
+                .withContentType("application/cdmi-object")
+                .withEntity("{ \"value\" : \"TEST\" }")
+                .send();
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(200));
+
+        changes = client.request(GET, "/cdmi_changes")
+                .withQuery("since:" + since + ";wait:0")
+                .send();
+        HttpEntity entity = changes.getEntity();
+        assertThat(entity, hasJsonValueAt("$.next").of(since + 1));
+    }
+
+    @Test
+    public void shouldWakePendingChangePoll() throws Exception
+    {
+        givenBackend("filesystem");
+        given(server.hasContainer("/TestContainer/"));
+        HttpResponse changes = client.request(GET, "/cdmi_changes")
+                .withQuery("wait:0")
+                .send();
+        final Integer since = JsonPath.read(EntityUtils.toString(changes.getEntity()), "$.next");
+        final CDMIClient poller = new CDMIClient("http://localhost:8080/");
+        poller.setRequestVersion("1.0.2");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> poll = executor.submit(() -> EntityUtils.toString(
+                    poller.request(GET, "/cdmi_changes")
+                            .withQuery("since:" + since + ";wait:60")
+                            .send()
+                            .getEntity()));
+            // give the poll time to start waiting
+            Thread.sleep(500);
+
+
+            HttpResponse response = client.request(PUT, "/TestContainer/TestObject.txt")
+                    .withContentType("text/plain")
+                    .withEntity("This is a test")
+                    .send();
+
+
+            assertThat(response.getStatusLine(), hasStatusCode(201));
+            // long before the poll times out
+            String polled = poll.get(10, TimeUnit.SECONDS);
+            Integer next = JsonPath.read(polled, "$.next");
+            assertTrue(next > since);
+            String path = JsonPath.read(polled, "$.changes[0].path");
+            assertTrue(path.endsWith("/TestContainer/TestObject.txt"));
+        } finally {
+            executor.shutdownNow();
+            poller.close();
+        }
+    }
+
+    @Test
+    public void shouldCreateObjectFromByteRange() throws Exception
+    {
+        given(server.hasContainer("/TestContainer/"));
+
+
+        HttpResponse response = client.request(PUT, "/TestContainer/TestObject.txt")
+                .withContentType("text/plain")
+                .withHeader("Content-Range", "bytes 0-3/4")
+                .withEntity("THIS")
+                .send();
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(201));
+
+        HttpResponse getResponse = client.request(GET, "/TestContainer/TestObject.txt")
+                .send();
+        assertThat(getResponse.getEntity(), hasContent("THIS"));
+    }
+
+    @Test
+    public void shouldNotCreateObjectFromShortByteRange() throws Exception
+    {
+        given(server.hasContainer("/TestContainer/"));
+
+
+        HttpResponse response = client.request(PUT, "/TestContainer/TestObject.txt")
+                .withContentType("text/plain")
+                .withHeader("Content-Range", "bytes 0-9/10")
+                .withEntity("THIS")
+                .send();
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(400));
+
+        response = client.request(GET, "/TestContainer/TestObject.txt")
+                .withContentType("application/cdmi-object")
+                .withAccept("application/cdmi-object")
+                .send();
+        assertThat(response.getStatusLine(), hasStatusCode(404));
+    }
+
+    @Test
+    public void shouldUpdateByteRangeOfValue() throws Exception
+    {
+        given(server.hasDataObject("/TestContainer/TestObject.txt", "This is a test"));
+
+
+        HttpResponse response = client.request(PUT, "/TestContainer/TestObject.txt")
+                .withContentType("text/plain")
+                .withHeader("Content-Range", "bytes 0-3/14")
+                .withEntity("THIS")
+                .send();
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(204));
+
+        HttpResponse getResponse = client.request(GET, "/TestContainer/TestObject.txt")
+                .send();
+        assertThat(getResponse.getEntity(), hasContent("THIS is a test"));
+    }
+
+    @Test
+    public void shouldKeepBinaryValueIntact() throws Exception
+    {
+        given(server.hasContainer("/TestContainer/"));
+
+
+        HttpResponse response = client.request(PUT, "/TestContainer/TestObject.bin")
+                .withContentType("application/cdmi-object")
+                .withEntity("{\n" +
+                                "\"mimetype\": \"application/octet-stream\",\n" +
+                                "\"valuetransferencoding\": \"base64\",\n" +
+                                "\"value\": \"AP8QgA==\"\n" +
+                            "}\n")
+                .send();
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(201));
+
+        HttpEntity entity = response.getEntity();
+        assertThat(entity, hasJsonValueAt("$.valuetransferencoding").of("base64"));
+        assertThat(entity, hasJsonValueAt("$.value").of("AP8QgA=="));
+        assertThat(entity, hasJsonValueAt("$.metadata.cdmi_size").of("4"));
+    }
+
+    @Test
+    public void shouldReadObjectByObjectId() throws Exception
+    {
+        given(server.hasContainer("/TestContainer/"));
+
+        HttpResponse created = client.request(PUT, "/TestContainer/TestObject.txt")
+                .withContentType("application/cdmi-object")
+                .withEntity("{ \"value\" : \"This is a test\" }")
+                .send();
+        String objectId = JsonPath.read(EntityUtils.toString(created.getEntity()), "$.objectID");
+
+
+        HttpResponse response = client.request(GET, "/cdmi_objectid/" + objectId)
+                .withContentType("application/cdmi-object")
+                .withAccept("application/cdmi-object")
+                .send();
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(200));
+
+        HttpEntity entity = response.getEntity();
+        assertThat(entity, hasJsonValueAt("$.objectID").of(objectId));
+        assertThat(entity, hasJsonValueAt("$.value").of("This is a test"));
+    }
+
+    @Test
+    public void shouldNotFindDeletedObjectByObjectId() throws Exception
+    {
+        given(server.hasContainer("/TestContainer/"));
+
+        HttpResponse created = client.request(PUT, "/TestContainer/TestObject.txt")
+                .withContentType("application/cdmi-object")
+                .withEntity("{ \"value\" : \"This is a test\" }")
+                .send();
+        String objectId = JsonPath.read(EntityUtils.toString(created.getEntity()), "$.objectID");
+        client.request(DELETE, "/TestContainer/TestObject.txt")
+                .withContentType("application/cdmi-object")
+                .send();
+
+
+        HttpResponse response = client.request(GET, "/cdmi_objectid/" + objectId)
+                .withContentType("application/cdmi-object")
+                .withAccept("application/cdmi-object")
+                .send();
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(404));
+    }
+
     @Test
     public void shouldDeleteObject() throws Exception
     {
@@ -176,4 +551,36 @@ public class DataObjectTests
         assertThat(headers, hasHeader("Content-Length", "0"));
         assertThat(headers, hasHeader("X-CDMI-Specification-Version", "1.0.2"));
     }
+
+    @Test
+    public void shouldRejectMalformedObject() throws Exception
+    {
+        given(server.hasContainer("/TestContainer/"));
+
+
+        HttpResponse response = client.request(PUT, "/TestContainer/TestObject.txt")
+                .withContentType("application/cdmi-object")
+                .withEntity("{ \"value\" : \"This is a test")
+                .send();
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(400));
+        assertThat(response.getAllHeaders(), hasHeader("Content-Type", "text/plain"));
+
+        response.getEntity().consumeContent();
+        response = client.request(PUT, "/TestContainer/TestObject.txt")
+                .withContentType("application/cdmi-object")
+                .withEntity("\"This is a test\"")
+                .send();
+
+        assertThat(response.getStatusLine(), hasStatusCode(400));
+        assertThat(response.getAllHeaders(), hasHeader("Content-Type", "text/plain"));
+
+        response.getEntity().consumeContent();
+        response = client.request(GET, "/TestContainer/TestObject.txt")
+                .withAccept("application/cdmi-object")
+                .send();
+
+        assertThat(response.getStatusLine(), hasStatusCode(404));
+    }
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2010, Sun Microsystems, Inc.
+ * Copyright (c) 2010, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver;
+
+import org.snia.cdmiserver.dao.filesystem.ContainerDaoImpl;
+import org.snia.cdmiserver.dao.filesystem.DataObjectDaoImpl;
+import org.snia.cdmiserver.dao.filesystem.StorageLayout;
+import org.snia.cdmiserver.model.Container;
+import org.snia.cdmiserver.model.DataObject;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Measures data object create and lookup latency as a single container
+ * grows, to compare storage layouts.
+ *
+ * Not a unit test; run it with the layout, the largest container size and
+ * optionally a scratch directory, e.g.
+ * <code>java org.snia.cdmiserver.LayoutBenchmark hashed 10000000 /data/tmp</code>.
+ * Latencies are averaged over a sample of creates and random lookups each time
+ * the container size passes a power of ten.
+ */
+public class LayoutBenchmark
+{
+    private static final int SAMPLE = 1000;
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 2) {
+            System.err.println("Usage: java " + LayoutBenchmark.class.getName()
+                    + " <flat|hashed[:<levels>]> <children> [scratch directory]");
+            System.exit(1);
+        }
+        StorageLayout layout = StorageLayout.forName(args[0]);
+        long children = Long.parseLong(args[1]);
+        File base = args.length > 2
+                ? Files.createTempDirectory(new File(args[2]).toPath(), "cdmi").toFile()
+                : Files.createTempDirectory("cdmi").toFile();
+
+        ContainerDaoImpl containerDao = new ContainerDaoImpl();
+        containerDao.setBaseDirectoryName(base.getPath());
+        containerDao.setLayout(layout);
+        DataObjectDaoImpl dataObjectDao = new DataObjectDaoImpl();
+        dataObjectDao.setBaseDirectoryName(base.getPath());
+        dataObjectDao.setLayout(layout);
+        containerDao.createByPath("Benchmark", new Container());
+
+        // let the JIT compile the create and lookup paths before measuring
+        containerDao.createByPath("Warmup", new Container());
+        for (int i = 0; i < 10 * SAMPLE; i++) {
+            DataObject dObj = new DataObject();
+            dObj.setValue(new byte[64]);
+            dataObjectDao.createByPath("Warmup/object-" + i, dObj);
+            dataObjectDao.findByPath("Warmup/object-" + i / 2);
+        }
+        containerDao.deleteByPath("Warmup");
+
+        System.out.println("layout " + layout + " in " + base);
+        System.out.println("children     create (us)  lookup (us)");
+        Random random = new Random(42);
+        long created = 0;
+        for (long checkpoint = 1000; checkpoint <= children; checkpoint *= 10) {
+            while (created < checkpoint - SAMPLE) {
+                create(dataObjectDao, created++);
+            }
+            long start = System.nanoTime();
+            while (created < checkpoint) {
+                create(dataObjectDao, created++);
+            }
+            double createMicros = (System.nanoTime() - start) / 1000.0 / SAMPLE;
+
+            start = System.nanoTime();
+            for (int i = 0; i < SAMPLE; i++) {
+                long n = (long) (random.nextDouble() * created);
+                if (dataObjectDao.findByPath(path(n)) == null) {
+                    throw new IllegalStateException("Missing " + path(n));
+                }
+            }
+            double lookupMicros = (System.nanoTime() - start) / 1000.0 / SAMPLE;
+            System.out.println(String.format("%,12d %12.1f %12.1f",
+                    checkpoint, createMicros, lookupMicros));
+        }
+        containerDao.deleteByPath("Benchmark");
+        base.delete();
+    }
+
+    private static void create(DataObjectDaoImpl dataObjectDao, long n) throws Exception
+    {
+        DataObject dObj = new DataObject();
+        dObj.setValue(new byte[64]);
+        dataObjectDao.createByPath(path(n), dObj);
+    }
+
+    private static String path(long n)
+    {
+        return "Benchmark/object-" + n;
+    }
+}
@@ -8,6 +8,7 @@ import static com.jayway.jsonpath.Option.*;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.StatusLine;
+import org.apache.http.util.EntityUtils;
 import org.hamcrest.Description;
 import org.hamcrest.Matcher;
 import org.junit.internal.matchers.TypeSafeMatcher;
@@ -115,6 +116,27 @@ public class Matchers
         return hasHeader(header, location.toASCIIString());
     }
 
+    public static Matcher<HttpEntity> hasContent(final String expectedContent)
+    {
+        return new TypeSafeMatcher<HttpEntity>() {
+            @Override
+            public boolean matchesSafely(HttpEntity entity)
+            {
+                try {
+                    return expectedContent.equals(EntityUtils.toString(entity, "UTF-8"));
+                } catch (IOException e) {
+                    return false;
+                }
+            }
+
+            @Override
+            public void describeTo(Description d)
+            {
+                d.appendText("entity content \"" + expectedContent + "\"");
+            }
+        };
+    }
+
     public static class JsonMatcherBuilder
     {
         private final String path;
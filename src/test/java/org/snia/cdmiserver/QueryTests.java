@@ -0,0 +1,196 @@
+package org.snia.cdmiserver;
+
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.snia.cdmiclient.CDMIClient;
+
+import static org.snia.cdmiclient.Request.Method.*;
+import static org.snia.cdmiserver.Matchers.*;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+import static org.junit.Assert.assertThat;
+import static org.snia.cdmiserver.ServerContext.given;
+
+/*
+ * Copyright (c) 2016, Deutsches Elektronen-Synchrotron (DESY)
+ * Copyright (c) 2016, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * These tests check queries for containers and data-objects by their metadata.
+ */
+public class QueryTests
+{
+    private CDMIClient client;
+    private ServerContext server;
+
+    @Before
+    public void setup() throws URISyntaxException, IOException
+    {
+        client = new CDMIClient("http://localhost:8080/");
+        client.setRequestVersion("1.0.2");
+        client.addRequestObserver(new Eraser());
+        server = new ServerContext(client);
+
+        given(server.hasContainer("/QueryContainer/Inner/"));
+        for (int i = 0; i < 6; i++) {
+            String parent = i < 3 ? "/QueryContainer/" : "/QueryContainer/Inner/";
+            given(hasObjectWithMetadata(parent + "Object" + i,
+                    "\"colour\" : \"" + (i % 2 == 0 ? "red" : "blue") + "\", " +
+                    "\"owner\" : \"" + (i < 2 ? "jane" : "bob") + "\", " +
+                    "\"size\" : \"" + (i * 5) + "\""));
+        }
+    }
+
+    @After
+    public void tearDown()
+    {
+        client.close();
+    }
+
+    @Test
+    public void shouldFindEqualValues() throws Exception
+    {
+        HttpResponse response = query("/cdmi_query/QueryContainer/",
+                "{ \"metadata\" : { \"colour\" : \"red\" } }");
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(200));
+
+        Header[] headers = response.getAllHeaders();
+        assertThat(headers, hasHeader("X-CDMI-Specification-Version", "1.0.2"));
+
+        HttpEntity entity = response.getEntity();
+        assertThat(entity, hasJsonValueAt("$.count").of(3));
+        assertThat(entity, hasJsonValueAt("$.results[0]").of("/QueryContainer/Inner/Object4"));
+        assertThat(entity, hasJsonValueAt("$.results[1]").of("/QueryContainer/Object0"));
+        assertThat(entity, hasJsonValueAt("$.results[2]").of("/QueryContainer/Object2"));
+    }
+
+    @Test
+    public void shouldFindPrefixes() throws Exception
+    {
+        HttpResponse response = query("/cdmi_query/QueryContainer/",
+                "{ \"metadata\" : { \"owner\" : \"starts ja\" } }");
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(200));
+
+        HttpEntity entity = response.getEntity();
+        assertThat(entity, hasJsonValueAt("$.count").of(2));
+        assertThat(entity, hasJsonValueAt("$.results[0]").of("/QueryContainer/Object0"));
+        assertThat(entity, hasJsonValueAt("$.results[1]").of("/QueryContainer/Object1"));
+    }
+
+    @Test
+    public void shouldFindNumericRange() throws Exception
+    {
+        // as strings, "5" would sort after "10"
+        HttpResponse response = query("/cdmi_query/QueryContainer/",
+                "{ \"metadata\" : { \"size\" : [ \">= 5\", \"< 15\" ] } }");
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(200));
+
+        HttpEntity entity = response.getEntity();
+        assertThat(entity, hasJsonValueAt("$.count").of(2));
+        assertThat(entity, hasJsonValueAt("$.results[0]").of("/QueryContainer/Object1"));
+        assertThat(entity, hasJsonValueAt("$.results[1]").of("/QueryContainer/Object2"));
+    }
+
+    @Test
+    public void shouldOnlyFindWithinScope() throws Exception
+    {
+        HttpResponse response = query("/cdmi_query/QueryContainer/Inner/",
+                "{ \"metadata\" : { \"owner\" : \"bob\" } }");
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(200));
+
+        HttpEntity entity = response.getEntity();
+        assertThat(entity, hasJsonValueAt("$.parentURI").of("/QueryContainer/Inner/"));
+        assertThat(entity, hasJsonValueAt("$.count").of(3));
+        assertThat(entity, hasJsonValueAt("$.results[0]").of("/QueryContainer/Inner/Object3"));
+        assertThat(entity, hasJsonValueAt("$.results[1]").of("/QueryContainer/Inner/Object4"));
+        assertThat(entity, hasJsonValueAt("$.results[2]").of("/QueryContainer/Inner/Object5"));
+    }
+
+    @Test
+    public void shouldStopAtLimit() throws Exception
+    {
+        HttpResponse response = query("/cdmi_query/QueryContainer/",
+                "{ \"metadata\" : { \"owner\" : \"bob\", \"colour\" : \"blue\" }, " +
+                "\"limit\" : 1 }");
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(200));
+
+        HttpEntity entity = response.getEntity();
+        assertThat(entity, hasJsonValueAt("$.count").of(1));
+        assertThat(entity, hasJsonValueAt("$.results[0]").of("/QueryContainer/Inner/Object3"));
+    }
+
+    @Test
+    public void shouldRejectInvalidQuery() throws Exception
+    {
+        HttpResponse response = query("/cdmi_query/QueryContainer/",
+                "{ \"metadata\" : { } }");
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(400));
+    }
+
+    private HttpResponse query(String path, String query) throws IOException
+    {
+        return client.request(POST, path)
+                .withContentType("application/json")
+                .withEntity(query)
+                .send();
+    }
+
+    private boolean hasObjectWithMetadata(String path, String metadata) throws IOException
+    {
+        HttpResponse response = client.request(PUT, path)
+                .withContentType("application/cdmi-object")
+                .withEntity("{\n" +
+                                "\"mimetype\" : \"text/plain\",\n" +
+                                "\"metadata\" : { " + metadata + " },\n" +
+                                "\"value\" : \"" + path + "\"\n" +
+                            "}\n")
+                .send();
+        return response.getStatusLine().getStatusCode() == 201;
+    }
+}
@@ -0,0 +1,275 @@
+package org.snia.cdmiserver;
+
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.snia.cdmiclient.CDMIClient;
+
+import static org.snia.cdmiclient.Request.Method.*;
+import static org.snia.cdmiserver.Matchers.*;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+import static org.junit.Assert.assertThat;
+import static org.snia.cdmiserver.ServerContext.given;
+
+/*
+ * Copyright (c) 2016, Deutsches Elektronen-Synchrotron (DESY)
+ * Copyright (c) 2016, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * These tests check the operations on queues.
+ */
+public class QueueTests
+{
+    private CDMIClient client;
+    private ServerContext server;
+
+    @Before
+    public void setup() throws URISyntaxException, IOException
+    {
+        client = new CDMIClient("http://localhost:8080/");
+        client.setRequestVersion("1.0.2");
+        client.addRequestObserver(new Eraser());
+        server = new ServerContext(client);
+
+        given(server.hasContainer("/QueueContainer/"));
+    }
+
+    @After
+    public void tearDown()
+    {
+        client.close();
+    }
+
+    @Test
+    public void shouldCreateQueue() throws Exception
+    {
+        HttpResponse response = client.request(PUT, "/QueueContainer/Queue")
+                .withContentType("application/cdmi-queue")
+                .withEntity("{ \"metadata\" : { }, \"value\" : [ \"one\", \"two\" ] }")
+                .send();
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(201));
+
+        Header[] headers = response.getAllHeaders();
+        assertThat(headers, hasHeader("X-CDMI-Specification-Version", "1.0.2"));
+        assertThat(headers, hasHeader("Content-Type", "application/cdmi-queue"));
+
+        HttpEntity entity = response.getEntity();
+        assertThat(entity, hasJsonValueAt("$.objectType").of("application/cdmi-queue"));
+        assertThat(entity, hasJsonStringAt("$.objectID"));
+        assertThat(entity, hasJsonValueAt("$.queueValues").of("0-1"));
+    }
+
+    @Test
+    public void shouldEnqueueWithPut() throws Exception
+    {
+        given(hasQueue("/QueueContainer/Queue", "one", "two"));
+
+
+        HttpResponse response = client.request(PUT, "/QueueContainer/Queue")
+                .withContentType("application/cdmi-queue")
+                .withEntity("{ \"value\" : \"three\" }")
+                .send();
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(200));
+
+        HttpEntity entity = getValues("/QueueContainer/Queue", "values:10").getEntity();
+        assertThat(entity, hasJsonValueAt("$.queueValues").of("0-2"));
+        assertThat(entity, hasJsonValueAt("$.value[2]").of("three"));
+    }
+
+    @Test
+    public void shouldEnqueueWithPost() throws Exception
+    {
+        given(hasQueue("/QueueContainer/Queue", "one", "two"));
+
+
+        HttpResponse response = client.request(POST, "/QueueContainer/Queue")
+                .withContentType("text/plain")
+                .withEntity("three")
+                .send();
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(204));
+
+        HttpEntity entity = getValues("/QueueContainer/Queue", "values:10").getEntity();
+        assertThat(entity, hasJsonValueAt("$.queueValues").of("0-2"));
+        assertThat(entity, hasJsonValueAt("$.value[2]").of("three"));
+        assertThat(entity, hasJsonValueAt("$.mimetype[2]").of("text/plain"));
+    }
+
+    @Test
+    public void shouldRejectPostAboveMaximumValueSize() throws Exception
+    {
+        given(hasQueue("/QueueContainer/Queue", "one"));
+        StringBuilder value = new StringBuilder();
+        while (value.length() <= 1024) {
+            value.append("0123456789");
+        }
+
+
+        HttpResponse response = client.request(POST, "/QueueContainer/Queue")
+                .withContentType("text/plain")
+                .withEntity(value.toString())
+                .send();
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(413));
+
+        HttpEntity entity = getValues("/QueueContainer/Queue", "values:10").getEntity();
+        assertThat(entity, hasJsonValueAt("$.queueValues").of("0-0"));
+    }
+
+    @Test
+    public void shouldGetOldestValues() throws Exception
+    {
+        given(hasQueue("/QueueContainer/Queue", "one", "two", "three"));
+
+
+        HttpResponse response = getValues("/QueueContainer/Queue", "values:2");
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(200));
+
+        HttpEntity entity = response.getEntity();
+        assertThat(entity, hasJsonValueAt("$.queueValues").of("0-2"));
+        assertThat(entity, hasJsonValueAt("$.value[0]").of("one"));
+        assertThat(entity, hasJsonValueAt("$.value[1]").of("two"));
+        assertThat(entity, hasJsonValueAt("$.valuerange[1]").of("0-2"));
+    }
+
+    @Test
+    public void shouldGetValuesBySequenceNumber() throws Exception
+    {
+        given(hasQueue("/QueueContainer/Queue", "one", "two", "three"));
+
+
+        HttpResponse response = getValues("/QueueContainer/Queue", "value:1-2");
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(200));
+
+        HttpEntity entity = response.getEntity();
+        assertThat(entity, hasJsonValueAt("$.value[0]").of("two"));
+        assertThat(entity, hasJsonValueAt("$.value[1]").of("three"));
+    }
+
+    @Test
+    public void shouldDeleteOldestValues() throws Exception
+    {
+        given(hasQueue("/QueueContainer/Queue", "one", "two", "three"));
+
+
+        HttpResponse response = client.request(DELETE, "/QueueContainer/Queue")
+                .withContentType("application/cdmi-queue")
+                .withQuery("values:2")
+                .send();
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(200));
+
+        HttpEntity entity = getValues("/QueueContainer/Queue", "values:10").getEntity();
+        assertThat(entity, hasJsonValueAt("$.queueValues").of("2-2"));
+        assertThat(entity, hasJsonValueAt("$.value[0]").of("three"));
+    }
+
+    @Test
+    public void shouldCopyQueueWithContainer() throws Exception
+    {
+        given(hasQueue("/QueueContainer/Queue", "one", "two"));
+
+
+        HttpResponse response = client.request(PUT, "/CopiedQueueContainer/")
+                .withContentType("application/cdmi-container")
+                .withEntity("{ \"copy\" : \"/QueueContainer/\" }")
+                .send();
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(201));
+
+        response = client.request(DELETE, "/QueueContainer/Queue")
+                .withContentType("application/cdmi-queue")
+                .withQuery("values:1")
+                .send();
+        assertThat(response.getStatusLine(), hasStatusCode(200));
+
+        HttpEntity entity = getValues("/CopiedQueueContainer/Queue", "values:10").getEntity();
+        assertThat(entity, hasJsonValueAt("$.objectType").of("application/cdmi-queue"));
+        assertThat(entity, hasJsonValueAt("$.queueValues").of("0-1"));
+        assertThat(entity, hasJsonValueAt("$.value[0]").of("one"));
+        assertThat(entity, hasJsonValueAt("$.value[1]").of("two"));
+    }
+
+    @Test
+    public void shouldNotCopyQueueAsContainer() throws Exception
+    {
+        given(hasQueue("/QueueContainer/Queue", "one"));
+
+
+        HttpResponse response = client.request(PUT, "/CopiedQueueContainer/")
+                .withContentType("application/cdmi-container")
+                .withEntity("{ \"copy\" : \"/QueueContainer/Queue\" }")
+                .send();
+
+
+        assertThat(response.getStatusLine(), hasStatusCode(400));
+    }
+
+    private HttpResponse getValues(String path, String query) throws IOException
+    {
+        return client.request(GET, path)
+                .withAccept("application/cdmi-queue")
+                .withQuery(query)
+                .send();
+    }
+
+    private boolean hasQueue(String path, String... values) throws IOException
+    {
+        StringBuilder entity = new StringBuilder("{ \"metadata\" : { }, \"value\" : [ ");
+        for (int i = 0; i < values.length; i++) {
+            entity.append(i == 0 ? "\"" : ", \"").append(values[i]).append('"');
+        }
+        entity.append(" ] }");
+        HttpResponse response = client.request(PUT, path)
+                .withContentType("application/cdmi-queue")
+                .withEntity(entity.toString())
+                .send();
+        return response.getStatusLine().getStatusCode() == 201;
+    }
+}
@@ -31,6 +31,7 @@
 package org.snia.cdmiserver;
 
 import org.apache.http.HttpResponse;
+import org.junit.Assume;
 import org.snia.cdmiclient.CDMIClient;
 import org.springframework.util.Assert;
 
@@ -131,4 +132,13 @@ public class ServerContext
     {
         assertTrue("Failed to establishing context for test", successful);
     }
+
+    /**
+     * Skip the test unless the server under test keeps its objects in the
+     * given backend, as passed by Maven in the cdmi.backend property.
+     */
+    public static void givenBackend(String backend)
+    {
+        Assume.assumeTrue(backend.equals(System.getProperty("cdmi.backend", "filesystem")));
+    }
 }
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2016, Deutsches Elektronen-Synchrotron (DESY)
+ * Copyright (c) 2016, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.snia.cdmiserver.model.Change;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that changes are kept in order in a ring of bounded size, delivered to listeners and
+ * handed to long polls as soon as they are published.
+ */
+public class ChangeFeedTest
+{
+    private static final String OBJECT = "application/cdmi-object";
+
+    private ChangeFeed feed;
+
+    @Before
+    public void setup()
+    {
+        feed = new ChangeFeed();
+    }
+
+    @After
+    public void tearDown()
+    {
+        feed.close();
+    }
+
+    @Test
+    public void shouldReturnChangesInOrder()
+    {
+        for (int i = 0; i < 5; i++) {
+            feed.publish(Change.Operation.CREATE, OBJECT, null, "/a" + i, null);
+        }
+
+        List<Change> changes = new ArrayList<Change>();
+        assertEquals(5, feed.findChanges(0, 10, 0, changes));
+        assertEquals(5, changes.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, changes.get(i).getSequence());
+            assertEquals("/a" + i, changes.get(i).getPath());
+        }
+
+        changes.clear();
+        assertEquals(4, feed.findChanges(3, 1, 0, changes));
+        assertEquals("/a3", changes.get(0).getPath());
+        changes.clear();
+        assertEquals(5, feed.findChanges(5, 10, 0, changes));
+        assertEquals(0, changes.size());
+    }
+
+    @Test
+    public void shouldOverwriteOldestChanges()
+    {
+        feed.setCapacity(3);
+        assertEquals(4, feed.getCapacity());
+        for (int i = 0; i < 10; i++) {
+            feed.publish(Change.Operation.UPDATE, OBJECT, null, "/a" + i, null);
+        }
+
+        assertEquals(10, feed.getSequence());
+        assertEquals(6, feed.getOldestSequence());
+        List<Change> changes = new ArrayList<Change>();
+        // readers a lap behind skip to the oldest change kept
+        assertEquals(10, feed.findChanges(0, 10, 0, changes));
+        assertEquals(4, changes.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(6 + i, changes.get(i).getSequence());
+            assertEquals("/a" + (6 + i), changes.get(i).getPath());
+        }
+
+        // so do readers of another feed ahead of this one
+        changes.clear();
+        feed.findChanges(100, 1, 0, changes);
+        assertEquals(6, changes.get(0).getSequence());
+    }
+
+    @Test
+    public void shouldKeepChangesOfConcurrentPublishers() throws Exception
+    {
+        final int threads = 8;
+        final int perThread = 2000;
+        feed.setCapacity(threads * perThread);
+        final CyclicBarrier barrier = new CyclicBarrier(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> results = new ArrayList<Future<?>>();
+            for (int t = 0; t < threads; t++) {
+                final String prefix = "/t" + t + "/";
+                results.add(executor.submit(() -> {
+                    barrier.await(10, TimeUnit.SECONDS);
+                    for (int i = 0; i < perThread; i++) {
+                        feed.publish(Change.Operation.CREATE, OBJECT, null, prefix + i, null);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<Change> changes = new ArrayList<Change>();
+        assertEquals(threads * perThread,
+                feed.findChanges(0, Integer.MAX_VALUE, 0, changes));
+        assertEquals(threads * perThread, changes.size());
+        // every change once, without gaps, each publisher's in the order published
+        Map<String, Integer> published = new HashMap<String, Integer>();
+        for (int i = 0; i < changes.size(); i++) {
+            Change change = changes.get(i);
+            assertEquals(i, change.getSequence());
+            String[] parts = change.getPath().substring(1).split("/");
+            Integer previous = published.put(parts[0], Integer.valueOf(parts[1]));
+            assertEquals(previous == null ? 0 : previous + 1, (int) Integer.valueOf(parts[1]));
+        }
+        assertEquals(threads, published.size());
+    }
+
+    @Test
+    public void shouldDeliverChangesToListeners() throws Exception
+    {
+        final List<Change> delivered = new ArrayList<Change>();
+        final CountDownLatch latch = new CountDownLatch(100);
+        feed.addListener(change -> {
+            synchronized (delivered) {
+                delivered.add(change);
+            }
+            latch.countDown();
+        });
+        for (int i = 0; i < 100; i++) {
+            feed.publish(Change.Operation.DELETE, OBJECT, null, "/a" + i, null);
+        }
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        synchronized (delivered) {
+            assertEquals(100, delivered.size());
+            for (int i = 0; i < 100; i++) {
+                assertEquals(i, delivered.get(i).getSequence());
+            }
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while (feed.getDeliveredSequence() < 100 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(100, feed.getDeliveredSequence());
+        assertEquals(0, feed.getMissedChanges());
+    }
+
+    @Test
+    public void shouldWakeLongPoll() throws Exception
+    {
+        final List<Change> changes = new ArrayList<Change>();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Long> poll = executor.submit(() -> feed.findChanges(0, 10, 60000, changes));
+            // give the poll time to start waiting
+            Thread.sleep(200);
+            feed.publish(Change.Operation.CREATE, OBJECT, null, "/a", null);
+
+            // long before the poll times out
+            assertEquals(1, (long) poll.get(10, TimeUnit.SECONDS));
+            assertEquals(1, changes.size());
+            assertEquals("/a", changes.get(0).getPath());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
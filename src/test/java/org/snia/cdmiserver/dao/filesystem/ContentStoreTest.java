@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2016, Deutsches Elektronen-Synchrotron (DESY)
+ * Copyright (c) 2016, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.snia.cdmiserver.model.DataObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Checks that identical values are stored once, that stored values are removed once nothing
+ * links to them, and that values shared with copies are unshared before ranges are written.
+ */
+public class ContentStoreTest
+{
+    private File base;
+    private ContentStore contentStore;
+    private ContainerDaoImpl containerDao;
+    private DataObjectDaoImpl dataObjectDao;
+
+    @Before
+    public void setup() throws IOException
+    {
+        base = Files.createTempDirectory("cdmi").toFile();
+        contentStore = new ContentStore();
+        contentStore.setBaseDirectoryName(base.getPath());
+        containerDao = new ContainerDaoImpl();
+        containerDao.setBaseDirectoryName(base.getPath());
+        containerDao.setContentStore(contentStore);
+        dataObjectDao = new DataObjectDaoImpl();
+        dataObjectDao.setBaseDirectoryName(base.getPath());
+        dataObjectDao.setContentStore(contentStore);
+    }
+
+    @After
+    public void tearDown()
+    {
+        contentStore.shutdown();
+        delete(base);
+    }
+
+    @Test
+    public void shouldStoreIdenticalValuesOnce() throws Exception
+    {
+        String hash = create("a.txt", "same value").getMetadata().get("cdmi_hash");
+        assertEquals(hash, create("b.txt", "same value").getMetadata().get("cdmi_hash"));
+        create("c.txt", "other value");
+
+        assertEquals(2, contentStore.getStoredValues());
+        assertEquals(1, contentStore.getDeduplicatedValues());
+        assertEquals("same value".length(), contentStore.getDeduplicatedBytes());
+        assertEquals(2, storedValues().size());
+        // a.txt, b.txt and the stored copy
+        assertEquals(3, linkCount("a.txt"));
+        assertEquals(2, linkCount("c.txt"));
+    }
+
+    @Test
+    public void shouldRemoveStoredValueWithLastReference() throws Exception
+    {
+        create("a.txt", "same value");
+        create("b.txt", "same value");
+
+        containerDao.deleteByPath("a.txt");
+        assertEquals(1, storedValues().size());
+        assertEquals(0, contentStore.getRemovedValues());
+
+        containerDao.deleteByPath("b.txt");
+        assertEquals(0, storedValues().size());
+        assertEquals(1, contentStore.getRemovedValues());
+    }
+
+    @Test
+    public void shouldCollectUnreferencedValues() throws Exception
+    {
+        create("a.txt", "one");
+        create("b.txt", "two");
+        // as if the server had crashed after deleting the value file
+        Files.delete(new File(base, "a.txt").toPath());
+
+        assertEquals(1, contentStore.collect());
+        assertEquals(1, storedValues().size());
+        assertEquals(0, contentStore.collect());
+        assertEquals("two", read("b.txt"));
+    }
+
+    @Test
+    public void shouldUnshareBeforeWritingRange() throws Exception
+    {
+        create("a.txt", "abcdef");
+        create("b.txt", "abcdef");
+        contentStore.copy(new File(base, "a.txt"), new File(base, "copy"));
+        assertEquals(1, contentStore.getLinkedCopies());
+        assertEquals(4, linkCount("a.txt"));
+
+        DataObject updated = dataObjectDao.updateValueRangeByPath("a.txt", 2, 3,
+                new ByteArrayInputStream(bytes("XYZ")));
+
+        assertEquals("abXYZf", read("a.txt"));
+        assertEquals(1, linkCount("a.txt"));
+        assertFalse(updated.getMetadata().containsKey("cdmi_hash"));
+        assertEquals("abcdef", read("b.txt"));
+        assertEquals("abcdef", read("copy"));
+        assertEquals("abcdef", new String(Files.readAllBytes(storedValues().get(0)),
+                StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void shouldNotChangeCopyMadeWhileWritingRange() throws Exception
+    {
+        create("a.txt", "0000");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            for (int i = 0; i < 200; i++) {
+                final File copy = new File(base, "copy" + i);
+                Future<String> copied = executor.submit(() -> {
+                    contentStore.copy(new File(base, "a.txt"), copy);
+                    return read(copy.getName());
+                });
+                String range = String.format("%04d", i + 1);
+                dataObjectDao.updateValueRangeByPath("a.txt", 0, 4,
+                        new ByteArrayInputStream(bytes(range)));
+
+                // a copy never changes once made
+                assertEquals("copy " + i, copied.get(10, TimeUnit.SECONDS),
+                        read(copy.getName()));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private DataObject create(String path, String value) throws Exception
+    {
+        DataObject dObj = new DataObject();
+        dObj.setValue(bytes(value));
+        return dataObjectDao.createByPath(path, dObj);
+    }
+
+    private List<Path> storedValues()
+    {
+        List<Path> values = new ArrayList<Path>();
+        File[] buckets = new File(base, ".cdmi_cas").listFiles();
+        if (buckets != null) {
+            for (File bucket : buckets) {
+                for (File value : bucket.listFiles()) {
+                    values.add(value.toPath());
+                }
+            }
+        }
+        return values;
+    }
+
+    private int linkCount(String name) throws IOException
+    {
+        return (Integer) Files.getAttribute(new File(base, name).toPath(), "unix:nlink");
+    }
+
+    private String read(String name) throws IOException
+    {
+        return new String(Files.readAllBytes(new File(base, name).toPath()),
+                StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String value)
+    {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void delete(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
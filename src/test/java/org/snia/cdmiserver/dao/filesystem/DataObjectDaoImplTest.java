@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2016, Deutsches Elektronen-Synchrotron (DESY)
+ * Copyright (c) 2016, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.snia.cdmiserver.model.DataObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks which data object operations count as reads in <code>cdmi_acount</code>, that writing
+ * them never recreates a deleted data object, and how values are uploaded.
+ */
+public class DataObjectDaoImplTest
+{
+    private File base;
+    private AccessTracker accessTracker;
+    private DataObjectDaoImpl dataObjectDao;
+    private ContainerDaoImpl containerDao;
+
+    @Before
+    public void setup() throws IOException
+    {
+        base = Files.createTempDirectory("cdmi").toFile();
+        accessTracker = new AccessTracker();
+        // flushed explicitly by the tests
+        accessTracker.setFlushInterval(Long.MAX_VALUE);
+        dataObjectDao = new DataObjectDaoImpl();
+        dataObjectDao.setBaseDirectoryName(base.getPath());
+        dataObjectDao.setAccessTracker(accessTracker);
+        containerDao = new ContainerDaoImpl();
+        containerDao.setBaseDirectoryName(base.getPath());
+        containerDao.setAccessTracker(accessTracker);
+    }
+
+    @After
+    public void tearDown()
+    {
+        accessTracker.close();
+        delete(base);
+    }
+
+    @Test
+    public void shouldNotCountWritesAsReads() throws Exception
+    {
+        DataObject created = new DataObject();
+        created.setValue(bytes("one"));
+        dataObjectDao.createByPath("a.txt", created);
+
+        // what a PUT does to an existing data object
+        assertTrue(dataObjectDao.isDataObject("a.txt"));
+        assertFalse(dataObjectDao.isDataObject("b.txt"));
+        DataObject update = new DataObject();
+        update.setValue(bytes("two"));
+        dataObjectDao.updateByPath("a.txt", update);
+        dataObjectDao.updateNonCDMIByPath("a.txt", "text/plain",
+                new ByteArrayInputStream(bytes("three")));
+        accessTracker.flush();
+
+        assertEquals(0, accessTracker.getRecordedAccesses());
+        assertEquals("1", acount(dataObjectDao.findMetadataByPath("a.txt")));
+    }
+
+    @Test
+    public void shouldCountReadsOnceFlushed() throws Exception
+    {
+        DataObject created = new DataObject();
+        created.setValue(bytes("one"));
+        String objectId = dataObjectDao.createByPath("a.txt", created).getObjectID();
+
+        dataObjectDao.findByPath("a.txt");
+        dataObjectDao.findMetadataByPath("a.txt");
+        accessTracker.flush();
+
+        assertEquals(2, accessTracker.getRecordedAccesses());
+        assertEquals(1, accessTracker.getWrittenObjects());
+        assertEquals(0, accessTracker.getPending());
+        assertEquals("3", acount(dataObjectDao.findMetadataByPath("a.txt")));
+        assertEquals(objectId, dataObjectDao.findMetadataByPath("a.txt").getObjectID());
+    }
+
+    @Test
+    public void shouldNotRecreateDeletedDataObject() throws Exception
+    {
+        DataObject created = new DataObject();
+        created.setValue(bytes("one"));
+        dataObjectDao.createByPath("a.txt", created);
+
+        dataObjectDao.findByPath("a.txt");
+        containerDao.deleteByPath("a.txt");
+        accessTracker.flush();
+
+        assertFalse(new File(base, ".a.txt").exists());
+        assertFalse(dataObjectDao.isDataObject("a.txt"));
+    }
+
+    @Test
+    public void shouldNotRecreateDataObjectDeletedWhileFlushing() throws Exception
+    {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            for (int i = 0; i < 200; i++) {
+                DataObject created = new DataObject();
+                created.setValue(bytes("one"));
+                dataObjectDao.createByPath("a.txt", created);
+                dataObjectDao.findByPath("a.txt");
+
+                Future<?> flush = executor.submit(accessTracker::flush);
+                containerDao.deleteByPath("a.txt");
+                flush.get(10, TimeUnit.SECONDS);
+
+                assertFalse("metadata recreated in round " + i,
+                        dataObjectDao.isDataObject("a.txt"));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldStreamValueWithDefaultPermissions() throws Exception
+    {
+        byte[] value = new byte[3 * 1024 * 1024 + 17];
+        new Random(1).nextBytes(value);
+
+        dataObjectDao.createNonCDMIByPath("a.bin", "application/octet-stream",
+                new DataObject(), new ByteArrayInputStream(value));
+
+        File valueFile = new File(base, "a.bin");
+        assertArrayEquals(value, Files.readAllBytes(valueFile.toPath()));
+        assertEquals(Collections.<String> emptyList(), tempFiles());
+
+        // the permissions of a file created without any attributes, i.e. from the umask
+        Assume.assumeTrue(FileSystems.getDefault().supportedFileAttributeViews()
+                .contains("posix"));
+        Path reference = Files.createFile(new File(base, "reference").toPath());
+        assertEquals(Files.getPosixFilePermissions(reference),
+                Files.getPosixFilePermissions(valueFile.toPath()));
+    }
+
+    @Test
+    public void shouldRemoveUploadOfFailedBody() throws Exception
+    {
+        InputStream failing = new SequenceInputStream(
+                new ByteArrayInputStream(new byte[100000]), new InputStream() {
+                    @Override
+                    public int read() throws IOException
+                    {
+                        throw new IOException("Connection reset");
+                    }
+                });
+
+        try {
+            dataObjectDao.createNonCDMIByPath("a.bin", "application/octet-stream",
+                    new DataObject(), failing);
+            fail("Expected the upload to fail");
+        } catch (Exception expected) {
+            // the client went away
+        }
+
+        assertEquals(Collections.<String> emptyList(), tempFiles());
+        assertFalse(new File(base, "a.bin").exists());
+    }
+
+    private List<String> tempFiles()
+    {
+        List<String> names = new ArrayList<String>();
+        for (String name : base.list()) {
+            if (name.endsWith(".tmp")) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    private static String acount(DataObject dObj)
+    {
+        return dObj.getMetadata().get("cdmi_acount");
+    }
+
+    private static void delete(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static byte[] bytes(String value)
+    {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
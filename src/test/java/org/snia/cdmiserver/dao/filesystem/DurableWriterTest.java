@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2016, Deutsches Elektronen-Synchrotron (DESY)
+ * Copyright (c) 2016, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that files are replaced atomically, that concurrent directory syncs are shared, and
+ * that failures leave no temporary files behind.
+ */
+public class DurableWriterTest
+{
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 50;
+
+    private File directory;
+    private DurableWriter writer;
+
+    @Before
+    public void setup() throws IOException
+    {
+        directory = Files.createTempDirectory("cdmi").toFile();
+        writer = new DurableWriter();
+    }
+
+    @After
+    public void tearDown()
+    {
+        delete(directory);
+    }
+
+    @Test
+    public void shouldReplaceContent() throws Exception
+    {
+        Path target = new File(directory, "value").toPath();
+        writer.write(target, bytes("old"));
+        writer.write(target, bytes("new"));
+        writer.sync(directory.toPath());
+
+        assertArrayEquals(bytes("new"), Files.readAllBytes(target));
+        assertEquals(1, directory.list().length);
+    }
+
+    @Test
+    public void shouldShareSyncsOfConcurrentCommits() throws Exception
+    {
+        final Path path = directory.toPath();
+        final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (int i = 0; i < THREADS; i++) {
+                final String name = "value" + i;
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception
+                    {
+                        for (int round = 0; round < ROUNDS; round++) {
+                            Path temp = DurableWriter.createTempFile(path, ".", ".tmp");
+                            Files.write(temp, bytes(name + "/" + round));
+                            barrier.await(10, TimeUnit.SECONDS);
+                            writer.commit(temp, path.resolve(name));
+                            writer.sync(path);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (int i = 0; i < THREADS; i++) {
+            assertArrayEquals(bytes("value" + i + "/" + (ROUNDS - 1)),
+                    Files.readAllBytes(new File(directory, "value" + i).toPath()));
+        }
+        assertEquals(THREADS, directory.list().length);
+        assertEquals(THREADS * ROUNDS, writer.getSyncRequests());
+        assertTrue("syncs " + writer.getSyncs() + " not shared",
+                writer.getSyncs() < writer.getSyncRequests());
+    }
+
+    @Test
+    public void shouldRemoveTempOfFailedCommit() throws Exception
+    {
+        Path temp = DurableWriter.createTempFile(directory.toPath(), ".", ".tmp");
+        Files.write(temp, bytes("value"));
+        // a file cannot be renamed over a directory that is not empty
+        File target = new File(directory, "target");
+        assertTrue(new File(target, "child").mkdirs());
+
+        try {
+            writer.commit(temp, target.toPath());
+            fail("commit over a directory succeeded");
+        } catch (IOException ex) {
+            // expected
+        }
+
+        assertTrue(Files.notExists(temp));
+        assertEquals(1, directory.list().length);
+    }
+
+    @Test
+    public void shouldRemoveTempOfFailedWrite() throws Exception
+    {
+        File target = new File(directory, "target");
+        assertTrue(new File(target, "child").mkdirs());
+
+        try {
+            writer.write(target.toPath(), bytes("value"));
+            fail("write over a directory succeeded");
+        } catch (IOException ex) {
+            // expected
+        }
+
+        assertEquals(1, directory.list().length);
+    }
+
+    private static byte[] bytes(String value)
+    {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void delete(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
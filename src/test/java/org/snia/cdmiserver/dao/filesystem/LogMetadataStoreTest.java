@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2016, Deutsches Elektronen-Synchrotron (DESY)
+ * Copyright (c) 2016, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the record format, recovery and compaction of the metadata log.
+ */
+public class LogMetadataStoreTest
+{
+    private File base;
+    private File container;
+    private LogMetadataStore store;
+
+    @Before
+    public void setup() throws IOException
+    {
+        base = Files.createTempDirectory("cdmi").toFile();
+        container = newFolder("container");
+        store = new LogMetadataStore();
+    }
+
+    @After
+    public void tearDown()
+    {
+        store.close();
+        delete(base);
+    }
+
+    @Test
+    public void shouldAppendChecksummedRecord() throws IOException
+    {
+        store.write(new File(container, ".a.txt"), bytes("{}"));
+
+        File log = new File(container, LogMetadataStore.LOG_FILE_NAME);
+        assertEquals(8 + 3 + 5 + 2, log.length());
+        assertFalse(new File(container, ".a.txt").exists());
+
+        DataInputStream in = new DataInputStream(new FileInputStream(log));
+        try {
+            int length = in.readInt();
+            int checksum = in.readInt();
+            byte[] body = new byte[length];
+            in.readFully(body);
+            assertEquals(-1, in.read());
+
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            assertEquals((int) crc.getValue(), checksum);
+            assertEquals('+', body[0]);
+            assertEquals(5, (body[1] & 0xff) << 8 | body[2] & 0xff);
+            assertEquals("a.txt{}", new String(body, 3, length - 3, StandardCharsets.UTF_8));
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void shouldReadWriteAndDeleteFields() throws IOException
+    {
+        File a = new File(container, ".a.txt");
+        File b = new File(container, ".b.txt");
+
+        store.write(a, bytes("one"));
+        store.write(b, bytes("two"));
+        store.write(a, bytes("three"));
+        store.delete(b);
+
+        assertArrayEquals(bytes("three"), store.read(a));
+        assertNull(store.read(b));
+        assertTrue(store.exists(a));
+        assertFalse(store.exists(b));
+
+        Map<String, byte[]> all = store.readAll(container);
+        assertEquals(1, all.size());
+        assertArrayEquals(bytes("three"), all.get("a.txt"));
+    }
+
+    @Test
+    public void shouldChangeStampOnWrite() throws IOException
+    {
+        File a = new File(container, ".a.txt");
+
+        store.write(a, bytes("one"));
+        Object stamp = store.stamp(a);
+        store.write(a, bytes("two"));
+
+        assertFalse(stamp.equals(store.stamp(a)));
+    }
+
+    @Test
+    public void shouldMoveFieldsBetweenLogs() throws IOException
+    {
+        File other = newFolder("other");
+        File source = new File(container, ".a.txt");
+        File target = new File(other, ".b.txt");
+
+        store.write(source, bytes("moved"));
+        store.move(source, target);
+
+        assertNull(store.read(source));
+        assertArrayEquals(bytes("moved"), store.read(target));
+    }
+
+    @Test
+    public void shouldReloadAfterReopening() throws IOException
+    {
+        store.setMaxOpenLogs(1);
+        File other = newFolder("other");
+
+        store.write(new File(container, ".a.txt"), bytes("one"));
+        store.write(new File(other, ".b.txt"), bytes("two"));
+        store.delete(new File(container, ".c.txt"));
+
+        // the first log was evicted by the second
+        assertArrayEquals(bytes("one"), store.read(new File(container, ".a.txt")));
+
+        store.close();
+        store = new LogMetadataStore();
+
+        assertArrayEquals(bytes("one"), store.read(new File(container, ".a.txt")));
+        assertArrayEquals(bytes("two"), store.read(new File(other, ".b.txt")));
+    }
+
+    @Test
+    public void shouldTruncateTornRecord() throws IOException
+    {
+        store.write(new File(container, ".a.txt"), bytes("one"));
+        store.write(new File(container, ".a.txt"), bytes("two"));
+        store.close();
+
+        File log = new File(container, LogMetadataStore.LOG_FILE_NAME);
+        long intact = log.length() / 2;
+        RandomAccessFile file = new RandomAccessFile(log, "rw");
+        try {
+            file.setLength(log.length() - 2);
+        } finally {
+            file.close();
+        }
+
+        store = new LogMetadataStore();
+
+        assertArrayEquals(bytes("one"), store.read(new File(container, ".a.txt")));
+        assertEquals(intact, log.length());
+
+        store.write(new File(container, ".b.txt"), bytes("three"));
+        store.close();
+        store = new LogMetadataStore();
+
+        assertArrayEquals(bytes("one"), store.read(new File(container, ".a.txt")));
+        assertArrayEquals(bytes("three"), store.read(new File(container, ".b.txt")));
+    }
+
+    @Test
+    public void shouldCompactOverwrittenRecords() throws IOException
+    {
+        store.setCompactionThreshold(1024);
+        File a = new File(container, ".a.txt");
+        File b = new File(container, ".b.txt");
+
+        store.write(b, bytes("kept"));
+        for (int i = 0; i < 200; i++) {
+            store.write(a, bytes("value " + i));
+        }
+        // waits for the compaction to finish
+        store.close();
+
+        File log = new File(container, LogMetadataStore.LOG_FILE_NAME);
+        assertTrue("log of " + log.length() + " bytes", log.length() < 1024);
+        assertFalse(new File(container, ".cdmi_metadata.tmp").exists());
+
+        store = new LogMetadataStore();
+
+        assertArrayEquals(bytes("value 199"), store.read(a));
+        assertArrayEquals(bytes("kept"), store.read(b));
+        assertEquals(2, store.readAll(container).size());
+    }
+
+    private File newFolder(String name)
+    {
+        File folder = new File(base, name);
+        assertTrue(folder.mkdir());
+        return folder;
+    }
+
+    private static void delete(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static byte[] bytes(String value)
+    {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2016, Deutsches Elektronen-Synchrotron (DESY)
+ * Copyright (c) 2016, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.snia.cdmiserver.model.Container;
+import org.snia.cdmiserver.model.DataObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that reads through the DAOs never return fields cached before an update, move or
+ * delete, and that hits and misses are counted.
+ */
+public class MetadataCacheTest
+{
+    private File base;
+    private StorageLayout layout;
+    private MetadataCache metadataCache;
+    private AccessTracker accessTracker;
+    private ContainerDaoImpl containerDao;
+    private DataObjectDaoImpl dataObjectDao;
+
+    @Before
+    public void setup() throws IOException
+    {
+        base = Files.createTempDirectory("cdmi").toFile();
+        layout = new FlatLayout();
+        metadataCache = new MetadataCache();
+        accessTracker = new AccessTracker();
+        // reads must not rewrite the metadata behind the tests' back
+        accessTracker.setFlushInterval(Long.MAX_VALUE);
+        containerDao = new ContainerDaoImpl();
+        containerDao.setBaseDirectoryName(base.getPath());
+        containerDao.setMetadataCache(metadataCache);
+        dataObjectDao = new DataObjectDaoImpl();
+        dataObjectDao.setBaseDirectoryName(base.getPath());
+        dataObjectDao.setMetadataCache(metadataCache);
+        dataObjectDao.setAccessTracker(accessTracker);
+    }
+
+    @After
+    public void tearDown()
+    {
+        accessTracker.close();
+        delete(base);
+    }
+
+    @Test
+    public void shouldCountHitsAndMisses() throws Exception
+    {
+        createDataObject("a.txt", "red");
+
+        long misses = metadataCache.getMisses();
+        dataObjectDao.findMetadataByPath("a.txt");
+        assertEquals(misses + 1, metadataCache.getMisses());
+        long hits = metadataCache.getHits();
+        dataObjectDao.findMetadataByPath("a.txt");
+        dataObjectDao.findMetadataByPath("a.txt");
+        assertEquals(hits + 2, metadataCache.getHits());
+        assertEquals(misses + 1, metadataCache.getMisses());
+    }
+
+    @Test
+    public void shouldMissOnChangedStamp()
+    {
+        File file = new File(base, ".a.txt");
+        assertEquals("one", metadataCache.get(file, 1, String.class, f -> "one"));
+        assertEquals("one", metadataCache.get(file, 1, String.class, f -> "two"));
+        assertEquals("two", metadataCache.get(file, 2, String.class, f -> "two"));
+        assertEquals(1, metadataCache.getHits());
+        assertEquals(2, metadataCache.getMisses());
+    }
+
+    @Test
+    public void shouldEvictOldestEntries()
+    {
+        metadataCache.setMaxEntries(2);
+        for (String name : new String[] { ".a", ".b", ".c" }) {
+            metadataCache.get(new File(base, name), 1, String.class, f -> f.getName());
+        }
+
+        assertEquals(2, metadataCache.getSize());
+        assertEquals(1, metadataCache.getEvictions());
+        assertEquals(".a", metadataCache.get(new File(base, ".a"), 1, String.class, f -> ".a"));
+        assertEquals(4, metadataCache.getMisses());
+    }
+
+    @Test
+    public void shouldReadUpdatedDataObject() throws Exception
+    {
+        createDataObject("a.txt", "red");
+        // from now on updates do not change the size of the fields
+        updateDataObject("a.txt", "tan");
+        assertEquals("tan", color(dataObjectDao.findMetadataByPath("a.txt")));
+
+        FileTime stamp = modified("a.txt");
+        updateDataObject("a.txt", "red");
+        restore("a.txt", stamp);
+
+        assertEquals("red", color(dataObjectDao.findMetadataByPath("a.txt")));
+    }
+
+    @Test
+    public void shouldReadUpdatedContainer() throws Exception
+    {
+        createContainer("c", "red");
+        // from now on updates do not change the size of the fields
+        createContainer("c", "tan");
+        assertEquals("tan", color(containerDao.findByPath("c")));
+
+        FileTime stamp = modified("c");
+        createContainer("c", "red");
+        restore("c", stamp);
+
+        assertEquals("red", color(containerDao.findByPath("c")));
+    }
+
+    @Test
+    public void shouldNotReadDeletedDataObject() throws Exception
+    {
+        createDataObject("a.txt", "red");
+        assertEquals("red", color(dataObjectDao.findMetadataByPath("a.txt")));
+        FileTime stamp = modified("a.txt");
+
+        containerDao.deleteByPath("a.txt");
+        createDataObject("a.txt", "tan");
+        restore("a.txt", stamp);
+
+        assertEquals("tan", color(dataObjectDao.findMetadataByPath("a.txt")));
+    }
+
+    @Test
+    public void shouldNotReadMovedContainer() throws Exception
+    {
+        createContainer("c", "red");
+        createDataObject("c/a.txt", "red");
+        assertEquals("red", color(containerDao.findByPath("c")));
+        assertEquals("red", color(dataObjectDao.findMetadataByPath("c/a.txt")));
+        FileTime containerStamp = modified("c");
+        FileTime objectStamp = modified("c/a.txt");
+
+        Container move = new Container();
+        move.setMove("c");
+        containerDao.createByPath("d", move);
+        assertEquals("red", color(containerDao.findByPath("d")));
+        assertEquals("red", color(dataObjectDao.findMetadataByPath("d/a.txt")));
+
+        // new objects at the old paths, with fields of the same size and time
+        createContainer("c", "tan");
+        createDataObject("c/a.txt", "tan");
+        restore("c", containerStamp);
+        restore("c/a.txt", objectStamp);
+
+        assertEquals("tan", color(containerDao.findByPath("c")));
+        assertEquals("tan", color(dataObjectDao.findMetadataByPath("c/a.txt")));
+    }
+
+    private void createContainer(String path, String color)
+    {
+        Container container = new Container();
+        container.getMetadata().put("color", color);
+        containerDao.createByPath(path, container);
+    }
+
+    private void createDataObject(String path, String color) throws Exception
+    {
+        DataObject dObj = new DataObject();
+        dObj.setMetadata("color", color);
+        dObj.setValue("value".getBytes(StandardCharsets.UTF_8));
+        dataObjectDao.createByPath(path, dObj);
+    }
+
+    private void updateDataObject(String path, String color) throws Exception
+    {
+        DataObject update = new DataObject();
+        update.setMetadata("color", color);
+        dataObjectDao.updateByPath(path, update);
+    }
+
+    private FileTime modified(String path) throws IOException
+    {
+        return Files.getLastModifiedTime(metadataFile(path).toPath());
+    }
+
+    /**
+     * Set the time of the fields back, so that only the DAOs can tell the cache that the
+     * fields have changed.
+     */
+    private void restore(String path, FileTime stamp) throws IOException
+    {
+        Files.setLastModifiedTime(metadataFile(path).toPath(), stamp);
+    }
+
+    private File metadataFile(String path)
+    {
+        return layout.metadataFile(new File(base, path));
+    }
+
+    private static String color(Container container)
+    {
+        return container.getMetadata().get("color");
+    }
+
+    private static String color(DataObject dObj)
+    {
+        return dObj.getMetadata().get("color");
+    }
+
+    private static void delete(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2016, Deutsches Elektronen-Synchrotron (DESY)
+ * Copyright (c) 2016, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.snia.cdmiserver.model.Container;
+import org.snia.cdmiserver.model.DataObject;
+import org.snia.cdmiserver.util.BinaryJson;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that trees holding both JSON and binary fields can be read, and
+ * converted from one encoding to the other.
+ */
+public class MetadataConversionTest
+{
+    private static final int OBJECTS = 6;
+
+    private File base;
+    private SidecarMetadataStore metadataStore;
+    private ContainerDaoImpl containerDao;
+    private DataObjectDaoImpl dataObjectDao;
+
+    @Before
+    public void setup() throws IOException
+    {
+        base = Files.createTempDirectory("cdmi").toFile();
+        metadataStore = new SidecarMetadataStore();
+        metadataStore.setLayout(new FlatLayout());
+    }
+
+    @After
+    public void tearDown()
+    {
+        delete(base);
+    }
+
+    @Test
+    public void shouldReadMixedFields() throws Exception
+    {
+        createMixedTree();
+
+        assertEquals(OBJECTS / 2 + 1, count(base, false));
+        assertEquals(OBJECTS / 2, count(base, true));
+        for (boolean binary : new boolean[] { true, false }) {
+            open(binary);
+            assertTree();
+        }
+    }
+
+    @Test
+    public void shouldConvertBetweenEncodings() throws Exception
+    {
+        createMixedTree();
+        FlatLayout layout = new FlatLayout();
+
+        assertEquals(OBJECTS / 2 + 1,
+                new MetadataConversion(metadataStore, layout, true).convert(base));
+        assertEquals(0, count(base, false));
+        assertEquals(0, new MetadataConversion(metadataStore, layout, true).convert(base));
+        open(false);
+        assertTree();
+
+        assertEquals(OBJECTS + 1,
+                new MetadataConversion(metadataStore, layout, false).convert(base));
+        assertEquals(0, count(base, true));
+        open(true);
+        assertTree();
+    }
+
+    /**
+     * Create a container and data objects whose fields alternate between
+     * JSON text and binary.
+     */
+    private void createMixedTree() throws Exception
+    {
+        open(false);
+        Container container = new Container();
+        container.getMetadata().put("colour", "blue");
+        containerDao.createByPath("Mixed", container);
+        for (int i = 0; i < OBJECTS; i++) {
+            open(i % 2 == 1);
+            DataObject dObj = new DataObject();
+            dObj.setMimetype("text/plain");
+            dObj.setMetadata("index", String.valueOf(i));
+            dObj.setValue(("value " + i).getBytes(StandardCharsets.UTF_8));
+            dataObjectDao.createByPath("Mixed/object-" + i, dObj);
+        }
+    }
+
+    private void assertTree()
+    {
+        Container container = containerDao.findByPath("Mixed");
+        assertEquals("blue", container.getMetadata().get("colour"));
+        assertEquals(OBJECTS, container.getChildren().size());
+        for (int i = 0; i < OBJECTS; i++) {
+            DataObject dObj = dataObjectDao.findByPath("Mixed/object-" + i);
+            assertEquals("text/plain", dObj.getMimetype());
+            assertEquals(String.valueOf(i), dObj.getMetadata().get("index"));
+            assertEquals("value " + i, new String(dObj.getValue(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private void open(boolean binary)
+    {
+        FlatLayout layout = new FlatLayout();
+        containerDao = new ContainerDaoImpl();
+        containerDao.setBaseDirectoryName(base.getPath());
+        containerDao.setLayout(layout);
+        containerDao.setMetadataStore(metadataStore);
+        containerDao.setBinaryMetadata(binary);
+        dataObjectDao = new DataObjectDaoImpl();
+        dataObjectDao.setBaseDirectoryName(base.getPath());
+        dataObjectDao.setLayout(layout);
+        dataObjectDao.setMetadataStore(metadataStore);
+        dataObjectDao.setBinaryMetadata(binary);
+    }
+
+    /**
+     * Count the "." files of the tree that hold fields in the given
+     * encoding.
+     */
+    private static long count(File directory, boolean binary) throws IOException
+    {
+        long count = 0;
+        for (File file : directory.listFiles()) {
+            if (file.isDirectory()) {
+                count += count(file, binary);
+            } else if (file.getName().startsWith(".") && !file.getName().startsWith(".cdmi")) {
+                byte[] fields = Files.readAllBytes(file.toPath());
+                assertFalse(fields.length == 0);
+                if (BinaryJson.isBinary(fields) == binary) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static void delete(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2016, Deutsches Elektronen-Synchrotron (DESY)
+ * Copyright (c) 2016, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.snia.cdmiserver.model.MetadataQuery;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the answers of the metadata index and that they follow moves and survive a restart.
+ */
+public class MetadataIndexTest
+{
+    private File base;
+    private MetadataIndex index;
+
+    @Before
+    public void setup() throws IOException
+    {
+        base = Files.createTempDirectory("cdmi").toFile();
+        index = new MetadataIndex();
+        index.setBaseDirectoryName(base.getPath());
+        index.put("A", "a", metadata("project", "x"), true);
+        index.put("B", "b", metadata("project", "y"), true);
+        for (int i = 0; i < 20; i++) {
+            Map<String, String> metadata = metadata("project", i % 2 == 0 ? "x" : "y");
+            metadata.put("size", Integer.toString(i));
+            metadata.put("owner", i < 5 ? "jane" : "bob");
+            index.put("o" + i, (i < 10 ? "a/o" : "b/o") + i, metadata, false);
+        }
+    }
+
+    @After
+    public void tearDown()
+    {
+        index.close();
+        delete(base);
+    }
+
+    @Test
+    public void shouldMatchEqualValues() throws Exception
+    {
+        assertEquals(Arrays.asList("/a/", "/a/o0", "/a/o2", "/a/o4", "/a/o6", "/a/o8",
+                "/b/o10", "/b/o12", "/b/o14", "/b/o16", "/b/o18"),
+                find("/", "{\"metadata\":{\"project\":\"x\"}}"));
+    }
+
+    @Test
+    public void shouldMatchPrefixes() throws Exception
+    {
+        assertEquals(Arrays.asList("/a/o0", "/a/o1", "/a/o2", "/a/o3", "/a/o4"),
+                find("/", "{\"metadata\":{\"owner\":\"starts ja\"}}"));
+    }
+
+    @Test
+    public void shouldCompareNumbersAsNumbers() throws Exception
+    {
+        // as strings, "9" would sort after "12"
+        assertEquals(Arrays.asList("/a/o9", "/b/o10", "/b/o11"),
+                find("/", "{\"metadata\":{\"size\":[\">= 9\",\"< 12\"]}}"));
+    }
+
+    @Test
+    public void shouldOnlyMatchWithinScope() throws Exception
+    {
+        assertEquals(Arrays.asList("/b/", "/b/o11", "/b/o13", "/b/o15", "/b/o17", "/b/o19"),
+                find("/b/", "{\"metadata\":{\"project\":\"y\"}}"));
+        assertEquals(Arrays.asList("/b/o19"), find("/b/o19", "{\"metadata\":{\"size\":\"19\"}}"));
+        assertEquals(Collections.<String> emptyList(),
+                find("/b/", "{\"metadata\":{\"owner\":\"jane\"}}"));
+    }
+
+    @Test
+    public void shouldStopAtLimit() throws Exception
+    {
+        assertEquals(Arrays.asList("/a/o5", "/a/o7", "/a/o9"),
+                find("/", "{\"metadata\":{\"owner\":\"bob\",\"project\":\"y\"},\"limit\":3}"));
+    }
+
+    @Test
+    public void shouldFollowMoves() throws Exception
+    {
+        index.moveTree("/a/", "/b/c");
+
+        assertEquals(Arrays.asList("/b/c/", "/b/c/o0", "/b/c/o2"),
+                find("/b/", "{\"metadata\":{\"project\":\"x\"},\"limit\":3}"));
+        assertEquals(Collections.<String> emptyList(),
+                find("/a/", "{\"metadata\":{\"project\":\"x\"}}"));
+    }
+
+    @Test
+    public void shouldReplaceObjectAtSamePath() throws Exception
+    {
+        index.put("new", "a/o0", metadata("project", "z"), false);
+
+        assertEquals(Arrays.asList("/a/o0"), find("/", "{\"metadata\":{\"project\":\"z\"}}"));
+        assertEquals(Arrays.asList("/a/", "/a/o2"),
+                find("/a/", "{\"metadata\":{\"project\":\"x\"},\"limit\":2}"));
+    }
+
+    @Test
+    public void shouldReloadSnapshot() throws Exception
+    {
+        index.close();
+        index = new MetadataIndex();
+        index.setBaseDirectoryName(base.getPath());
+
+        assertEquals(22, index.size());
+        assertEquals(Arrays.asList("/b/o15", "/b/o17"),
+                find("/b", "{\"metadata\":{\"size\":\"> 13\",\"project\":\"y\"},\"limit\":2}"));
+    }
+
+    private List<String> find(String path, String json) throws IOException
+    {
+        MetadataQuery query = new MetadataQuery();
+        query.fromJson(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+        return index.findByMetadata(path, query);
+    }
+
+    private static Map<String, String> metadata(String key, String value)
+    {
+        Map<String, String> metadata = new HashMap<String, String>();
+        metadata.put(key, value);
+        return metadata;
+    }
+
+    private static void delete(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2016, Deutsches Elektronen-Synchrotron (DESY)
+ * Copyright (c) 2016, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.filesystem;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that queue values survive reopening, and that a damaged tail is discarded.
+ */
+public class QueueLogTest
+{
+    private static final long SEGMENT_SIZE = 4096;
+
+    // header and "text/plain", followed by the value
+    private static final int RECORD_OVERHEAD = 10 + 10;
+
+    private File base;
+    private File directory;
+
+    @Before
+    public void setup() throws IOException
+    {
+        base = Files.createTempDirectory("cdmi").toFile();
+        directory = new File(base, "queue");
+        assertTrue(directory.mkdir());
+    }
+
+    @After
+    public void tearDown()
+    {
+        delete(base);
+    }
+
+    @Test
+    public void shouldKeepValuesWhenReopened() throws Exception
+    {
+        QueueLog log = QueueLog.create(directory, SEGMENT_SIZE, null);
+        append(log, "one", "two", "three");
+        assertEquals(1, log.acknowledge(1));
+        log.close();
+
+        log = QueueLog.open(directory, SEGMENT_SIZE, null);
+        assertEquals(1, log.getHead());
+        assertEquals(3, log.getTail());
+        assertEquals(Arrays.asList("two", "three"), values(log.peek(10)));
+        assertEquals(Arrays.asList("three"), values(log.read(2, 2)));
+        log.close();
+    }
+
+    @Test
+    public void shouldDiscardRecordTruncatedMidway() throws Exception
+    {
+        QueueLog log = QueueLog.create(directory, SEGMENT_SIZE, null);
+        append(log, "one", "two", "three");
+        log.close();
+
+        // as if the system crashed while the third value was being written
+        try (RandomAccessFile segment = new RandomAccessFile(segmentFile(0), "rw")) {
+            segment.setLength(recordSize("one") + recordSize("two") + 12);
+        }
+
+        log = QueueLog.open(directory, SEGMENT_SIZE, null);
+        assertEquals(2, log.getTail());
+        assertEquals(Arrays.asList("one", "two"), values(log.peek(10)));
+
+        // the torn value's sequence number is given to the next one
+        append(log, "four");
+        log.close();
+        log = QueueLog.open(directory, SEGMENT_SIZE, null);
+        assertEquals(3, log.getTail());
+        assertEquals(Arrays.asList("one", "two", "four"), values(log.peek(10)));
+        log.close();
+    }
+
+    @Test
+    public void shouldDiscardRecordFailingCrc() throws Exception
+    {
+        QueueLog log = QueueLog.create(directory, SEGMENT_SIZE, null);
+        append(log, "one", "two", "three");
+        log.close();
+
+        // damage the last byte of the third value
+        try (RandomAccessFile segment = new RandomAccessFile(segmentFile(0), "rw")) {
+            segment.seek(recordSize("one") + recordSize("two") + recordSize("three") - 1);
+            segment.write('x');
+        }
+
+        log = QueueLog.open(directory, SEGMENT_SIZE, null);
+        assertEquals(Arrays.asList("one", "two"), values(log.peek(10)));
+        append(log, "four", "five");
+        log.close();
+        log = QueueLog.open(directory, SEGMENT_SIZE, null);
+        assertEquals(Arrays.asList("one", "two", "four", "five"), values(log.peek(10)));
+        log.close();
+    }
+
+    @Test
+    public void shouldCopyUnacknowledgedValues() throws Exception
+    {
+        QueueLog log = QueueLog.create(directory, SEGMENT_SIZE, null);
+        append(log, "one", "two", "three");
+        log.acknowledge(1);
+        File copyDirectory = new File(base, "copy");
+        assertTrue(copyDirectory.mkdir());
+
+        QueueLog.copy(directory, copyDirectory, null);
+        log.acknowledge(1);
+        log.close();
+
+        QueueLog copy = QueueLog.open(copyDirectory, SEGMENT_SIZE, null);
+        assertEquals(Arrays.asList("two", "three"), values(copy.peek(10)));
+        copy.close();
+    }
+
+    private File segmentFile(long first)
+    {
+        return new File(directory, String.format("%s%020d", QueueLog.SEGMENT_PREFIX, first));
+    }
+
+    private static int recordSize(String value)
+    {
+        return RECORD_OVERHEAD + value.length();
+    }
+
+    private static void append(QueueLog log, String... values) throws IOException
+    {
+        List<byte[]> bytes = new ArrayList<byte[]>();
+        for (String value : values) {
+            bytes.add(value.getBytes(StandardCharsets.UTF_8));
+        }
+        log.append(bytes, Collections.nCopies(values.length, "text/plain"));
+    }
+
+    private static List<String> values(List<QueueLog.Record> records)
+    {
+        List<String> values = new ArrayList<String>();
+        for (QueueLog.Record record : records) {
+            values.add(new String(record.getValue(), StandardCharsets.UTF_8));
+        }
+        return values;
+    }
+
+    private static void delete(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2016, Deutsches Elektronen-Synchrotron (DESY)
+ * Copyright (c) 2016, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.memory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that freed blocks are reused before new slabs are allocated, and that the capacity is
+ * never exceeded.
+ */
+public class SlabAllocatorTest
+{
+    private static final int BLOCK_SIZE = 16;
+    private static final int SLAB_SIZE = 64;
+
+    private SlabAllocator allocator;
+
+    @Before
+    public void setup()
+    {
+        allocator = new SlabAllocator();
+        allocator.setBlockSize(BLOCK_SIZE);
+        allocator.setSlabSize(SLAB_SIZE);
+        allocator.setCapacity(2 * SLAB_SIZE);
+    }
+
+    @Test
+    public void shouldAllocateSlabsOnDemand()
+    {
+        int[] blocks = new int[5];
+        allocator.allocate(blocks, 0, 3);
+        assertEquals(SLAB_SIZE, allocator.getAllocatedBytes());
+        assertEquals(3 * BLOCK_SIZE, allocator.getUsedBytes());
+
+        allocator.allocate(blocks, 3, 5);
+        assertEquals(2 * SLAB_SIZE, allocator.getAllocatedBytes());
+        assertEquals(5 * BLOCK_SIZE, allocator.getUsedBytes());
+        assertArrayEquals(new int[] { 0, 1, 2, 3, 4 }, blocks);
+    }
+
+    @Test
+    public void shouldReuseFreedBlocks()
+    {
+        int[] blocks = new int[4];
+        allocator.allocate(blocks, 0, 4);
+        allocator.release(blocks, 1, 3);
+        assertEquals(2 * BLOCK_SIZE, allocator.getUsedBytes());
+
+        int[] reused = new int[3];
+        allocator.allocate(reused, 0, 3);
+
+        // the two freed blocks first, then a new one from the same slab
+        int[] sorted = reused.clone();
+        Arrays.sort(sorted);
+        assertArrayEquals(new int[] { 1, 2, 4 }, sorted);
+        assertEquals(2 * SLAB_SIZE, allocator.getAllocatedBytes());
+        assertEquals(5 * BLOCK_SIZE, allocator.getUsedBytes());
+    }
+
+    @Test
+    public void shouldKeepBlocksApart()
+    {
+        int[] blocks = new int[2];
+        allocator.allocate(blocks, 0, 2);
+        allocator.buffer(blocks[0], 0, BLOCK_SIZE).put(filled((byte) 1, BLOCK_SIZE));
+        allocator.buffer(blocks[1], 0, BLOCK_SIZE).put(filled((byte) 2, BLOCK_SIZE));
+
+        ByteBuffer first = allocator.buffer(blocks[0], 4, 8);
+        assertEquals(8, first.remaining());
+        byte[] bytes = new byte[8];
+        first.get(bytes);
+        assertArrayEquals(filled((byte) 1, 8), bytes);
+        allocator.buffer(blocks[1], 0, BLOCK_SIZE).get(bytes);
+        assertArrayEquals(filled((byte) 2, 8), bytes);
+    }
+
+    @Test
+    public void shouldRejectAllocationBeyondCapacity()
+    {
+        int[] blocks = new int[8];
+        allocator.allocate(blocks, 0, 8);
+        assertEquals(2 * SLAB_SIZE, allocator.getUsedBytes());
+
+        try {
+            allocator.allocate(new int[1], 0, 1);
+            fail("allocated beyond the capacity");
+        } catch (IllegalArgumentException expected) {
+            // full
+        }
+        assertEquals(2 * SLAB_SIZE, allocator.getAllocatedBytes());
+        assertEquals(2 * SLAB_SIZE, allocator.getUsedBytes());
+    }
+
+    @Test
+    public void shouldReturnReusedBlocksOfFailedAllocation()
+    {
+        int[] blocks = new int[8];
+        allocator.allocate(blocks, 0, 8);
+        allocator.release(blocks, 0, 1);
+
+        try {
+            // one freed block is not enough, and there is no room for another slab
+            allocator.allocate(new int[2], 0, 2);
+            fail("allocated beyond the capacity");
+        } catch (IllegalArgumentException expected) {
+            // full
+        }
+        assertEquals(7 * BLOCK_SIZE, allocator.getUsedBytes());
+
+        int[] reused = new int[1];
+        allocator.allocate(reused, 0, 1);
+        assertEquals(blocks[0], reused[0]);
+        assertEquals(2 * SLAB_SIZE, allocator.getUsedBytes());
+    }
+
+    private static byte[] filled(byte value, int length)
+    {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, value);
+        return bytes;
+    }
+}
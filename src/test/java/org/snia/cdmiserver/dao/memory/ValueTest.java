@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2016, Deutsches Elektronen-Synchrotron (DESY)
+ * Copyright (c) 2016, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.dao.memory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.snia.cdmiserver.exception.BadRequestException;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that values keep their blocks while they are being read, and how ranges are written.
+ */
+public class ValueTest
+{
+    private static final int BLOCK_SIZE = 16;
+
+    private SlabAllocator allocator;
+
+    @Before
+    public void setup()
+    {
+        allocator = new SlabAllocator();
+        allocator.setBlockSize(BLOCK_SIZE);
+        allocator.setSlabSize(1024);
+        allocator.setCapacity(4096);
+    }
+
+    @Test
+    public void shouldStoreValueInBlocks()
+    {
+        byte[] bytes = bytes("a value spanning three blocks");
+        Value value = Value.of(allocator, bytes);
+
+        assertEquals(bytes.length, value.size());
+        assertArrayEquals(bytes, value.toByteArray());
+        assertEquals(2 * BLOCK_SIZE, allocator.getUsedBytes());
+
+        value.release();
+        assertEquals(0, allocator.getUsedBytes());
+    }
+
+    @Test
+    public void shouldKeepBlocksOfValueReplacedWhileRead() throws Exception
+    {
+        byte[] bytes = bytes("the old value of the data object");
+        Value value = Value.of(allocator, bytes);
+        SeekableByteChannel channel = value.open();
+        ByteBuffer start = ByteBuffer.allocate(4);
+        assertEquals(4, channel.read(start));
+
+        // what replacing the value of the data object does
+        value.release();
+        Value replacement = Value.of(allocator, filled((byte) 'x', bytes.length));
+        assertEquals(4 * BLOCK_SIZE, allocator.getUsedBytes());
+
+        ByteBuffer rest = ByteBuffer.allocate(bytes.length);
+        while (channel.read(rest) > 0) {
+            // read the rest
+        }
+        assertArrayEquals(Arrays.copyOfRange(bytes, 4, bytes.length),
+                Arrays.copyOf(rest.array(), rest.position()));
+
+        channel.close();
+        assertEquals(2 * BLOCK_SIZE, allocator.getUsedBytes());
+        assertNull(value.open());
+        assertFalse(value.retain());
+        // closing again does not release the blocks twice
+        channel.close();
+        assertEquals(2 * BLOCK_SIZE, allocator.getUsedBytes());
+        replacement.release();
+    }
+
+    @Test
+    public void shouldFillGapWithZeros() throws Exception
+    {
+        // leave used blocks behind, so that reused blocks are not zero
+        Value.of(allocator, filled((byte) 0xff, 4 * BLOCK_SIZE)).release();
+        Value value = Value.of(allocator, bytes("abc"));
+
+        value.write(40, 3, new ByteArrayInputStream(bytes("xyz")));
+
+        byte[] expected = new byte[43];
+        System.arraycopy(bytes("abc"), 0, expected, 0, 3);
+        System.arraycopy(bytes("xyz"), 0, expected, 40, 3);
+        assertEquals(43, value.size());
+        assertArrayEquals(expected, value.toByteArray());
+        assertEquals(3 * BLOCK_SIZE, allocator.getUsedBytes());
+    }
+
+    @Test
+    public void shouldOverwriteRangeInPlace() throws Exception
+    {
+        Value value = Value.of(allocator, bytes("abcdefghijklmnopqrstuvwxyz"));
+
+        value.write(14, 4, new ByteArrayInputStream(bytes("OPQR")));
+
+        assertEquals(26, value.size());
+        assertArrayEquals(bytes("abcdefghijklmnOPQRstuvwxyz"), value.toByteArray());
+    }
+
+    @Test
+    public void shouldKeepWrittenBytesOfShortRange() throws Exception
+    {
+        Value value = Value.of(allocator, bytes("abc"));
+
+        try {
+            value.write(3, 5, new ByteArrayInputStream(bytes("de")));
+            fail("wrote a short range");
+        } catch (BadRequestException expected) {
+            // two of five bytes
+        }
+        assertArrayEquals(bytes("abcde"), value.toByteArray());
+    }
+
+    private static byte[] bytes(String value)
+    {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] filled(byte value, int length)
+    {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, value);
+        return bytes;
+    }
+}
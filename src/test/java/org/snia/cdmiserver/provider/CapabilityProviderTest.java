@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2016, Deutsches Elektronen-Synchrotron (DESY)
+ * Copyright (c) 2016, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.provider;
+
+import org.junit.Test;
+import org.snia.cdmiserver.model.Capability;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that capability request bodies are read with Jackson and that
+ * unreadable ones are answered with 400 and a plain text message.
+ *
+ * No resource accepts a capability body, so the provider is called
+ * directly rather than through the server.
+ */
+public class CapabilityProviderTest
+{
+    private final CapabilityProvider provider = new CapabilityProvider();
+
+    @Test
+    public void shouldReadCapability() throws IOException
+    {
+        Capability capability = read("{ \"objectID\" : \"0000\", "
+                + "\"capabilities\" : { \"cdmi_list_children\" : \"true\" }, "
+                + "\"children\" : [ \"default\" ] }");
+
+        assertEquals("0000", capability.getObjectID());
+        assertEquals("true", capability.getMetadata().get("cdmi_list_children"));
+        assertEquals("[default]", capability.getChildren().toString());
+    }
+
+    @Test
+    public void shouldRejectMalformedCapability() throws IOException
+    {
+        assertBadRequest("{ \"capabilities\" : { \"cdmi_list_children\" : ");
+    }
+
+    @Test
+    public void shouldRejectCapabilityThatIsNotAnObject() throws IOException
+    {
+        assertBadRequest("[ \"cdmi_list_children\" ]");
+        assertBadRequest("\"cdmi_list_children\"");
+    }
+
+    @Test
+    public void shouldRejectNestedCapabilityValue() throws IOException
+    {
+        assertBadRequest("{ \"capabilities\" : { \"cdmi_list_children\" : [ ] } }");
+    }
+
+    private void assertBadRequest(String body) throws IOException
+    {
+        try {
+            read(body);
+            fail("Accepted " + body);
+        } catch (WebApplicationException ex) {
+            Response response = ex.getResponse();
+            assertEquals(400, response.getStatus());
+            assertEquals("text/plain",
+                    String.valueOf(response.getMetadata().getFirst("Content-Type")));
+        }
+    }
+
+    private Capability read(String body) throws IOException
+    {
+        return provider.readFrom(Capability.class, Capability.class, null,
+                new MediaType("application", "cdmi-capability"), null,
+                new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    }
+}
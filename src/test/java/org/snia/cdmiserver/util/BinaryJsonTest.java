@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2016, Deutsches Elektronen-Synchrotron (DESY)
+ * Copyright (c) 2016, The Storage Networking Industry Association.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of The Storage Networking Industry Association (SNIA) nor
+ * the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ *  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ *  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ *  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ *  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ *  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ *  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ *  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ *  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ *  THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.snia.cdmiserver.util;
+
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the binary encoding of persisted fields reads back as the
+ * JSON text it was made from.
+ */
+public class BinaryJsonTest
+{
+    private static final String FIELDS = "{\"objectType\":\"application/cdmi-object\","
+            + "\"objectID\":\"00007ED900104E1D\",\"mimetype\":\"text/plain\","
+            + "\"metadata\":{\"cdmi_size\":\"14\",\"cdmi_acount\":\"0\","
+            + "\"colour\":\"bl\u00e4u \u2603\",\"empty\":\"\"},"
+            + "\"exports\":{},\"children\":[\"a.txt\",\"b/\"],\"nested\":[[],[{}]],"
+            + "\"int\":-42,\"big\":12345678901234567890,\"float\":1.5,"
+            + "\"yes\":true,\"no\":false,\"nothing\":null}";
+
+    @Test
+    public void shouldRoundTripJsonText() throws IOException
+    {
+        byte[] binary = BinaryJson.toBinary(bytes(FIELDS));
+
+        assertTrue(BinaryJson.isBinary(binary));
+        assertEquals(BinaryJson.VERSION, binary[1]);
+        assertEquals(FIELDS, text(BinaryJson.toJson(binary)));
+    }
+
+    @Test
+    public void shouldRoundTripLongStrings() throws IOException
+    {
+        char[] value = new char[70000];
+        Arrays.fill(value, 'x');
+        String fields = "{\"value\":\"" + new String(value) + "\"}";
+
+        assertEquals(fields, text(BinaryJson.toJson(BinaryJson.toBinary(bytes(fields)))));
+    }
+
+    @Test
+    public void shouldEncodeWhatContentWrites() throws IOException
+    {
+        byte[] binary = BinaryJson.toBinary(g -> {
+            g.writeStartObject();
+            g.writeStringField("objectType", "application/cdmi-container");
+            g.writeStringField("parentURI", "/");
+            g.writeEndObject();
+        });
+
+        assertEquals("{\"objectType\":\"application/cdmi-container\",\"parentURI\":\"/\"}",
+                text(BinaryJson.toJson(binary)));
+    }
+
+    @Test
+    public void shouldInternCommonNamesAndValues() throws IOException
+    {
+        String fields = "{\"objectType\":\"application/cdmi-object\",\"mimetype\":\"text/plain\","
+                + "\"completionStatus\":\"Complete\"}";
+
+        byte[] binary = BinaryJson.toBinary(bytes(fields));
+
+        // magic, version, start and end object and one byte per name and value
+        assertEquals(2 + 2 + 6, binary.length);
+    }
+
+    @Test
+    public void shouldPassEitherEncodingThrough() throws IOException
+    {
+        byte[] json = bytes(FIELDS);
+        byte[] binary = BinaryJson.toBinary(json);
+
+        assertFalse(BinaryJson.isBinary(json));
+        assertFalse(BinaryJson.isBinary(new byte[0]));
+        assertSame(json, BinaryJson.toJson(json));
+        assertSame(binary, BinaryJson.toBinary(binary));
+    }
+
+    @Test
+    public void shouldParseEitherEncoding() throws IOException
+    {
+        for (byte[] fields : new byte[][] { bytes(FIELDS), BinaryJson.toBinary(bytes(FIELDS)) }) {
+            JsonParser jp = BinaryJson.createParser(fields);
+            try {
+                assertEquals(JsonToken.START_OBJECT, jp.nextToken());
+                assertEquals(JsonToken.FIELD_NAME, jp.nextToken());
+                assertEquals("objectType", jp.getCurrentName());
+                assertEquals(JsonToken.VALUE_STRING, jp.nextToken());
+                assertEquals("application/cdmi-object", jp.getText());
+            } finally {
+                jp.close();
+            }
+        }
+    }
+
+    @Test
+    public void shouldRejectCorruptBinary() throws IOException
+    {
+        byte[] binary = BinaryJson.toBinary(bytes(FIELDS));
+
+        assertInvalid(new byte[] { BinaryJson.MAGIC });
+        assertInvalid(new byte[] { BinaryJson.MAGIC, BinaryJson.VERSION + 1, 0x01, 0x02 });
+        assertInvalid(new byte[] { BinaryJson.MAGIC, BinaryJson.VERSION, 0x3F });
+        assertInvalid(Arrays.copyOf(binary, binary.length / 2));
+    }
+
+    private static void assertInvalid(byte[] binary)
+    {
+        try {
+            BinaryJson.toJson(binary);
+            fail("Decoded " + Arrays.toString(binary));
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+
+    private static byte[] bytes(String text)
+    {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(byte[] bytes)
+    {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}